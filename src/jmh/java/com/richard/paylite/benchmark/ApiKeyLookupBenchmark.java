@@ -0,0 +1,66 @@
+package com.richard.paylite.benchmark;
+
+import com.richard.paylite.security.ApiKey;
+import com.richard.paylite.security.ApiKeyTable;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * API key authentication, which runs on every payments request: the {@link ApiKeyTable} lookup
+ * against the previous split-and-contains over the configured string. Run with {@code -prof gc};
+ * the table lookup should show no allocation per operation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ApiKeyLookupBenchmark {
+
+    @Param({"1", "100"})
+    private int keys;
+
+    private String configuredKeys;
+    private ApiKeyTable table;
+    private String presentedKey;
+
+    @Setup
+    public void setUp() {
+        List<String> plainKeys = new ArrayList<>();
+        List<ApiKey> apiKeys = new ArrayList<>();
+        for (int i = 0; i < keys; i++) {
+            String key = "pk_live_%032d".formatted(i);
+            plainKeys.add(key);
+            apiKeys.add(ApiKeyTable.plainKey(key, "merchant-" + i));
+        }
+        configuredKeys = String.join(",", plainKeys);
+        table = ApiKeyTable.of(apiKeys);
+        // The last configured key, the worst case for the linear scan
+        presentedKey = new String(plainKeys.get(keys - 1).toCharArray());
+    }
+
+    @Benchmark
+    public ApiKey tableLookup() {
+        return table.lookup(presentedKey);
+    }
+
+    @Benchmark
+    public boolean splitAndContains() {
+        return Arrays.asList(configuredKeys.split(",")).contains(presentedKey);
+    }
+}
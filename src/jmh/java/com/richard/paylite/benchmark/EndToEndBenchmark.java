@@ -0,0 +1,136 @@
+package com.richard.paylite.benchmark;
+
+import com.richard.paylite.PayLiteApplication;
+import com.richard.paylite.dto.BatchPaymentItem;
+import com.richard.paylite.dto.BatchPaymentResult;
+import com.richard.paylite.dto.CreatePaymentRequest;
+import com.richard.paylite.dto.IdempotentResponse;
+import com.richard.paylite.security.ApiKeyRegistry;
+import com.richard.paylite.service.PaymentService;
+import com.richard.paylite.service.WebhookService;
+import com.richard.paylite.util.SignatureUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@code createPayment} and {@code processWebhook} through the real Spring services, transactions
+ * and Flyway schema, against in-memory H2 (the {@code test} profile). Database timings are only
+ * indicative of MySQL, but changes to the code around the queries show up here.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EndToEndBenchmark {
+
+    private static final int WEBHOOKS_PER_ITERATION = 2000;
+
+    @State(Scope.Benchmark)
+    public static class Application {
+
+        ConfigurableApplicationContext context;
+        PaymentService paymentService;
+        WebhookService webhookService;
+        SignatureUtil signatureUtil;
+        CreatePaymentRequest request;
+        String replayKey;
+        long sequence;
+
+        @Setup(Level.Trial)
+        public void start() throws Exception {
+            context = new SpringApplicationBuilder(PayLiteApplication.class)
+                    .web(WebApplicationType.NONE)
+                    .profiles("test")
+                    // Arguments rather than default properties, so they override application.properties
+                    .run("--spring.jpa.show-sql=false", "--logging.level.root=WARN",
+                            "--spring.datasource.url=jdbc:h2:mem:paylite-jmh;DB_CLOSE_DELAY=-1;MODE=MySQL");
+            paymentService = context.getBean(PaymentService.class);
+            webhookService = context.getBean(WebhookService.class);
+            signatureUtil = context.getBean(SignatureUtil.class);
+            request = new CreatePaymentRequest(new BigDecimal("149.99"), "USD", "customer@example.com", "order-2025-000123");
+            replayKey = UUID.randomUUID().toString();
+            paymentService.createPayment(ApiKeyRegistry.DEFAULT_TENANT, replayKey, request);
+        }
+
+        @TearDown(Level.Trial)
+        public void stop() {
+            context.close();
+        }
+    }
+
+    /**
+     * Fresh pending payments with signed webhook payloads, created (outside the measurement) before
+     * every iteration so each measured delivery is a new event.
+     */
+    @State(Scope.Benchmark)
+    public static class PendingWebhooks {
+
+        final List<String> signatures = new ArrayList<>(WEBHOOKS_PER_ITERATION);
+        final List<byte[]> payloads = new ArrayList<>(WEBHOOKS_PER_ITERATION);
+        int next;
+
+        @Setup(Level.Iteration)
+        public void createPayments(Application application) throws Exception {
+            List<BatchPaymentItem> items = new ArrayList<>(WEBHOOKS_PER_ITERATION);
+            for (int i = 0; i < WEBHOOKS_PER_ITERATION; i++) {
+                items.add(new BatchPaymentItem(UUID.randomUUID().toString(), application.request));
+            }
+            signatures.clear();
+            payloads.clear();
+            next = 0;
+            for (BatchPaymentResult result : application.paymentService.createPayments(ApiKeyRegistry.DEFAULT_TENANT, items).results()) {
+                byte[] payload = ("{\"paymentId\":\"" + result.payment().paymentId() + "\",\"event\":\"payment.succeeded\"}")
+                        .getBytes(StandardCharsets.UTF_8);
+                payloads.add(payload);
+                signatures.add(application.signatureUtil.calculateHmacSha256(payload));
+            }
+        }
+    }
+
+    @Benchmark
+    public IdempotentResponse createPayment(Application application) throws Exception {
+        return application.paymentService.createPayment(ApiKeyRegistry.DEFAULT_TENANT, "jmh-" + application.sequence++, application.request);
+    }
+
+    @Benchmark
+    public IdempotentResponse createPaymentReplay(Application application) throws Exception {
+        return application.paymentService.createPayment(ApiKeyRegistry.DEFAULT_TENANT, application.replayKey, application.request);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 3, batchSize = WEBHOOKS_PER_ITERATION)
+    @Measurement(iterations = 5, batchSize = WEBHOOKS_PER_ITERATION)
+    public void processWebhook(Application application, PendingWebhooks webhooks) {
+        int i = webhooks.next++;
+        application.webhookService.processWebhook(webhooks.signatures.get(i), webhooks.payloads.get(i));
+    }
+
+    @Benchmark
+    public void processDuplicateWebhook(Application application, PendingWebhooks webhooks) {
+        // Only the first call applies the event; every later one is a redelivery of it
+        application.webhookService.processWebhook(webhooks.signatures.get(0), webhooks.payloads.get(0));
+    }
+}
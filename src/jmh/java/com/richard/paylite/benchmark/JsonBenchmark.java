@@ -0,0 +1,95 @@
+package com.richard.paylite.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.richard.paylite.config.AppConfig;
+import com.richard.paylite.dto.CreatePaymentRequest;
+import com.richard.paylite.dto.PaymentResponse;
+import com.richard.paylite.dto.WebhookRequest;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Jackson (de)serialization of the request and response DTOs with the application's
+ * {@link ObjectMapper}, through the same calls the controllers and services make.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JsonBenchmark {
+
+    private ObjectMapper objectMapper;
+    private ObjectReader createPaymentReader;
+    private ObjectWriter paymentResponseWriter;
+
+    private CreatePaymentRequest createPaymentRequest;
+    private byte[] createPaymentJson;
+    private PaymentResponse paymentResponse;
+    private String paymentResponseJson;
+    private byte[] webhookJson;
+
+    @Setup
+    public void setUp() throws Exception {
+        objectMapper = new AppConfig().objectMapper();
+        createPaymentReader = objectMapper.readerFor(CreatePaymentRequest.class);
+        paymentResponseWriter = objectMapper.writerFor(PaymentResponse.class);
+
+        createPaymentRequest = new CreatePaymentRequest(new BigDecimal("149.99"), "USD", "customer@example.com", "order-2025-000123");
+        createPaymentJson = objectMapper.writeValueAsBytes(createPaymentRequest);
+        paymentResponse = new PaymentResponse("pl_b620d63536284ca0be89982ecb73b5dd", "PENDING");
+        paymentResponseJson = objectMapper.writeValueAsString(paymentResponse);
+        webhookJson = "{\"paymentId\":\"pl_b620d63536284ca0be89982ecb73b5dd\",\"event\":\"payment.succeeded\"}"
+                .getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public CreatePaymentRequest readCreatePaymentRequest() throws Exception {
+        return objectMapper.readValue(createPaymentJson, CreatePaymentRequest.class);
+    }
+
+    @Benchmark
+    public CreatePaymentRequest readCreatePaymentRequestWithReader() throws Exception {
+        return createPaymentReader.readValue(createPaymentJson);
+    }
+
+    @Benchmark
+    public String writeCreatePaymentRequest() throws Exception {
+        return objectMapper.writeValueAsString(createPaymentRequest);
+    }
+
+    @Benchmark
+    public PaymentResponse readPaymentResponse() throws Exception {
+        return objectMapper.readValue(paymentResponseJson, PaymentResponse.class);
+    }
+
+    @Benchmark
+    public String writePaymentResponse() throws Exception {
+        return objectMapper.writeValueAsString(paymentResponse);
+    }
+
+    @Benchmark
+    public byte[] writePaymentResponseWithWriter() throws Exception {
+        return paymentResponseWriter.writeValueAsBytes(paymentResponse);
+    }
+
+    @Benchmark
+    public WebhookRequest readWebhookRequest() throws Exception {
+        return objectMapper.readValue(webhookJson, WebhookRequest.class);
+    }
+}
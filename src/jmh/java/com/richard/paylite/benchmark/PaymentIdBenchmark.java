@@ -0,0 +1,132 @@
+package com.richard.paylite.benchmark;
+
+import com.richard.paylite.util.PaymentIdGenerator;
+import com.richard.paylite.util.RandomPaymentIdGenerator;
+import com.richard.paylite.util.TimeOrderedPaymentIdGenerator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Payment id generation: the original random UUID ids against time-ordered ids.
+ * <p>
+ * {@code nextId} is the cost of one id (add {@code -prof gc} for allocation). {@code insertIntoIndex}
+ * also inserts each id into a model of the leaf level of the InnoDB {@code payment_id} index:
+ * pages of {@value #PAGE_KEYS} keys that split in half when full, except that appending past the
+ * last key of the rightmost page starts a new page, as InnoDB does for sequential inserts. After
+ * each iteration it prints how many pages the inserts touched and how full the pages are; fewer
+ * touched pages means a smaller working set in the buffer pool and fewer random writes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PaymentIdBenchmark {
+
+    private static final int PAGE_KEYS = 100;
+    private static final int EXISTING_ROWS = 200_000;
+    private static final int INSERTS_PER_ITERATION = 200_000;
+
+    @Param({"random", "time-ordered"})
+    public String generator;
+
+    private PaymentIdGenerator ids;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        ids = generator.equals("random") ? new RandomPaymentIdGenerator() : new TimeOrderedPaymentIdGenerator(1);
+    }
+
+    @Benchmark
+    public String nextId() {
+        return ids.nextId();
+    }
+
+    @State(Scope.Benchmark)
+    public static class IndexState {
+
+        LeafPages index;
+
+        @Setup(Level.Iteration)
+        public void fill(PaymentIdBenchmark benchmark) {
+            index = new LeafPages();
+            for (int i = 0; i < EXISTING_ROWS; i++) {
+                index.insert(benchmark.ids.nextId());
+            }
+            index.resetTouched();
+        }
+
+        @TearDown(Level.Iteration)
+        public void report(PaymentIdBenchmark benchmark) {
+            System.out.printf("%n%s ids: %d inserts touched %d of %d leaf pages, average fill %.0f%%%n",
+                    benchmark.generator, INSERTS_PER_ITERATION, index.touched.size(), index.pages.size(),
+                    100.0 * index.keys / ((long) index.pages.size() * PAGE_KEYS));
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 2, batchSize = INSERTS_PER_ITERATION)
+    @Measurement(iterations = 3, batchSize = INSERTS_PER_ITERATION)
+    public void insertIntoIndex(IndexState state) {
+        state.index.insert(ids.nextId());
+    }
+
+    /**
+     * Leaf pages keyed by their first key; each page holds its keys in order.
+     */
+    static final class LeafPages {
+
+        final TreeMap<String, List<String>> pages = new TreeMap<>();
+        final Set<List<String>> touched = Collections.newSetFromMap(new IdentityHashMap<>());
+        long keys;
+
+        LeafPages() {
+            pages.put("", new ArrayList<>(PAGE_KEYS));
+        }
+
+        void insert(String key) {
+            Map.Entry<String, List<String>> entry = pages.floorEntry(key);
+            List<String> page = entry.getValue();
+            int position = Collections.binarySearch(page, key);
+            page.add(-position - 1, key);
+            keys++;
+            touched.add(page);
+
+            if (page.size() > PAGE_KEYS) {
+                boolean appendToLastPage = entry.getKey().equals(pages.lastKey()) && -position - 1 == page.size() - 1;
+                int splitAt = appendToLastPage ? page.size() - 1 : page.size() / 2;
+                List<String> right = new ArrayList<>(page.subList(splitAt, page.size()));
+                page.subList(splitAt, page.size()).clear();
+                pages.put(right.get(0), right);
+                touched.add(right);
+            }
+        }
+
+        void resetTouched() {
+            touched.clear();
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package com.richard.paylite.benchmark;
+
+import com.richard.paylite.config.AppConfig;
+import com.richard.paylite.dto.CreatePaymentRequest;
+import com.richard.paylite.service.PaymentService;
+import com.richard.paylite.util.RequestHasher;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Idempotency request hashing, which runs on every create request before the cache or database is
+ * consulted: the canonical {@code RequestHasher} against the previous JSON-and-hex hash, which is
+ * now only computed for keys stored before the switch.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RequestHashBenchmark {
+
+    private MethodHandle legacyRequestHash;
+    private PaymentService paymentService;
+    private CreatePaymentRequest request;
+
+    @Setup
+    public void setUp() throws Exception {
+        paymentService = new PaymentService();
+        ReflectionTestUtils.setField(paymentService, "objectMapper", new AppConfig().objectMapper());
+        legacyRequestHash = MethodHandles.privateLookupIn(PaymentService.class, MethodHandles.lookup())
+                .findVirtual(PaymentService.class, "legacyRequestHash",
+                        MethodType.methodType(String.class, CreatePaymentRequest.class));
+        request = new CreatePaymentRequest(new BigDecimal("149.99"), "USD", "customer@example.com", "order-2025-000123");
+    }
+
+    @Benchmark
+    public byte[] canonicalHash() {
+        return RequestHasher.hash(request);
+    }
+
+    @Benchmark
+    public String legacyHash() throws Throwable {
+        return (String) legacyRequestHash.invoke(paymentService, request);
+    }
+}
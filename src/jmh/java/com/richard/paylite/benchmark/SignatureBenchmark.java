@@ -0,0 +1,94 @@
+package com.richard.paylite.benchmark;
+
+import com.richard.paylite.util.SignatureUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.util.Formatter;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Webhook signature verification. {@code legacyIsValidSignature} is the original implementation
+ * (fresh Mac and key per call, Formatter hex encoding, String comparison) kept as the baseline.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+public class SignatureBenchmark {
+
+    private static final String SECRET = "super-secret-webhook-key";
+
+    private SignatureUtil signatureUtil;
+    private SignatureUtil rotatingSignatureUtil;
+    private String payload;
+    private byte[] payloadBytes;
+    private String signature;
+    private String previousSecretSignature;
+
+    @Setup
+    public void setUp() {
+        signatureUtil = new SignatureUtil();
+        ReflectionTestUtils.setField(signatureUtil, "secret", SECRET);
+
+        SignatureUtil previousSigner = new SignatureUtil();
+        ReflectionTestUtils.setField(previousSigner, "secret", "previous-webhook-key");
+        rotatingSignatureUtil = new SignatureUtil();
+        ReflectionTestUtils.setField(rotatingSignatureUtil, "secret", SECRET);
+        ReflectionTestUtils.setField(rotatingSignatureUtil, "previousSecrets", List.of("previous-webhook-key"));
+
+        payload = "{\"paymentId\":\"pl_b620d63536284ca0be89982ecb73b5dd\",\"event\":\"payment.succeeded\","
+                + "\"eventId\":\"evt_01HZX4Q0V8J6T3K2M9N5P7R1S4\",\"createdAt\":\"2025-09-26T10:00:00Z\"}";
+        payloadBytes = payload.getBytes(StandardCharsets.UTF_8);
+        signature = signatureUtil.calculateHmacSha256(payloadBytes);
+        previousSecretSignature = previousSigner.calculateHmacSha256(payloadBytes);
+    }
+
+    @Benchmark
+    public boolean legacyIsValidSignature() throws Exception {
+        return legacyCalculateHmacSha256(payload).equals(signature);
+    }
+
+    @Benchmark
+    public boolean isValidSignature() {
+        return signatureUtil.isValidSignature(signature, payloadBytes);
+    }
+
+    @Benchmark
+    public boolean isValidSignatureWithPreviousSecret() {
+        return rotatingSignatureUtil.isValidSignature(previousSecretSignature, payloadBytes);
+    }
+
+    @Benchmark
+    public String calculateHmacSha256() {
+        return signatureUtil.calculateHmacSha256(payloadBytes);
+    }
+
+    private static String legacyCalculateHmacSha256(String payload) throws Exception {
+        Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(new SecretKeySpec(SECRET.getBytes(StandardCharsets.UTF_8), "HmacSHA256"));
+        byte[] hmac = mac.doFinal(payload.getBytes(StandardCharsets.UTF_8));
+        Formatter formatter = new Formatter();
+        for (byte b : hmac) {
+            formatter.format("%02x", b);
+        }
+        return formatter.toString();
+    }
+}
@@ -0,0 +1,127 @@
+package com.richard.paylite.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Platform thread pool versus virtual threads for the blocking request path. Each operation is a
+ * burst of {@code requests} concurrent requests; a request blocks on other I/O for
+ * {@code ioMillis} and then holds one of {@code poolSize} database connections (a fair semaphore,
+ * as in the admission gate) for {@code dbMillis}. The platform variant uses a 200-thread pool,
+ * matching Tomcat's default {@code server.tomcat.threads.max}.
+ * <p>
+ * The score is the time to drain a burst (throughput = requests / score). Per-request latency
+ * percentiles over the whole trial (warm-up included) are printed at tear-down.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ThreadModelBenchmark {
+
+    private static final int PLATFORM_THREADS = 200;
+
+    @Param({"platform", "virtual"})
+    public String threads;
+
+    @Param({"5000"})
+    public int requests;
+
+    @Param({"10", "50"})
+    public int poolSize;
+
+    @Param({"20"})
+    public long ioMillis;
+
+    @Param({"1"})
+    public long dbMillis;
+
+    private ExecutorService executor;
+    private Semaphore connections;
+    private final List<Long> latenciesNanos = new ArrayList<>();
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        executor = threads.equals("virtual")
+                ? Executors.newVirtualThreadPerTaskExecutor()
+                : Executors.newFixedThreadPool(PLATFORM_THREADS);
+        connections = new Semaphore(poolSize, true);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        executor.shutdownNow();
+        long[] sorted;
+        synchronized (latenciesNanos) {
+            sorted = latenciesNanos.stream().mapToLong(Long::longValue).toArray();
+        }
+        Arrays.sort(sorted);
+        System.out.printf("%n%s threads: %d requests, latency p50=%.1f ms p95=%.1f ms p99=%.1f ms max=%.1f ms%n",
+                threads, sorted.length, percentile(sorted, 0.50), percentile(sorted, 0.95),
+                percentile(sorted, 0.99), percentile(sorted, 1.0));
+    }
+
+    @Benchmark
+    public long burst() throws Exception {
+        long submitted = System.nanoTime();
+        List<Future<Long>> futures = new ArrayList<>(requests);
+        for (int i = 0; i < requests; i++) {
+            futures.add(executor.submit(() -> {
+                handleRequest();
+                // Measured from submission, so time spent queued for a platform thread counts
+                return System.nanoTime() - submitted;
+            }));
+        }
+        long total = 0;
+        List<Long> burstLatencies = new ArrayList<>(requests);
+        for (Future<Long> future : futures) {
+            long latency = future.get();
+            burstLatencies.add(latency);
+            total += latency;
+        }
+        synchronized (latenciesNanos) {
+            latenciesNanos.addAll(burstLatencies);
+        }
+        return total;
+    }
+
+    private void handleRequest() throws InterruptedException {
+        Thread.sleep(ioMillis);
+        connections.acquire();
+        try {
+            Thread.sleep(dbMillis);
+        } finally {
+            connections.release();
+        }
+    }
+
+    private static double percentile(long[] sorted, double quantile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.min(sorted.length - 1, Math.ceil(quantile * sorted.length) - 1);
+        return sorted[Math.max(0, index)] / 1_000_000.0;
+    }
+}
@@ -0,0 +1,188 @@
+package com.richard.paylite.loadtest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latencies and outcomes per operation over the measured part of a run.
+ * <p>
+ * Response time runs from when a request was scheduled to be sent until its response arrived, so
+ * time a request spent waiting behind a stalled server or a busy client counts against it
+ * (coordinated omission correction). Service time runs from when it was actually sent; a large gap
+ * between the two means the system could not keep up with the offered rate.
+ */
+final class LatencyReport {
+
+    static final String OK = "2xx";
+
+    private final Map<PayLiteTraffic.Operation, Stats> stats = new EnumMap<>(PayLiteTraffic.Operation.class);
+    private volatile int unfinished;
+
+    LatencyReport() {
+        for (PayLiteTraffic.Operation operation : PayLiteTraffic.Operation.values()) {
+            stats.put(operation, new Stats());
+        }
+    }
+
+    void record(PayLiteTraffic.Operation operation, long intendedNanos, long sentNanos, long completedNanos, String outcome) {
+        Stats s = stats.get(operation);
+        s.responseTimes.recordValue(Math.max(0, completedNanos - intendedNanos));
+        s.serviceTimes.recordValue(Math.max(0, completedNanos - sentNanos));
+        s.outcome(outcome);
+    }
+
+    /**
+     * A request that was never sent, e.g. because the client already had too many in flight.
+     */
+    void notSent(PayLiteTraffic.Operation operation, String outcome) {
+        stats.get(operation).outcome(outcome);
+    }
+
+    /**
+     * Requests still without a response when the run stopped waiting.
+     */
+    void unfinished(int count) {
+        unfinished = count;
+    }
+
+    static String outcome(int statusCode) {
+        return statusCode / 100 == 2 ? OK : Integer.toString(statusCode);
+    }
+
+    static String outcome(Throwable error) {
+        Throwable cause = error.getCause() != null ? error.getCause() : error;
+        return cause.getClass().getSimpleName();
+    }
+
+    /**
+     * Operations that broke the given limits, as readable messages; empty when the run passed.
+     */
+    List<String> violations(Duration sloP99, Double maxErrorRate) {
+        List<String> violations = new ArrayList<>();
+        if (unfinished > 0) {
+            violations.add(unfinished + " requests never answered");
+        }
+        stats.forEach((operation, s) -> {
+            long requests = s.requests();
+            if (requests == 0) {
+                return;
+            }
+            if (sloP99 != null && s.responseTimes.getValueAtPercentile(99) > sloP99.toNanos()) {
+                violations.add("%s p99 %s > %s".formatted(operation.label(), millis(s.responseTimes.getValueAtPercentile(99)), millis(sloP99.toNanos())));
+            }
+            double errorRate = (double) s.errors() / requests;
+            if (maxErrorRate != null && errorRate > maxErrorRate) {
+                violations.add("%s error rate %.4f > %.4f".formatted(operation.label(), errorRate, maxErrorRate));
+            }
+        });
+        return violations;
+    }
+
+    void print(PrintStream out, Duration measured) {
+        double seconds = measured.toNanos() / 1e9;
+        out.printf("%-8s %9s %8s %9s %10s %10s %10s %10s %12s%n",
+                "op", "requests", "errors", "rps", "p50 ms", "p99 ms", "p99.9 ms", "max ms", "svc p99 ms");
+        stats.forEach((operation, s) -> {
+            if (s.requests() == 0) {
+                return;
+            }
+            Histogram h = s.responseTimes;
+            out.printf("%-8s %9d %8d %9.1f %10s %10s %10s %10s %12s%n", operation.label(), s.requests(), s.errors(),
+                    s.requests() / seconds, millis(h.getValueAtPercentile(50)), millis(h.getValueAtPercentile(99)),
+                    millis(h.getValueAtPercentile(99.9)), millis(h.getMaxValue()), millis(s.serviceTimes.getValueAtPercentile(99)));
+        });
+        stats.forEach((operation, s) -> s.outcomes().forEach((outcome, count) -> {
+            if (!OK.equals(outcome)) {
+                out.printf("  %s %s: %d%n", operation.label(), outcome, count);
+            }
+        }));
+        if (unfinished > 0) {
+            out.printf("  %d requests never answered%n", unfinished);
+        }
+    }
+
+    void write(Path file, LoadTestOptions options) throws IOException {
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("rate", options.rate());
+        report.put("durationSeconds", options.duration().toNanos() / 1e9);
+        Map<String, Object> operations = new LinkedHashMap<>();
+        double seconds = options.duration().toNanos() / 1e9;
+        stats.forEach((operation, s) -> {
+            if (s.requests() == 0) {
+                return;
+            }
+            Map<String, Object> op = new LinkedHashMap<>();
+            op.put("requests", s.requests());
+            op.put("errors", s.errors());
+            op.put("throughput", s.requests() / seconds);
+            op.put("responseTimeMs", percentiles(s.responseTimes));
+            op.put("serviceTimeMs", percentiles(s.serviceTimes));
+            op.put("outcomes", s.outcomes());
+            operations.put(operation.label(), op);
+        });
+        report.put("operations", operations);
+        report.put("unfinished", unfinished);
+        if (file.getParent() != null) {
+            Files.createDirectories(file.getParent());
+        }
+        new ObjectMapper().writerWithDefaultPrettyPrinter().writeValue(file.toFile(), report);
+    }
+
+    private static Map<String, Double> percentiles(Histogram h) {
+        Map<String, Double> values = new LinkedHashMap<>();
+        values.put("p50", toMillis(h.getValueAtPercentile(50)));
+        values.put("p99", toMillis(h.getValueAtPercentile(99)));
+        values.put("p999", toMillis(h.getValueAtPercentile(99.9)));
+        values.put("max", toMillis(h.getMaxValue()));
+        return values;
+    }
+
+    private static double toMillis(long nanos) {
+        return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    private static String millis(long nanos) {
+        return "%.2f".formatted(toMillis(nanos));
+    }
+
+    private static final class Stats {
+        // Auto-resizing, three significant digits
+        private final Histogram responseTimes = new ConcurrentHistogram(3);
+        private final Histogram serviceTimes = new ConcurrentHistogram(3);
+        private final Map<String, LongAdder> outcomes = new ConcurrentHashMap<>();
+
+        void outcome(String outcome) {
+            outcomes.computeIfAbsent(outcome, o -> new LongAdder()).increment();
+        }
+
+        long requests() {
+            return outcomes.values().stream().mapToLong(LongAdder::sum).sum();
+        }
+
+        long errors() {
+            return requests() - outcomes().getOrDefault(OK, 0L);
+        }
+
+        Map<String, Long> outcomes() {
+            Map<String, Long> counts = new TreeMap<>();
+            outcomes.forEach((outcome, count) -> counts.put(outcome, count.sum()));
+            return counts;
+        }
+    }
+}
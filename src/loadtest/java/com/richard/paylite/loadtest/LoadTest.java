@@ -0,0 +1,86 @@
+package com.richard.paylite.loadtest;
+
+import com.richard.paylite.PayLiteApplication;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Open-model load test for the payment API. Without {@code --target} it starts PayLite in-process
+ * with the test profile on a private H2 database, so it needs no external services; the load
+ * generator then shares the machine with the server, which makes the numbers a regression signal
+ * rather than a capacity figure. See {@link LoadTestOptions} for the options.
+ * <p>
+ * Prints a table of latencies per operation, writes the same as JSON to {@code --report}, and exits
+ * with status 1 if {@code --slo-p99} or {@code --max-error-rate} was broken.
+ */
+public final class LoadTest {
+
+    private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(10);
+
+    private LoadTest() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        LoadTestOptions options = LoadTestOptions.parse(args);
+        ConfigurableApplicationContext embedded = null;
+        URI target = options.target();
+        if (target == null) {
+            embedded = startEmbedded();
+            int port = ((WebServerApplicationContext) embedded).getWebServer().getPort();
+            target = URI.create("http://localhost:" + port);
+            options = options.withCredentials(embedded.getEnvironment().getProperty("paylite.security.api-keys", "").split(",")[0],
+                    embedded.getEnvironment().getProperty("paylite.security.webhook-secret"));
+        }
+        if (options.apiKey() == null || options.webhookSecret() == null) {
+            throw new IllegalArgumentException("--api-key and --webhook-secret are required with --target");
+        }
+
+        List<String> violations;
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(2, Runtime.getRuntime().availableProcessors() / 2),
+                Thread.ofPlatform().name("loadtest-client-", 0).daemon().factory());
+        try (HttpClient client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .executor(executor)
+                .connectTimeout(REQUEST_TIMEOUT)
+                .build()) {
+            PayLiteTraffic traffic = new PayLiteTraffic(target, options.apiKey(), options.webhookSecret(), options.mix(), REQUEST_TIMEOUT);
+            LatencyReport report = new LatencyReport();
+            System.out.printf("Load test against %s: %.0f req/s, %s warmup, %s measured, mix %s%n",
+                    target, options.rate(), options.warmup(), options.duration(), options.mix());
+            new OpenLoopDriver(client, traffic, report, options.maxInFlight())
+                    .run(options.rate(), options.warmup(), options.duration(), REQUEST_TIMEOUT.multipliedBy(2));
+
+            report.print(System.out, options.duration());
+            report.write(options.report(), options);
+            System.out.println("Report written to " + options.report().toAbsolutePath());
+            violations = report.violations(options.sloP99(), options.maxErrorRate());
+        } finally {
+            executor.shutdownNow();
+            if (embedded != null) {
+                embedded.close();
+            }
+        }
+
+        if (!violations.isEmpty()) {
+            violations.forEach(v -> System.out.println("FAILED: " + v));
+            System.exit(1);
+        }
+    }
+
+    private static ConfigurableApplicationContext startEmbedded() {
+        return new SpringApplicationBuilder(PayLiteApplication.class)
+                .profiles("test")
+                .run("--server.port=0",
+                        "--spring.jpa.show-sql=false",
+                        "--logging.level.root=WARN",
+                        "--spring.datasource.url=jdbc:h2:mem:paylite-loadtest;DB_CLOSE_DELAY=-1;MODE=MySQL");
+    }
+}
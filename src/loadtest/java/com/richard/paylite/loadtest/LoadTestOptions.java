@@ -0,0 +1,89 @@
+package com.richard.paylite.loadtest;
+
+import org.springframework.boot.convert.DurationStyle;
+
+import java.net.URI;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Command line options, all given as {@code --name=value}:
+ * <ul>
+ *   <li>{@code target}: base URL of a running instance; without it an embedded instance on H2 is started.</li>
+ *   <li>{@code rate}: requests per second, issued on a fixed schedule whatever the response times (default 100).</li>
+ *   <li>{@code warmup}, {@code duration}: unmeasured lead-in and measured run (default 15s and 30s).</li>
+ *   <li>{@code mix}: relative weights of the operations (default {@code create=30,retry=10,get=45,webhook=15}).</li>
+ *   <li>{@code api-key}, {@code webhook-secret}: credentials; the embedded instance's are used by default.</li>
+ *   <li>{@code max-in-flight}: requests outstanding before new ones are counted as {@code client-saturated} (default 10000).</li>
+ *   <li>{@code slo-p99}, {@code max-error-rate}: when given, the run fails if any operation exceeds them.</li>
+ *   <li>{@code report}: where the JSON report is written.</li>
+ * </ul>
+ */
+record LoadTestOptions(URI target, double rate, Duration warmup, Duration duration, Map<PayLiteTraffic.Operation, Integer> mix,
+                       String apiKey, String webhookSecret, int maxInFlight, Duration sloP99, Double maxErrorRate, Path report) {
+
+    static LoadTestOptions parse(String[] args) {
+        URI target = null;
+        double rate = 100;
+        Duration warmup = Duration.ofSeconds(15);
+        Duration duration = Duration.ofSeconds(30);
+        Map<PayLiteTraffic.Operation, Integer> mix = parseMix("create=30,retry=10,get=45,webhook=15");
+        String apiKey = null;
+        String webhookSecret = null;
+        int maxInFlight = 10_000;
+        Duration sloP99 = null;
+        Double maxErrorRate = null;
+        Path report = Path.of("target", "loadtest-result.json");
+
+        for (String arg : args) {
+            if (arg.isBlank()) {
+                continue;
+            }
+            int equals = arg.indexOf('=');
+            if (!arg.startsWith("--") || equals < 0) {
+                throw new IllegalArgumentException("Expected --name=value: " + arg);
+            }
+            String value = arg.substring(equals + 1);
+            switch (arg.substring(2, equals)) {
+                case "target" -> target = URI.create(value.endsWith("/") ? value.substring(0, value.length() - 1) : value);
+                case "rate" -> rate = Double.parseDouble(value);
+                case "warmup" -> warmup = DurationStyle.detectAndParse(value);
+                case "duration" -> duration = DurationStyle.detectAndParse(value);
+                case "mix" -> mix = parseMix(value);
+                case "api-key" -> apiKey = value;
+                case "webhook-secret" -> webhookSecret = value;
+                case "max-in-flight" -> maxInFlight = Integer.parseInt(value);
+                case "slo-p99" -> sloP99 = DurationStyle.detectAndParse(value);
+                case "max-error-rate" -> maxErrorRate = Double.parseDouble(value);
+                case "report" -> report = Path.of(value);
+                default -> throw new IllegalArgumentException("Unknown option: " + arg);
+            }
+        }
+        if (rate <= 0) {
+            throw new IllegalArgumentException("rate must be positive");
+        }
+        return new LoadTestOptions(target, rate, warmup, duration, mix, apiKey, webhookSecret, maxInFlight, sloP99, maxErrorRate, report);
+    }
+
+    LoadTestOptions withCredentials(String apiKey, String webhookSecret) {
+        return new LoadTestOptions(target, rate, warmup, duration, mix, this.apiKey != null ? this.apiKey : apiKey,
+                this.webhookSecret != null ? this.webhookSecret : webhookSecret, maxInFlight, sloP99, maxErrorRate, report);
+    }
+
+    private static Map<PayLiteTraffic.Operation, Integer> parseMix(String value) {
+        Map<PayLiteTraffic.Operation, Integer> mix = new EnumMap<>(PayLiteTraffic.Operation.class);
+        for (String entry : value.split(",")) {
+            String[] parts = entry.split("=");
+            if (parts.length != 2) {
+                throw new IllegalArgumentException("Expected operation=weight in mix: " + entry);
+            }
+            mix.put(PayLiteTraffic.Operation.of(parts[0].trim()), Integer.parseInt(parts[1].trim()));
+        }
+        if (mix.values().stream().mapToInt(Integer::intValue).sum() <= 0) {
+            throw new IllegalArgumentException("mix needs at least one positive weight");
+        }
+        return mix;
+    }
+}
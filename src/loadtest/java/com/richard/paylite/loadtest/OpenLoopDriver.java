@@ -0,0 +1,93 @@
+package com.richard.paylite.loadtest;
+
+import java.net.http.HttpClient;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Sends requests on a fixed schedule (an open model): request {@code i} is due at
+ * {@code start + i / rate} whether or not earlier ones have been answered, the way independent
+ * clients arrive in production. A closed loop that waits for each response before sending the next
+ * slows down with the server and hides the very stalls a load test should find.
+ * <p>
+ * If the scheduling thread itself falls behind, requests go out late but are still timed from
+ * when they were due.
+ */
+final class OpenLoopDriver {
+
+    static final String CLIENT_SATURATED = "client-saturated";
+
+    private final HttpClient client;
+    private final PayLiteTraffic traffic;
+    private final LatencyReport report;
+    private final int maxInFlight;
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    OpenLoopDriver(HttpClient client, PayLiteTraffic traffic, LatencyReport report, int maxInFlight) {
+        this.client = client;
+        this.traffic = traffic;
+        this.report = report;
+        this.maxInFlight = maxInFlight;
+    }
+
+    /**
+     * Runs the warmup and the measured period, then waits up to {@code drainTimeout} for the
+     * requests still in flight. Only requests due after the warmup are recorded.
+     */
+    void run(double rate, Duration warmup, Duration duration, Duration drainTimeout) throws InterruptedException {
+        double intervalNanos = TimeUnit.SECONDS.toNanos(1) / rate;
+        long start = System.nanoTime();
+        long measureFrom = start + warmup.toNanos();
+        long end = measureFrom + duration.toNanos();
+        for (long i = 0; ; i++) {
+            long intended = start + (long) (i * intervalNanos);
+            if (intended - end >= 0) {
+                break;
+            }
+            long now;
+            while ((now = System.nanoTime()) - intended < 0) {
+                LockSupport.parkNanos(intended - now);
+            }
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            send(intended, intended - measureFrom >= 0);
+        }
+        drain(drainTimeout);
+    }
+
+    private void send(long intended, boolean measured) {
+        PayLiteTraffic.Call call = traffic.next();
+        if (inFlight.get() >= maxInFlight) {
+            if (measured) {
+                report.notSent(call.operation(), CLIENT_SATURATED);
+            }
+            return;
+        }
+        inFlight.incrementAndGet();
+        long sent = System.nanoTime();
+        client.sendAsync(call.request(), HttpResponse.BodyHandlers.ofString()).whenComplete((response, error) -> {
+            long completed = System.nanoTime();
+            inFlight.decrementAndGet();
+            if (error == null) {
+                traffic.completed(call, response);
+            }
+            if (measured) {
+                String outcome = error == null ? LatencyReport.outcome(response.statusCode()) : LatencyReport.outcome(error);
+                report.record(call.operation(), intended, sent, completed, outcome);
+            }
+        });
+    }
+
+    private void drain(Duration timeout) throws InterruptedException {
+        long deadline = System.nanoTime() + timeout.toNanos();
+        while (inFlight.get() > 0 && System.nanoTime() - deadline < 0) {
+            Thread.sleep(10);
+        }
+        // Whatever is left never answered; count it rather than let it vanish from the results
+        report.unfinished(inFlight.get());
+    }
+}
@@ -0,0 +1,154 @@
+package com.richard.paylite.loadtest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.richard.paylite.util.SignatureUtil;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * The requests of the load test. Retries, reads and webhooks pick one of the most recently created
+ * payments; until the first one exists they create a payment instead.
+ */
+final class PayLiteTraffic {
+
+    enum Operation {
+        // A new payment with a fresh Idempotency-Key
+        CREATE,
+        // The same key and body as an earlier create, answered from the idempotency store
+        RETRY,
+        // GET /api/v1/payments/{paymentId}
+        GET,
+        // A PSP webhook moving a payment to SUCCEEDED or FAILED, signed like the PSP would
+        WEBHOOK;
+
+        static Operation of(String name) {
+            return valueOf(name.toUpperCase(Locale.ROOT));
+        }
+
+        String label() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+    }
+
+    record Call(Operation operation, HttpRequest request, Created created) {
+    }
+
+    private record Created(String idempotencyKey, String body, String paymentId) {
+    }
+
+    private static final int REMEMBERED_PAYMENTS = 10_000;
+    private static final String[] WEBHOOK_EVENTS = {"payment.succeeded", "payment.failed"};
+
+    private final URI baseUri;
+    private final String apiKey;
+    private final SignatureUtil signer;
+    private final Duration timeout;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final int[] cumulativeWeights;
+    private final Operation[] operations;
+
+    private final AtomicReferenceArray<Created> recent = new AtomicReferenceArray<>(REMEMBERED_PAYMENTS);
+    private final AtomicLong createdCount = new AtomicLong();
+    private final AtomicLong sequence = new AtomicLong();
+
+    PayLiteTraffic(URI baseUri, String apiKey, String webhookSecret, Map<Operation, Integer> mix, Duration timeout) {
+        this.baseUri = baseUri;
+        this.apiKey = apiKey;
+        this.signer = new SignatureUtil(webhookSecret);
+        this.timeout = timeout;
+        this.operations = mix.keySet().toArray(Operation[]::new);
+        this.cumulativeWeights = new int[operations.length];
+        int total = 0;
+        for (int i = 0; i < operations.length; i++) {
+            total += mix.get(operations[i]);
+            cumulativeWeights[i] = total;
+        }
+    }
+
+    Call next() {
+        int pick = ThreadLocalRandom.current().nextInt(cumulativeWeights[cumulativeWeights.length - 1]);
+        int i = 0;
+        while (cumulativeWeights[i] <= pick) {
+            i++;
+        }
+        Created earlier = pickRecent();
+        return switch (earlier == null ? Operation.CREATE : operations[i]) {
+            case CREATE -> create();
+            case RETRY -> new Call(Operation.RETRY, createRequest(earlier.idempotencyKey(), earlier.body()), null);
+            case GET -> new Call(Operation.GET, authorized(baseUri.resolve("/api/v1/payments/" + earlier.paymentId())).GET().build(), null);
+            case WEBHOOK -> webhook(earlier.paymentId());
+        };
+    }
+
+    /**
+     * Remembers the payment a successful create returned.
+     */
+    void completed(Call call, HttpResponse<String> response) {
+        if (call.created() == null || response.statusCode() / 100 != 2) {
+            return;
+        }
+        try {
+            String paymentId = objectMapper.readTree(response.body()).path("paymentId").asText(null);
+            if (paymentId != null) {
+                long index = createdCount.getAndIncrement();
+                recent.set((int) (index % REMEMBERED_PAYMENTS), new Created(call.created().idempotencyKey(), call.created().body(), paymentId));
+            }
+        } catch (IOException e) {
+            // Counted by its status code like any other response; nothing to remember
+        }
+    }
+
+    private Call create() {
+        long n = sequence.incrementAndGet();
+        String key = UUID.randomUUID().toString();
+        String body = """
+                {"amount": %d.%02d, "currency": "USD", "customerEmail": "loadtest+%d@example.com", "reference": "lt-%d"}"""
+                .formatted(1 + n % 500, n % 100, n, n);
+        return new Call(Operation.CREATE, createRequest(key, body), new Created(key, body, null));
+    }
+
+    private Call webhook(String paymentId) {
+        String event = WEBHOOK_EVENTS[ThreadLocalRandom.current().nextInt(WEBHOOK_EVENTS.length)];
+        byte[] payload = """
+                {"paymentId": "%s", "event": "%s"}""".formatted(paymentId, event).getBytes(StandardCharsets.UTF_8);
+        HttpRequest request = HttpRequest.newBuilder(baseUri.resolve("/api/v1/webhooks/psp"))
+                .timeout(timeout)
+                .header("Content-Type", "application/json")
+                .header("X-PSP-Signature", signer.calculateHmacSha256(payload))
+                .POST(HttpRequest.BodyPublishers.ofByteArray(payload))
+                .build();
+        return new Call(Operation.WEBHOOK, request, null);
+    }
+
+    private HttpRequest createRequest(String idempotencyKey, String body) {
+        return authorized(baseUri.resolve("/api/v1/payments"))
+                .header("Content-Type", "application/json")
+                .header("Idempotency-Key", idempotencyKey)
+                .POST(HttpRequest.BodyPublishers.ofString(body))
+                .build();
+    }
+
+    private HttpRequest.Builder authorized(URI uri) {
+        return HttpRequest.newBuilder(uri).timeout(timeout).header("X-API-Key", apiKey);
+    }
+
+    private Created pickRecent() {
+        long count = createdCount.get();
+        if (count == 0) {
+            return null;
+        }
+        long window = Math.min(count, REMEMBERED_PAYMENTS);
+        return recent.get((int) ((count - 1 - ThreadLocalRandom.current().nextLong(window)) % REMEMBERED_PAYMENTS));
+    }
+}
@@ -0,0 +1,37 @@
+package com.richard.paylite.archive;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+/**
+ * {@code /actuator/archiver}: GET shows the archiver's progress, POST {@code {"paused": true}}
+ * pauses it and {@code {"paused": false}} resumes it. Not exposed over HTTP unless added to
+ * {@code management.endpoints.web.exposure.include}.
+ */
+@Component
+@Endpoint(id = "archiver")
+@ConditionalOnProperty(prefix = "paylite.archive", name = "enabled", havingValue = "true", matchIfMissing = true)
+public class ArchiverEndpoint {
+
+    @Autowired
+    private PaymentArchiver archiver;
+
+    @ReadOperation
+    public PaymentArchiver.Status status() {
+        return archiver.status();
+    }
+
+    @WriteOperation
+    public PaymentArchiver.Status update(boolean paused) {
+        if (paused) {
+            archiver.pause();
+        } else {
+            archiver.resume();
+        }
+        return archiver.status();
+    }
+}
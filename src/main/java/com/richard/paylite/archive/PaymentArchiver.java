@@ -0,0 +1,251 @@
+package com.richard.paylite.archive;
+
+import com.richard.paylite.repository.ArchivedPaymentRepository;
+import com.richard.paylite.repository.IdempotencyKeyRepository;
+import com.richard.paylite.repository.PaymentRepository;
+import com.richard.paylite.repository.WebhookEventRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the hot tables small by moving finished payments out of them from a single background
+ * thread.
+ * <p>
+ * Every {@code interval} a pass moves SUCCEEDED and FAILED payments older than {@code retention},
+ * with their webhook events, into {@code payments_archive} and {@code webhook_events_archive}, and
+ * deletes idempotency keys older than {@code idempotency-key-retention}. Each batch of at most
+ * {@code batch-size} payments is copied and deleted in one short transaction, so a payment is
+ * always in exactly one of the two tables; payments locked by a running transaction are skipped.
+ * The thread rests {@code batch-pause} between batches so a large backlog is worked off without
+ * crowding out request traffic. A pass can be paused at any time (see {@link ArchiverEndpoint})
+ * and stops after the batch in progress.
+ */
+@Component
+@ConditionalOnProperty(prefix = "paylite.archive", name = "enabled", havingValue = "true", matchIfMissing = true)
+public class PaymentArchiver {
+
+    private static final Logger logger = LoggerFactory.getLogger(PaymentArchiver.class);
+
+    public record Pass(int payments, int webhookEvents, int idempotencyKeys, boolean complete) {
+    }
+
+    public record Status(boolean paused, long archivedPayments, long archivedWebhookEvents, long deletedIdempotencyKeys,
+                         Instant lastCompletedPass) {
+    }
+
+    @Autowired
+    private PaymentRepository paymentRepository;
+
+    @Autowired
+    private WebhookEventRepository webhookEventRepository;
+
+    @Autowired
+    private ArchivedPaymentRepository archivedPaymentRepository;
+
+    @Autowired
+    private IdempotencyKeyRepository idempotencyKeyRepository;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${paylite.archive.retention:90d}")
+    private Duration retention;
+
+    @Value("${paylite.archive.idempotency-key-retention:7d}")
+    private Duration idempotencyKeyRetention;
+
+    @Value("${paylite.archive.interval:1h}")
+    private Duration interval;
+
+    @Value("${paylite.archive.batch-size:500}")
+    private int batchSize;
+
+    @Value("${paylite.archive.batch-pause:200ms}")
+    private Duration batchPause;
+
+    @Value("${paylite.archive.paused:false}")
+    private volatile boolean paused;
+
+    private final Semaphore wakeUps = new Semaphore(0);
+    private volatile boolean running;
+    private volatile Instant lastCompletedPass;
+    private Thread thread;
+
+    private Counter archivedPayments;
+    private Counter archivedWebhookEvents;
+    private Counter deletedIdempotencyKeys;
+    private Counter failures;
+    private Timer batches;
+
+    @PostConstruct
+    void start() {
+        archivedPayments = meterRegistry.counter("paylite.archive.rows", "table", "payments");
+        archivedWebhookEvents = meterRegistry.counter("paylite.archive.rows", "table", "webhook_events");
+        deletedIdempotencyKeys = meterRegistry.counter("paylite.archive.rows", "table", "idempotency_keys");
+        failures = meterRegistry.counter("paylite.archive.failures");
+        batches = Timer.builder("paylite.archive.batches")
+                .description("Time spent in one archive or delete batch transaction")
+                .register(meterRegistry);
+        Gauge.builder("paylite.archive.paused", this, archiver -> archiver.paused ? 1 : 0)
+                .description("1 while the archiver is paused")
+                .register(meterRegistry);
+        Gauge.builder("paylite.archive.last-pass", this,
+                        archiver -> archiver.lastCompletedPass == null ? Double.NaN : archiver.lastCompletedPass.getEpochSecond())
+                .description("When the last pass that worked off the whole backlog ended, in epoch seconds")
+                .baseUnit("seconds")
+                .register(meterRegistry);
+
+        running = true;
+        thread = Thread.ofPlatform().name("payment-archiver").daemon().start(this::run);
+    }
+
+    @PreDestroy
+    void stop() throws InterruptedException {
+        running = false;
+        wakeUps.release();
+        thread.join(TimeUnit.SECONDS.toMillis(10));
+    }
+
+    /**
+     * Stops archiving after the batch in progress, until {@link #resume()}.
+     */
+    public void pause() {
+        if (!paused) {
+            paused = true;
+            logger.info("Payment archiver paused");
+        }
+    }
+
+    /**
+     * Resumes archiving and starts a pass right away.
+     */
+    public void resume() {
+        if (paused) {
+            paused = false;
+            logger.info("Payment archiver resumed");
+            wakeUps.release();
+        }
+    }
+
+    public Status status() {
+        return new Status(paused, (long) archivedPayments.count(), (long) archivedWebhookEvents.count(),
+                (long) deletedIdempotencyKeys.count(), lastCompletedPass);
+    }
+
+    /**
+     * Archives and deletes in batches until nothing is past its retention, the archiver is paused
+     * or it is shutting down. Called by the archiver thread; safe to call from another thread too.
+     */
+    public Pass runPass() throws InterruptedException {
+        LocalDateTime now = LocalDateTime.now();
+        LocalDateTime paymentsBefore = now.minus(retention);
+        LocalDateTime keysBefore = now.minus(idempotencyKeyRetention);
+        int payments = 0;
+        int webhookEvents = 0;
+        int idempotencyKeys = 0;
+
+        boolean more = true;
+        while (more && mayContinue()) {
+            int[] moved = batches.record(() -> transactionTemplate.execute(status -> archiveBatch(paymentsBefore)));
+            payments += moved[0];
+            webhookEvents += moved[1];
+            more = moved[0] == batchSize;
+            if (more) {
+                rest();
+            }
+        }
+        more = true;
+        while (more && mayContinue()) {
+            int deleted = batches.record(() -> transactionTemplate.execute(status ->
+                    idempotencyKeyRepository.deleteCreatedBefore(keysBefore, batchSize)));
+            deletedIdempotencyKeys.increment(deleted);
+            idempotencyKeys += deleted;
+            more = deleted == batchSize;
+            if (more) {
+                rest();
+            }
+        }
+
+        boolean complete = !more && mayContinue();
+        if (complete) {
+            lastCompletedPass = Instant.now();
+        }
+        if (payments > 0 || idempotencyKeys > 0) {
+            logger.info("Archived {} payments with {} webhook events and deleted {} idempotency keys{}",
+                    payments, webhookEvents, idempotencyKeys, complete ? "" : " before stopping");
+        }
+        return new Pass(payments, webhookEvents, idempotencyKeys, complete);
+    }
+
+    private void run() {
+        while (running) {
+            try {
+                if (!paused) {
+                    runPass();
+                }
+                wakeUps.tryAcquire(interval.toMillis(), TimeUnit.MILLISECONDS);
+                wakeUps.drainPermits();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (RuntimeException e) {
+                failures.increment();
+                logger.warn("Payment archiver failed, retrying in {}", interval, e);
+                try {
+                    wakeUps.tryAcquire(interval.toMillis(), TimeUnit.MILLISECONDS);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    // Copies first, then deletes by the same keys; the locks taken up front keep both statements on the same rows
+    private int[] archiveBatch(LocalDateTime before) {
+        List<String> paymentIds = paymentRepository.lockArchivable(before, batchSize);
+        if (paymentIds.isEmpty()) {
+            return new int[]{0, 0};
+        }
+        LocalDateTime now = LocalDateTime.now();
+        List<Long> eventIds = webhookEventRepository.lockIdsByPaymentIdIn(paymentIds);
+        if (!eventIds.isEmpty()) {
+            archivedPaymentRepository.copyWebhookEvents(eventIds, now);
+            webhookEventRepository.deleteArchived(eventIds);
+        }
+        archivedPaymentRepository.copyPayments(paymentIds, now);
+        int payments = paymentRepository.deleteArchived(paymentIds);
+        archivedPayments.increment(payments);
+        archivedWebhookEvents.increment(eventIds.size());
+        return new int[]{payments, eventIds.size()};
+    }
+
+    private boolean mayContinue() {
+        return running && !paused;
+    }
+
+    private void rest() throws InterruptedException {
+        Thread.sleep(batchPause.toMillis());
+    }
+}
@@ -0,0 +1,89 @@
+package com.richard.paylite.cache;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed-size, thread-safe Bloom filter over 64-bit key hashes. {@link #mightContain} never returns
+ * false for a key that was put; a true answer may be a false positive.
+ */
+public class BloomFilter {
+
+    private final AtomicLongArray words;
+    private final long bitCount;
+    private final int hashFunctions;
+
+    public BloomFilter(long bitCount, int hashFunctions) {
+        this.words = new AtomicLongArray(Math.toIntExact((bitCount + 63) / 64));
+        this.bitCount = (long) words.length() * 64;
+        this.hashFunctions = hashFunctions;
+    }
+
+    /**
+     * Sizes the filter to {@code bytes} of memory and picks the number of hash functions that
+     * minimises the false positive rate at {@code expectedInsertions}.
+     */
+    public static BloomFilter withMemoryBudget(long bytes, long expectedInsertions) {
+        long bits = Math.max(64, bytes * 8);
+        int hashFunctions = (int) Math.round((double) bits / Math.max(1, expectedInsertions) * Math.log(2));
+        return new BloomFilter(bits, Math.min(16, Math.max(1, hashFunctions)));
+    }
+
+    public void put(long hash) {
+        long h1 = hash;
+        long h2 = mix(hash) | 1;
+        for (int i = 0; i < hashFunctions; i++) {
+            long bit = Long.remainderUnsigned(h1 + i * h2, bitCount);
+            int word = (int) (bit >>> 6);
+            long mask = 1L << bit;
+            long current = words.get(word);
+            while ((current & mask) == 0 && !words.compareAndSet(word, current, current | mask)) {
+                current = words.get(word);
+            }
+        }
+    }
+
+    public boolean mightContain(long hash) {
+        long h1 = hash;
+        long h2 = mix(hash) | 1;
+        for (int i = 0; i < hashFunctions; i++) {
+            long bit = Long.remainderUnsigned(h1 + i * h2, bitCount);
+            if ((words.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public long bitCount() {
+        return bitCount;
+    }
+
+    public int hashFunctions() {
+        return hashFunctions;
+    }
+
+    /**
+     * 64-bit hash of a pair of strings, computed without concatenating them.
+     */
+    public static long hash(String first, String second) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < first.length(); i++) {
+            h = (h ^ first.charAt(i)) * 0x100000001b3L;
+        }
+        h = (h ^ 0xffff) * 0x100000001b3L;
+        for (int i = 0; i < second.length(); i++) {
+            h = (h ^ second.charAt(i)) * 0x100000001b3L;
+        }
+        return mix(h);
+    }
+
+    // MurmurHash3 fmix64 finaliser
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,97 @@
+package com.richard.paylite.cache;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Ticker;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.util.unit.DataSize;
+
+import java.security.MessageDigest;
+import java.time.Duration;
+
+/**
+ * Local, size-bounded cache of completed idempotent responses (their JSON bytes), keyed by idempotency key.
+ * Entries are weighed by an estimate of their heap footprint so the cache honours a
+ * memory budget rather than an entry count.
+ */
+@Component
+public class IdempotencyCache implements MeterBinder {
+
+    // Rough per-entry cost of the Caffeine node, the entry record and the String/array headers
+    private static final int ENTRY_OVERHEAD_BYTES = 160;
+
+    private final Cache<String, Entry> cache;
+
+    @Autowired
+    public IdempotencyCache(@Value("${paylite.idempotency.cache.max-size:16MB}") DataSize maxSize,
+                            @Value("${paylite.idempotency.cache.ttl:24h}") Duration ttl) {
+        this(maxSize, ttl, Ticker.systemTicker());
+    }
+
+    IdempotencyCache(DataSize maxSize, Duration ttl, Ticker ticker) {
+        this.cache = Caffeine.newBuilder()
+                .maximumWeight(maxSize.toBytes())
+                .weigher(IdempotencyCache::weigh)
+                .expireAfterWrite(ttl)
+                .ticker(ticker)
+                .recordStats()
+                .build();
+    }
+
+    public Entry get(String idempotencyKey) {
+        return cache.getIfPresent(idempotencyKey);
+    }
+
+    public void put(String idempotencyKey, byte[] requestHash, byte[] response) {
+        cache.put(idempotencyKey, new Entry(requestHash, response));
+    }
+
+    /**
+     * Caches the entry once the surrounding transaction commits, so a rolled back payment is
+     * never replayed from memory. Without an active transaction the entry is cached immediately.
+     */
+    public void putAfterCommit(String idempotencyKey, byte[] requestHash, byte[] response) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            put(idempotencyKey, requestHash, response);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                put(idempotencyKey, requestHash, response);
+            }
+        });
+    }
+
+    public CacheStats stats() {
+        return cache.stats();
+    }
+
+    void cleanUp() {
+        cache.cleanUp();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        CaffeineCacheMetrics.monitor(registry, cache, "idempotency");
+    }
+
+    private static int weigh(String idempotencyKey, Entry entry) {
+        return ENTRY_OVERHEAD_BYTES + entry.requestHash().length + entry.response().length + 2 * idempotencyKey.length();
+    }
+
+    public record Entry(byte[] requestHash, byte[] response) {
+
+        public boolean matches(byte[] requestHash) {
+            return MessageDigest.isEqual(this.requestHash, requestHash);
+        }
+    }
+}
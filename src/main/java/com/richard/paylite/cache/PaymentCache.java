@@ -0,0 +1,161 @@
+package com.richard.paylite.cache;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.Ticker;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import com.richard.paylite.dto.FullPaymentResponse;
+import com.richard.paylite.model.PaymentStatus;
+import com.richard.paylite.util.RequestCoalescer;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Duration;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Local read-through cache of payments as returned by {@code GET /api/v1/payments/{paymentId}}.
+ * <p>
+ * Concurrent misses for the same payment share one load. Writers invalidate the entry after their
+ * transaction commits; a load that overlapped an invalidation drops its own result, so a row read
+ * before the commit cannot survive in the cache.
+ * <p>
+ * Invalidation is local to this node, while webhooks may be processed by any node. Only payments
+ * in a terminal status are therefore kept for the full {@code ttl}; a pending payment, the one
+ * clients poll and the only one that can still change, is kept for {@code pendingTtl}, which bounds
+ * how long another node's transition can go unseen here.
+ * <p>
+ * With a read replica, a reload right after an invalidation could read the old row from a lagging
+ * replica and cache it for the whole TTL, so payments invalidated within the replica's
+ * read-your-writes window are reported by {@link #recentlyChanged} and reloaded from the primary.
+ * <p>
+ * Loads deliberately do not run inside {@code Cache.get(key, loader)}: that computes under a
+ * {@code synchronized} map bin, which would pin a virtual thread to its carrier for the whole
+ * database round trip.
+ */
+@Component
+public class PaymentCache implements MeterBinder {
+
+    // Bounds how long a miss waits for another thread's load before loading on its own
+    private static final Duration SHARED_LOAD_TIMEOUT = Duration.ofSeconds(5);
+
+    private final Cache<String, FullPaymentResponse> cache;
+    // Null without a replica
+    private final Cache<String, Boolean> recentlyChanged;
+    private final RequestCoalescer<FullPaymentResponse> loads = new RequestCoalescer<>();
+    private final AtomicLong invalidationGeneration = new AtomicLong();
+    private Counter invalidations;
+
+    @Autowired
+    public PaymentCache(@Value("${paylite.payments.cache.max-entries:100000}") long maxEntries,
+                        @Value("${paylite.payments.cache.ttl:10m}") Duration ttl,
+                        @Value("${paylite.payments.cache.pending-ttl:2s}") Duration pendingTtl,
+                        @Value("${paylite.datasource.replica.enabled:false}") boolean replicaEnabled,
+                        @Value("${paylite.datasource.replica.read-your-writes-window:5s}") Duration readYourWritesWindow) {
+        this(maxEntries, ttl, pendingTtl, replicaEnabled ? readYourWritesWindow : Duration.ZERO, Ticker.systemTicker());
+    }
+
+    public PaymentCache(long maxEntries, Duration ttl, Duration pendingTtl) {
+        this(maxEntries, ttl, pendingTtl, Duration.ZERO, Ticker.systemTicker());
+    }
+
+    PaymentCache(long maxEntries, Duration ttl, Duration pendingTtl, Duration readYourWritesWindow, Ticker ticker) {
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maxEntries)
+                .expireAfter(Expiry.<String, FullPaymentResponse>writing((paymentId, payment) ->
+                        payment.status() == PaymentStatus.PENDING ? pendingTtl : ttl))
+                .ticker(ticker)
+                .recordStats()
+                .build();
+        this.recentlyChanged = readYourWritesWindow.isPositive()
+                ? Caffeine.newBuilder().maximumSize(maxEntries).expireAfterWrite(readYourWritesWindow).ticker(ticker).build()
+                : null;
+    }
+
+    /**
+     * Returns the cached payment or loads it with {@code loader}. Exceptions from the loader (such
+     * as an unknown payment) are propagated and nothing is cached.
+     */
+    public FullPaymentResponse get(String paymentId, Function<String, FullPaymentResponse> loader) {
+        FullPaymentResponse cached = cache.getIfPresent(paymentId);
+        if (cached != null) {
+            return cached;
+        }
+        try {
+            return loads.execute(paymentId, SHARED_LOAD_TIMEOUT, () -> load(paymentId, loader));
+        } catch (TimeoutException e) {
+            return load(paymentId, loader);
+        }
+    }
+
+    public void invalidate(String paymentId) {
+        // Bumped before removing the entry, so a concurrent load either sees the bump or is removed
+        invalidationGeneration.incrementAndGet();
+        cache.invalidate(paymentId);
+        if (recentlyChanged != null) {
+            recentlyChanged.put(paymentId, Boolean.TRUE);
+        }
+        if (invalidations != null) {
+            invalidations.increment();
+        }
+    }
+
+    /**
+     * Whether the payment changed so recently that a replica may not have the change yet.
+     */
+    public boolean recentlyChanged(String paymentId) {
+        return recentlyChanged != null && recentlyChanged.getIfPresent(paymentId) != null;
+    }
+
+    /**
+     * Invalidates the entry once the surrounding transaction commits, so readers see the new state
+     * as soon as it is visible in the database. Without an active transaction the entry is
+     * invalidated immediately.
+     */
+    public void invalidateAfterCommit(String paymentId) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            invalidate(paymentId);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                invalidate(paymentId);
+            }
+        });
+    }
+
+    private FullPaymentResponse load(String paymentId, Function<String, FullPaymentResponse> loader) {
+        long generation = invalidationGeneration.get();
+        FullPaymentResponse loaded = loader.apply(paymentId);
+        cache.put(paymentId, loaded);
+        if (invalidationGeneration.get() != generation) {
+            // Some payment changed while this one was loading; it may have been this one
+            cache.invalidate(paymentId);
+        }
+        return loaded;
+    }
+
+    public CacheStats stats() {
+        return cache.stats();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        CaffeineCacheMetrics.monitor(registry, cache, "payments");
+        invalidations = Counter.builder("cache.invalidations")
+                .tag("cache", "payments")
+                .description("Entries invalidated because the payment changed")
+                .register(registry);
+    }
+}
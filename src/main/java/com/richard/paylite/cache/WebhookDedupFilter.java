@@ -0,0 +1,169 @@
+package com.richard.paylite.cache;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.richard.paylite.util.StreamingJdbc;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.util.unit.DataSize;
+
+/**
+ * In-memory fast path for webhook deduplication on (paymentId, eventType).
+ * <p>
+ * A small set of recently processed keys answers "definitely seen" and a Bloom filter over every
+ * processed key answers "definitely new"; only keys the filter might have seen, but that are not
+ * recent, need the existence query. The filter only knows about events committed by this node (plus
+ * whatever was in the table at startup), so the unique constraint on {@code webhook_events} stays
+ * the final safety net for events processed concurrently elsewhere.
+ */
+@Component
+public class WebhookDedupFilter implements MeterBinder {
+
+    private static final Logger logger = LoggerFactory.getLogger(WebhookDedupFilter.class);
+
+    public enum Verdict {
+        NEW,
+        DUPLICATE,
+        UNKNOWN
+    }
+
+    private final boolean enabled;
+    private final BloomFilter bloomFilter;
+    private final Cache<String, Boolean> recent;
+    private volatile boolean ready;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Value("${paylite.webhooks.dedup.rebuild-fetch-size:10000}")
+    private int rebuildFetchSize;
+
+    private Counter newVerdicts;
+    private Counter duplicateVerdicts;
+    private Counter unknownVerdicts;
+
+    @Autowired
+    public WebhookDedupFilter(@Value("${paylite.webhooks.dedup.enabled:true}") boolean enabled,
+                              @Value("${paylite.webhooks.dedup.bloom-size:8MB}") DataSize bloomSize,
+                              @Value("${paylite.webhooks.dedup.expected-events:5000000}") long expectedEvents,
+                              @Value("${paylite.webhooks.dedup.recent-size:100000}") long recentSize) {
+        this.enabled = enabled;
+        this.bloomFilter = BloomFilter.withMemoryBudget(enabled ? bloomSize.toBytes() : 8, expectedEvents);
+        this.recent = Caffeine.newBuilder().maximumSize(recentSize).recordStats().build();
+    }
+
+    public Verdict check(String paymentId, String eventType) {
+        if (!ready) {
+            return Verdict.UNKNOWN;
+        }
+        Verdict verdict;
+        if (recent.getIfPresent(key(paymentId, eventType)) != null) {
+            verdict = Verdict.DUPLICATE;
+        } else if (!bloomFilter.mightContain(BloomFilter.hash(paymentId, eventType))) {
+            verdict = Verdict.NEW;
+        } else {
+            verdict = Verdict.UNKNOWN;
+        }
+        count(verdict);
+        return verdict;
+    }
+
+    /**
+     * Records an event that is known to be stored, e.g. one the existence query just found.
+     */
+    public void record(String paymentId, String eventType) {
+        if (!enabled) {
+            return;
+        }
+        bloomFilter.put(BloomFilter.hash(paymentId, eventType));
+        recent.put(key(paymentId, eventType), Boolean.TRUE);
+    }
+
+    /**
+     * Records an event once the surrounding transaction commits, so a rolled back event is never
+     * reported as a duplicate.
+     */
+    public void recordAfterCommit(String paymentId, String eventType) {
+        if (!enabled) {
+            return;
+        }
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            record(paymentId, eventType);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                record(paymentId, eventType);
+            }
+        });
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void rebuildInBackground() {
+        if (!enabled) {
+            return;
+        }
+        Thread.ofPlatform().name("webhook-dedup-rebuild").daemon().start(this::rebuild);
+    }
+
+    /**
+     * Loads every stored (paymentId, eventType) into the Bloom filter with a forward-only streaming
+     * query. Until it finishes every check answers {@link Verdict#UNKNOWN}.
+     */
+    void rebuild() {
+        long started = System.currentTimeMillis();
+        long[] loaded = {0};
+        try {
+            JdbcTemplate streaming = StreamingJdbc.template(jdbcTemplate.getDataSource(), rebuildFetchSize);
+            streaming.query("SELECT payment_id, event_type FROM webhook_events", rs -> {
+                bloomFilter.put(BloomFilter.hash(rs.getString(1), rs.getString(2)));
+                loaded[0]++;
+            });
+            ready = true;
+            logger.info("Webhook dedup filter rebuilt from {} events in {} ms ({} bits, {} hash functions)",
+                    loaded[0], System.currentTimeMillis() - started, bloomFilter.bitCount(), bloomFilter.hashFunctions());
+        } catch (RuntimeException e) {
+            logger.error("Failed to rebuild webhook dedup filter, falling back to database checks", e);
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        CaffeineCacheMetrics.monitor(registry, recent, "webhook-dedup-recent");
+        newVerdicts = registry.counter("paylite.webhooks.dedup", "verdict", "new");
+        duplicateVerdicts = registry.counter("paylite.webhooks.dedup", "verdict", "duplicate");
+        unknownVerdicts = registry.counter("paylite.webhooks.dedup", "verdict", "unknown");
+    }
+
+    void markReady() {
+        ready = true;
+    }
+
+    private void count(Verdict verdict) {
+        Counter counter = switch (verdict) {
+            case NEW -> newVerdicts;
+            case DUPLICATE -> duplicateVerdicts;
+            case UNKNOWN -> unknownVerdicts;
+        };
+        if (counter != null) {
+            counter.increment();
+        }
+    }
+
+    private static String key(String paymentId, String eventType) {
+        return paymentId + '\n' + eventType;
+    }
+}
@@ -0,0 +1,74 @@
+package com.richard.paylite.cli;
+
+import com.richard.paylite.dto.PaymentExportRequest;
+import com.richard.paylite.model.PaymentStatus;
+import com.richard.paylite.service.PaymentExportService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.stereotype.Component;
+
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+
+/**
+ * Runs one export to a file and exits, for scheduled reconciliation jobs:
+ * <pre>
+ * java -jar paylite.jar --spring.main.web-application-type=none \
+ *     --paylite.export.output=payments-2025-01-01.csv.gz \
+ *     --paylite.export.from=2025-01-01T00:00 --paylite.export.to=2025-01-02T00:00 \
+ *     --paylite.export.format=csv
+ * </pre>
+ * The output is gzipped when its name ends in {@code .gz}.
+ */
+@Component
+@ConditionalOnProperty(name = "paylite.export.output")
+public class PaymentExportCommand implements ApplicationRunner {
+
+    private static final Logger logger = LoggerFactory.getLogger(PaymentExportCommand.class);
+
+    @Autowired
+    private PaymentExportService paymentExportService;
+
+    @Autowired
+    private ConfigurableApplicationContext context;
+
+    @Value("${paylite.export.output}")
+    private Path output;
+
+    @Value("${paylite.export.from}")
+    private LocalDateTime from;
+
+    @Value("${paylite.export.to}")
+    private LocalDateTime to;
+
+    @Value("${paylite.export.status:#{null}}")
+    private PaymentStatus status;
+
+    @Value("${paylite.export.format:ndjson}")
+    private String format;
+
+    @Override
+    public void run(ApplicationArguments args) throws Exception {
+        PaymentExportRequest request = new PaymentExportRequest(from, to, status,
+                PaymentExportRequest.Format.parse(format), output.getFileName().toString().endsWith(".gz"));
+        int exitCode = 0;
+        try (OutputStream file = Files.newOutputStream(output)) {
+            long rows = paymentExportService.export(request, admitted -> file);
+            logger.info("Wrote {} payments to {}", rows, output);
+        } catch (RuntimeException e) {
+            logger.error("Payment export to {} failed", output, e);
+            exitCode = 1;
+        }
+        int code = exitCode;
+        System.exit(SpringApplication.exit(context, () -> code));
+    }
+}
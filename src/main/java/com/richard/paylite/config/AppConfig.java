@@ -3,12 +3,32 @@ package com.richard.paylite.config;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.SerializationFeature;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.richard.paylite.outbox.ApplicationEventOutboxSink;
+import com.richard.paylite.outbox.FileOutboxSink;
+import com.richard.paylite.outbox.OutboxSink;
+import com.richard.paylite.util.PaymentIdGenerator;
+import com.richard.paylite.util.RandomPaymentIdGenerator;
+import com.richard.paylite.util.SegmentedPayloadStore;
+import com.richard.paylite.util.TimeOrderedPaymentIdGenerator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
 
 @Configuration
 public class AppConfig {
 
+    private static final Logger logger = LoggerFactory.getLogger(AppConfig.class);
+
     @Bean
     public ObjectMapper objectMapper() {
         ObjectMapper objectMapper = new ObjectMapper();
@@ -16,4 +36,58 @@ public class AppConfig {
         objectMapper.disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
         return objectMapper;
     }
+
+    /**
+     * {@code time-ordered} (default) or {@code random}, the original UUID format. Time-ordered ids
+     * are only unique across nodes when each node has its own {@code paylite.node-id}; without one a
+     * random node id is picked, which is fine for a single node.
+     */
+    @Bean
+    public PaymentIdGenerator paymentIdGenerator(@Value("${paylite.payments.id-generator:time-ordered}") String type,
+                                                 @Value("${paylite.node-id:-1}") int nodeId) {
+        return switch (type) {
+            case "random" -> new RandomPaymentIdGenerator();
+            case "time-ordered" -> {
+                if (nodeId < 0) {
+                    nodeId = ThreadLocalRandom.current().nextInt(TimeOrderedPaymentIdGenerator.MAX_NODE_ID + 1);
+                    logger.warn("paylite.node-id is not set, using random node id {} for payment ids", nodeId);
+                }
+                yield new TimeOrderedPaymentIdGenerator(nodeId);
+            }
+            default -> throw new IllegalArgumentException("Unknown paylite.payments.id-generator: " + type);
+        };
+    }
+
+    /**
+     * {@code listeners} (default) delivers payment events to in-process {@code @EventListener}s;
+     * {@code file} appends them as NDJSON to {@code paylite.outbox.file}.
+     */
+    @Bean
+    public OutboxSink outboxSink(@Value("${paylite.outbox.sink:listeners}") String type,
+                                 @Value("${paylite.outbox.file:data/outbox/payment-events.ndjson}") Path file,
+                                 @Value("${paylite.outbox.fsync:true}") boolean fsync,
+                                 ApplicationEventPublisher publisher,
+                                 ObjectMapper objectMapper) throws IOException {
+        return switch (type) {
+            case "listeners" -> new ApplicationEventOutboxSink(publisher);
+            case "file" -> new FileOutboxSink(objectMapper, file, fsync);
+            default -> throw new IllegalArgumentException("Unknown paylite.outbox.sink: " + type);
+        };
+    }
+
+    /**
+     * Keeps raw webhook payloads out of {@code webhook_events}: rows point into the store, and
+     * segments past the retention are deleted by a background thread.
+     */
+    @Bean(destroyMethod = "close")
+    @ConditionalOnProperty(prefix = "paylite.webhooks.payload-store", name = "enabled", havingValue = "true")
+    public SegmentedPayloadStore webhookPayloadStore(@Value("${paylite.webhooks.payload-store.dir:data/webhook-payloads}") Path dir,
+                                                     @Value("${paylite.webhooks.payload-store.segment-size:64MB}") DataSize segmentSize,
+                                                     @Value("${paylite.webhooks.payload-store.roll-interval:1d}") Duration rollInterval,
+                                                     @Value("${paylite.webhooks.payload-store.retention:365d}") Duration retention,
+                                                     @Value("${paylite.webhooks.payload-store.fsync:true}") boolean fsync) throws IOException {
+        SegmentedPayloadStore store = new SegmentedPayloadStore(dir, segmentSize.toBytes(), rollInterval, fsync);
+        store.startRetiring(retention, Duration.ofHours(1), Thread.ofPlatform().name("payload-retirer").daemon().factory());
+        return store;
+    }
 }
@@ -0,0 +1,77 @@
+package com.richard.paylite.config;
+
+import com.richard.paylite.util.AdmissionControlledDataSource;
+import com.richard.paylite.util.ReplicaRoutingDataSource;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+
+import javax.sql.DataSource;
+import java.time.Duration;
+
+/**
+ * Wraps the pooled DataSource in an {@link AdmissionControlledDataSource}, sized to the pool by
+ * default, so callers queue on a fair semaphore and fail fast with 503 once the wait exceeds
+ * {@code paylite.datasource.admission.timeout}. With a read replica each pool gets its own gate
+ * (see {@link ReplicaDataSourceConfig}) and the routing DataSource is left alone.
+ */
+@Configuration
+@ConditionalOnProperty(prefix = "paylite.datasource.admission", name = "enabled", havingValue = "true", matchIfMissing = true)
+public class DataSourceConfig {
+
+    @Bean
+    public static BeanPostProcessor admissionControlledDataSourcePostProcessor(Environment environment) {
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessAfterInitialization(Object bean, String beanName) {
+                if (bean instanceof DataSource dataSource && !(bean instanceof AdmissionControlledDataSource)
+                        && !(bean instanceof ReplicaRoutingDataSource)) {
+                    int poolSize = environment.getProperty("spring.datasource.hikari.maximum-pool-size", Integer.class, 10);
+                    int maxConcurrent = environment.getProperty("paylite.datasource.admission.max-concurrent", Integer.class, poolSize);
+                    // The connections left over in the pool; at least one, or table id generators could never run
+                    int maxNested = Math.max(1, poolSize - maxConcurrent);
+                    int maxNestedPerThread = environment.getProperty("paylite.datasource.admission.max-nested-per-thread",
+                            Integer.class, 1);
+                    Duration timeout = environment.getProperty("paylite.datasource.admission.timeout", Duration.class,
+                            Duration.ofSeconds(2));
+                    return new AdmissionControlledDataSource(dataSource, maxConcurrent, maxNested, maxNestedPerThread, timeout);
+                }
+                return bean;
+            }
+        };
+    }
+
+    @Bean
+    public MeterBinder dataSourceAdmissionMetrics(DataSource dataSource) {
+        return registry -> {
+            if (dataSource instanceof ReplicaRoutingDataSource routing) {
+                bindGate(registry, routing.primary(), "primary");
+                bindGate(registry, routing.replica(), "replica");
+            } else {
+                bindGate(registry, dataSource, "primary");
+            }
+        };
+    }
+
+    private static void bindGate(MeterRegistry registry, DataSource dataSource, String pool) {
+        if (dataSource instanceof AdmissionControlledDataSource gate) {
+            Gauge.builder("paylite.datasource.admission.active", gate, AdmissionControlledDataSource::activeConnections)
+                    .description("Connections handed out through the admission gate")
+                    .tag("pool", pool)
+                    .register(registry);
+            Gauge.builder("paylite.datasource.admission.waiting", gate, AdmissionControlledDataSource::waitingThreads)
+                    .description("Threads queued for a connection")
+                    .tag("pool", pool)
+                    .register(registry);
+            Gauge.builder("paylite.datasource.admission.nested", gate, AdmissionControlledDataSource::nestedConnections)
+                    .description("Spare connections held for nested transactions")
+                    .tag("pool", pool)
+                    .register(registry);
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package com.richard.paylite.config;
+
+import com.richard.paylite.security.ApiKeyAuthInterceptor;
+import com.richard.paylite.util.AdmissionControlledDataSource;
+import com.richard.paylite.util.ReplicaLagMonitor;
+import com.richard.paylite.util.ReplicaRoutingDataSource;
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.metrics.micrometer.MicrometerMetricsTrackerFactory;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.boot.jdbc.DataSourceBuilder;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+
+import javax.sql.DataSource;
+import java.time.Duration;
+
+/**
+ * Replaces the auto-configured DataSource with a {@link ReplicaRoutingDataSource} over two Hikari
+ * pools: {@code primary} from {@code spring.datasource.*} and {@code replica} from
+ * {@code paylite.datasource.replica.*}. Each pool publishes its own {@code hikaricp.*} metrics
+ * (tagged with the pool name) and, when admission control is enabled, has its own admission gate.
+ * Read-your-writes is tracked per tenant of the request's API key, on each node separately, so it
+ * needs sticky routing by API key when several nodes share the replica.
+ */
+@Configuration
+@ConditionalOnProperty(prefix = "paylite.datasource.replica", name = "enabled", havingValue = "true")
+public class ReplicaDataSourceConfig {
+
+    @Bean
+    public ReplicaRoutingDataSource dataSource(DataSourceProperties properties, Environment environment, MeterRegistry meterRegistry) {
+        Binder binder = Binder.get(environment);
+        HikariDataSource primaryPool = properties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+        binder.bind("spring.datasource.hikari", Bindable.ofInstance(primaryPool));
+        HikariDataSource replicaPool = DataSourceBuilder.create()
+                .type(HikariDataSource.class)
+                .driverClassName(properties.determineDriverClassName())
+                .url(environment.getRequiredProperty("paylite.datasource.replica.url"))
+                .username(environment.getProperty("paylite.datasource.replica.username", properties.determineUsername()))
+                .password(environment.getProperty("paylite.datasource.replica.password", properties.determinePassword()))
+                .build();
+        binder.bind("paylite.datasource.replica.hikari", Bindable.ofInstance(replicaPool));
+
+        DataSource primary = pool(primaryPool, "primary", environment.getProperty("paylite.datasource.admission.max-concurrent", Integer.class),
+                environment, meterRegistry);
+        DataSource replica = pool(replicaPool, "replica", environment.getProperty("paylite.datasource.replica.admission.max-concurrent", Integer.class),
+                environment, meterRegistry);
+
+        ReplicaLagMonitor lagMonitor = new ReplicaLagMonitor(primary, replica,
+                environment.getProperty("paylite.datasource.replica.lag-check-interval", Duration.class, Duration.ofSeconds(1)),
+                environment.getProperty("paylite.datasource.replica.max-lag", Duration.class, Duration.ofSeconds(2)));
+        return new ReplicaRoutingDataSource(primary, replica, lagMonitor,
+                environment.getProperty("paylite.datasource.replica.read-your-writes-window", Duration.class, Duration.ofSeconds(5)),
+                ReplicaDataSourceConfig::currentTenant, meterRegistry);
+    }
+
+    // Reads stay on the primary until the first measurement, which needs Flyway's heartbeat table
+    @Bean
+    public ApplicationListener<ApplicationReadyEvent> replicaLagMonitorStarter(ReplicaRoutingDataSource dataSource) {
+        return event -> dataSource.lagMonitor().start(Thread.ofPlatform().name("replica-lag-monitor").daemon().factory());
+    }
+
+    private static DataSource pool(HikariDataSource pool, String name, Integer maxConcurrent, Environment environment, MeterRegistry meterRegistry) {
+        pool.setPoolName(name);
+        pool.setMetricsTrackerFactory(new MicrometerMetricsTrackerFactory(meterRegistry));
+        if (!environment.getProperty("paylite.datasource.admission.enabled", Boolean.class, true)) {
+            return pool;
+        }
+        Duration timeout = environment.getProperty("paylite.datasource.admission.timeout", Duration.class, Duration.ofSeconds(2));
+        int admitted = maxConcurrent != null ? maxConcurrent : pool.getMaximumPoolSize();
+        int maxNestedPerThread = environment.getProperty("paylite.datasource.admission.max-nested-per-thread", Integer.class, 1);
+        return new AdmissionControlledDataSource(pool, admitted, Math.max(1, pool.getMaximumPoolSize() - admitted),
+                maxNestedPerThread, timeout);
+    }
+
+    private static String currentTenant() {
+        RequestAttributes request = RequestContextHolder.getRequestAttributes();
+        return request == null ? null
+                : (String) request.getAttribute(ApiKeyAuthInterceptor.TENANT_ATTRIBUTE, RequestAttributes.SCOPE_REQUEST);
+    }
+}
@@ -1,19 +1,38 @@
 package com.richard.paylite.controller;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.richard.paylite.dto.BatchCreatePaymentRequest;
+import com.richard.paylite.dto.BatchPaymentResponse;
 import com.richard.paylite.dto.CreatePaymentRequest;
 import com.richard.paylite.dto.FullPaymentResponse;
+import com.richard.paylite.dto.IdempotentResponse;
+import com.richard.paylite.dto.PaymentExportRequest;
+import com.richard.paylite.dto.PaymentPage;
 import com.richard.paylite.dto.PaymentResponse;
+import com.richard.paylite.dto.PaymentSearchFilter;
+import com.richard.paylite.model.PaymentStatus;
+import com.richard.paylite.security.ApiKeyAuthInterceptor;
+import com.richard.paylite.service.PaymentExportService;
 import com.richard.paylite.service.PaymentService;
 import io.swagger.v3.oas.annotations.Parameter;
+import io.swagger.v3.oas.annotations.media.Content;
+import io.swagger.v3.oas.annotations.media.Schema;
+import io.swagger.v3.oas.annotations.responses.ApiResponse;
+import jakarta.servlet.http.HttpServletResponse;
 import jakarta.validation.Valid;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
-import java.security.NoSuchAlgorithmException;
+import java.io.IOException;
+import java.time.LocalDateTime;
+
 
 @RestController
 @RequestMapping("/api/v1/payments")
@@ -21,19 +40,85 @@ public class PaymentController {
 
     private static final Logger logger = LoggerFactory.getLogger(PaymentController.class);
 
+    private static final String IDEMPOTENT_REPLAYED = "Idempotent-Replayed";
+
     @Autowired
     private PaymentService paymentService;
 
+    @Autowired
+    private PaymentExportService paymentExportService;
+
+    /**
+     * Answers with the JSON stored for the idempotency key, written out as is. A retry of an
+     * earlier request gets the same body with {@code Idempotent-Replayed: true}.
+     * <p>
+     * Only successful creations are stored: a request that fails releases its key instead, and a
+     * conflict never completes one. The status and content type are therefore not stored with the
+     * body, and a replay is always {@code 200} with {@code application/json}. Storing any other
+     * outcome would mean storing its status and content type next to {@code response_json} too.
+     */
     @PostMapping
-    public ResponseEntity<PaymentResponse> createPaymentIntent(
+    @ApiResponse(responseCode = "200", content = @Content(mediaType = MediaType.APPLICATION_JSON_VALUE,
+            schema = @Schema(implementation = PaymentResponse.class)))
+    public ResponseEntity<byte[]> createPaymentIntent(
             @RequestHeader("Idempotency-Key") String idempotencyKey,
-            @Valid @RequestBody CreatePaymentRequest request) throws NoSuchAlgorithmException, JsonProcessingException {
+            @Parameter(hidden = true) @RequestAttribute(ApiKeyAuthInterceptor.TENANT_ATTRIBUTE) String tenantId,
+            @Valid @RequestBody CreatePaymentRequest request) {
         logger.info("Received request to create payment intent");
-        PaymentResponse response = paymentService.createPayment(idempotencyKey, request);
-        logger.info("Successfully created payment intent with id: {}", response.paymentId());
+        IdempotentResponse response = paymentService.createPayment(tenantId, idempotencyKey, request);
+        ResponseEntity.BodyBuilder ok = ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON);
+        if (response.replayed()) {
+            ok.header(IDEMPOTENT_REPLAYED, "true");
+        }
+        return ok.body(response.body());
+    }
+
+    @PostMapping("/batch")
+    public ResponseEntity<BatchPaymentResponse> createPaymentIntents(
+            @Parameter(hidden = true) @RequestAttribute(ApiKeyAuthInterceptor.TENANT_ATTRIBUTE) String tenantId,
+            @Valid @RequestBody BatchCreatePaymentRequest request) throws JsonProcessingException {
+        logger.info("Received request to create {} payment intents", request.items().size());
+        BatchPaymentResponse response = paymentService.createPayments(tenantId, request.items());
+        logger.info("Successfully processed batch of {} payment intents", response.results().size());
         return ResponseEntity.ok(response);
     }
 
+    @GetMapping
+    public ResponseEntity<PaymentPage> searchPayments(
+            @Parameter(description = "Only payments with this merchant reference.") @RequestParam(required = false) String reference,
+            @Parameter(description = "Only payments for this customer email.") @RequestParam(required = false) String customerEmail,
+            @Parameter(description = "Only payments in this status.") @RequestParam(required = false) PaymentStatus status,
+            @Parameter(description = "Only payments created at or after this time.", example = "2025-01-01T00:00:00")
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime createdFrom,
+            @Parameter(description = "Only payments created before this time.", example = "2025-02-01T00:00:00")
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime createdTo,
+            @Parameter(description = "The nextCursor of the previous page.") @RequestParam(required = false) String cursor,
+            @Parameter(description = "Page size, at most 200.") @RequestParam(defaultValue = "50") int limit) {
+        PaymentSearchFilter filter = new PaymentSearchFilter(reference, customerEmail, status, createdFrom, createdTo);
+        logger.info("Received payment search: {}, limit {}", filter, limit);
+        return ResponseEntity.ok(paymentService.searchPayments(filter, cursor, limit));
+    }
+
+    @GetMapping("/export")
+    public void exportPayments(
+            @Parameter(description = "Export payments created at or after this time.", example = "2025-01-01T00:00:00")
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+            @Parameter(description = "Export payments created before this time.", example = "2025-01-02T00:00:00")
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to,
+            @Parameter(description = "Only payments in this status.") @RequestParam(required = false) PaymentStatus status,
+            @Parameter(description = "ndjson or csv.") @RequestParam(defaultValue = "ndjson") String format,
+            @Parameter(description = "Gzip the file.") @RequestParam(defaultValue = "false") boolean gzip,
+            HttpServletResponse response) throws IOException {
+        PaymentExportRequest request = new PaymentExportRequest(from, to, status, PaymentExportRequest.Format.parse(format), gzip);
+        logger.info("Received payment export: {}", request);
+        paymentExportService.export(request, admitted -> {
+            response.setContentType(gzip ? "application/gzip" : admitted.format().contentType() + ";charset=UTF-8");
+            response.setHeader(HttpHeaders.CONTENT_DISPOSITION, ContentDisposition.attachment()
+                    .filename(admitted.fileName()).build().toString());
+            return response.getOutputStream();
+        });
+    }
+
     @GetMapping("/{paymentId}")
     public ResponseEntity<FullPaymentResponse> getPayment(
             @Parameter(description = "The ID of the payment.", example = "pl_b620d63536284ca0be89982ecb73b5dd")
@@ -1,10 +1,10 @@
 package com.richard.paylite.controller;
 
 import com.richard.paylite.dto.WebhookRequest;
+import com.richard.paylite.service.WebhookIngestionService;
 import com.richard.paylite.service.WebhookService;
 import io.swagger.v3.oas.annotations.media.Content;
 import io.swagger.v3.oas.annotations.media.Schema;
-import jakarta.validation.Valid;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
@@ -16,6 +16,10 @@ public class WebhookController {
     @Autowired
     private WebhookService webhookService;
 
+    // Present only when paylite.webhooks.async.enabled=true
+    @Autowired(required = false)
+    private WebhookIngestionService webhookIngestionService;
+
     @io.swagger.v3.oas.annotations.parameters.RequestBody(
             description = "Webhook event payload",
             required = true,
@@ -27,8 +31,12 @@ public class WebhookController {
     @PostMapping("/psp")
     public ResponseEntity<Void> handlePspWebhook(
             @RequestHeader("X-PSP-Signature") String signature,
-            @Valid @RequestBody String rawPayload) {
-        webhookService.processWebhook(signature, rawPayload);
+            @RequestBody byte[] rawPayload) {
+        if (webhookIngestionService != null) {
+            webhookIngestionService.enqueue(signature, rawPayload);
+        } else {
+            webhookService.processWebhook(signature, rawPayload);
+        }
         return ResponseEntity.ok().build();
     }
 }
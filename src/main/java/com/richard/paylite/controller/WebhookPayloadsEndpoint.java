@@ -0,0 +1,28 @@
+package com.richard.paylite.controller;
+
+import com.richard.paylite.dto.StoredWebhookPayload;
+import com.richard.paylite.service.WebhookService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Selector;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+/**
+ * {@code /actuator/webhookpayloads/{paymentId}}: the raw webhook payloads recorded for a payment,
+ * for audits. Not exposed over HTTP unless added to {@code management.endpoints.web.exposure.include}.
+ */
+@Component
+@Endpoint(id = "webhookpayloads")
+public class WebhookPayloadsEndpoint {
+
+    @Autowired
+    private WebhookService webhookService;
+
+    @ReadOperation
+    public List<StoredWebhookPayload> payloads(@Selector String paymentId) {
+        return webhookService.storedPayloads(paymentId);
+    }
+}
@@ -0,0 +1,16 @@
+package com.richard.paylite.dto;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import jakarta.validation.Valid;
+import jakarta.validation.constraints.NotEmpty;
+import jakarta.validation.constraints.NotNull;
+import jakarta.validation.constraints.Size;
+
+import java.util.List;
+
+public record BatchCreatePaymentRequest(
+        @Schema(description = "The payments to create. Larger runs should be split across several requests.")
+        @NotEmpty @Size(max = BatchCreatePaymentRequest.MAX_ITEMS) List<@NotNull @Valid BatchPaymentItem> items
+) {
+    public static final int MAX_ITEMS = 5000;
+}
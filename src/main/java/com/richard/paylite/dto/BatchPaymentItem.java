@@ -0,0 +1,13 @@
+package com.richard.paylite.dto;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import jakarta.validation.Valid;
+import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.NotNull;
+
+public record BatchPaymentItem(
+        @Schema(description = "A unique idempotency key for this item.", example = "INV-2025-0001-run-42")
+        @NotBlank String idempotencyKey,
+        @NotNull @Valid CreatePaymentRequest payment
+) {
+}
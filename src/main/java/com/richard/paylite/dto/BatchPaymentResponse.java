@@ -0,0 +1,8 @@
+package com.richard.paylite.dto;
+
+import java.util.List;
+
+public record BatchPaymentResponse(
+        List<BatchPaymentResult> results
+) {
+}
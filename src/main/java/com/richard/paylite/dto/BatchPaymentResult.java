@@ -0,0 +1,27 @@
+package com.richard.paylite.dto;
+
+public record BatchPaymentResult(
+        String idempotencyKey,
+        Outcome outcome,
+        PaymentResponse payment,
+        String error
+) {
+
+    public enum Outcome {
+        CREATED,
+        REPLAYED,
+        CONFLICT
+    }
+
+    public static BatchPaymentResult created(String idempotencyKey, PaymentResponse payment) {
+        return new BatchPaymentResult(idempotencyKey, Outcome.CREATED, payment, null);
+    }
+
+    public static BatchPaymentResult replayed(String idempotencyKey, PaymentResponse payment) {
+        return new BatchPaymentResult(idempotencyKey, Outcome.REPLAYED, payment, null);
+    }
+
+    public static BatchPaymentResult conflict(String idempotencyKey, String error) {
+        return new BatchPaymentResult(idempotencyKey, Outcome.CONFLICT, null, error);
+    }
+}
@@ -0,0 +1,12 @@
+package com.richard.paylite.dto;
+
+/**
+ * The JSON body of a payment creation exactly as stored with its idempotency key, written to the
+ * client without being parsed. {@code replayed} is set when an earlier request with the same key
+ * created the payment.
+ */
+public record IdempotentResponse(
+        byte[] body,
+        boolean replayed
+) {
+}
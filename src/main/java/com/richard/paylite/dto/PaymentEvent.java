@@ -0,0 +1,27 @@
+package com.richard.paylite.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.richard.paylite.model.OutboxEvent;
+import com.richard.paylite.model.PaymentStatus;
+
+import java.time.LocalDateTime;
+
+/**
+ * A payment change as delivered to subscribers. {@code eventId} is unique per event, so
+ * subscribers can drop redeliveries, but ids are handed out to each node in blocks and do not
+ * order events; {@code previousStatus} is absent for {@code payment.created}.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public record PaymentEvent(
+        long eventId,
+        String type,
+        String paymentId,
+        PaymentStatus status,
+        PaymentStatus previousStatus,
+        LocalDateTime occurredAt
+) {
+    public static PaymentEvent from(OutboxEvent event) {
+        return new PaymentEvent(event.getId(), event.getEventType(), event.getPaymentId(),
+                event.getStatus(), event.getPreviousStatus(), event.getCreatedAt());
+    }
+}
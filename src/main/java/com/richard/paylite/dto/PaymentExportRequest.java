@@ -0,0 +1,52 @@
+package com.richard.paylite.dto;
+
+import com.richard.paylite.exception.BadRequestException;
+import com.richard.paylite.model.PaymentStatus;
+
+import java.time.LocalDateTime;
+
+/**
+ * Payments created in {@code [from, to)}, optionally only those in {@code status}.
+ */
+public record PaymentExportRequest(
+        LocalDateTime from,
+        LocalDateTime to,
+        PaymentStatus status,
+        Format format,
+        boolean gzip
+) {
+
+    public enum Format {
+        NDJSON("ndjson", "application/x-ndjson"),
+        CSV("csv", "text/csv");
+
+        private final String extension;
+        private final String contentType;
+
+        Format(String extension, String contentType) {
+            this.extension = extension;
+            this.contentType = contentType;
+        }
+
+        public static Format parse(String value) {
+            for (Format format : values()) {
+                if (format.extension.equalsIgnoreCase(value)) {
+                    return format;
+                }
+            }
+            throw new BadRequestException("format must be ndjson or csv.");
+        }
+
+        public String extension() {
+            return extension;
+        }
+
+        public String contentType() {
+            return contentType;
+        }
+    }
+
+    public String fileName() {
+        return "payments-" + from.toLocalDate() + "." + format.extension() + (gzip ? ".gz" : "");
+    }
+}
@@ -0,0 +1,10 @@
+package com.richard.paylite.dto;
+
+import java.util.List;
+
+public record PaymentPage(
+        List<PaymentSummary> payments,
+        // Pass back as ?cursor= for the next page; null on the last page
+        String nextCursor
+) {
+}
@@ -0,0 +1,18 @@
+package com.richard.paylite.dto;
+
+import com.richard.paylite.model.PaymentStatus;
+
+import java.time.LocalDateTime;
+
+/**
+ * Optional search filters; null fields are not applied. {@code createdFrom} is inclusive and
+ * {@code createdTo} exclusive.
+ */
+public record PaymentSearchFilter(
+        String reference,
+        String customerEmail,
+        PaymentStatus status,
+        LocalDateTime createdFrom,
+        LocalDateTime createdTo
+) {
+}
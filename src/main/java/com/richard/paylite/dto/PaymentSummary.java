@@ -0,0 +1,23 @@
+package com.richard.paylite.dto;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.richard.paylite.model.PaymentStatus;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+
+/**
+ * One row of a payment search, read straight from the query as a projection. The internal id is
+ * only carried along to build the page cursor.
+ */
+public record PaymentSummary(
+        @JsonIgnore Long id,
+        String paymentId,
+        BigDecimal amount,
+        String currency,
+        String customerEmail,
+        String reference,
+        PaymentStatus status,
+        LocalDateTime createdAt
+) {
+}
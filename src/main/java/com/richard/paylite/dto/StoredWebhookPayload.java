@@ -0,0 +1,14 @@
+package com.richard.paylite.dto;
+
+import java.time.LocalDateTime;
+
+/**
+ * A recorded webhook event with its raw payload, for audits. The payload is null once it has
+ * been retired from the payload store.
+ */
+public record StoredWebhookPayload(
+        String eventType,
+        LocalDateTime processedAt,
+        String payload
+) {
+}
@@ -0,0 +1,66 @@
+package com.richard.paylite.logging;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.turbo.TurboFilter;
+import ch.qos.logback.core.spi.FilterReply;
+import org.slf4j.Marker;
+import org.slf4j.MarkerFactory;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lets at most {@code maxPerSecond} events marked {@link #PAYLOAD} through per second and drops the
+ * rest. As a turbo filter it runs before the logging event is created, so a sampled-out payload
+ * line costs two atomic operations and no formatting, encoding or ring buffer slot. Events without
+ * the marker are not affected.
+ */
+public class PayloadSamplingFilter extends TurboFilter {
+
+    public static final Marker PAYLOAD = MarkerFactory.getMarker("PAYLOAD");
+
+    private static final long WINDOW_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private int maxPerSecond = 10;
+    private final AtomicLong window = new AtomicLong(Long.MIN_VALUE);
+    private final AtomicInteger inWindow = new AtomicInteger();
+    private final AtomicLong dropped = new AtomicLong();
+
+    @Override
+    public FilterReply decide(Marker marker, Logger logger, Level level, String format, Object[] params, Throwable t) {
+        // format is null for isXxxEnabled() checks, which should not use up the budget
+        if (marker == null || format == null || !marker.contains(PAYLOAD)) {
+            return FilterReply.NEUTRAL;
+        }
+        return sample(System.nanoTime()) ? FilterReply.NEUTRAL : FilterReply.DENY;
+    }
+
+    boolean sample(long nowNanos) {
+        long current = nowNanos / WINDOW_NANOS;
+        long previous = window.get();
+        // Only the thread that moves the window resets the count; a few events at the boundary may
+        // be counted against the old window, which is fine for sampling
+        if (current != previous && window.compareAndSet(previous, current)) {
+            inWindow.set(0);
+        }
+        if (inWindow.incrementAndGet() <= maxPerSecond) {
+            return true;
+        }
+        dropped.incrementAndGet();
+        return false;
+    }
+
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    public int getMaxPerSecond() {
+        return maxPerSecond;
+    }
+
+    public void setMaxPerSecond(int maxPerSecond) {
+        this.maxPerSecond = maxPerSecond;
+    }
+}
@@ -0,0 +1,101 @@
+package com.richard.paylite.metrics;
+
+import com.richard.paylite.model.PaymentStatus;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency timers and status transition counters for the payment and webhook flows. Every meter is
+ * registered up front, so recording on the request path is an array/map lookup and a lock-free
+ * histogram update rather than a registry lookup by name and tags.
+ */
+@Component
+public class PaymentMetrics {
+
+    public enum CreateOutcome {
+        NEW,
+        HIT,
+        CONFLICT,
+        ERROR
+    }
+
+    public enum GetOutcome {
+        FOUND,
+        NOT_FOUND
+    }
+
+    public enum WebhookOutcome {
+        APPLIED,
+        DUPLICATE,
+        IGNORED,
+        MISSING_PAYMENT,
+        BAD_SIGNATURE,
+        ERROR
+    }
+
+    private static final String NO_STATUS = "none";
+
+    private final Map<CreateOutcome, Timer> createTimers = new EnumMap<>(CreateOutcome.class);
+    private final Map<GetOutcome, Timer> getTimers = new EnumMap<>(GetOutcome.class);
+    private final Map<WebhookOutcome, Timer> webhookTimers = new EnumMap<>(WebhookOutcome.class);
+    // Indexed by [from.ordinal() + 1][to.ordinal()]; row 0 is a newly created payment
+    private final Counter[][] transitions;
+
+    public PaymentMetrics(MeterRegistry registry) {
+        for (CreateOutcome outcome : CreateOutcome.values()) {
+            createTimers.put(outcome, timer(registry, "paylite.payments.create", "Time to create or replay a payment", outcome));
+        }
+        for (GetOutcome outcome : GetOutcome.values()) {
+            getTimers.put(outcome, timer(registry, "paylite.payments.get", "Time to look up a payment", outcome));
+        }
+        for (WebhookOutcome outcome : WebhookOutcome.values()) {
+            webhookTimers.put(outcome, timer(registry, "paylite.webhooks.process", "Time to process a webhook synchronously", outcome));
+        }
+
+        PaymentStatus[] statuses = PaymentStatus.values();
+        transitions = new Counter[statuses.length + 1][statuses.length];
+        for (int from = 0; from <= statuses.length; from++) {
+            for (PaymentStatus to : statuses) {
+                transitions[from][to.ordinal()] = Counter.builder("paylite.payments.status.transitions")
+                        .description("Payment status changes")
+                        .tag("from", from == 0 ? NO_STATUS : statuses[from - 1].name())
+                        .tag("to", to.name())
+                        .register(registry);
+            }
+        }
+    }
+
+    public void recordCreate(CreateOutcome outcome, long startNanos) {
+        createTimers.get(outcome).record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void recordGet(GetOutcome outcome, long startNanos) {
+        getTimers.get(outcome).record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void recordWebhook(WebhookOutcome outcome, long startNanos) {
+        webhookTimers.get(outcome).record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Counts a status change; {@code from} is null for a newly created payment.
+     */
+    public void recordTransition(PaymentStatus from, PaymentStatus to, int count) {
+        transitions[from == null ? 0 : from.ordinal() + 1][to.ordinal()].increment(count);
+    }
+
+    private static Timer timer(MeterRegistry registry, String name, String description, Enum<?> outcome) {
+        return Timer.builder(name)
+                .description(description)
+                .tag("outcome", outcome.name().toLowerCase(Locale.ROOT))
+                .publishPercentiles(0.5, 0.95, 0.99)
+                .register(registry);
+    }
+}
@@ -0,0 +1,54 @@
+package com.richard.paylite.model;
+
+import jakarta.persistence.*;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.hibernate.annotations.Immutable;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+
+// A finished payment moved out of the payments table by the archiver (see V11); only ever read
+@Entity
+@Immutable
+@Table(name = "payments_archive")
+@Data
+@NoArgsConstructor
+public class ArchivedPayment {
+
+    @Id
+    private Long id;
+
+    @Column(unique = true, nullable = false)
+    private String paymentId;
+
+    @Column(nullable = false)
+    private BigDecimal amount;
+
+    @Column(nullable = false)
+    private String currency;
+
+    @Column(nullable = false)
+    private String customerEmail;
+
+    private String reference;
+
+    // The merchant whose API key created the payment; null for payments created before V17
+    private String tenantId;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false)
+    private PaymentStatus status;
+
+    @Column(nullable = false)
+    private Long version;
+
+    @Column(nullable = false)
+    private LocalDateTime createdAt;
+
+    @Column(nullable = false)
+    private LocalDateTime updatedAt;
+
+    @Column(nullable = false)
+    private LocalDateTime archivedAt;
+}
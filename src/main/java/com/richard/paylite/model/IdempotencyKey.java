@@ -18,19 +18,36 @@ import java.time.LocalDateTime;
 public class IdempotencyKey {
 
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.TABLE, generator = "idempotency_keys_id")
+    @TableGenerator(name = "idempotency_keys_id", table = "id_generators", pkColumnName = "sequence_name",
+            valueColumnName = "next_val", pkColumnValue = "idempotency_keys", allocationSize = 50)
     private Long id;
 
     @Column(name = "idempotency_key", unique = true, nullable = false)
     private String idempotencyKey;
 
-    @Column(nullable = false)
+    // Hex hash of the request JSON, only set on keys written before request_digest existed
     private String requestHash;
 
+    @Column(name = "request_digest", length = 32)
+    private byte[] requestDigest;
+
+    // The JSON response as sent to the client, replayed byte for byte
+    @Column(name = "response_json", length = 2048)
+    private byte[] responseJson;
+
+    // Only set on keys completed before response_json existed
     @Lob
-    @Column(nullable = false)
     private String responseBody;
 
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false)
+    private IdempotencyKeyStatus status;
+
+    // Identifies the request holding an IN_PROGRESS reservation; replaced when the reservation is taken over
+    @Column(name = "reservation_token", length = 36)
+    private String reservationToken;
+
     @CreationTimestamp
     private LocalDateTime createdAt;
 }
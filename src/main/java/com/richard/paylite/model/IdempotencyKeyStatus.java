@@ -0,0 +1,6 @@
+package com.richard.paylite.model;
+
+public enum IdempotencyKeyStatus {
+    IN_PROGRESS,
+    COMPLETED
+}
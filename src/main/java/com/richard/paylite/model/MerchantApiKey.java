@@ -0,0 +1,35 @@
+package com.richard.paylite.model;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+// Rows are written by operators (see V9), so the id comes from the column rather than id_generators
+@Entity
+@Table(name = "api_keys")
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class MerchantApiKey {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "key_digest", length = 32, unique = true, nullable = false)
+    private byte[] keyDigest;
+
+    @Column(name = "tenant_id", nullable = false)
+    private String tenantId;
+
+    @Column(nullable = false)
+    private boolean active;
+
+    @Column(nullable = false, insertable = false, updatable = false)
+    private LocalDateTime createdAt;
+}
@@ -0,0 +1,46 @@
+package com.richard.paylite.model;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+@Entity
+@Table(name = "notification_deliveries")
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class NotificationDelivery {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.TABLE, generator = "notification_deliveries_id")
+    @TableGenerator(name = "notification_deliveries_id", table = "id_generators", pkColumnName = "sequence_name",
+            valueColumnName = "next_val", pkColumnValue = "notification_deliveries", allocationSize = 50)
+    private Long id;
+
+    // The outbox event being delivered
+    @Column(nullable = false)
+    private Long eventId;
+
+    @Column(nullable = false, length = 2048)
+    private String endpoint;
+
+    @Column(nullable = false)
+    private byte[] body;
+
+    // Attempts made so far
+    @Column(nullable = false)
+    private int attempts;
+
+    @Column(nullable = false)
+    private LocalDateTime nextAttemptAt;
+
+    private String lastError;
+
+    @Column(nullable = false)
+    private LocalDateTime createdAt;
+}
@@ -0,0 +1,49 @@
+package com.richard.paylite.model;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+@Entity
+@Table(name = "outbox_events")
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class OutboxEvent {
+
+    public static final String PAYMENT_CREATED = "payment.created";
+    public static final String PAYMENT_STATUS_CHANGED = "payment.status_changed";
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.TABLE, generator = "outbox_events_id")
+    @TableGenerator(name = "outbox_events_id", table = "id_generators", pkColumnName = "sequence_name",
+            valueColumnName = "next_val", pkColumnValue = "outbox_events", allocationSize = 50)
+    private Long id;
+
+    @Column(name = "event_type", nullable = false)
+    private String eventType;
+
+    @Column(name = "payment_id", nullable = false)
+    private String paymentId;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false)
+    private PaymentStatus status;
+
+    // Null for a newly created payment
+    @Enumerated(EnumType.STRING)
+    private PaymentStatus previousStatus;
+
+    @Column(nullable = false)
+    private LocalDateTime createdAt;
+
+    private LocalDateTime publishedAt;
+
+    // Set while a relay is publishing the event; once it passes, another relay may claim the event
+    private LocalDateTime claimedUntil;
+}
@@ -20,7 +20,9 @@ import java.time.LocalDateTime;
 public class Payment {
 
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.TABLE, generator = "payments_id")
+    @TableGenerator(name = "payments_id", table = "id_generators", pkColumnName = "sequence_name",
+            valueColumnName = "next_val", pkColumnValue = "payments", allocationSize = 50)
     private Long id;
 
     @Column(unique = true, nullable = false)
@@ -37,6 +39,9 @@ public class Payment {
 
     private String reference;
 
+    // The merchant whose API key created the payment; null for payments created before V17
+    private String tenantId;
+
     @Enumerated(EnumType.STRING)
     @Column(nullable = false)
     private PaymentStatus status;
@@ -46,4 +51,7 @@ public class Payment {
 
     @UpdateTimestamp
     private LocalDateTime updatedAt;
+
+    @Version
+    private Long version;
 }
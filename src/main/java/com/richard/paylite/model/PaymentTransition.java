@@ -0,0 +1,27 @@
+package com.richard.paylite.model;
+
+import java.util.Map;
+
+/**
+ * A PSP event and the status change it causes: a payment moves to {@code to}, but only while it is
+ * in {@code from}. {@link #TABLE} is the whole payment state machine; an event that is not listed
+ * there, or that arrives when the payment is in another status, changes nothing.
+ */
+public record PaymentTransition(String event, PaymentStatus from, PaymentStatus to) {
+
+    private static final Map<String, PaymentTransition> TABLE = Map.of(
+            "payment.succeeded", new PaymentTransition("payment.succeeded", PaymentStatus.PENDING, PaymentStatus.SUCCEEDED),
+            "payment.failed", new PaymentTransition("payment.failed", PaymentStatus.PENDING, PaymentStatus.FAILED)
+    );
+
+    /**
+     * The transition for an event type, or null for an event the state machine does not know.
+     */
+    public static PaymentTransition forEvent(String event) {
+        return TABLE.get(event);
+    }
+
+    public boolean appliesTo(PaymentStatus status) {
+        return from == status;
+    }
+}
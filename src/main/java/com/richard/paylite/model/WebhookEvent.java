@@ -20,7 +20,9 @@ import java.time.LocalDateTime;
 public class WebhookEvent {
 
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.TABLE, generator = "webhook_events_id")
+    @TableGenerator(name = "webhook_events_id", table = "id_generators", pkColumnName = "sequence_name",
+            valueColumnName = "next_val", pkColumnValue = "webhook_events", allocationSize = 50)
     private Long id;
 
     private String eventExternalId;
@@ -35,6 +37,11 @@ public class WebhookEvent {
     @Column(columnDefinition = "TEXT")
     private String rawPayload;
 
+    // Where the payload is in the segmented payload store, when it is not in rawPayload
+    private Long payloadSegment;
+
+    private Long payloadOffset;
+
     @CreationTimestamp
     private LocalDateTime processedAt;
 }
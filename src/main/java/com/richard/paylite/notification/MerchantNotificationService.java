@@ -0,0 +1,325 @@
+package com.richard.paylite.notification;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.richard.paylite.dto.PaymentEvent;
+import com.richard.paylite.model.NotificationDelivery;
+import com.richard.paylite.model.PaymentStatus;
+import com.richard.paylite.repository.ArchivedPaymentRepository;
+import com.richard.paylite.repository.NotificationDeliveryRepository;
+import com.richard.paylite.repository.PaymentRepository;
+import com.richard.paylite.security.ApiKeyRegistry;
+import com.richard.paylite.util.SignatureUtil;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.StringUtils;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Notifies a merchant's endpoints when one of its payments reaches SUCCEEDED or FAILED. Endpoints
+ * are configured per tenant, as {@code paylite.notifications.endpoints.<tenant-id>}, and a payment
+ * belongs to the tenant of the API key that created it; payments from before tenants were recorded
+ * count as the {@value ApiKeyRegistry#DEFAULT_TENANT} tenant. Events come from the outbox relay (so
+ * {@code paylite.outbox.sink} must be {@code listeners}); the listener looks up the tenant and
+ * writes one {@code notification_deliveries} row per endpoint, skipping events it has already
+ * written, since the relay delivers at least once.
+ * <p>
+ * A dispatcher thread claims due rows with {@code FOR UPDATE SKIP LOCKED}, leases them for
+ * {@code claim-timeout} and hands them to the {@link NotificationDeliveryEngine}, keeping at most
+ * {@code batch-size} deliveries in memory. Outcomes are written back in batches: a delivered row is
+ * deleted, a failed one gets its attempt count raised and its next attempt put off by an
+ * exponential, jittered backoff, and one that reaches {@code max-attempts} is deleted with a
+ * warning. Retries therefore survive a restart, and a row whose node died mid-request is sent again
+ * once its lease lapses, so merchants may see a notification more than once.
+ */
+@Service
+@ConditionalOnProperty(prefix = "paylite.notifications", name = "enabled", havingValue = "true")
+public class MerchantNotificationService {
+
+    private static final Logger logger = LoggerFactory.getLogger(MerchantNotificationService.class);
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private PaymentRepository paymentRepository;
+
+    @Autowired
+    private ArchivedPaymentRepository archivedPaymentRepository;
+
+    @Autowired
+    private NotificationDeliveryRepository deliveryRepository;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    private Environment environment;
+
+    @Value("${paylite.notifications.secret}")
+    private String secret;
+
+    @Value("${paylite.notifications.max-concurrent-per-endpoint:4}")
+    private int maxConcurrentPerEndpoint;
+
+    @Value("${paylite.notifications.max-attempts:8}")
+    private int maxAttempts;
+
+    @Value("${paylite.notifications.initial-backoff:1s}")
+    private Duration initialBackoff;
+
+    @Value("${paylite.notifications.max-backoff:10m}")
+    private Duration maxBackoff;
+
+    @Value("${paylite.notifications.request-timeout:10s}")
+    private Duration requestTimeout;
+
+    @Value("${paylite.notifications.client-threads:2}")
+    private int clientThreads;
+
+    @Value("${paylite.notifications.batch-size:100}")
+    private int batchSize;
+
+    @Value("${paylite.notifications.poll-interval:1s}")
+    private Duration pollInterval;
+
+    @Value("${paylite.notifications.claim-timeout:5m}")
+    private Duration claimTimeout;
+
+    private final Semaphore wakeUps = new Semaphore(0);
+    private final Queue<Outcome> outcomes = new ConcurrentLinkedQueue<>();
+    private volatile boolean running;
+    private Thread dispatcher;
+
+    private ExecutorService clientExecutor;
+    private HttpClient client;
+    private NotificationDeliveryEngine engine;
+    private Map<String, List<URI>> endpoints;
+
+    private Counter delivered;
+    private Counter retried;
+    private Counter failed;
+
+    @PostConstruct
+    void start() {
+        clientExecutor = Executors.newFixedThreadPool(clientThreads, Thread.ofPlatform().name("notification-client-", 0).factory());
+        client = HttpClient.newBuilder()
+                .executor(clientExecutor)
+                .connectTimeout(requestTimeout)
+                .build();
+        engine = new NotificationDeliveryEngine(client, new SignatureUtil(secret),
+                new NotificationDeliveryEngine.Settings(maxConcurrentPerEndpoint, requestTimeout), meterRegistry);
+        delivered = meterRegistry.counter("paylite.notifications.deliveries", "outcome", "delivered");
+        retried = meterRegistry.counter("paylite.notifications.deliveries", "outcome", "retried");
+        failed = meterRegistry.counter("paylite.notifications.deliveries", "outcome", "failed");
+        endpoints = endpoints(environment);
+        logger.info("Merchant notifications enabled for {} tenants", endpoints.size());
+
+        running = true;
+        dispatcher = Thread.ofPlatform().name("notification-dispatcher").daemon().start(this::run);
+    }
+
+    @PreDestroy
+    void stop() throws InterruptedException {
+        running = false;
+        wakeUp();
+        dispatcher.join(TimeUnit.SECONDS.toMillis(10));
+        client.shutdownNow();
+        clientExecutor.shutdownNow();
+        // Deliveries still out stay leased and are sent again after claim-timeout
+        try {
+            recordOutcomes();
+        } catch (RuntimeException e) {
+            logger.warn("Could not record {} notification outcomes on shutdown", outcomes.size(), e);
+        }
+    }
+
+    @EventListener
+    public void onPaymentEvent(PaymentEvent event) throws JsonProcessingException {
+        if (event.status() != PaymentStatus.SUCCEEDED && event.status() != PaymentStatus.FAILED) {
+            return;
+        }
+        List<URI> merchantEndpoints = endpoints.getOrDefault(tenantOf(event.paymentId()), List.of());
+        if (merchantEndpoints.isEmpty()) {
+            return;
+        }
+        byte[] body = objectMapper.writeValueAsBytes(event);
+        LocalDateTime now = LocalDateTime.now();
+        boolean queued = transactionTemplate.execute(status -> {
+            if (deliveryRepository.existsByEventId(event.eventId())) {
+                return false;
+            }
+            deliveryRepository.saveAll(merchantEndpoints.stream()
+                    .map(endpoint -> NotificationDelivery.builder()
+                            .eventId(event.eventId())
+                            .endpoint(endpoint.toString())
+                            .body(body)
+                            .nextAttemptAt(now)
+                            .createdAt(now)
+                            .build())
+                    .toList());
+            return true;
+        });
+        if (queued) {
+            wakeUp();
+        }
+    }
+
+    private String tenantOf(String paymentId) {
+        return paymentRepository.findTenantIdByPaymentId(paymentId)
+                .or(() -> archivedPaymentRepository.findTenantIdByPaymentId(paymentId))
+                .orElse(ApiKeyRegistry.DEFAULT_TENANT);
+    }
+
+    private void wakeUp() {
+        if (wakeUps.availablePermits() == 0) {
+            wakeUps.release();
+        }
+    }
+
+    private void run() {
+        while (running) {
+            try {
+                recordOutcomes();
+                if (!dispatchDue()) {
+                    wakeUps.tryAcquire(pollInterval.toMillis(), TimeUnit.MILLISECONDS);
+                    wakeUps.drainPermits();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (RuntimeException e) {
+                logger.warn("Notification dispatcher failed, retrying in {}", pollInterval, e);
+                try {
+                    Thread.sleep(pollInterval.toMillis());
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    // Returns true if it filled the free capacity, so more rows may be due already
+    private boolean dispatchDue() {
+        int capacity = batchSize - engine.pending();
+        if (capacity <= 0) {
+            // Completing deliveries wake the dispatcher up
+            return false;
+        }
+        LocalDateTime claimedAt = LocalDateTime.now();
+        List<NotificationDelivery> due = transactionTemplate.execute(status -> {
+            List<NotificationDelivery> found = deliveryRepository.findDue(claimedAt, capacity);
+            if (!found.isEmpty()) {
+                deliveryRepository.claim(found.stream().map(NotificationDelivery::getId).toList(), claimedAt.plus(claimTimeout));
+            }
+            return found;
+        });
+        for (NotificationDelivery delivery : due) {
+            int attempt = delivery.getAttempts() + 1;
+            engine.deliver(URI.create(delivery.getEndpoint()), delivery.getBody(), attempt, failure -> {
+                outcomes.add(new Outcome(delivery.getId(), delivery.getEndpoint(), attempt, failure));
+                wakeUp();
+            });
+        }
+        return due.size() == capacity;
+    }
+
+    private void recordOutcomes() {
+        List<Outcome> batch = new ArrayList<>();
+        for (Outcome outcome; (outcome = outcomes.poll()) != null; ) {
+            batch.add(outcome);
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+        LocalDateTime now = LocalDateTime.now();
+        try {
+            transactionTemplate.executeWithoutResult(status -> {
+                List<Long> finished = new ArrayList<>();
+                for (Outcome outcome : batch) {
+                    if (outcome.failure() == null || outcome.attempt() >= maxAttempts) {
+                        finished.add(outcome.id());
+                    } else {
+                        deliveryRepository.reschedule(outcome.id(), outcome.attempt(),
+                                now.plus(backoff(outcome.attempt())), truncate(outcome.failure()));
+                    }
+                }
+                if (!finished.isEmpty()) {
+                    deliveryRepository.deleteByIds(finished);
+                }
+            });
+        } catch (RuntimeException e) {
+            // Tried again on the next round
+            outcomes.addAll(batch);
+            throw e;
+        }
+        for (Outcome outcome : batch) {
+            if (outcome.failure() == null) {
+                delivered.increment();
+            } else if (outcome.attempt() >= maxAttempts) {
+                failed.increment();
+                logger.warn("Giving up on notification to {} after {} attempts: {}", outcome.endpoint(), outcome.attempt(), outcome.failure());
+            } else {
+                retried.increment();
+            }
+        }
+    }
+
+    // Half of the exponential delay plus a random share of the other half, so retries from a burst spread out
+    Duration backoff(int attempt) {
+        long initial = initialBackoff.toMillis();
+        long max = maxBackoff.toMillis();
+        long delay = Math.min(max, initial << Math.min(attempt - 1, 30));
+        return Duration.ofMillis(delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1));
+    }
+
+    private static String truncate(String failure) {
+        return failure.length() > 255 ? failure.substring(0, 255) : failure;
+    }
+
+    private record Outcome(Long id, String endpoint, int attempt, String failure) {
+    }
+
+    // paylite.notifications.endpoints.<tenant-id>=<url>,<url>; a tenant id with dots goes in brackets
+    static Map<String, List<URI>> endpoints(Environment environment) {
+        Map<String, List<URI>> endpoints = new HashMap<>();
+        Binder.get(environment).bind("paylite.notifications.endpoints", Bindable.mapOf(String.class, String.class))
+                .ifBound(urls -> urls.forEach((tenant, list) -> endpoints.put(tenant,
+                        Arrays.stream(StringUtils.commaDelimitedListToStringArray(list))
+                                .map(String::trim).filter(url -> !url.isEmpty()).map(URI::create).toList())));
+        return endpoints;
+    }
+}
@@ -0,0 +1,162 @@
+package com.richard.paylite.notification;
+
+import com.richard.paylite.util.SignatureUtil;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Sends signed notifications to merchant endpoints without blocking a thread per request.
+ * <p>
+ * Requests go out through {@link HttpClient#sendAsync}. Each endpoint has at most
+ * {@code maxConcurrentPerEndpoint} requests in flight; further deliveries wait in a per-endpoint
+ * queue and are started as earlier ones complete, so one slow merchant cannot take every
+ * connection. The engine makes one attempt per {@link #deliver} call and reports how it went to the
+ * caller's {@link Callback}; retrying is up to the caller ({@link MerchantNotificationService} keeps
+ * pending deliveries in the database).
+ * <p>
+ * The body is signed like PSP webhooks are verified ({@link SignatureUtil}): the hex HMAC-SHA256 of
+ * the raw body, sent in {@value #SIGNATURE_HEADER}.
+ */
+public class NotificationDeliveryEngine {
+
+    public static final String SIGNATURE_HEADER = "X-PayLite-Signature";
+    public static final String ATTEMPT_HEADER = "X-PayLite-Delivery-Attempt";
+
+    private static final Logger logger = LoggerFactory.getLogger(NotificationDeliveryEngine.class);
+
+    public record Settings(int maxConcurrentPerEndpoint, Duration requestTimeout) {
+    }
+
+    /**
+     * Told once how an attempt went, on an HTTP client thread; keep it short.
+     */
+    @FunctionalInterface
+    public interface Callback {
+
+        /**
+         * @param failure null if the endpoint answered 2xx, otherwise what went wrong
+         */
+        void completed(String failure);
+    }
+
+    private final HttpClient client;
+    private final SignatureUtil signer;
+    private final Settings settings;
+    private final Map<URI, Endpoint> endpoints = new ConcurrentHashMap<>();
+    private final AtomicInteger pending = new AtomicInteger();
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    public NotificationDeliveryEngine(HttpClient client, SignatureUtil signer, Settings settings, MeterRegistry meterRegistry) {
+        this.client = client;
+        this.signer = signer;
+        this.settings = settings;
+        Gauge.builder("paylite.notifications.in-flight", inFlight, AtomicInteger::get)
+                .description("Notification requests waiting for a response")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Queues one attempt at a notification; returns at once.
+     */
+    public void deliver(URI endpoint, byte[] body, int attempt, Callback callback) {
+        pending.incrementAndGet();
+        Delivery delivery = new Delivery(endpoint, body, attempt, callback);
+        endpoints.computeIfAbsent(endpoint, uri -> new Endpoint()).submit(delivery);
+    }
+
+    /**
+     * Deliveries handed to {@link #deliver} whose callback has not run yet, waiting or in flight.
+     */
+    public int pending() {
+        return pending.get();
+    }
+
+    private void send(Endpoint endpoint, Delivery delivery) {
+        HttpRequest request;
+        try {
+            request = HttpRequest.newBuilder(delivery.endpoint)
+                    .timeout(settings.requestTimeout())
+                    .header("Content-Type", "application/json")
+                    .header(SIGNATURE_HEADER, signer.calculateHmacSha256(delivery.body))
+                    .header(ATTEMPT_HEADER, Integer.toString(delivery.attempt))
+                    .POST(HttpRequest.BodyPublishers.ofByteArray(delivery.body))
+                    .build();
+        } catch (IllegalArgumentException e) {
+            logger.warn("Cannot send notification to {}", delivery.endpoint, e);
+            endpoint.completed();
+            complete(delivery, "Invalid endpoint: " + e.getMessage());
+            return;
+        }
+        inFlight.incrementAndGet();
+        client.sendAsync(request, HttpResponse.BodyHandlers.discarding()).whenComplete((response, error) -> {
+            inFlight.decrementAndGet();
+            endpoint.completed();
+            complete(delivery, error != null ? error.toString()
+                    : response.statusCode() / 100 == 2 ? null : "HTTP " + response.statusCode());
+        });
+    }
+
+    private void complete(Delivery delivery, String failure) {
+        pending.decrementAndGet();
+        try {
+            delivery.callback.completed(failure);
+        } catch (RuntimeException e) {
+            logger.warn("Notification callback for {} failed", delivery.endpoint, e);
+        }
+    }
+
+    private record Delivery(URI endpoint, byte[] body, int attempt, Callback callback) {
+    }
+
+    /**
+     * Admission per endpoint: a lock-free count of requests in flight and a queue of deliveries
+     * waiting for one to finish.
+     */
+    private final class Endpoint {
+
+        private final Queue<Delivery> waiting = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger active = new AtomicInteger();
+
+        void submit(Delivery delivery) {
+            waiting.add(delivery);
+            drain();
+        }
+
+        void completed() {
+            active.decrementAndGet();
+            drain();
+        }
+
+        private void drain() {
+            while (!waiting.isEmpty()) {
+                int current = active.get();
+                if (current >= settings.maxConcurrentPerEndpoint()) {
+                    // The request holding the slot drains again when it completes
+                    return;
+                }
+                if (!active.compareAndSet(current, current + 1)) {
+                    continue;
+                }
+                Delivery delivery = waiting.poll();
+                if (delivery == null) {
+                    active.decrementAndGet();
+                    continue;
+                }
+                send(this, delivery);
+            }
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package com.richard.paylite.outbox;
+
+import com.richard.paylite.dto.PaymentEvent;
+import org.springframework.context.ApplicationEventPublisher;
+
+import java.util.List;
+
+/**
+ * Delivers each event to in-process {@code @EventListener(PaymentEvent.class)} methods, on the
+ * relay thread. A listener that throws fails the whole batch, which is then delivered again.
+ */
+public class ApplicationEventOutboxSink implements OutboxSink {
+
+    private final ApplicationEventPublisher publisher;
+
+    public ApplicationEventOutboxSink(ApplicationEventPublisher publisher) {
+        this.publisher = publisher;
+    }
+
+    @Override
+    public void publish(List<PaymentEvent> events) {
+        events.forEach(publisher::publishEvent);
+    }
+}
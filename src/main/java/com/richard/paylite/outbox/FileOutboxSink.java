@@ -0,0 +1,58 @@
+package com.richard.paylite.outbox;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.richard.paylite.dto.PaymentEvent;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * Appends events to a file as newline-delimited JSON, one write and (optionally) one fsync per
+ * batch. The file is only ever appended to; rotating or truncating it is left to whoever reads it.
+ */
+public class FileOutboxSink implements OutboxSink, Closeable {
+
+    private final ObjectMapper objectMapper;
+    private final boolean fsync;
+    private final FileChannel channel;
+    private final ByteArrayOutputStream buffer = new ByteArrayOutputStream(64 * 1024);
+
+    public FileOutboxSink(ObjectMapper objectMapper, Path file, boolean fsync) throws IOException {
+        this.objectMapper = objectMapper;
+        this.fsync = fsync;
+        Path directory = file.toAbsolutePath().getParent();
+        if (directory != null) {
+            Files.createDirectories(directory);
+        }
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    // Only called from the relay thread
+    @Override
+    public void publish(List<PaymentEvent> events) throws IOException {
+        buffer.reset();
+        for (PaymentEvent event : events) {
+            objectMapper.writeValue(buffer, event);
+            buffer.write('\n');
+        }
+        ByteBuffer bytes = ByteBuffer.wrap(buffer.toByteArray());
+        while (bytes.hasRemaining()) {
+            channel.write(bytes);
+        }
+        if (fsync) {
+            channel.force(false);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,201 @@
+package com.richard.paylite.outbox;
+
+import com.richard.paylite.dto.PaymentEvent;
+import com.richard.paylite.model.OutboxEvent;
+import com.richard.paylite.repository.OutboxEventRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Delivers outbox events to the configured {@link OutboxSink} from a single background thread.
+ * <p>
+ * Each round claims up to {@code batch-size} unpublished rows, oldest first, with
+ * {@code FOR UPDATE SKIP LOCKED} and leases them for {@code claim-timeout} in a short transaction,
+ * so relays on several nodes split the backlog between them instead of blocking on or
+ * double-delivering the same rows. The sink is called after that transaction commits, so no row
+ * locks are held while it writes, and the batch is marked published in a second short transaction.
+ * A batch the sink rejects is released for the next round; one whose relay died is claimed again
+ * once its lease lapses. The relay keeps going while batches come back full, then sleeps until a
+ * transaction that wrote an event commits or {@code poll-interval} passes (which also picks up
+ * events written by other nodes). Published rows are deleted in chunks once they are older than
+ * {@code retention}.
+ */
+@Component
+@ConditionalOnProperty(prefix = "paylite.outbox.relay", name = "enabled", havingValue = "true", matchIfMissing = true)
+public class OutboxRelay {
+
+    private static final Logger logger = LoggerFactory.getLogger(OutboxRelay.class);
+
+    @Autowired
+    private OutboxEventRepository outboxEventRepository;
+
+    @Autowired
+    private OutboxSink sink;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${paylite.outbox.relay.batch-size:500}")
+    private int batchSize;
+
+    @Value("${paylite.outbox.relay.poll-interval:1s}")
+    private Duration pollInterval;
+
+    @Value("${paylite.outbox.relay.claim-timeout:1m}")
+    private Duration claimTimeout;
+
+    @Value("${paylite.outbox.cleanup.retention:1h}")
+    private Duration retention;
+
+    @Value("${paylite.outbox.cleanup.interval:1m}")
+    private Duration cleanupInterval;
+
+    @Value("${paylite.outbox.cleanup.batch-size:5000}")
+    private int cleanupBatchSize;
+
+    private final Semaphore wakeUps = new Semaphore(0);
+    private volatile boolean running;
+    private Thread thread;
+
+    private Counter published;
+    private Counter deleted;
+    private Counter failures;
+    private Timer lag;
+
+    @PostConstruct
+    void start() {
+        published = meterRegistry.counter("paylite.outbox.published");
+        deleted = meterRegistry.counter("paylite.outbox.deleted");
+        failures = meterRegistry.counter("paylite.outbox.failures");
+        lag = Timer.builder("paylite.outbox.lag")
+                .description("Time from writing an outbox event to publishing it")
+                .publishPercentiles(0.5, 0.95, 0.99)
+                .register(meterRegistry);
+
+        running = true;
+        thread = Thread.ofPlatform().name("outbox-relay").daemon().start(this::run);
+    }
+
+    @PreDestroy
+    void stop() throws InterruptedException {
+        running = false;
+        wakeUp();
+        thread.join(TimeUnit.SECONDS.toMillis(10));
+    }
+
+    /**
+     * Makes the relay look for new events now rather than at the next poll. Cheap enough to call
+     * after every commit: wake-ups that arrive while the relay is busy collapse into one.
+     */
+    public void wakeUp() {
+        if (wakeUps.availablePermits() == 0) {
+            wakeUps.release();
+        }
+    }
+
+    private void run() {
+        long nextCleanup = System.nanoTime() + cleanupInterval.toNanos();
+        while (running) {
+            try {
+                int relayed = relayBatch();
+                if (System.nanoTime() - nextCleanup >= 0) {
+                    cleanUp();
+                    nextCleanup = System.nanoTime() + cleanupInterval.toNanos();
+                }
+                if (relayed < batchSize) {
+                    wakeUps.tryAcquire(pollInterval.toMillis(), TimeUnit.MILLISECONDS);
+                    wakeUps.drainPermits();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (RuntimeException e) {
+                failures.increment();
+                logger.warn("Outbox relay failed, retrying in {}", pollInterval, e);
+                try {
+                    Thread.sleep(pollInterval.toMillis());
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    private int relayBatch() {
+        LocalDateTime claimedAt = LocalDateTime.now();
+        List<OutboxEvent> events = transactionTemplate.execute(status -> {
+            List<OutboxEvent> claimable = outboxEventRepository.findClaimable(claimedAt, batchSize);
+            if (!claimable.isEmpty()) {
+                outboxEventRepository.claim(ids(claimable), claimedAt.plus(claimTimeout));
+            }
+            return claimable;
+        });
+        if (events.isEmpty()) {
+            return 0;
+        }
+        List<Long> ids = ids(events);
+        boolean delivered = false;
+        try {
+            sink.publish(events.stream().map(PaymentEvent::from).toList());
+            delivered = true;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            if (!delivered) {
+                release(ids);
+            }
+        }
+        LocalDateTime now = LocalDateTime.now();
+        transactionTemplate.executeWithoutResult(status -> outboxEventRepository.markPublished(ids, now));
+        for (OutboxEvent event : events) {
+            lag.record(Duration.between(event.getCreatedAt(), now));
+        }
+        published.increment(events.size());
+        return events.size();
+    }
+
+    // Best effort: if this fails too, the batch is claimed again once its lease lapses
+    private void release(List<Long> ids) {
+        try {
+            transactionTemplate.executeWithoutResult(status -> outboxEventRepository.release(ids));
+        } catch (RuntimeException e) {
+            logger.warn("Could not release {} outbox events, they are retried after {}", ids.size(), claimTimeout, e);
+        }
+    }
+
+    private static List<Long> ids(List<OutboxEvent> events) {
+        return events.stream().map(OutboxEvent::getId).toList();
+    }
+
+    // Chunked, each chunk in its own transaction, so a large backlog never holds locks for long
+    private void cleanUp() {
+        LocalDateTime publishedBefore = LocalDateTime.now().minus(retention);
+        int removed;
+        do {
+            removed = transactionTemplate.execute(status -> outboxEventRepository.deletePublishedBefore(publishedBefore, cleanupBatchSize));
+            deleted.increment(removed);
+        } while (removed == cleanupBatchSize && running);
+    }
+}
@@ -0,0 +1,20 @@
+package com.richard.paylite.outbox;
+
+import com.richard.paylite.dto.PaymentEvent;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Where {@link OutboxRelay} delivers payment events. Each batch is in the order the events were
+ * written, but order across batches is best effort: a transaction that commits after a later one,
+ * a batch that is retried, or relays on several nodes can deliver a payment's later event first,
+ * so subscribers should apply a status change only when its {@code previousStatus} matches the
+ * status they hold. The events are marked as published only after {@code publish} returns; if it
+ * throws, or the process dies before the mark commits, the same events are delivered again, so
+ * delivery is at least once.
+ */
+public interface OutboxSink {
+
+    void publish(List<PaymentEvent> events) throws IOException;
+}
@@ -0,0 +1,85 @@
+package com.richard.paylite.outbox;
+
+import com.richard.paylite.model.OutboxEvent;
+import com.richard.paylite.model.Payment;
+import com.richard.paylite.model.PaymentStatus;
+import com.richard.paylite.repository.OutboxEventRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Records payment events in {@code outbox_events} as part of the caller's transaction, so an event
+ * exists exactly when the change it describes was committed. {@link OutboxRelay} delivers them
+ * afterwards and is woken as soon as the transaction commits.
+ */
+@Component
+@Transactional(propagation = Propagation.MANDATORY)
+public class PaymentEventOutbox {
+
+    @Autowired
+    private OutboxEventRepository outboxEventRepository;
+
+    @Autowired(required = false)
+    private OutboxRelay relay;
+
+    public void paymentCreated(Payment payment) {
+        outboxEventRepository.save(created(payment, LocalDateTime.now()));
+        wakeRelayAfterCommit();
+    }
+
+    public void paymentsCreated(List<Payment> payments) {
+        LocalDateTime now = LocalDateTime.now();
+        outboxEventRepository.saveAll(payments.stream().map(payment -> created(payment, now)).toList());
+        wakeRelayAfterCommit();
+    }
+
+    public void statusChanged(String paymentId, PaymentStatus from, PaymentStatus to) {
+        outboxEventRepository.save(statusChanged(paymentId, from, to, LocalDateTime.now()));
+        wakeRelayAfterCommit();
+    }
+
+    public void statusesChanged(Collection<String> paymentIds, PaymentStatus from, PaymentStatus to) {
+        LocalDateTime now = LocalDateTime.now();
+        outboxEventRepository.saveAll(paymentIds.stream().map(paymentId -> statusChanged(paymentId, from, to, now)).toList());
+        wakeRelayAfterCommit();
+    }
+
+    private static OutboxEvent created(Payment payment, LocalDateTime now) {
+        return OutboxEvent.builder()
+                .eventType(OutboxEvent.PAYMENT_CREATED)
+                .paymentId(payment.getPaymentId())
+                .status(payment.getStatus())
+                .createdAt(now)
+                .build();
+    }
+
+    private static OutboxEvent statusChanged(String paymentId, PaymentStatus from, PaymentStatus to, LocalDateTime now) {
+        return OutboxEvent.builder()
+                .eventType(OutboxEvent.PAYMENT_STATUS_CHANGED)
+                .paymentId(paymentId)
+                .status(to)
+                .previousStatus(from)
+                .createdAt(now)
+                .build();
+    }
+
+    private void wakeRelayAfterCommit() {
+        if (relay == null) {
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                relay.wakeUp();
+            }
+        });
+    }
+}
@@ -0,0 +1,43 @@
+package com.richard.paylite.repository;
+
+import com.richard.paylite.model.ArchivedPayment;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+@Repository
+public interface ArchivedPaymentRepository extends JpaRepository<ArchivedPayment, Long> {
+    @Transactional(readOnly = true)
+    Optional<ArchivedPayment> findByPaymentId(String paymentId);
+
+    boolean existsByPaymentId(String paymentId);
+
+    List<PaymentStatusView> findStatusesByPaymentIdIn(Collection<String> paymentIds);
+
+    @Query("SELECT p.tenantId FROM ArchivedPayment p WHERE p.paymentId = :paymentId")
+    Optional<String> findTenantIdByPaymentId(@Param("paymentId") String paymentId);
+
+    @Modifying
+    @Query(value = "INSERT INTO payments_archive (id, payment_id, amount, currency, customer_email, reference, tenant_id, " +
+            "status, version, created_at, updated_at, archived_at) " +
+            "SELECT id, payment_id, amount, currency, customer_email, reference, tenant_id, status, version, created_at, " +
+            "updated_at, :now " +
+            "FROM payments WHERE payment_id IN (:paymentIds)", nativeQuery = true)
+    int copyPayments(@Param("paymentIds") Collection<String> paymentIds, @Param("now") LocalDateTime now);
+
+    @Modifying
+    @Query(value = "INSERT INTO webhook_events_archive (id, event_external_id, payment_id, event_type, raw_payload, " +
+            "payload_segment, payload_offset, processed_at, archived_at) " +
+            "SELECT id, event_external_id, payment_id, event_type, raw_payload, payload_segment, payload_offset, " +
+            "processed_at, :now " +
+            "FROM webhook_events WHERE id IN (:ids)", nativeQuery = true)
+    int copyWebhookEvents(@Param("ids") Collection<Long> ids, @Param("now") LocalDateTime now);
+}
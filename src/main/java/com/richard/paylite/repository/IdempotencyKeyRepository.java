@@ -2,11 +2,52 @@ package com.richard.paylite.repository;
 
 import com.richard.paylite.model.IdempotencyKey;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
 
 @Repository
 public interface IdempotencyKeyRepository extends JpaRepository<IdempotencyKey, Long> {
     Optional<IdempotencyKey> findByIdempotencyKey(String idempotencyKey);
+
+    List<IdempotencyKey> findByIdempotencyKeyIn(Collection<String> idempotencyKeys);
+
+    @Modifying
+    @Query("UPDATE IdempotencyKey k SET k.status = com.richard.paylite.model.IdempotencyKeyStatus.COMPLETED, " +
+            "k.responseJson = :responseJson WHERE k.idempotencyKey = :idempotencyKey " +
+            "AND k.reservationToken = :reservationToken AND k.status = com.richard.paylite.model.IdempotencyKeyStatus.IN_PROGRESS")
+    int complete(@Param("idempotencyKey") String idempotencyKey,
+                 @Param("reservationToken") String reservationToken,
+                 @Param("responseJson") byte[] responseJson);
+
+    // A reservation whose owner died mid-request is taken over once it is older than the reservation timeout
+    @Modifying
+    @Query("UPDATE IdempotencyKey k SET k.requestDigest = :requestHash, k.requestHash = null, " +
+            "k.reservationToken = :reservationToken, k.createdAt = :now WHERE k.idempotencyKey = :idempotencyKey " +
+            "AND k.status = com.richard.paylite.model.IdempotencyKeyStatus.IN_PROGRESS AND k.createdAt < :staleBefore")
+    int takeOverStaleReservation(@Param("idempotencyKey") String idempotencyKey,
+                                 @Param("requestHash") byte[] requestHash,
+                                 @Param("reservationToken") String reservationToken,
+                                 @Param("now") LocalDateTime now,
+                                 @Param("staleBefore") LocalDateTime staleBefore);
+
+    // Only while the reservation is still the caller's: after a takeover the token belongs to the new owner
+    @Modifying
+    @Query("DELETE FROM IdempotencyKey k WHERE k.idempotencyKey = :idempotencyKey " +
+            "AND k.reservationToken = :reservationToken AND k.status = com.richard.paylite.model.IdempotencyKeyStatus.IN_PROGRESS")
+    int releaseReservation(@Param("idempotencyKey") String idempotencyKey,
+                           @Param("reservationToken") String reservationToken);
+
+    // Oldest first along idx_idempotency_keys_created_at; the derived table lets the LIMITed subquery
+    // read the table it deletes from, which MySQL refuses for a plain subquery
+    @Modifying
+    @Query(value = "DELETE FROM idempotency_keys WHERE id IN (SELECT id FROM (SELECT id FROM idempotency_keys "
+            + "WHERE created_at < :createdBefore ORDER BY created_at LIMIT :limit) oldest)", nativeQuery = true)
+    int deleteCreatedBefore(@Param("createdBefore") LocalDateTime createdBefore, @Param("limit") int limit);
 }
@@ -0,0 +1,12 @@
+package com.richard.paylite.repository;
+
+import com.richard.paylite.model.MerchantApiKey;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+
+@Repository
+public interface MerchantApiKeyRepository extends JpaRepository<MerchantApiKey, Long> {
+    List<MerchantApiKey> findByActiveTrue();
+}
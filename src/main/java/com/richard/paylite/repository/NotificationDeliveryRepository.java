@@ -0,0 +1,38 @@
+package com.richard.paylite.repository;
+
+import com.richard.paylite.model.NotificationDelivery;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+
+@Repository
+public interface NotificationDeliveryRepository extends JpaRepository<NotificationDelivery, Long> {
+
+    boolean existsByEventId(Long eventId);
+
+    // Locked only for the short claim transaction; other dispatchers skip them instead of waiting
+    @Query(value = "SELECT * FROM notification_deliveries WHERE next_attempt_at <= :now "
+            + "ORDER BY next_attempt_at LIMIT :limit FOR UPDATE SKIP LOCKED",
+            nativeQuery = true)
+    List<NotificationDelivery> findDue(@Param("now") LocalDateTime now, @Param("limit") int limit);
+
+    @Modifying
+    @Query("UPDATE NotificationDelivery d SET d.nextAttemptAt = :until WHERE d.id IN :ids")
+    int claim(@Param("ids") Collection<Long> ids, @Param("until") LocalDateTime until);
+
+    @Modifying
+    @Query("UPDATE NotificationDelivery d SET d.attempts = :attempts, d.nextAttemptAt = :nextAttemptAt, d.lastError = :lastError "
+            + "WHERE d.id = :id")
+    int reschedule(@Param("id") Long id, @Param("attempts") int attempts,
+                   @Param("nextAttemptAt") LocalDateTime nextAttemptAt, @Param("lastError") String lastError);
+
+    @Modifying
+    @Query("DELETE FROM NotificationDelivery d WHERE d.id IN :ids")
+    int deleteByIds(@Param("ids") Collection<Long> ids);
+}
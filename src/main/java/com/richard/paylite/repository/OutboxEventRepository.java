@@ -0,0 +1,38 @@
+package com.richard.paylite.repository;
+
+import com.richard.paylite.model.OutboxEvent;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+
+@Repository
+public interface OutboxEventRepository extends JpaRepository<OutboxEvent, Long> {
+
+    // Locked only for the short claim transaction; other relays skip them instead of waiting
+    @Query(value = "SELECT * FROM outbox_events WHERE published_at IS NULL AND (claimed_until IS NULL OR claimed_until < :now) "
+            + "ORDER BY created_at, id LIMIT :limit FOR UPDATE SKIP LOCKED",
+            nativeQuery = true)
+    List<OutboxEvent> findClaimable(@Param("now") LocalDateTime now, @Param("limit") int limit);
+
+    @Modifying
+    @Query("UPDATE OutboxEvent e SET e.claimedUntil = :until WHERE e.id IN :ids")
+    int claim(@Param("ids") Collection<Long> ids, @Param("until") LocalDateTime until);
+
+    @Modifying
+    @Query("UPDATE OutboxEvent e SET e.claimedUntil = NULL WHERE e.id IN :ids AND e.publishedAt IS NULL")
+    int release(@Param("ids") Collection<Long> ids);
+
+    @Modifying
+    @Query("UPDATE OutboxEvent e SET e.publishedAt = :now WHERE e.id IN :ids")
+    int markPublished(@Param("ids") Collection<Long> ids, @Param("now") LocalDateTime now);
+
+    @Modifying
+    @Query(value = "DELETE FROM outbox_events WHERE published_at < :publishedBefore LIMIT :limit", nativeQuery = true)
+    int deletePublishedBefore(@Param("publishedBefore") LocalDateTime publishedBefore, @Param("limit") int limit);
+}
@@ -1,12 +1,56 @@
 package com.richard.paylite.repository;
 
 import com.richard.paylite.model.Payment;
+import com.richard.paylite.model.PaymentStatus;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
 
 @Repository
-public interface PaymentRepository extends JpaRepository<Payment, Long> {
+public interface PaymentRepository extends JpaRepository<Payment, Long>, PaymentSearchRepository {
+    // Read-only on its own (so a configured replica serves it); joins the caller's transaction otherwise
+    @Transactional(readOnly = true)
     Optional<Payment> findByPaymentId(String paymentId);
+
+    boolean existsByPaymentId(String paymentId);
+
+    List<PaymentStatusView> findStatusesByPaymentIdIn(Collection<String> paymentIds);
+
+    @Query("SELECT p.tenantId FROM Payment p WHERE p.paymentId = :paymentId")
+    Optional<String> findTenantIdByPaymentId(@Param("paymentId") String paymentId);
+
+    // Compare-and-set on the status; the row count says whether this caller made the change
+    @Modifying
+    @Query("UPDATE Payment p SET p.status = :to, p.version = p.version + 1, p.updatedAt = :now " +
+            "WHERE p.paymentId = :paymentId AND p.status = :from")
+    int transition(@Param("paymentId") String paymentId,
+                   @Param("from") PaymentStatus from,
+                   @Param("to") PaymentStatus to,
+                   @Param("now") LocalDateTime now);
+
+    @Modifying
+    @Query("UPDATE Payment p SET p.status = :to, p.version = p.version + 1, p.updatedAt = :now " +
+            "WHERE p.paymentId IN :paymentIds AND p.status = :from")
+    int transitionAll(@Param("paymentIds") Collection<String> paymentIds,
+                      @Param("from") PaymentStatus from,
+                      @Param("to") PaymentStatus to,
+                      @Param("now") LocalDateTime now);
+
+    // Finished payments the archiver may move. Rows locked by a running transaction are skipped and
+    // picked up by a later batch; created_at narrows the scan through the (status, created_at, id) index.
+    @Query(value = "SELECT payment_id FROM payments WHERE status IN ('SUCCEEDED', 'FAILED') " +
+            "AND created_at < :before AND updated_at < :before LIMIT :limit FOR UPDATE SKIP LOCKED", nativeQuery = true)
+    List<String> lockArchivable(@Param("before") LocalDateTime before, @Param("limit") int limit);
+
+    @Modifying
+    @Query(value = "DELETE FROM payments WHERE payment_id IN (:paymentIds)", nativeQuery = true)
+    int deleteArchived(@Param("paymentIds") Collection<String> paymentIds);
 }
@@ -0,0 +1,16 @@
+package com.richard.paylite.repository;
+
+import com.richard.paylite.dto.PaymentCursor;
+import com.richard.paylite.dto.PaymentSearchFilter;
+import com.richard.paylite.dto.PaymentSummary;
+
+import java.util.List;
+
+public interface PaymentSearchRepository {
+
+    /**
+     * Up to {@code limit} payments matching the filter, newest first, strictly after {@code after}
+     * (or from the start when null).
+     */
+    List<PaymentSummary> search(PaymentSearchFilter filter, PaymentCursor after, int limit);
+}
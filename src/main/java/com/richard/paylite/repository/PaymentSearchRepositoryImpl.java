@@ -0,0 +1,94 @@
+package com.richard.paylite.repository;
+
+import com.richard.paylite.dto.PaymentCursor;
+import com.richard.paylite.dto.PaymentSearchFilter;
+import com.richard.paylite.dto.PaymentSummary;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import jakarta.persistence.TypedQuery;
+import org.springframework.beans.factory.annotation.Value;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Builds the search query from only the filters that are set, so each combination can use the
+ * matching {@code (filter, created_at, id)} index. Pages are found by seeking past the cursor
+ * rather than with OFFSET, so a deep page costs the same as the first.
+ * <p>
+ * Payments moved to {@code payments_archive} keep their ids, so when the range may reach back
+ * past {@code paylite.archive.retention} the archive is searched the same way and the two pages
+ * are merged. A range that starts inside the retention cannot contain archived payments and only
+ * reads the hot table.
+ */
+public class PaymentSearchRepositoryImpl implements PaymentSearchRepository {
+
+    private static final Comparator<PaymentSummary> NEWEST_FIRST =
+            Comparator.comparing(PaymentSummary::createdAt).thenComparing(PaymentSummary::id).reversed();
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Value("${paylite.archive.retention:90d}")
+    private Duration archiveRetention;
+
+    @Override
+    public List<PaymentSummary> search(PaymentSearchFilter filter, PaymentCursor after, int limit) {
+        List<PaymentSummary> payments = search("Payment", filter, after, limit);
+        if (filter.createdFrom() != null && !filter.createdFrom().isBefore(LocalDateTime.now().minus(archiveRetention))) {
+            return payments;
+        }
+        List<PaymentSummary> archived = search("ArchivedPayment", filter, after, limit);
+        if (archived.isEmpty()) {
+            return payments;
+        }
+        List<PaymentSummary> merged = new ArrayList<>(payments.size() + archived.size());
+        merged.addAll(payments);
+        merged.addAll(archived);
+        merged.sort(NEWEST_FIRST);
+        return merged.subList(0, Math.min(limit, merged.size()));
+    }
+
+    private List<PaymentSummary> search(String entity, PaymentSearchFilter filter, PaymentCursor after, int limit) {
+        StringBuilder jpql = new StringBuilder("SELECT new com.richard.paylite.dto.PaymentSummary(" +
+                "p.id, p.paymentId, p.amount, p.currency, p.customerEmail, p.reference, p.status, p.createdAt) " +
+                "FROM " + entity + " p WHERE 1 = 1");
+        Map<String, Object> parameters = new HashMap<>();
+
+        if (filter.reference() != null) {
+            jpql.append(" AND p.reference = :reference");
+            parameters.put("reference", filter.reference());
+        }
+        if (filter.customerEmail() != null) {
+            jpql.append(" AND p.customerEmail = :customerEmail");
+            parameters.put("customerEmail", filter.customerEmail());
+        }
+        if (filter.status() != null) {
+            jpql.append(" AND p.status = :status");
+            parameters.put("status", filter.status());
+        }
+        if (filter.createdFrom() != null) {
+            jpql.append(" AND p.createdAt >= :createdFrom");
+            parameters.put("createdFrom", filter.createdFrom());
+        }
+        if (filter.createdTo() != null) {
+            jpql.append(" AND p.createdAt < :createdTo");
+            parameters.put("createdTo", filter.createdTo());
+        }
+        if (after != null) {
+            jpql.append(" AND (p.createdAt < :afterCreatedAt OR (p.createdAt = :afterCreatedAt AND p.id < :afterId))");
+            parameters.put("afterCreatedAt", after.createdAt());
+            parameters.put("afterId", after.id());
+        }
+        jpql.append(" ORDER BY p.createdAt DESC, p.id DESC");
+
+        TypedQuery<PaymentSummary> query = entityManager.createQuery(jpql.toString(), PaymentSummary.class);
+        parameters.forEach(query::setParameter);
+        return query.setMaxResults(limit).getResultList();
+    }
+}
@@ -0,0 +1,12 @@
+package com.richard.paylite.repository;
+
+import com.richard.paylite.model.PaymentStatus;
+
+/**
+ * Projection of a payment's current status.
+ */
+public interface PaymentStatusView {
+    String getPaymentId();
+
+    PaymentStatus getStatus();
+}
@@ -0,0 +1,19 @@
+package com.richard.paylite.repository;
+
+import java.time.LocalDateTime;
+
+/**
+ * Projection of a recorded webhook event with where its payload is: {@code rawPayload} for rows
+ * written without the payload store, the segment and offset otherwise.
+ */
+public interface StoredWebhookEventView {
+    String getEventType();
+
+    LocalDateTime getProcessedAt();
+
+    String getRawPayload();
+
+    Long getPayloadSegment();
+
+    Long getPayloadOffset();
+}
@@ -0,0 +1,10 @@
+package com.richard.paylite.repository;
+
+/**
+ * Projection of the (paymentId, eventType) pair that identifies a processed webhook event.
+ */
+public interface WebhookEventKey {
+    String getPaymentId();
+
+    String getEventType();
+}
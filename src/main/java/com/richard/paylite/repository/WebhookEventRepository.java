@@ -2,9 +2,31 @@ package com.richard.paylite.repository;
 
 import com.richard.paylite.model.WebhookEvent;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
+import java.util.List;
+
 @Repository
 public interface WebhookEventRepository extends JpaRepository<WebhookEvent, Long> {
     boolean existsByPaymentIdAndEventType(String paymentId, String eventType);
+
+    List<WebhookEventKey> findByPaymentIdIn(Collection<String> paymentIds);
+
+    // Archived events too, so audits see a payment's whole history
+    @Query(value = "SELECT event_type AS eventType, processed_at AS processedAt, raw_payload AS rawPayload, " +
+            "payload_segment AS payloadSegment, payload_offset AS payloadOffset FROM webhook_events WHERE payment_id = :paymentId " +
+            "UNION ALL SELECT event_type, processed_at, raw_payload, payload_segment, payload_offset " +
+            "FROM webhook_events_archive WHERE payment_id = :paymentId ORDER BY processedAt", nativeQuery = true)
+    List<StoredWebhookEventView> findStoredByPaymentId(@Param("paymentId") String paymentId);
+
+    @Query(value = "SELECT id FROM webhook_events WHERE payment_id IN (:paymentIds) FOR UPDATE", nativeQuery = true)
+    List<Long> lockIdsByPaymentIdIn(@Param("paymentIds") Collection<String> paymentIds);
+
+    @Modifying
+    @Query(value = "DELETE FROM webhook_events WHERE id IN (:ids)", nativeQuery = true)
+    int deleteArchived(@Param("ids") Collection<Long> ids);
 }
@@ -0,0 +1,26 @@
+package com.richard.paylite.security;
+
+import java.util.Arrays;
+
+/**
+ * An accepted API key and the tenant (merchant) it belongs to. Only the key's SHA-256 digest is
+ * kept; {@code id} is a short hex prefix of it, safe to log and to use as a metric tag. Two
+ * instances are equal when their digests are, so per-key state survives a registry reload.
+ */
+public record ApiKey(String id, String tenantId, byte[] digest) {
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof ApiKey other && Arrays.equals(digest, other.digest);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(digest);
+    }
+
+    @Override
+    public String toString() {
+        return "ApiKey[id=" + id + ", tenantId=" + tenantId + "]";
+    }
+}
@@ -1,19 +1,34 @@
 package com.richard.paylite.security;
 
+import com.richard.paylite.util.TokenBucket;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
-import org.springframework.beans.factory.annotation.Value;
+import org.slf4j.MDC;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Component;
 import org.springframework.web.servlet.HandlerInterceptor;
 
-import java.util.Arrays;
-import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 @Component
 public class ApiKeyAuthInterceptor implements HandlerInterceptor {
 
-    @Value("${paylite.security.api-keys}")
-    private String apiKeys;
+    // IETF draft RateLimit header fields; Reset is the number of seconds until the bucket is full again
+    static final String RATE_LIMIT_LIMIT = "RateLimit-Limit";
+    static final String RATE_LIMIT_REMAINING = "RateLimit-Remaining";
+    static final String RATE_LIMIT_RESET = "RateLimit-Reset";
+
+    // The tenant of the authenticated key, for handlers (@RequestAttribute) and for log lines
+    public static final String TENANT_ATTRIBUTE = "paylite.tenantId";
+    private static final String TENANT_MDC_KEY = "tenantId";
+
+    @Autowired
+    private ApiKeyRegistry apiKeyRegistry;
+
+    @Autowired
+    private ApiKeyRateLimiter rateLimiter;
 
     @Override
     public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws Exception {
@@ -24,12 +39,44 @@ public class ApiKeyAuthInterceptor implements HandlerInterceptor {
             return false;
         }
 
-        List<String> validApiKeys = Arrays.asList(apiKeys.split(","));
-        if (validApiKeys.contains(requestApiKey)) {
-            return true;
-        } else {
+        ApiKey apiKey = apiKeyRegistry.lookup(requestApiKey);
+        if (apiKey == null) {
             response.sendError(HttpServletResponse.SC_UNAUTHORIZED, "Invalid X-API-Key");
             return false;
         }
+        request.setAttribute(TENANT_ATTRIBUTE, apiKey.tenantId());
+        if (!withinRateLimit(apiKey, request, response)) {
+            return false;
+        }
+        // Only set once the request is let through: afterCompletion is not called when preHandle returns false
+        MDC.put(TENANT_MDC_KEY, apiKey.tenantId());
+        return true;
+    }
+
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler, Exception ex) throws Exception {
+        MDC.remove(TENANT_MDC_KEY);
+    }
+
+    private boolean withinRateLimit(ApiKey apiKey, HttpServletRequest request, HttpServletResponse response) throws Exception {
+        if (!rateLimiter.isEnabled()) {
+            return true;
+        }
+        ApiKeyRateLimiter.Kind kind = ApiKeyRateLimiter.Kind.of(request.getMethod());
+        TokenBucket.Decision decision = rateLimiter.tryAcquire(apiKey, kind);
+        response.setIntHeader(RATE_LIMIT_LIMIT, rateLimiter.limit(kind));
+        response.setIntHeader(RATE_LIMIT_REMAINING, decision.remaining());
+        response.setHeader(RATE_LIMIT_RESET, Long.toString(toSeconds(decision.resetNanos())));
+        if (decision.allowed()) {
+            return true;
+        }
+        response.setHeader(HttpHeaders.RETRY_AFTER, Long.toString(Math.max(1, toSeconds(decision.retryAfterNanos()))));
+        response.sendError(HttpStatus.TOO_MANY_REQUESTS.value(), "Rate limit exceeded for this API key");
+        return false;
+    }
+
+    // Rounded up, so a client that waits this long is not refused again
+    private static long toSeconds(long nanos) {
+        return (nanos + TimeUnit.SECONDS.toNanos(1) - 1) / TimeUnit.SECONDS.toNanos(1);
     }
 }
@@ -0,0 +1,101 @@
+package com.richard.paylite.security;
+
+import com.richard.paylite.util.TokenBucket;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Per-API-key token buckets, one for reads (GET and HEAD) and one for writes, so a merchant polling
+ * hard cannot starve its own payment creation and neither can take the database from other keys.
+ * Buckets are created on first use of a key; there is no lock shared between keys.
+ * <p>
+ * Every decision is counted in {@code paylite.ratelimit.requests}, tagged with the kind, the
+ * outcome, the tenant and the key's {@link ApiKey#id() id} (never the key itself).
+ */
+@Component
+public class ApiKeyRateLimiter {
+
+    public enum Kind {
+        READ,
+        WRITE;
+
+        public static Kind of(String httpMethod) {
+            return "GET".equals(httpMethod) || "HEAD".equals(httpMethod) ? READ : WRITE;
+        }
+    }
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${paylite.ratelimit.enabled:true}")
+    private boolean enabled;
+
+    @Value("${paylite.ratelimit.reads.per-second:50}")
+    private double readsPerSecond;
+
+    @Value("${paylite.ratelimit.reads.burst:100}")
+    private int readBurst;
+
+    @Value("${paylite.ratelimit.writes.per-second:10}")
+    private double writesPerSecond;
+
+    @Value("${paylite.ratelimit.writes.burst:20}")
+    private int writeBurst;
+
+    private final Map<ApiKey, KeyLimits> limits = new ConcurrentHashMap<>();
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public int limit(Kind kind) {
+        return kind == Kind.READ ? readBurst : writeBurst;
+    }
+
+    /**
+     * Takes a token from the key's bucket for this kind of request. Only call this for keys that
+     * have already been authenticated, so the number of buckets is bounded by the configured keys.
+     */
+    public TokenBucket.Decision tryAcquire(ApiKey apiKey, Kind kind) {
+        KeyLimits keyLimits = limits.computeIfAbsent(apiKey, this::newLimits);
+        TokenBucket.Decision decision = keyLimits.buckets[kind.ordinal()].tryAcquire();
+        keyLimits.counters[kind.ordinal()][decision.allowed() ? 0 : 1].increment();
+        return decision;
+    }
+
+    private KeyLimits newLimits(ApiKey apiKey) {
+        TokenBucket[] buckets = {
+                new TokenBucket(readsPerSecond, readBurst),
+                new TokenBucket(writesPerSecond, writeBurst)
+        };
+        Counter[][] counters = new Counter[Kind.values().length][];
+        for (Kind kind : Kind.values()) {
+            counters[kind.ordinal()] = new Counter[]{
+                    counter(apiKey, kind, "allowed"),
+                    counter(apiKey, kind, "throttled")
+            };
+        }
+        return new KeyLimits(buckets, counters);
+    }
+
+    private Counter counter(ApiKey apiKey, Kind kind, String outcome) {
+        return Counter.builder("paylite.ratelimit.requests")
+                .description("API requests checked against the per-key rate limits")
+                .tag("key", apiKey.id())
+                .tag("tenant", apiKey.tenantId())
+                .tag("kind", kind.name().toLowerCase(Locale.ROOT))
+                .tag("outcome", outcome)
+                .register(meterRegistry);
+    }
+
+    // Indexed by Kind ordinal; counters by [kind][allowed = 0, throttled = 1]
+    private record KeyLimits(TokenBucket[] buckets, Counter[][] counters) {
+    }
+}
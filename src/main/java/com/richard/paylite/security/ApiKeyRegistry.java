@@ -0,0 +1,147 @@
+package com.richard.paylite.security;
+
+import com.richard.paylite.model.MerchantApiKey;
+import com.richard.paylite.repository.MerchantApiKeyRepository;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The accepted API keys, loaded once into an immutable {@link ApiKeyTable} and swapped whole when
+ * the sources are reloaded, so request threads read a single volatile field and never lock.
+ * <p>
+ * Keys come from up to three sources, merged in this order (the first entry for a key wins):
+ * <ul>
+ *   <li>{@code paylite.security.api-keys}: comma-separated plain keys of the {@value #DEFAULT_TENANT} tenant.</li>
+ *   <li>{@code paylite.security.api-keys-file}: one {@code <tenant-id> <key>} pair per line, where the key
+ *       is either plain or {@code sha256:<hex digest>}; blank lines and {@code #} comments are skipped.</li>
+ *   <li>the {@code api_keys} table, when {@code paylite.security.api-keys-table.enabled} is set.</li>
+ * </ul>
+ * File and table are read again every {@code paylite.security.api-keys-reload-interval}; a reload that
+ * fails keeps the previous keys, while a failure at startup stops the application.
+ */
+@Component
+public class ApiKeyRegistry {
+
+    public static final String DEFAULT_TENANT = "default";
+
+    private static final Logger logger = LoggerFactory.getLogger(ApiKeyRegistry.class);
+    private static final String DIGEST_PREFIX = "sha256:";
+
+    @Autowired
+    private MerchantApiKeyRepository merchantApiKeyRepository;
+
+    @Value("${paylite.security.api-keys:}")
+    private List<String> apiKeys = List.of();
+
+    @Value("${paylite.security.api-keys-file:}")
+    private String apiKeysFile;
+
+    @Value("${paylite.security.api-keys-table.enabled:false}")
+    private boolean tableEnabled;
+
+    @Value("${paylite.security.api-keys-reload-interval:30s}")
+    private Duration reloadInterval;
+
+    private volatile ApiKeyTable table = ApiKeyTable.EMPTY;
+    private ScheduledExecutorService reloader;
+
+    @PostConstruct
+    void start() {
+        table = load();
+        logger.info("Loaded {} API keys", table.size());
+        boolean reloadable = (apiKeysFile != null && !apiKeysFile.isBlank()) || tableEnabled;
+        if (reloadable && reloadInterval.isPositive()) {
+            reloader = Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform().name("api-key-reload").daemon().factory());
+            reloader.scheduleWithFixedDelay(this::reload, reloadInterval.toMillis(), reloadInterval.toMillis(), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @PreDestroy
+    void stop() {
+        if (reloader != null) {
+            reloader.shutdownNow();
+        }
+    }
+
+    /**
+     * The key matching the presented one, or null.
+     */
+    public ApiKey lookup(String presentedKey) {
+        return table.lookup(presentedKey);
+    }
+
+    /**
+     * Reads every source again and swaps the table. Requests already past their lookup keep the key
+     * they found; revoked keys are refused from the next request on.
+     */
+    public void reload() {
+        try {
+            ApiKeyTable loaded = load();
+            if (loaded.size() != table.size()) {
+                logger.info("Reloaded API keys: {} -> {}", table.size(), loaded.size());
+            }
+            table = loaded;
+        } catch (RuntimeException e) {
+            logger.error("Failed to reload API keys, keeping the {} loaded before", table.size(), e);
+        }
+    }
+
+    private ApiKeyTable load() {
+        List<ApiKey> keys = new ArrayList<>();
+        for (String key : apiKeys) {
+            if (!key.isBlank()) {
+                keys.add(ApiKeyTable.plainKey(key.trim(), DEFAULT_TENANT));
+            }
+        }
+        if (apiKeysFile != null && !apiKeysFile.isBlank()) {
+            keys.addAll(readFile(Path.of(apiKeysFile)));
+        }
+        if (tableEnabled) {
+            for (MerchantApiKey key : merchantApiKeyRepository.findByActiveTrue()) {
+                keys.add(ApiKeyTable.digestKey(key.getKeyDigest(), key.getTenantId()));
+            }
+        }
+        return ApiKeyTable.of(keys);
+    }
+
+    private static List<ApiKey> readFile(Path file) {
+        List<String> lines;
+        try {
+            lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot read API keys file " + file, e);
+        }
+        List<ApiKey> keys = new ArrayList<>(lines.size());
+        for (int i = 0; i < lines.size(); i++) {
+            String line = lines.get(i).strip();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String[] fields = line.split("\\s+");
+            if (fields.length != 2) {
+                throw new IllegalArgumentException("Expected '<tenant-id> <key>' on line " + (i + 1) + " of " + file);
+            }
+            keys.add(fields[1].startsWith(DIGEST_PREFIX)
+                    ? ApiKeyTable.digestKey(HexFormat.of().parseHex(fields[1], DIGEST_PREFIX.length(), fields[1].length()), fields[0])
+                    : ApiKeyTable.plainKey(fields[1], fields[0]));
+        }
+        return keys;
+    }
+}
@@ -0,0 +1,146 @@
+package com.richard.paylite.security;
+
+import com.richard.paylite.util.BoundedPool;
+
+import java.nio.charset.StandardCharsets;
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.HexFormat;
+import java.util.List;
+
+/**
+ * Immutable lookup table of API keys by SHA-256 digest.
+ * <p>
+ * A presented key is hashed into a pooled buffer, its digest picks a slot in an open-addressing
+ * array, and the final match is a constant-time digest comparison. Keys are never held or compared
+ * in plain text, the cost does not depend on how many keys there are, and a lookup of an ASCII key
+ * allocates nothing.
+ */
+public final class ApiKeyTable {
+
+    public static final ApiKeyTable EMPTY = of(List.of());
+
+    // Longer keys are refused without hashing
+    static final int MAX_KEY_LENGTH = 256;
+
+    private static final int DIGEST_BYTES = 32;
+    private static final int ID_BYTES = 4;
+    // Not a ThreadLocal: with virtual threads every request would build its own
+    private static final BoundedPool<Hasher> HASHERS = new BoundedPool<>(Hasher::new, 256);
+
+    private final ApiKey[] slots;
+    private final int mask;
+    private final int size;
+
+    private ApiKeyTable(ApiKey[] slots, int size) {
+        this.slots = slots;
+        this.mask = slots.length - 1;
+        this.size = size;
+    }
+
+    /**
+     * Builds a table; when two entries have the same digest the first one wins.
+     */
+    public static ApiKeyTable of(Collection<ApiKey> keys) {
+        // At most half full, so probe sequences stay short
+        int capacity = Integer.highestOneBit(Math.max(2, keys.size() * 2 - 1)) << 1;
+        ApiKey[] slots = new ApiKey[capacity];
+        int size = 0;
+        for (ApiKey key : keys) {
+            int slot = slot(key.digest(), capacity - 1);
+            while (slots[slot] != null && !MessageDigest.isEqual(slots[slot].digest(), key.digest())) {
+                slot = (slot + 1) & (capacity - 1);
+            }
+            if (slots[slot] == null) {
+                slots[slot] = key;
+                size++;
+            }
+        }
+        return new ApiKeyTable(slots, size);
+    }
+
+    public static ApiKey plainKey(String key, String tenantId) {
+        return digestKey(sha256(key.getBytes(StandardCharsets.UTF_8)), tenantId);
+    }
+
+    public static ApiKey digestKey(byte[] digest, String tenantId) {
+        if (digest.length != DIGEST_BYTES) {
+            throw new IllegalArgumentException("API key digest must be " + DIGEST_BYTES + " bytes");
+        }
+        return new ApiKey(HexFormat.of().formatHex(digest, 0, ID_BYTES), tenantId, digest.clone());
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public ApiKey lookup(String presentedKey) {
+        if (presentedKey == null || presentedKey.isEmpty() || presentedKey.length() > MAX_KEY_LENGTH) {
+            return null;
+        }
+        // Held until the comparison is done, since the digest lives in the hasher's buffer
+        Hasher hasher = HASHERS.acquire();
+        try {
+            byte[] digest = hasher.digest(presentedKey);
+            for (int slot = slot(digest, mask); slots[slot] != null; slot = (slot + 1) & mask) {
+                if (MessageDigest.isEqual(slots[slot].digest(), digest)) {
+                    return slots[slot];
+                }
+            }
+            return null;
+        } finally {
+            HASHERS.release(hasher);
+        }
+    }
+
+    private static int slot(byte[] digest, int mask) {
+        // The digest is uniformly distributed, so its first bytes are as good a hash as any
+        return ((digest[0] & 0xFF) << 24 | (digest[1] & 0xFF) << 16 | (digest[2] & 0xFF) << 8 | (digest[3] & 0xFF)) & mask;
+    }
+
+    private static byte[] sha256(byte[] input) {
+        return newSha256().digest(input);
+    }
+
+    private static MessageDigest newSha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    private static final class Hasher {
+
+        private final MessageDigest digest = newSha256();
+        private final byte[] input = new byte[MAX_KEY_LENGTH];
+        private final byte[] output = new byte[DIGEST_BYTES];
+
+        // The returned array is reused by the next call
+        byte[] digest(String key) {
+            int length = key.length();
+            for (int i = 0; i < length; i++) {
+                char c = key.charAt(i);
+                if (c > 0x7F) {
+                    // Not an ASCII key (so not one we issued); hash its UTF-8 form the slow way
+                    digest.update(key.getBytes(StandardCharsets.UTF_8));
+                    return finish();
+                }
+                input[i] = (byte) c;
+            }
+            digest.update(input, 0, length);
+            return finish();
+        }
+
+        private byte[] finish() {
+            try {
+                digest.digest(output, 0, DIGEST_BYTES);
+            } catch (DigestException e) {
+                throw new IllegalStateException(e);
+            }
+            return output;
+        }
+    }
+}
@@ -0,0 +1,295 @@
+package com.richard.paylite.service;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.util.MinimalPrettyPrinter;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.richard.paylite.dto.PaymentExportRequest;
+import com.richard.paylite.exception.BadRequestException;
+import com.richard.paylite.exception.ServiceUnavailableException;
+import com.richard.paylite.util.StreamingJdbc;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.sql.DataSource;
+import java.io.BufferedWriter;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Streams payments for reconciliation as NDJSON or CSV. Rows come from a forward-only streaming
+ * query in {@code (created_at, id)} index order and are written to the output as they are read,
+ * so memory use does not depend on the number of rows. An export holds one database connection
+ * for its whole run; {@code paylite.export.max-concurrent} bounds how many can run at once so
+ * exports cannot starve the request path. Exports run read-only, so with a read replica
+ * configured they are served by the replica. A range that starts before
+ * {@code paylite.archive.retention} ago also reads {@code payments_archive}, as one
+ * {@code UNION ALL} that the database sorts, so the order and the constant memory use here hold.
+ */
+@Service
+public class PaymentExportService {
+
+    private static final Logger logger = LoggerFactory.getLogger(PaymentExportService.class);
+
+    static final String[] COLUMNS = {"paymentId", "amount", "currency", "customerEmail", "reference", "status", "createdAt", "updatedAt"};
+
+    private static final int BUFFER_BYTES = 64 * 1024;
+
+    private final Semaphore exports;
+    private final Counter exportedRows;
+
+    @Autowired
+    private DataSource dataSource;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Value("${paylite.export.fetch-size:10000}")
+    private int fetchSize;
+
+    @Value("${paylite.archive.retention:90d}")
+    private Duration archiveRetention;
+
+    @Autowired
+    public PaymentExportService(@Value("${paylite.export.max-concurrent:2}") int maxConcurrent, MeterRegistry registry) {
+        this.exports = new Semaphore(maxConcurrent);
+        this.exportedRows = Counter.builder("paylite.payments.export.rows")
+                .description("Payments written by exports")
+                .register(registry);
+    }
+
+    /**
+     * Where an export is written. Opened only once the export has been validated and admitted, so
+     * a rejected export can still be answered with an error response; flushed but not closed.
+     */
+    @FunctionalInterface
+    public interface ExportTarget {
+        OutputStream open(PaymentExportRequest request) throws IOException;
+    }
+
+    /**
+     * Writes every matching payment to the target and returns the row count.
+     */
+    @Transactional(readOnly = true)
+    public long export(PaymentExportRequest request, ExportTarget target) throws IOException {
+        if (request.from() == null || request.to() == null || !request.from().isBefore(request.to())) {
+            throw new BadRequestException("from and to are required, and from must be before to.");
+        }
+        if (!exports.tryAcquire()) {
+            throw new ServiceUnavailableException("Too many exports are running, please retry later.");
+        }
+        try {
+            return stream(request, target.open(request));
+        } finally {
+            exports.release();
+        }
+    }
+
+    private long stream(PaymentExportRequest request, OutputStream out) throws IOException {
+        long started = System.nanoTime();
+        // Closing the row writer flushes it and finishes the gzip trailer, but leaves out open
+        OutputStream target = request.gzip() ? new GZIPOutputStream(nonClosing(out), BUFFER_BYTES) : nonClosing(out);
+
+        StringBuilder sql = new StringBuilder();
+        List<Object> args = new ArrayList<>();
+        select("payments", request, sql, args);
+        // Archived payments were all created before the retention, so a later range cannot include any
+        if (request.from().isBefore(LocalDateTime.now().minus(archiveRetention))) {
+            sql.append(" UNION ALL ");
+            select("payments_archive", request, sql, args);
+        }
+        sql.append(" ORDER BY created_at, id");
+
+        long rows;
+        try (RowWriter writer = request.format() == PaymentExportRequest.Format.CSV
+                ? new CsvRowWriter(target) : new NdjsonRowWriter(objectMapper, target)) {
+            JdbcTemplate streaming = StreamingJdbc.template(dataSource, fetchSize);
+            streaming.query(sql.toString(), (RowCallbackHandler) rs -> {
+                try {
+                    writer.write(rs);
+                } catch (IOException e) {
+                    // Usually the client went away; abandoning the result set closes the cursor
+                    throw new UncheckedIOException(e);
+                }
+            }, args.toArray());
+            rows = writer.rows();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        out.flush();
+        exportedRows.increment(rows);
+
+        long millis = Math.max(1, (System.nanoTime() - started) / 1_000_000);
+        logger.info("Exported {} payments as {} in {} ms ({} rows/s)", rows, request.format(), millis, rows * 1000 / millis);
+        return rows;
+    }
+
+    // id is selected only so that the union can be ordered by it
+    private static void select(String table, PaymentExportRequest request, StringBuilder sql, List<Object> args) {
+        sql.append("SELECT payment_id, amount, currency, customer_email, reference, status, created_at, updated_at, id FROM ")
+                .append(table).append(" WHERE created_at >= ? AND created_at < ?");
+        args.add(Timestamp.valueOf(request.from()));
+        args.add(Timestamp.valueOf(request.to()));
+        if (request.status() != null) {
+            sql.append(" AND status = ?");
+            args.add(request.status().name());
+        }
+    }
+
+    private static OutputStream nonClosing(OutputStream out) {
+        return new FilterOutputStream(out) {
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+            }
+
+            @Override
+            public void close() throws IOException {
+                flush();
+            }
+        };
+    }
+
+    private interface RowWriter extends AutoCloseable {
+
+        void write(ResultSet rs) throws SQLException, IOException;
+
+        long rows();
+
+        @Override
+        void close() throws IOException;
+    }
+
+    private static final class NdjsonRowWriter implements RowWriter {
+
+        private final JsonGenerator generator;
+        private long rows;
+
+        NdjsonRowWriter(ObjectMapper objectMapper, OutputStream out) throws IOException {
+            generator = objectMapper.getFactory().createGenerator(new BufferedWriter(
+                    new OutputStreamWriter(out, StandardCharsets.UTF_8), BUFFER_BYTES));
+            generator.setPrettyPrinter(new MinimalPrettyPrinter("\n"));
+        }
+
+        @Override
+        public void write(ResultSet rs) throws SQLException, IOException {
+            generator.writeStartObject();
+            generator.writeStringField(COLUMNS[0], rs.getString(1));
+            generator.writeFieldName(COLUMNS[1]);
+            generator.writeNumber(rs.getBigDecimal(2));
+            generator.writeStringField(COLUMNS[2], rs.getString(3));
+            generator.writeStringField(COLUMNS[3], rs.getString(4));
+            generator.writeStringField(COLUMNS[4], rs.getString(5));
+            generator.writeStringField(COLUMNS[5], rs.getString(6));
+            generator.writeStringField(COLUMNS[6], timestamp(rs, 7));
+            generator.writeStringField(COLUMNS[7], timestamp(rs, 8));
+            generator.writeEndObject();
+            rows++;
+        }
+
+        @Override
+        public long rows() {
+            return rows;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (rows > 0) {
+                generator.writeRaw('\n');
+            }
+            generator.close();
+        }
+    }
+
+    private static final class CsvRowWriter implements RowWriter {
+
+        private final Writer writer;
+        private long rows;
+
+        CsvRowWriter(OutputStream out) throws IOException {
+            writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), BUFFER_BYTES);
+            writer.write(String.join(",", COLUMNS));
+            writer.write("\r\n");
+        }
+
+        @Override
+        public void write(ResultSet rs) throws SQLException, IOException {
+            field(rs.getString(1));
+            writer.write(',');
+            BigDecimal amount = rs.getBigDecimal(2);
+            writer.write(amount == null ? "" : amount.toPlainString());
+            for (int column = 3; column <= 6; column++) {
+                writer.write(',');
+                field(rs.getString(column));
+            }
+            writer.write(',');
+            field(timestamp(rs, 7));
+            writer.write(',');
+            field(timestamp(rs, 8));
+            writer.write("\r\n");
+            rows++;
+        }
+
+        // RFC 4180: quote fields containing a delimiter, quote or line break, doubling inner quotes
+        private void field(String value) throws IOException {
+            if (value == null) {
+                return;
+            }
+            boolean quote = false;
+            for (int i = 0; i < value.length() && !quote; i++) {
+                char c = value.charAt(i);
+                quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+            }
+            if (!quote) {
+                writer.write(value);
+                return;
+            }
+            writer.write('"');
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c == '"') {
+                    writer.write('"');
+                }
+                writer.write(c);
+            }
+            writer.write('"');
+        }
+
+        @Override
+        public long rows() {
+            return rows;
+        }
+
+        @Override
+        public void close() throws IOException {
+            writer.close();
+        }
+    }
+
+    private static String timestamp(ResultSet rs, int column) throws SQLException {
+        Timestamp value = rs.getTimestamp(column);
+        return value == null ? null : value.toLocalDateTime().toString();
+    }
+}
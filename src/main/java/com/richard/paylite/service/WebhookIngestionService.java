@@ -0,0 +1,360 @@
+package com.richard.paylite.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.richard.paylite.dto.WebhookRequest;
+import com.richard.paylite.exception.ServiceUnavailableException;
+import com.richard.paylite.exception.UnauthorizedException;
+import com.richard.paylite.util.SignatureUtil;
+import com.richard.paylite.util.WebhookJournal;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Asynchronous webhook ingestion. The endpoint only verifies the signature and appends the payload
+ * to a durable local journal before acknowledging the PSP; a pool of workers drains the queue in
+ * micro-batches through {@link WebhookService#processBatch}. When the queue is full new webhooks
+ * are rejected with 503 so the PSP backs off and retries. Failed events wait out
+ * {@code retry-backoff} in a delay queue, so a worker never sleeps while others are waiting.
+ */
+@Service
+@ConditionalOnProperty(prefix = "paylite.webhooks.async", name = "enabled", havingValue = "true")
+public class WebhookIngestionService {
+
+    private static final Logger logger = LoggerFactory.getLogger(WebhookIngestionService.class);
+
+    private static final int MAX_ATTEMPTS = 5;
+
+    @Autowired
+    private SignatureUtil signatureUtil;
+
+    @Autowired
+    private WebhookService webhookService;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${paylite.webhooks.async.queue-capacity:10000}")
+    private int queueCapacity;
+
+    @Value("${paylite.webhooks.async.workers:2}")
+    private int workers;
+
+    @Value("${paylite.webhooks.async.batch-size:200}")
+    private int batchSize;
+
+    @Value("${paylite.webhooks.async.journal-dir:data/webhook-journal}")
+    private Path journalDir;
+
+    @Value("${paylite.webhooks.async.dead-letter-dir:data/webhook-dead-letters}")
+    private Path deadLetterDir;
+
+    @Value("${paylite.webhooks.async.segment-size:64MB}")
+    private DataSize segmentSize;
+
+    @Value("${paylite.webhooks.async.fsync:true}")
+    private boolean fsync;
+
+    @Value("${paylite.webhooks.async.retry-backoff:1s}")
+    private Duration retryBackoff;
+
+    @Value("${spring.threads.virtual.enabled:false}")
+    private boolean virtualThreads;
+
+    private final BlockingQueue<QueuedWebhook> queue = new LinkedBlockingQueue<>();
+    private final DelayQueue<QueuedWebhook> retries = new DelayQueue<>();
+    private Semaphore capacity;
+    private WebhookJournal journal;
+    private WebhookJournal deadLetters;
+    private final AtomicLong deadLettered = new AtomicLong();
+    private ExecutorService executor;
+    private Thread recovery;
+    private volatile boolean running;
+
+    private Timer lag;
+    private Counter rejected;
+
+    @PostConstruct
+    void start() throws IOException {
+        journal = new WebhookJournal(journalDir, segmentSize.toBytes(), fsync);
+        journal.open();
+        capacity = new Semaphore(queueCapacity);
+        // Dead letters are only ever appended; recovering them just counts them
+        deadLetters = new WebhookJournal(deadLetterDir, segmentSize.toBytes(), true);
+        deadLettered.set(deadLetters.recover(entry -> {
+        }));
+
+        Gauge.builder("paylite.webhooks.queue.depth", this, WebhookIngestionService::queueDepth)
+                .description("Webhooks accepted but not yet applied")
+                .register(meterRegistry);
+        lag = Timer.builder("paylite.webhooks.queue.lag")
+                .description("Time from accepting a webhook to committing it")
+                .publishPercentiles(0.5, 0.95, 0.99)
+                .register(meterRegistry);
+        rejected = meterRegistry.counter("paylite.webhooks.queue.rejected");
+        Gauge.builder("paylite.webhooks.dead-letters", deadLettered, AtomicLong::get)
+                .description("Webhooks given up on and kept in the dead-letter journal")
+                .register(meterRegistry);
+
+        running = true;
+        ThreadFactory threadFactory = virtualThreads
+                ? Thread.ofVirtual().name("webhook-worker-", 0).factory()
+                : Thread.ofPlatform().name("webhook-worker-", 0).factory();
+        executor = Executors.newFixedThreadPool(workers, threadFactory);
+        for (int i = 0; i < workers; i++) {
+            executor.execute(this::drain);
+        }
+
+        recovery = Thread.ofPlatform().name("webhook-recovery").daemon().start(this::recover);
+        logger.info("Asynchronous webhook ingestion started with {} workers and capacity {}", workers, queueCapacity);
+    }
+
+    @PreDestroy
+    void stop() throws IOException, InterruptedException {
+        running = false;
+        recovery.interrupt();
+        recovery.join(TimeUnit.SECONDS.toMillis(10));
+        executor.shutdown();
+        if (!executor.awaitTermination(10, TimeUnit.SECONDS)) {
+            executor.shutdownNow();
+        }
+        journal.close();
+        deadLetters.close();
+        logger.info("Asynchronous webhook ingestion stopped with {} webhooks left in the journal", queueDepth());
+    }
+
+    public void enqueue(String signature, byte[] rawPayload) {
+        if (!signatureUtil.isValidSignature(signature, rawPayload)) {
+            throw new UnauthorizedException("Invalid webhook signature.");
+        }
+        if (!capacity.tryAcquire()) {
+            rejected.increment();
+            throw new ServiceUnavailableException("Webhook queue is full, please retry later.");
+        }
+
+        WebhookJournal.Entry entry;
+        try {
+            entry = journal.append(rawPayload, System.currentTimeMillis());
+        } catch (IOException e) {
+            capacity.release();
+            logger.error("Failed to journal webhook", e);
+            throw new ServiceUnavailableException("Webhook could not be persisted, please retry later.");
+        }
+        queue.add(new QueuedWebhook(entry));
+    }
+
+    public int queueDepth() {
+        return queue.size() + retries.size();
+    }
+
+    /**
+     * Streams the journal's leftover webhooks into the queue as capacity frees up. It runs on a
+     * thread of its own, so a backlog larger than the queue neither blocks startup nor fills the
+     * heap; new webhooks compete with it for capacity and get 503 while the queue is full.
+     */
+    private void recover() {
+        try {
+            long recovered = journal.replay(entry -> {
+                try {
+                    capacity.acquire();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new CancellationException();
+                }
+                queue.add(new QueuedWebhook(entry));
+            });
+            if (recovered > 0) {
+                logger.info("Recovered {} unprocessed webhooks from the journal", recovered);
+            }
+        } catch (CancellationException | ClosedByInterruptException e) {
+            // Stopped mid-replay; what was not processed stays in the journal for the next start
+        } catch (IOException | RuntimeException e) {
+            logger.error("Failed to replay the webhook journal, the rest is replayed on the next start", e);
+        }
+    }
+
+    private void drain() {
+        List<QueuedWebhook> batch = new ArrayList<>(batchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                // Retries that are due go first; until one is, the queue is polled briefly enough to notice it
+                QueuedWebhook first = retries.poll();
+                if (first == null) {
+                    first = queue.poll(200, TimeUnit.MILLISECONDS);
+                }
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                retries.drainTo(batch, batchSize - batch.size());
+                queue.drainTo(batch, batchSize - batch.size());
+                process(batch);
+                journal.checkpoint();
+            } catch (IOException e) {
+                logger.warn("Failed to checkpoint the webhook journal", e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (RuntimeException e) {
+                logger.error("Unexpected error in webhook worker", e);
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void process(List<QueuedWebhook> batch) {
+        List<QueuedWebhook> parsed = new ArrayList<>(batch.size());
+        List<WebhookService.VerifiedWebhook> webhooks = new ArrayList<>(batch.size());
+        for (QueuedWebhook queued : batch) {
+            byte[] rawPayload = queued.entry.payload();
+            try {
+                webhooks.add(new WebhookService.VerifiedWebhook(objectMapper.readValue(rawPayload, WebhookRequest.class), rawPayload));
+                parsed.add(queued);
+            } catch (IOException e) {
+                logger.error("Dropping unparseable webhook payload", e);
+                complete(queued, "invalid");
+            }
+        }
+        if (webhooks.isEmpty()) {
+            return;
+        }
+
+        try {
+            settle(parsed, webhooks, webhookService.processBatch(webhooks));
+            return;
+        } catch (RuntimeException e) {
+            logger.warn("Webhook batch of {} failed, retrying events one by one", webhooks.size(), e);
+        }
+
+        for (int i = 0; i < webhooks.size(); i++) {
+            QueuedWebhook queued = parsed.get(i);
+            List<WebhookService.VerifiedWebhook> single = List.of(webhooks.get(i));
+            try {
+                settle(List.of(queued), single, webhookService.processBatch(single));
+            } catch (DataIntegrityViolationException e) {
+                // Another node recorded the same event first
+                complete(queued, "duplicate");
+            } catch (RuntimeException e) {
+                retry(queued, e);
+            }
+        }
+    }
+
+    /**
+     * Acknowledges the events of a committed batch, except those whose payment was not found: like
+     * the 404 a synchronous caller gets, which makes the PSP redeliver, they are retried and end up
+     * dead-lettered rather than dropped.
+     */
+    private void settle(List<QueuedWebhook> parsed, List<WebhookService.VerifiedWebhook> webhooks,
+                           WebhookService.BatchOutcome outcome) {
+        record(outcome);
+        Set<WebhookService.VerifiedWebhook> missing = Collections.newSetFromMap(new IdentityHashMap<>());
+        missing.addAll(outcome.missingPayments());
+        for (int i = 0; i < webhooks.size(); i++) {
+            if (missing.contains(webhooks.get(i))) {
+                retry(parsed.get(i), null);
+            } else {
+                complete(parsed.get(i), null);
+            }
+        }
+    }
+
+    // Keeps its capacity permit while it waits, so retries cannot be crowded out by new webhooks
+    private void retry(QueuedWebhook queued, RuntimeException e) {
+        if (++queued.attempts >= MAX_ATTEMPTS) {
+            deadLetter(queued, e);
+            return;
+        }
+        queued.notBefore = System.nanoTime() + retryBackoff.toNanos();
+        retries.add(queued);
+    }
+
+    // Moved to the dead-letter journal, which keeps it across restarts without replaying it
+    private void deadLetter(QueuedWebhook queued, Exception cause) {
+        try {
+            deadLetters.append(queued.entry.payload(), queued.entry.enqueuedAtMillis());
+        } catch (IOException e) {
+            // Left unacknowledged instead, so it is replayed on the next start rather than lost
+            logger.error("Failed to dead-letter webhook, leaving it in the journal until restart", e);
+            capacity.release();
+            meterRegistry.counter("paylite.webhooks.events", "outcome", "failed").increment();
+            return;
+        }
+        deadLettered.incrementAndGet();
+        logger.error("Dead-lettered webhook after {} attempts", queued.attempts, cause);
+        complete(queued, "dead_letter");
+    }
+
+    private void complete(QueuedWebhook queued, String outcome) {
+        journal.acknowledge(queued.entry);
+        capacity.release();
+        lag.record(System.currentTimeMillis() - queued.entry.enqueuedAtMillis(), TimeUnit.MILLISECONDS);
+        if (outcome != null) {
+            meterRegistry.counter("paylite.webhooks.events", "outcome", outcome).increment();
+        }
+    }
+
+    private void record(WebhookService.BatchOutcome outcome) {
+        meterRegistry.counter("paylite.webhooks.events", "outcome", "applied").increment(outcome.applied());
+        meterRegistry.counter("paylite.webhooks.events", "outcome", "duplicate").increment(outcome.duplicates());
+        meterRegistry.counter("paylite.webhooks.events", "outcome", "ignored").increment(outcome.ignored());
+        meterRegistry.counter("paylite.webhooks.events", "outcome", "missing_payment").increment(outcome.missingPayments().size());
+    }
+
+    private static final class QueuedWebhook implements Delayed {
+        private final WebhookJournal.Entry entry;
+        private int attempts;
+        // System.nanoTime() at which a retry is due
+        private long notBefore;
+
+        private QueuedWebhook(WebhookJournal.Entry entry) {
+            this.entry = entry;
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(notBefore - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed other) {
+            return Long.compare(getDelay(TimeUnit.NANOSECONDS), other.getDelay(TimeUnit.NANOSECONDS));
+        }
+    }
+}
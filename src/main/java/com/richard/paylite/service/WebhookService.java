@@ -1,21 +1,44 @@
 package com.richard.paylite.service;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.richard.paylite.cache.PaymentCache;
+import com.richard.paylite.cache.WebhookDedupFilter;
+import com.richard.paylite.dto.StoredWebhookPayload;
 import com.richard.paylite.dto.WebhookRequest;
 import com.richard.paylite.exception.ResourceNotFoundException;
 import com.richard.paylite.exception.UnauthorizedException;
-import com.richard.paylite.model.Payment;
+import com.richard.paylite.logging.PayloadSamplingFilter;
+import com.richard.paylite.metrics.PaymentMetrics;
 import com.richard.paylite.model.PaymentStatus;
+import com.richard.paylite.model.PaymentTransition;
 import com.richard.paylite.model.WebhookEvent;
+import com.richard.paylite.outbox.PaymentEventOutbox;
+import com.richard.paylite.repository.ArchivedPaymentRepository;
 import com.richard.paylite.repository.PaymentRepository;
+import com.richard.paylite.repository.StoredWebhookEventView;
 import com.richard.paylite.repository.WebhookEventRepository;
+import com.richard.paylite.util.SegmentedPayloadStore;
 import com.richard.paylite.util.SignatureUtil;
+import net.logstash.logback.marker.Markers;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.ConcurrencyFailureException;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 @Service
 public class WebhookService {
@@ -31,53 +54,278 @@ public class WebhookService {
     @Autowired
     private WebhookEventRepository webhookEventRepository;
 
+    @Autowired
+    private ArchivedPaymentRepository archivedPaymentRepository;
+
     @Autowired
     private ObjectMapper objectMapper;
 
-    @Transactional
-    public void processWebhook(String signature, String rawPayload) {
-        logger.info("Received webhook with signature: {}", signature);
-        logger.info("Raw webhook payload: {}", rawPayload);
+    @Autowired
+    private WebhookDedupFilter dedupFilter;
 
-        if (!signatureUtil.isValidSignature(signature, rawPayload)) {
-            throw new UnauthorizedException("Invalid webhook signature.");
-        }
+    @Autowired
+    private PaymentCache paymentCache;
+
+    @Autowired
+    private PaymentMetrics paymentMetrics;
 
+    @Autowired
+    private PaymentEventOutbox paymentEventOutbox;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired(required = false)
+    private SegmentedPayloadStore payloadStore;
+
+    /**
+     * Verifies, parses and deduplicates the webhook before touching the database, then applies it
+     * in one transaction. A duplicate that slips past the dedup check (the same event committed
+     * concurrently) is caught by the unique constraint and treated as already processed.
+     */
+    public void processWebhook(String signature, byte[] rawPayload) {
+        long start = System.nanoTime();
+        PaymentMetrics.WebhookOutcome outcome = PaymentMetrics.WebhookOutcome.ERROR;
         try {
-            WebhookRequest request = objectMapper.readValue(rawPayload, WebhookRequest.class);
+            String payload = new String(rawPayload, StandardCharsets.UTF_8);
+            // Sampled; the signature goes into its own (masked) field rather than the message
+            logger.info(Markers.append("signature", signature).and(PayloadSamplingFilter.PAYLOAD), "Received webhook payload: {}", payload);
+
+            if (!signatureUtil.isValidSignature(signature, rawPayload)) {
+                outcome = PaymentMetrics.WebhookOutcome.BAD_SIGNATURE;
+                throw new UnauthorizedException("Invalid webhook signature.");
+            }
+
+            WebhookRequest request;
+            try {
+                request = objectMapper.readValue(rawPayload, WebhookRequest.class);
+            } catch (IOException e) {
+                throw new RuntimeException("Error processing webhook payload", e);
+            }
 
-            if (webhookEventRepository.existsByPaymentIdAndEventType(request.paymentId(), request.event())) {
+            WebhookDedupFilter.Verdict verdict = dedupFilter.check(request.paymentId(), request.event());
+            if (verdict == WebhookDedupFilter.Verdict.DUPLICATE) {
                 // Event already processed, return 200 OK
+                outcome = PaymentMetrics.WebhookOutcome.DUPLICATE;
                 return;
             }
+            // Stored before the transaction so no row lock is held across the fsync; an event that
+            // turns out to be a duplicate leaves an unreferenced record that is retired with its segment
+            WebhookEvent event = withPayload(WebhookEvent.builder().paymentId(request.paymentId()).eventType(request.event()), rawPayload).build();
+            syncPayloads();
+            outcome = transactionTemplate.execute(status -> apply(request, event, verdict));
+        } catch (DataIntegrityViolationException e) {
+            logger.info("Webhook event was recorded concurrently, treating it as a duplicate");
+            outcome = PaymentMetrics.WebhookOutcome.DUPLICATE;
+        } catch (ResourceNotFoundException e) {
+            outcome = PaymentMetrics.WebhookOutcome.MISSING_PAYMENT;
+            throw e;
+        } finally {
+            paymentMetrics.recordWebhook(outcome, start);
+        }
+    }
+
+    private PaymentMetrics.WebhookOutcome apply(WebhookRequest request, WebhookEvent event, WebhookDedupFilter.Verdict verdict) {
+        if (verdict == WebhookDedupFilter.Verdict.UNKNOWN
+                && webhookEventRepository.existsByPaymentIdAndEventType(request.paymentId(), request.event())) {
+            dedupFilter.record(request.paymentId(), request.event());
+            // Event already processed, return 200 OK
+            return PaymentMetrics.WebhookOutcome.DUPLICATE;
+        }
+
+        PaymentTransition transition = PaymentTransition.forEvent(request.event());
+        if (transition == null) {
+            isArchived(request.paymentId());
+            // Or throw a bad request exception
+            return PaymentMetrics.WebhookOutcome.IGNORED;
+        }
+
+        // One conditional UPDATE instead of load, check and save; a competing event that got there
+        // first leaves nothing to update, and the event is only recorded
+        if (paymentRepository.transition(request.paymentId(), transition.from(), transition.to(), LocalDateTime.now()) == 1) {
+            paymentEventOutbox.statusChanged(request.paymentId(), transition.from(), transition.to());
+            paymentCache.invalidateAfterCommit(request.paymentId());
+            paymentMetrics.recordTransition(transition.from(), transition.to(), 1);
+        } else if (isArchived(request.paymentId())) {
+            // Archived payments are final and their events live in the archive; acknowledge, record nothing
+            return PaymentMetrics.WebhookOutcome.IGNORED;
+        }
+
+        webhookEventRepository.save(event);
+        dedupFilter.recordAfterCommit(request.paymentId(), request.event());
+        return PaymentMetrics.WebhookOutcome.APPLIED;
+    }
+
+    // Only asked when no status changed, to tell a missing payment from one in another status or in the archive
+    private boolean isArchived(String paymentId) {
+        if (paymentRepository.existsByPaymentId(paymentId)) {
+            return false;
+        }
+        if (archivedPaymentRepository.existsByPaymentId(paymentId)) {
+            return true;
+        }
+        throw new ResourceNotFoundException("Payment not found for webhook: " + paymentId);
+    }
 
-            Payment payment = paymentRepository.findByPaymentId(request.paymentId())
-                    .orElseThrow(() -> new ResourceNotFoundException("Payment not found for webhook: " + request.paymentId()));
-
-            if (payment.getStatus() == PaymentStatus.PENDING) {
-                switch (request.event()) {
-                    case "payment.succeeded":
-                        payment.setStatus(PaymentStatus.SUCCEEDED);
-                        break;
-                    case "payment.failed":
-                        payment.setStatus(PaymentStatus.FAILED);
-                        break;
-                    default:
-                        // Or throw a bad request exception
-                        return;
+    /**
+     * Applies a micro-batch of already verified webhook events in one transaction: duplicates are
+     * found with one query (limited to events the dedup filter cannot decide), the current statuses
+     * are read with another, and the status changes are written as one conditional UPDATE per
+     * transition with the new event rows flushed as JDBC batches. Events are applied in order, with
+     * the same rules as {@link #processWebhook}.
+     */
+    @Transactional
+    public BatchOutcome processBatch(List<VerifiedWebhook> webhooks) {
+        Set<String> paymentIds = new HashSet<>();
+        Set<String> uncertainPaymentIds = new HashSet<>();
+        Set<String> seen = new HashSet<>();
+        for (VerifiedWebhook webhook : webhooks) {
+            WebhookRequest request = webhook.request();
+            paymentIds.add(request.paymentId());
+            switch (dedupFilter.check(request.paymentId(), request.event())) {
+                case DUPLICATE -> seen.add(eventKey(request.paymentId(), request.event()));
+                case UNKNOWN -> uncertainPaymentIds.add(request.paymentId());
+                case NEW -> {
                 }
-                paymentRepository.save(payment);
             }
+        }
+
+        if (!uncertainPaymentIds.isEmpty()) {
+            webhookEventRepository.findByPaymentIdIn(uncertainPaymentIds)
+                    .forEach(key -> seen.add(eventKey(key.getPaymentId(), key.getEventType())));
+        }
+        Map<String, PaymentStatus> statuses = new HashMap<>();
+        paymentRepository.findStatusesByPaymentIdIn(paymentIds).forEach(view -> statuses.put(view.getPaymentId(), view.getStatus()));
+        Set<String> archived = new HashSet<>();
+        if (statuses.size() < paymentIds.size()) {
+            archivedPaymentRepository.findStatusesByPaymentIdIn(paymentIds.stream().filter(id -> !statuses.containsKey(id)).toList())
+                    .forEach(view -> archived.add(view.getPaymentId()));
+        }
+
+        int applied = 0;
+        int duplicates = 0;
+        int ignored = 0;
+        List<VerifiedWebhook> missingPayments = new ArrayList<>();
+        Map<PaymentTransition, List<String>> transitions = new HashMap<>();
+        List<WebhookEvent> events = new ArrayList<>();
+
+        for (VerifiedWebhook webhook : webhooks) {
+            WebhookRequest request = webhook.request();
+            if (!seen.add(eventKey(request.paymentId(), request.event()))) {
+                duplicates++;
+                continue;
+            }
+
+            PaymentStatus status = statuses.get(request.paymentId());
+            if (status == null && archived.contains(request.paymentId())) {
+                ignored++;
+                continue;
+            }
+            if (status == null) {
+                logger.warn("Payment not found for webhook: {}", request.paymentId());
+                missingPayments.add(webhook);
+                continue;
+            }
+
+            PaymentTransition transition = PaymentTransition.forEvent(request.event());
+            if (transition == null) {
+                ignored++;
+                continue;
+            }
+            if (transition.appliesTo(status)) {
+                // Later events for this payment in the batch see the new status
+                statuses.put(request.paymentId(), transition.to());
+                transitions.computeIfAbsent(transition, t -> new ArrayList<>()).add(request.paymentId());
+            }
+
+            events.add(withPayload(WebhookEvent.builder().paymentId(request.paymentId()).eventType(request.event()), webhook.rawPayload())
+                    .build());
+            dedupFilter.recordAfterCommit(request.paymentId(), request.event());
+            applied++;
+        }
+
+        // One fsync for the whole batch, before the first UPDATE takes row locks
+        syncPayloads();
+        LocalDateTime now = LocalDateTime.now();
+        transitions.forEach((transition, ids) -> {
+            // Still conditional: another node may have moved some of these payments since they were read
+            int updated = paymentRepository.transitionAll(ids, transition.from(), transition.to(), now);
+            if (updated != ids.size() && ids.size() > 1) {
+                // Which ones is not known, and each change needs its own outbox event: roll back so
+                // the caller retries the events one by one
+                throw new ConcurrencyFailureException("Payments changed concurrently during webhook batch");
+            }
+            if (updated > 0) {
+                paymentEventOutbox.statusesChanged(ids, transition.from(), transition.to());
+            }
+            paymentMetrics.recordTransition(transition.from(), transition.to(), updated);
+            ids.forEach(paymentCache::invalidateAfterCommit);
+        });
+        webhookEventRepository.saveAll(events);
+        return new BatchOutcome(applied, duplicates, ignored, missingPayments);
+    }
+
+    /**
+     * The raw payloads of a payment's recorded webhook events, archived ones included, oldest
+     * first; for audits. Payloads in the payload store are only readable on the node that wrote them.
+     */
+    @Transactional(readOnly = true)
+    public List<StoredWebhookPayload> storedPayloads(String paymentId) {
+        List<StoredWebhookPayload> payloads = new ArrayList<>();
+        for (StoredWebhookEventView event : webhookEventRepository.findStoredByPaymentId(paymentId)) {
+            payloads.add(new StoredWebhookPayload(event.getEventType(), event.getProcessedAt(), payloadOf(event)));
+        }
+        return payloads;
+    }
 
-            WebhookEvent event = WebhookEvent.builder()
-                    .paymentId(request.paymentId())
-                    .eventType(request.event())
-                    .rawPayload(rawPayload)
-                    .build();
-            webhookEventRepository.save(event);
+    private String payloadOf(StoredWebhookEventView event) {
+        if (event.getPayloadSegment() == null || payloadStore == null) {
+            return event.getRawPayload();
+        }
+        try {
+            return payloadStore.read(new SegmentedPayloadStore.Ref(event.getPayloadSegment(), event.getPayloadOffset()))
+                    .map(bytes -> new String(bytes, StandardCharsets.UTF_8))
+                    .orElse(null);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read webhook payload", e);
+        }
+    }
+
+    // Without a payload store the payload stays in the row; the store keeps the bytes exactly as signed
+    private WebhookEvent.WebhookEventBuilder withPayload(WebhookEvent.WebhookEventBuilder event, byte[] payload) {
+        if (payloadStore == null) {
+            return event.rawPayload(new String(payload, StandardCharsets.UTF_8));
+        }
+        try {
+            SegmentedPayloadStore.Ref ref = payloadStore.append(payload);
+            return event.payloadSegment(ref.segment()).payloadOffset(ref.offset());
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to store webhook payload", e);
+        }
+    }
 
-        } catch (JsonProcessingException e) {
-            throw new RuntimeException("Error processing webhook payload", e);
+    private void syncPayloads() {
+        if (payloadStore == null) {
+            return;
+        }
+        try {
+            payloadStore.sync();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to sync webhook payloads", e);
         }
     }
+
+    private static String eventKey(String paymentId, String eventType) {
+        return paymentId + '\n' + eventType;
+    }
+
+    public record VerifiedWebhook(WebhookRequest request, byte[] rawPayload) {
+    }
+
+    /**
+     * {@code missingPayments} are the events whose payment does not exist (yet); they are not
+     * recorded, and the caller decides whether to retry them.
+     */
+    public record BatchOutcome(int applied, int duplicates, int ignored, List<VerifiedWebhook> missingPayments) {
+    }
 }
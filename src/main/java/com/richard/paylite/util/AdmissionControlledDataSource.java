@@ -0,0 +1,181 @@
+package com.richard.paylite.util;
+
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.time.Duration;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Admission gate in front of the connection pool. At most {@code maxConcurrent} connections are
+ * handed out at once; further callers wait in FIFO order on a semaphore for up to {@code timeout}
+ * and are then refused. With virtual threads the number of concurrent requests is no longer capped
+ * by the Tomcat worker pool, so this keeps thousands of blocked threads queued cheaply here instead
+ * of contending inside the pool.
+ * <p>
+ * A thread that already holds a connection gets further ones without queueing for a permit.
+ * Hibernate's table id generators fetch a new block of ids on a second connection while the first
+ * is still open (and while other threads wait for the block); queueing that behind threads which
+ * themselves wait for it stalls every insert until the timeout. These nested connections come out
+ * of the {@code maxNested} connections the pool has beyond {@code maxConcurrent}: a thread may hold
+ * at most {@code maxNestedPerThread} of them and is refused beyond that, and threads wait (briefly,
+ * since nested work does not wait on anything else) when all of them are in use, so nesting can
+ * never exhaust the pool.
+ */
+public class AdmissionControlledDataSource extends DelegatingDataSource {
+
+    private final Semaphore permits;
+    private final Semaphore nestedPermits;
+    private final int maxConcurrent;
+    private final int maxNested;
+    private final int maxNestedPerThread;
+    private final long timeoutNanos;
+    private final ThreadLocal<Held> held = ThreadLocal.withInitial(Held::new);
+
+    public AdmissionControlledDataSource(DataSource target, int maxConcurrent, int maxNested, int maxNestedPerThread,
+                                         Duration timeout) {
+        super(target);
+        this.permits = new Semaphore(maxConcurrent, true);
+        this.nestedPermits = new Semaphore(maxNested, true);
+        this.maxConcurrent = maxConcurrent;
+        this.maxNested = maxNested;
+        this.maxNestedPerThread = maxNestedPerThread;
+        this.timeoutNanos = timeout.toNanos();
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        return guard(acquire(), () -> super.getConnection());
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        return guard(acquire(), () -> super.getConnection(username, password));
+    }
+
+    public int activeConnections() {
+        return maxConcurrent - permits.availablePermits();
+    }
+
+    public int waitingThreads() {
+        return permits.getQueueLength();
+    }
+
+    public int nestedConnections() {
+        return maxNested - nestedPermits.availablePermits();
+    }
+
+    /**
+     * Returns the semaphore the connection took its permit from: the nested one when the calling
+     * thread already holds a connection.
+     */
+    private Semaphore acquire() throws SQLException {
+        Held holder = held.get();
+        if (holder.total.get() == 0) {
+            tryAcquire(permits, "Database admission gate saturated: " + maxConcurrent + " connections in use");
+            return permits;
+        }
+        if (holder.nested.get() >= maxNestedPerThread) {
+            throw new SQLTransientConnectionException("Thread already holds " + holder.total.get()
+                    + " database connections, " + maxNestedPerThread + " of them nested");
+        }
+        tryAcquire(nestedPermits, "No spare database connections for a nested transaction");
+        return nestedPermits;
+    }
+
+    private void tryAcquire(Semaphore semaphore, String saturated) throws SQLException {
+        try {
+            if (!semaphore.tryAcquire(timeoutNanos, TimeUnit.NANOSECONDS)) {
+                throw new SQLTransientConnectionException(saturated + ", " + semaphore.getQueueLength() + " waiting");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLTransientConnectionException("Interrupted while waiting for a database connection", e);
+        }
+    }
+
+    private Connection guard(Semaphore permit, ConnectionSupplier supplier) throws SQLException {
+        Connection connection;
+        try {
+            connection = supplier.get();
+        } catch (SQLException | RuntimeException e) {
+            permit.release();
+            throw e;
+        }
+        Held holder = held.get();
+        holder.total.incrementAndGet();
+        if (permit == nestedPermits) {
+            holder.nested.incrementAndGet();
+        }
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                new Class<?>[]{Connection.class}, new ReleasingHandler(connection, permit, holder));
+    }
+
+    @FunctionalInterface
+    private interface ConnectionSupplier {
+        Connection get() throws SQLException;
+    }
+
+    // Connections opened by one thread; another thread may close them
+    private static final class Held {
+        private final AtomicInteger total = new AtomicInteger();
+        private final AtomicInteger nested = new AtomicInteger();
+    }
+
+    /**
+     * Returns the connection's permit the first time it is closed.
+     */
+    private final class ReleasingHandler implements InvocationHandler {
+
+        private final Connection target;
+        private final Semaphore permit;
+        private final Held holder;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private ReleasingHandler(Connection target, Semaphore permit, Held holder) {
+            this.target = target;
+            this.permit = permit;
+            this.holder = holder;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "close":
+                    try {
+                        target.close();
+                    } finally {
+                        if (released.compareAndSet(false, true)) {
+                            holder.total.decrementAndGet();
+                            if (permit == nestedPermits) {
+                                holder.nested.decrementAndGet();
+                            }
+                            permit.release();
+                        }
+                    }
+                    return null;
+                default:
+                    break;
+            }
+            try {
+                return method.invoke(target, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
+}
@@ -0,0 +1,11 @@
+package com.richard.paylite.util;
+
+/**
+ * Source of public payment ids ({@code pl_...}). Selected with {@code paylite.payments.id-generator}.
+ */
+public interface PaymentIdGenerator {
+
+    String PREFIX = "pl_";
+
+    String nextId();
+}
@@ -0,0 +1,15 @@
+package com.richard.paylite.util;
+
+import java.util.UUID;
+
+/**
+ * The original id format: {@code pl_} and a random UUID in hex. Inserts land at random points of
+ * the {@code payment_id} index.
+ */
+public class RandomPaymentIdGenerator implements PaymentIdGenerator {
+
+    @Override
+    public String nextId() {
+        return PREFIX + UUID.randomUUID().toString().replace("-", "");
+    }
+}
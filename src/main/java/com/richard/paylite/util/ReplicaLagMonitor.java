@@ -0,0 +1,117 @@
+package com.richard.paylite.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import javax.sql.DataSource;
+import java.io.Closeable;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how far a read replica is behind the primary with a heartbeat row, so no replication
+ * status privileges are needed and the clocks of the database servers do not matter.
+ * <p>
+ * Every {@code interval} the monitor bumps a sequence number in its own row of
+ * {@code replica_heartbeats} on the primary, remembering when each value was written, and reads
+ * the row back from the replica. If the replica shows the latest value its lag is taken as zero;
+ * otherwise the lag is the time since the first value it has not seen yet was written. A replica
+ * that cannot be read (or has not been measured yet) counts as infinitely behind.
+ */
+public class ReplicaLagMonitor implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(ReplicaLagMonitor.class);
+
+    // Heartbeats remembered; a replica further behind than this is reported at least this far behind
+    private static final int HISTORY = 64;
+    private static final Duration STALE_NODE_AGE = Duration.ofHours(1);
+
+    private final JdbcTemplate primary;
+    private final JdbcTemplate replica;
+    private final Duration interval;
+    private final long maxLagNanos;
+    private final String node = UUID.randomUUID().toString();
+
+    // Only touched by the monitor thread
+    private final long[] writtenAt = new long[HISTORY];
+    private long seq;
+
+    private volatile long lagNanos = Long.MAX_VALUE;
+    private ScheduledExecutorService executor;
+
+    public ReplicaLagMonitor(DataSource primary, DataSource replica, Duration interval, Duration maxLag) {
+        this.primary = new JdbcTemplate(primary);
+        this.replica = new JdbcTemplate(replica);
+        this.interval = interval;
+        this.maxLagNanos = maxLag.toNanos();
+    }
+
+    public void start(ThreadFactory threadFactory) {
+        executor = Executors.newSingleThreadScheduledExecutor(threadFactory);
+        executor.scheduleWithFixedDelay(this::beat, 0, interval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    public boolean isReplicaUsable() {
+        return lagNanos <= maxLagNanos;
+    }
+
+    /**
+     * The last measured lag in seconds, or NaN while the replica cannot be measured.
+     */
+    public double lagSeconds() {
+        long lag = lagNanos;
+        return lag == Long.MAX_VALUE ? Double.NaN : lag / 1e9;
+    }
+
+    @Override
+    public void close() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+        try {
+            primary.update("DELETE FROM replica_heartbeats WHERE node = ?", node);
+        } catch (DataAccessException e) {
+            logger.debug("Could not remove replica heartbeat row", e);
+        }
+    }
+
+    void beat() {
+        try {
+            Timestamp now = Timestamp.from(Instant.now());
+            if (seq == 0) {
+                primary.update("DELETE FROM replica_heartbeats WHERE beat_at < ?", Timestamp.from(Instant.now().minus(STALE_NODE_AGE)));
+                primary.update("INSERT INTO replica_heartbeats (node, seq, beat_at) VALUES (?, ?, ?)", node, seq + 1, now);
+            } else {
+                primary.update("UPDATE replica_heartbeats SET seq = ?, beat_at = ? WHERE node = ?", seq + 1, now, node);
+            }
+            seq++;
+            writtenAt[(int) (seq % HISTORY)] = System.nanoTime();
+        } catch (DataAccessException e) {
+            // Nothing to measure against; reads fall back to the primary, which has its own problem
+            if (lagNanos != Long.MAX_VALUE) {
+                logger.warn("Could not write replica heartbeat, reading from the primary: {}", e.getMessage());
+            }
+            lagNanos = Long.MAX_VALUE;
+            return;
+        }
+        try {
+            List<Long> seen = replica.queryForList("SELECT seq FROM replica_heartbeats WHERE node = ?", Long.class, node);
+            long replicated = seen.isEmpty() ? 0 : seen.get(0);
+            lagNanos = replicated >= seq ? 0 : System.nanoTime() - writtenAt[(int) (Math.max(replicated + 1, seq - HISTORY + 1) % HISTORY)];
+        } catch (DataAccessException e) {
+            if (lagNanos != Long.MAX_VALUE) {
+                logger.warn("Replica is unavailable, reading from the primary: {}", e.getMessage());
+            }
+            lagNanos = Long.MAX_VALUE;
+        }
+    }
+}
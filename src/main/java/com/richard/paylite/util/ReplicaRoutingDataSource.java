@@ -0,0 +1,163 @@
+package com.richard.paylite.util;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.jdbc.datasource.AbstractDataSource;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.sql.DataSource;
+import java.io.Closeable;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Sends read-only transactions to a replica and everything else to the primary.
+ * <p>
+ * The physical connection is only fetched at the first statement (this is a
+ * {@link LazyConnectionDataSourceProxy}), once the transaction manager has marked the transaction
+ * read-only, so the routing follows {@code @Transactional(readOnly = true)} and the read-only
+ * finders of Spring Data repositories. Work without a transaction, and reads that join a
+ * read-write transaction, stay on the primary. A read-only transaction still uses the primary
+ * <ul>
+ *   <li>while the {@link ReplicaLagMonitor} reports the replica as unavailable or further behind
+ *       than allowed, and</li>
+ *   <li>for {@code readYourWritesWindow} after the same client (as given by {@code client}, for
+ *       example the API key's tenant) committed a read-write transaction, so it sees its own changes.</li>
+ * </ul>
+ * Writes are only remembered by the node that committed them, so read-your-writes holds only
+ * while a client's requests reach the same node: behind a load balancer, route them stickily (for
+ * example by hashing the API key), or a read that lands on another node may go to a lagging replica.
+ * Reads are counted in {@code paylite.datasource.reads}, tagged with the pool used and why.
+ */
+public class ReplicaRoutingDataSource extends LazyConnectionDataSourceProxy implements Closeable {
+
+    private final Router router;
+
+    public ReplicaRoutingDataSource(DataSource primary, DataSource replica, ReplicaLagMonitor lagMonitor,
+                                    Duration readYourWritesWindow, Supplier<String> client, MeterRegistry meterRegistry) {
+        this(new Router(primary, replica, lagMonitor, readYourWritesWindow, client, meterRegistry));
+    }
+
+    private ReplicaRoutingDataSource(Router router) {
+        super(router);
+        this.router = router;
+    }
+
+    public DataSource primary() {
+        return router.primary;
+    }
+
+    public DataSource replica() {
+        return router.replica;
+    }
+
+    public ReplicaLagMonitor lagMonitor() {
+        return router.lagMonitor;
+    }
+
+    /**
+     * Stops the lag monitor and closes both pools.
+     */
+    @Override
+    public void close() throws IOException {
+        router.lagMonitor.close();
+        for (DataSource pool : new DataSource[]{router.primary, router.replica}) {
+            try {
+                if (pool.isWrapperFor(Closeable.class)) {
+                    pool.unwrap(Closeable.class).close();
+                }
+            } catch (SQLException e) {
+                throw new IOException("Cannot close connection pool", e);
+            }
+        }
+    }
+
+    private static final class Router extends AbstractDataSource {
+
+        private final DataSource primary;
+        private final DataSource replica;
+        private final ReplicaLagMonitor lagMonitor;
+        private final long readYourWritesNanos;
+        private final Supplier<String> client;
+        // Client -> System.nanoTime() of its last committed write on this node
+        private final Map<String, Long> lastWrites = new ConcurrentHashMap<>();
+
+        private final Counter replicaReads;
+        private final Counter laggingReads;
+        private final Counter recentWriteReads;
+
+        private Router(DataSource primary, DataSource replica, ReplicaLagMonitor lagMonitor,
+                       Duration readYourWritesWindow, Supplier<String> client, MeterRegistry meterRegistry) {
+            this.primary = primary;
+            this.replica = replica;
+            this.lagMonitor = lagMonitor;
+            this.readYourWritesNanos = readYourWritesWindow.toNanos();
+            this.client = client;
+            replicaReads = reads(meterRegistry, "replica", "replica");
+            laggingReads = reads(meterRegistry, "primary", "replica-lag");
+            recentWriteReads = reads(meterRegistry, "primary", "read-your-writes");
+            Gauge.builder("paylite.datasource.replica.lag", lagMonitor, ReplicaLagMonitor::lagSeconds)
+                    .description("Seconds the replica is behind the primary (NaN when it cannot be read)")
+                    .baseUnit("seconds")
+                    .register(meterRegistry);
+        }
+
+        private static Counter reads(MeterRegistry meterRegistry, String pool, String reason) {
+            return Counter.builder("paylite.datasource.reads")
+                    .description("Read-only transactions by the pool they were routed to")
+                    .tag("pool", pool)
+                    .tag("reason", reason)
+                    .register(meterRegistry);
+        }
+
+        @Override
+        public Connection getConnection() throws SQLException {
+            return route().getConnection();
+        }
+
+        @Override
+        public Connection getConnection(String username, String password) throws SQLException {
+            return route().getConnection(username, password);
+        }
+
+        private DataSource route() {
+            if (!TransactionSynchronizationManager.isCurrentTransactionReadOnly()) {
+                trackWrite();
+                return primary;
+            }
+            if (!lagMonitor.isReplicaUsable()) {
+                laggingReads.increment();
+                return primary;
+            }
+            String reader = client.get();
+            Long wroteAt = reader == null ? null : lastWrites.get(reader);
+            if (wroteAt != null && System.nanoTime() - wroteAt < readYourWritesNanos) {
+                recentWriteReads.increment();
+                return primary;
+            }
+            replicaReads.increment();
+            return replica;
+        }
+
+        private void trackWrite() {
+            String writer = client.get();
+            if (writer == null || !TransactionSynchronizationManager.isSynchronizationActive()) {
+                return;
+            }
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    lastWrites.put(writer, System.nanoTime());
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package com.richard.paylite.util;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+/**
+ * Runs at most one piece of work per key at a time within this JVM. Callers that arrive while
+ * the work for their key is in flight wait for, and share, the first caller's result (or exception).
+ */
+public class RequestCoalescer<T> {
+
+    private final ConcurrentHashMap<String, CompletableFuture<T>> inFlight = new ConcurrentHashMap<>();
+
+    public T execute(String key, Duration timeout, Supplier<T> work) throws TimeoutException {
+        CompletableFuture<T> mine = new CompletableFuture<>();
+        CompletableFuture<T> leader = inFlight.putIfAbsent(key, mine);
+        if (leader != null) {
+            return await(leader, timeout);
+        }
+
+        try {
+            T result = work.get();
+            mine.complete(result);
+            return result;
+        } catch (RuntimeException | Error e) {
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, mine);
+        }
+    }
+
+    public int inFlightCount() {
+        return inFlight.size();
+    }
+
+    private T await(CompletableFuture<T> leader, Duration timeout) throws TimeoutException {
+        try {
+            return leader.get(timeout.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            if (e.getCause() instanceof Error error) {
+                throw error;
+            }
+            throw new IllegalStateException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new TimeoutException("Interrupted while waiting for in-flight request");
+        }
+    }
+}
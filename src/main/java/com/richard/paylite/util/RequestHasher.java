@@ -0,0 +1,129 @@
+package com.richard.paylite.util;
+
+import com.richard.paylite.dto.CreatePaymentRequest;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Canonical SHA-256 of a payment request, used to tell an idempotent retry from a different
+ * request under the same key. Fields are fed straight into a pooled digest in a fixed order,
+ * so the hash does not depend on JSON field order or formatting, and amounts are compared by
+ * value: {@code 1999} and {@code 1999.00} hash the same. Strings are hashed as given.
+ */
+public final class RequestHasher {
+
+    public static final int HASH_BYTES = 32;
+
+    // Bump when the encoding below changes, so old and new hashes can never collide
+    private static final byte VERSION = 1;
+    private static final int BUFFER_BYTES = 256;
+
+    // Not a ThreadLocal: with virtual threads every request would build its own
+    private static final BoundedPool<Encoder> ENCODERS = new BoundedPool<>(Encoder::new, 256);
+
+    private RequestHasher() {
+    }
+
+    public static byte[] hash(CreatePaymentRequest request) {
+        Encoder encoder = ENCODERS.acquire();
+        encoder.putByte(VERSION);
+        encoder.putAmount(request.amount());
+        encoder.putString(request.currency());
+        encoder.putString(request.customerEmail());
+        encoder.putString(request.reference());
+        byte[] hash = encoder.digest();
+        ENCODERS.release(encoder);
+        return hash;
+    }
+
+    private static final class Encoder {
+
+        private final MessageDigest digest;
+        private final byte[] buffer = new byte[BUFFER_BYTES];
+        private int position;
+
+        Encoder() {
+            try {
+                digest = MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException("SHA-256 is not available", e);
+            }
+        }
+
+        void putAmount(BigDecimal amount) {
+            if (amount == null) {
+                putByte((byte) 0);
+                return;
+            }
+            BigDecimal normalized = amount.stripTrailingZeros();
+            BigInteger unscaled = normalized.unscaledValue();
+            putInt(normalized.scale());
+            if (unscaled.bitLength() < Long.SIZE) {
+                putByte((byte) 1);
+                putLong(unscaled.longValue());
+            } else {
+                byte[] bytes = unscaled.toByteArray();
+                putByte((byte) 2);
+                putInt(bytes.length);
+                for (byte b : bytes) {
+                    putByte(b);
+                }
+            }
+        }
+
+        // Length-prefixed UTF-16 code units; -1 marks null so that null and "" differ
+        void putString(String value) {
+            if (value == null) {
+                putInt(-1);
+                return;
+            }
+            int length = value.length();
+            putInt(length);
+            for (int i = 0; i < length; i++) {
+                ensureCapacity(2);
+                char c = value.charAt(i);
+                buffer[position++] = (byte) (c >>> 8);
+                buffer[position++] = (byte) c;
+            }
+        }
+
+        void putInt(int value) {
+            ensureCapacity(Integer.BYTES);
+            for (int shift = 24; shift >= 0; shift -= 8) {
+                buffer[position++] = (byte) (value >>> shift);
+            }
+        }
+
+        void putLong(long value) {
+            ensureCapacity(Long.BYTES);
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                buffer[position++] = (byte) (value >>> shift);
+            }
+        }
+
+        void putByte(byte value) {
+            ensureCapacity(1);
+            buffer[position++] = value;
+        }
+
+        byte[] digest() {
+            flush();
+            // digest() also resets the MessageDigest for the next request
+            return digest.digest();
+        }
+
+        private void ensureCapacity(int bytes) {
+            if (position + bytes > buffer.length) {
+                flush();
+            }
+        }
+
+        private void flush() {
+            digest.update(buffer, 0, position);
+            position = 0;
+        }
+    }
+}
@@ -0,0 +1,472 @@
+package com.richard.paylite.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Append-only, segmented store for payloads that are written once and read rarely (raw webhook
+ * bodies kept for audits and replays), so they need not sit in a database row. A payload is
+ * addressed by its {@link Ref}: the segment and the offset it was written at.
+ * <p>
+ * A segment starts with {@code [int magic][int dictionaryLength][dictionary]}, where the dictionary
+ * is the first payload written to the segment. Every later payload is deflated with it as the
+ * preset dictionary; payloads from one source share most of their bytes, so even a record of a
+ * few hundred bytes shrinks well. Records are
+ * {@code [int storedLength][int length][int crc32][long writtenAtMillis][byte flags][stored bytes]};
+ * a payload that does not shrink is stored as it is.
+ * <p>
+ * Segments roll at {@code segmentSize} or once they are {@code rollInterval} old, and sealed
+ * segments are read through a read-only memory mapping. Sealed segments whose last write is older
+ * than the retention are deleted (see {@link #startRetiring}); reading from one then finds nothing.
+ * {@link #sync} makes everything appended so far durable, and callers that arrive while another
+ * thread's fsync is running share the next one, so a burst of payloads costs one fsync rather than
+ * one each.
+ */
+public class SegmentedPayloadStore implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(SegmentedPayloadStore.class);
+
+    public record Ref(long segment, long offset) {
+    }
+
+    public record Entry(Ref ref, long writtenAtMillis, byte[] payload) {
+    }
+
+    private static final int MAGIC = 0x504c5053;
+    private static final int RECORD_HEADER_BYTES = Integer.BYTES * 3 + Long.BYTES + 1;
+    private static final byte COMPRESSED = 1;
+    // Deflate only looks back 32 KB, so a longer dictionary would not help
+    private static final int MAX_DICTIONARY_BYTES = 32 * 1024;
+    private static final String SEGMENT_SUFFIX = ".payloads";
+
+    private final Path directory;
+    private final long segmentSize;
+    private final long rollIntervalMillis;
+    private final boolean fsync;
+
+    private final Map<Long, Segment> segments = new ConcurrentSkipListMap<>();
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private final ReentrantLock syncLock = new ReentrantLock();
+    // Only used under the write lock
+    private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+    // Reads come from request threads, which may be virtual; Inflaters hold native memory
+    private final BoundedPool<Inflater> inflaters = new BoundedPool<>(() -> new Inflater(true), 16);
+
+    private Segment current;
+    private long nextSegmentId;
+    private volatile long writtenSequence;
+    private volatile long syncedSequence;
+    private volatile Thread retirer;
+
+    /**
+     * Opens the store; segments left by a previous run are sealed and stay readable, and new
+     * payloads go to a new segment.
+     */
+    public SegmentedPayloadStore(Path directory, long segmentSize, Duration rollInterval, boolean fsync) throws IOException {
+        if (segmentSize > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Segments are memory-mapped whole and must be smaller than 2 GB");
+        }
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.rollIntervalMillis = rollInterval.toMillis();
+        this.fsync = fsync;
+        Files.createDirectories(directory);
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path path : files.filter(p -> p.getFileName().toString().endsWith(SEGMENT_SUFFIX)).sorted().toList()) {
+                long id = segmentId(path);
+                segments.put(id, new Segment(id, path, Files.size(path), Files.getLastModifiedTime(path).toMillis()));
+                nextSegmentId = Math.max(nextSegmentId, id + 1);
+            }
+        }
+    }
+
+    public Ref append(byte[] payload) throws IOException {
+        long now = System.currentTimeMillis();
+        writeLock.lock();
+        try {
+            if (current == null || current.size >= segmentSize || now - current.createdAtMillis >= rollIntervalMillis) {
+                roll(payload, now);
+            }
+            Segment segment = current;
+            ByteBuffer record = encode(segment.dictionary, payload, now);
+            long offset = segment.size;
+            while (record.hasRemaining()) {
+                segment.channel.write(record, offset + record.position());
+            }
+            segment.size = offset + record.limit();
+            segment.lastWriteMillis = now;
+            writtenSequence++;
+            return new Ref(segment.id, offset);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Returns once everything appended before the call is on disk. Does nothing when the store
+     * was opened without fsync.
+     */
+    public void sync() throws IOException {
+        long target = writtenSequence;
+        if (!fsync || syncedSequence >= target) {
+            return;
+        }
+        syncLock.lock();
+        try {
+            if (syncedSequence >= target) {
+                return;
+            }
+            long covered;
+            FileChannel channel;
+            writeLock.lock();
+            try {
+                covered = writtenSequence;
+                channel = current.channel;
+            } finally {
+                writeLock.unlock();
+            }
+            try {
+                channel.force(false);
+            } catch (ClosedChannelException e) {
+                // The segment was rolled meanwhile, and rolling forces it before closing
+            }
+            syncedSequence = covered;
+        } finally {
+            syncLock.unlock();
+        }
+    }
+
+    /**
+     * The payload at {@code ref}, or empty once its segment has been retired.
+     *
+     * @throws IOException if the record is damaged or {@code ref} does not point at one
+     */
+    public Optional<byte[]> read(Ref ref) throws IOException {
+        Segment segment = segments.get(ref.segment());
+        if (segment == null) {
+            return Optional.empty();
+        }
+        Entry entry = readEntry(segment, ref.offset());
+        if (entry == null) {
+            throw new IOException("No payload record at " + ref);
+        }
+        return Optional.of(entry.payload());
+    }
+
+    /**
+     * Passes every payload written at or after {@code since} to {@code consumer}, oldest first,
+     * for replays. Payloads appended while the scan runs may or may not be included.
+     */
+    public void scan(Instant since, Consumer<Entry> consumer) throws IOException {
+        long sinceMillis = since.toEpochMilli();
+        for (Segment segment : segments.values()) {
+            if (segment.lastWriteMillis < sinceMillis) {
+                continue;
+            }
+            long end = segment.size;
+            long offset = segment.dataStart();
+            while (offset < end) {
+                Entry entry = readEntry(segment, offset);
+                if (entry == null) {
+                    // Torn write at the tail of a segment from a crashed run
+                    break;
+                }
+                if (entry.writtenAtMillis() >= sinceMillis) {
+                    consumer.accept(entry);
+                }
+                offset += RECORD_HEADER_BYTES + storedLength(segment, offset);
+            }
+        }
+    }
+
+    /**
+     * Deletes sealed segments last written before {@code before}; returns how many.
+     */
+    public int retire(Instant before) throws IOException {
+        int retired = 0;
+        for (Segment segment : segments.values()) {
+            if (segment.channel == null && segment.lastWriteMillis < before.toEpochMilli()) {
+                segments.remove(segment.id);
+                // Readers holding the mapping keep it; the space is freed once they drop it
+                Files.deleteIfExists(segment.path);
+                retired++;
+            }
+        }
+        return retired;
+    }
+
+    /**
+     * Retires segments older than {@code retention} every {@code interval} on a thread from
+     * {@code threadFactory}, until the store is closed.
+     */
+    public void startRetiring(Duration retention, Duration interval, ThreadFactory threadFactory) {
+        Thread thread = threadFactory.newThread(() -> {
+            while (retirer == Thread.currentThread()) {
+                try {
+                    int retired = retire(Instant.now().minus(retention));
+                    if (retired > 0) {
+                        logger.info("Retired {} payload segments older than {}", retired, retention);
+                    }
+                } catch (IOException | RuntimeException e) {
+                    logger.warn("Failed to retire payload segments", e);
+                }
+                LockSupport.parkNanos(interval.toNanos());
+            }
+        });
+        retirer = thread;
+        thread.start();
+    }
+
+    public int segmentCount() {
+        return segments.size();
+    }
+
+    @Override
+    public void close() throws IOException {
+        Thread thread = retirer;
+        retirer = null;
+        if (thread != null) {
+            LockSupport.unpark(thread);
+            try {
+                thread.join(TimeUnit.SECONDS.toMillis(5));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        writeLock.lock();
+        try {
+            if (current != null) {
+                seal(current);
+                current = null;
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private void roll(byte[] firstPayload, long now) throws IOException {
+        if (current != null) {
+            seal(current);
+        }
+        long id = nextSegmentId++;
+        Path path = directory.resolve(String.format("%020d%s", id, SEGMENT_SUFFIX));
+        byte[] dictionary = Arrays.copyOf(firstPayload, Math.min(firstPayload.length, MAX_DICTIONARY_BYTES));
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        ByteBuffer header = ByteBuffer.allocate(2 * Integer.BYTES + dictionary.length)
+                .putInt(MAGIC)
+                .putInt(dictionary.length)
+                .put(dictionary)
+                .flip();
+        while (header.hasRemaining()) {
+            channel.write(header, header.position());
+        }
+        Segment segment = new Segment(id, path, channel, dictionary, header.limit(), now);
+        segments.put(id, segment);
+        current = segment;
+    }
+
+    private void seal(Segment segment) throws IOException {
+        if (fsync) {
+            segment.channel.force(false);
+        }
+        FileChannel channel = segment.channel;
+        segment.channel = null;
+        channel.close();
+    }
+
+    private ByteBuffer encode(byte[] dictionary, byte[] payload, long now) {
+        deflater.reset();
+        deflater.setDictionary(dictionary);
+        deflater.setInput(payload);
+        deflater.finish();
+        byte[] compressed = new byte[payload.length];
+        int compressedLength = deflater.deflate(compressed);
+        boolean shrunk = deflater.finished() && compressedLength < payload.length;
+
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        int storedLength = shrunk ? compressedLength : payload.length;
+        return ByteBuffer.allocate(RECORD_HEADER_BYTES + storedLength)
+                .putInt(storedLength)
+                .putInt(payload.length)
+                .putInt((int) crc.getValue())
+                .putLong(now)
+                .put(shrunk ? COMPRESSED : 0)
+                .put(shrunk ? compressed : payload, 0, storedLength)
+                .flip();
+    }
+
+    // Null when there is no complete, intact record at the offset
+    private Entry readEntry(Segment segment, long offset) throws IOException {
+        ByteBuffer header = segment.read(offset, RECORD_HEADER_BYTES);
+        if (header == null) {
+            return null;
+        }
+        int storedLength = header.getInt();
+        int length = header.getInt();
+        int checksum = header.getInt();
+        long writtenAtMillis = header.getLong();
+        byte flags = header.get();
+        if (storedLength < 0 || length < 0) {
+            return null;
+        }
+        ByteBuffer stored = segment.read(offset + RECORD_HEADER_BYTES, storedLength);
+        if (stored == null) {
+            return null;
+        }
+
+        byte[] payload = new byte[length];
+        if ((flags & COMPRESSED) != 0) {
+            Inflater inflater = inflaters.acquire();
+            try {
+                inflater.reset();
+                inflater.setDictionary(segment.dictionary());
+                inflater.setInput(stored);
+                if (inflater.inflate(payload) != length) {
+                    return null;
+                }
+            } catch (DataFormatException e) {
+                return null;
+            } finally {
+                inflaters.release(inflater);
+            }
+        } else if (storedLength == length) {
+            stored.get(payload);
+        } else {
+            return null;
+        }
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        if ((int) crc.getValue() != checksum) {
+            return null;
+        }
+        return new Entry(new Ref(segment.id, offset), writtenAtMillis, payload);
+    }
+
+    private static int storedLength(Segment segment, long offset) throws IOException {
+        return segment.read(offset, Integer.BYTES).getInt();
+    }
+
+    private static long segmentId(Path path) {
+        String name = path.getFileName().toString();
+        return Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    private static final class Segment {
+        private final long id;
+        private final Path path;
+        private final long createdAtMillis;
+        // Open while this is the segment being written, null once sealed
+        private volatile FileChannel channel;
+        private volatile long size;
+        private volatile long lastWriteMillis;
+        private volatile byte[] dictionary;
+        private volatile MappedByteBuffer mapping;
+
+        // The segment being written
+        private Segment(long id, Path path, FileChannel channel, byte[] dictionary, long size, long now) {
+            this.id = id;
+            this.path = path;
+            this.channel = channel;
+            this.dictionary = dictionary;
+            this.size = size;
+            this.createdAtMillis = now;
+            this.lastWriteMillis = now;
+        }
+
+        // A sealed segment found on disk
+        private Segment(long id, Path path, long size, long lastModifiedMillis) {
+            this.id = id;
+            this.path = path;
+            this.size = size;
+            this.createdAtMillis = lastModifiedMillis;
+            this.lastWriteMillis = lastModifiedMillis;
+        }
+
+        private byte[] dictionary() throws IOException {
+            byte[] loaded = dictionary;
+            if (loaded == null) {
+                ByteBuffer header = read(0, 2 * Integer.BYTES);
+                if (header == null || header.getInt() != MAGIC) {
+                    throw new IOException("Not a payload segment: " + path);
+                }
+                ByteBuffer bytes = read(2 * Integer.BYTES, header.getInt());
+                if (bytes == null) {
+                    throw new IOException("Truncated payload segment header: " + path);
+                }
+                loaded = new byte[bytes.remaining()];
+                bytes.get(loaded);
+                dictionary = loaded;
+            }
+            return loaded;
+        }
+
+        private long dataStart() throws IOException {
+            return 2 * Integer.BYTES + dictionary().length;
+        }
+
+        // Null when the range runs past the end of what has been written
+        private ByteBuffer read(long position, int length) throws IOException {
+            if (position + length > size) {
+                return null;
+            }
+            FileChannel writing = channel;
+            if (writing != null) {
+                ByteBuffer buffer = ByteBuffer.allocate(length);
+                try {
+                    while (buffer.hasRemaining()) {
+                        if (writing.read(buffer, position + buffer.position()) < 0) {
+                            return null;
+                        }
+                    }
+                    return buffer.flip();
+                } catch (ClosedChannelException e) {
+                    // Sealed meanwhile; read it through the mapping instead
+                }
+            }
+            return mapping().slice((int) position, length);
+        }
+
+        private MappedByteBuffer mapping() throws IOException {
+            MappedByteBuffer mapped = mapping;
+            if (mapped == null) {
+                synchronized (this) {
+                    mapped = mapping;
+                    if (mapped == null) {
+                        try (FileChannel file = FileChannel.open(path, StandardOpenOption.READ)) {
+                            mapped = file.map(FileChannel.MapMode.READ_ONLY, 0, file.size());
+                        }
+                        mapping = mapped;
+                    }
+                }
+            }
+            return mapped;
+        }
+    }
+}
@@ -7,40 +7,146 @@ import javax.crypto.Mac;
 import javax.crypto.spec.SecretKeySpec;
 import java.nio.charset.StandardCharsets;
 import java.security.InvalidKeyException;
+import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
-import java.util.Formatter;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
 
 @Component
 public class SignatureUtil {
 
+    private static final String HMAC_SHA256 = "HmacSHA256";
+    private static final int SIGNATURE_BYTES = 32;
+    private static final HexFormat HEX = HexFormat.of();
+
     @Value("${paylite.security.webhook-secret}")
     private String secret;
 
-    private static final String HMAC_SHA256 = "HmacSHA256";
+    // Older secrets that are still accepted for verification while a rotation is rolled out
+    @Value("${paylite.security.webhook-previous-secrets:}")
+    private List<String> previousSecrets = List.of();
+
+    // Built lazily from the configured secrets; index 0 is the current (signing) secret
+    private volatile KeyedMacPool[] macPools;
+
+    public SignatureUtil() {
+    }
+
+    /**
+     * The same signing scheme under another secret, e.g. for notifications sent to merchants.
+     */
+    public SignatureUtil(String secret) {
+        this.secret = secret;
+    }
 
     public String calculateHmacSha256(String payload) {
-        byte[] hmacSha256;
-        try {
-            Mac mac = Mac.getInstance(HMAC_SHA256);
-            SecretKeySpec secretKeySpec = new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), HMAC_SHA256);
-            mac.init(secretKeySpec);
-            hmacSha256 = mac.doFinal(payload.getBytes(StandardCharsets.UTF_8));
-        } catch (NoSuchAlgorithmException | InvalidKeyException e) {
-            throw new RuntimeException("Failed to calculate HMAC-SHA256", e);
+        return calculateHmacSha256(payload.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public String calculateHmacSha256(byte[] payload) {
+        return HEX.formatHex(sign(payload));
+    }
+
+    public byte[] sign(byte[] payload) {
+        return macPools()[0].hmac(payload);
+    }
+
+    public boolean isValidSignature(String signature, String payload) {
+        return isValidSignature(signature, payload.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Checks the hex signature against the HMAC of the raw payload under every active secret.
+     * Digests are compared as bytes in constant time.
+     */
+    public boolean isValidSignature(String signature, byte[] payload) {
+        byte[] expected = decodeSignature(signature);
+        if (expected == null) {
+            return false;
         }
-        return toHexString(hmacSha256);
+        for (KeyedMacPool pool : macPools()) {
+            if (MessageDigest.isEqual(pool.hmac(payload), expected)) {
+                return true;
+            }
+        }
+        return false;
     }
 
-    private String toHexString(byte[] bytes) {
-        Formatter formatter = new Formatter();
-        for (byte b : bytes) {
-            formatter.format("%02x", b);
+    private KeyedMacPool[] macPools() {
+        KeyedMacPool[] pools = macPools;
+        if (pools == null) {
+            List<KeyedMacPool> created = new ArrayList<>();
+            created.add(new KeyedMacPool(secret));
+            for (String previous : previousSecrets) {
+                if (!previous.isBlank()) {
+                    created.add(new KeyedMacPool(previous.trim()));
+                }
+            }
+            pools = created.toArray(new KeyedMacPool[0]);
+            macPools = pools;
         }
-        return formatter.toString();
+        return pools;
     }
 
-    public boolean isValidSignature(String signature, String payload) {
-        String calculatedSignature = calculateHmacSha256(payload);
-        return calculatedSignature.equals(signature);
+    private static byte[] decodeSignature(String signature) {
+        if (signature == null || signature.length() != SIGNATURE_BYTES * 2) {
+            return null;
+        }
+        byte[] bytes = new byte[SIGNATURE_BYTES];
+        for (int i = 0; i < SIGNATURE_BYTES; i++) {
+            int high = Character.digit(signature.charAt(2 * i), 16);
+            int low = Character.digit(signature.charAt(2 * i + 1), 16);
+            if (high < 0 || low < 0) {
+                return null;
+            }
+            bytes[i] = (byte) ((high << 4) | low);
+        }
+        return bytes;
+    }
+
+    /**
+     * Pool of Macs already initialised with one secret. Instances are cloned from a keyed prototype
+     * and handed back after use, so the key schedule is computed once rather than per webhook, and
+     * reuse works for virtual threads as well as pooled ones.
+     */
+    private static final class KeyedMacPool {
+
+        private static final int MAX_IDLE = 256;
+
+        private final SecretKeySpec key;
+        private final Mac prototype;
+        private final BoundedPool<Mac> macs = new BoundedPool<>(this::copyPrototype, MAX_IDLE);
+
+        private KeyedMacPool(String secret) {
+            this.key = new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), HMAC_SHA256);
+            this.prototype = newMac();
+        }
+
+        private byte[] hmac(byte[] payload) {
+            Mac mac = macs.acquire();
+            // doFinal resets the Mac for the next user
+            byte[] result = mac.doFinal(payload);
+            macs.release(mac);
+            return result;
+        }
+
+        private Mac copyPrototype() {
+            try {
+                return (Mac) prototype.clone();
+            } catch (CloneNotSupportedException e) {
+                return newMac();
+            }
+        }
+
+        private Mac newMac() {
+            try {
+                Mac mac = Mac.getInstance(HMAC_SHA256);
+                mac.init(key);
+                return mac;
+            } catch (NoSuchAlgorithmException | InvalidKeyException e) {
+                throw new RuntimeException("Failed to calculate HMAC-SHA256", e);
+            }
+        }
     }
 }
@@ -0,0 +1,37 @@
+package com.richard.paylite.util;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.support.JdbcUtils;
+
+import javax.sql.DataSource;
+import java.sql.DatabaseMetaData;
+
+/**
+ * JdbcTemplates for reading large tables with a forward-only cursor, in constant memory.
+ */
+public final class StreamingJdbc {
+
+    private StreamingJdbc() {
+    }
+
+    /**
+     * A template whose queries stream rows from the server. Connector/J only streams one row at a
+     * time when the fetch size is {@code Integer.MIN_VALUE} (otherwise it buffers the whole result);
+     * other drivers get {@code fetchSize}. The connection cannot run other statements until the
+     * result set is closed.
+     */
+    public static JdbcTemplate template(DataSource dataSource, int fetchSize) {
+        JdbcTemplate template = new JdbcTemplate(dataSource);
+        template.setFetchSize(isMySql(dataSource) ? Integer.MIN_VALUE : fetchSize);
+        return template;
+    }
+
+    private static boolean isMySql(DataSource dataSource) {
+        try {
+            String product = JdbcUtils.extractDatabaseMetaData(dataSource, DatabaseMetaData::getDatabaseProductName);
+            return "MySQL".equalsIgnoreCase(product);
+        } catch (Exception e) {
+            return false;
+        }
+    }
+}
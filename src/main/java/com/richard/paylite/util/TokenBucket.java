@@ -0,0 +1,63 @@
+package com.richard.paylite.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free token bucket holding up to {@code burst} tokens and refilled at {@code permitsPerSecond}.
+ * <p>
+ * Rather than a token count and a last-refill time, the whole state is one timestamp: the time at
+ * which the bucket would be full again (the generic cell rate algorithm). Taking a token moves it
+ * forward by one refill interval with a single compare-and-set, so concurrent callers never lock
+ * and the bucket needs no background refill.
+ */
+public final class TokenBucket {
+
+    private static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    /**
+     * Outcome of one {@link #tryAcquire}: the tokens left, how long until the bucket is full again,
+     * and, when the request was refused, how long until a token is available.
+     */
+    public record Decision(boolean allowed, int remaining, long retryAfterNanos, long resetNanos) {
+    }
+
+    private final int burst;
+    private final long intervalNanos;
+    private final long capacityNanos;
+    private final AtomicLong fullAt;
+
+    public TokenBucket(double permitsPerSecond, int burst) {
+        if (permitsPerSecond <= 0 || burst < 1) {
+            throw new IllegalArgumentException("Rate and burst must be positive: " + permitsPerSecond + ", " + burst);
+        }
+        this.burst = burst;
+        this.intervalNanos = Math.max(1, (long) (NANOS_PER_SECOND / permitsPerSecond));
+        this.capacityNanos = intervalNanos * burst;
+        this.fullAt = new AtomicLong(System.nanoTime());
+    }
+
+    public int burst() {
+        return burst;
+    }
+
+    public Decision tryAcquire() {
+        return tryAcquire(System.nanoTime());
+    }
+
+    Decision tryAcquire(long nowNanos) {
+        while (true) {
+            long current = fullAt.get();
+            // A bucket that filled up in the past is simply full now
+            long next = (current - nowNanos < 0 ? nowNanos : current) + intervalNanos;
+            long backlog = next - nowNanos;
+            if (backlog > capacityNanos) {
+                long owed = current - nowNanos;
+                return new Decision(false, 0, backlog - capacityNanos, Math.max(0, owed));
+            }
+            if (fullAt.compareAndSet(current, next)) {
+                return new Decision(true, (int) ((capacityNanos - backlog) / intervalNanos), 0, backlog);
+            }
+        }
+    }
+}
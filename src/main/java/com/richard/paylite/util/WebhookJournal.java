@@ -0,0 +1,370 @@
+package com.richard.paylite.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only, segmented write-ahead journal for accepted webhook payloads.
+ * <p>
+ * Each record is {@code [int length][long enqueuedAtMillis][int crc32][payload]}. A segment is
+ * rolled once it reaches the configured size and deleted once it is sealed and every record in it
+ * has been acknowledged. Concurrent appenders share fsyncs: a caller whose record was already
+ * covered by another thread's {@code force} returns without flushing again.
+ * <p>
+ * {@link #checkpoint} writes each segment's ack watermark (the offset below which every record
+ * has been acknowledged) to a {@code .acked} file next to it, and {@link #recover} starts reading
+ * there, so a restart only replays what was still pending at the last checkpoint. The watermark is
+ * not fsynced: after a crash a few acknowledged records may be replayed again, which consumers
+ * deduplicate. Recovery can also be split into {@link #open} and {@link #replay}, so that new
+ * records are appended while old ones are still being replayed.
+ */
+public class WebhookJournal implements Closeable {
+
+    private static final int HEADER_BYTES = Integer.BYTES + Long.BYTES + Integer.BYTES;
+    private static final String SEGMENT_SUFFIX = ".journal";
+    private static final String ACKED_SUFFIX = ".acked";
+
+    private final Path directory;
+    private final long segmentSize;
+    private final boolean fsync;
+
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private final ReentrantLock syncLock = new ReentrantLock();
+    private final Map<Long, Segment> segments = new ConcurrentSkipListMap<>();
+    private final List<Segment> recovering = new ArrayList<>();
+
+    private Segment current;
+    private long nextSegmentId;
+    private long writtenSequence;
+    private volatile long syncedSequence;
+
+    public WebhookJournal(Path directory, long segmentSize, boolean fsync) throws IOException {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.fsync = fsync;
+        Files.createDirectories(directory);
+    }
+
+    /**
+     * Registers the segments left over from a previous run, so that appends can start right away
+     * in a new segment after them. Must be called once, before the first append; {@link #replay}
+     * then reads their records, and may run while appends and acknowledgements go on.
+     */
+    public void open() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path path : files.filter(p -> p.getFileName().toString().endsWith(ACKED_SUFFIX)).toList()) {
+                // Left behind by a segment deleted between a checkpoint and its cleanup
+                if (!Files.exists(segmentPath(idOf(path, ACKED_SUFFIX)))) {
+                    Files.deleteIfExists(path);
+                }
+            }
+        }
+        List<Path> paths;
+        try (Stream<Path> files = Files.list(directory)) {
+            paths = files.filter(p -> p.getFileName().toString().endsWith(SEGMENT_SUFFIX)).sorted().toList();
+        }
+
+        for (Path path : paths) {
+            long id = idOf(path, SEGMENT_SUFFIX);
+            nextSegmentId = Math.max(nextSegmentId, id + 1);
+            Segment segment = new Segment(id, path, null);
+            segment.checkpointed = readWatermark(segment.ackedPath);
+            segment.end = segment.checkpointed;
+            segments.put(id, segment);
+            recovering.add(segment);
+        }
+    }
+
+    /**
+     * Passes every record of the segments found by {@link #open}, past their ack watermark, to
+     * {@code consumer}, one at a time and in order; returns how many there were. The segments they
+     * came from stay on disk until those records are acknowledged, which may happen while the
+     * replay is still running.
+     */
+    public long replay(Consumer<Entry> consumer) throws IOException {
+        long replayed = 0;
+        for (Segment segment : recovering) {
+            replayed += readSegment(segment, consumer);
+            // Sealed only now, so acknowledgements that arrive during the replay cannot delete it mid-read
+            segment.sealed = true;
+            if (segment.pending.isEmpty()) {
+                segment.delete();
+            }
+        }
+        recovering.clear();
+        return replayed;
+    }
+
+    /**
+     * {@link #open} and {@link #replay} in one go. Must be called once, before the first append.
+     */
+    public long recover(Consumer<Entry> consumer) throws IOException {
+        open();
+        return replay(consumer);
+    }
+
+    public Entry append(byte[] payload, long enqueuedAtMillis) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        ByteBuffer record = ByteBuffer.allocate(HEADER_BYTES + payload.length)
+                .putInt(payload.length)
+                .putLong(enqueuedAtMillis)
+                .putInt((int) crc.getValue())
+                .put(payload)
+                .flip();
+
+        Segment segment;
+        long offset;
+        long sequence;
+        writeLock.lock();
+        try {
+            if (current == null || current.end >= segmentSize) {
+                roll();
+            }
+            segment = current;
+            offset = segment.end;
+            // Pending before the end moves past it, so a concurrent checkpoint never skips it
+            segment.pending.add(offset);
+            while (record.hasRemaining()) {
+                segment.channel.write(record);
+            }
+            segment.end = offset + record.limit();
+            sequence = ++writtenSequence;
+        } finally {
+            writeLock.unlock();
+        }
+
+        if (fsync) {
+            sync(sequence);
+        }
+        return new Entry(segment, offset, enqueuedAtMillis, payload);
+    }
+
+    public void acknowledge(Entry entry) {
+        Segment segment = entry.segment;
+        segment.pending.remove(entry.offset);
+        if (segment.pending.isEmpty() && segment.sealed) {
+            segment.delete();
+        }
+    }
+
+    /**
+     * Persists the ack watermark of every segment that moved since the last checkpoint. Cheap
+     * enough to call after every processed batch.
+     */
+    public synchronized void checkpoint() throws IOException {
+        for (Segment segment : segments.values()) {
+            long watermark = segment.watermark();
+            if (watermark > segment.checkpointed && !segment.deleted) {
+                try (FileChannel channel = FileChannel.open(segment.ackedPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+                    ByteBuffer buffer = ByteBuffer.allocate(Long.BYTES).putLong(watermark).flip();
+                    while (buffer.hasRemaining()) {
+                        channel.write(buffer, buffer.position());
+                    }
+                }
+                segment.checkpointed = watermark;
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        writeLock.lock();
+        try {
+            if (current != null) {
+                if (fsync) {
+                    current.channel.force(false);
+                }
+                current.channel.close();
+            }
+        } finally {
+            writeLock.unlock();
+        }
+        checkpoint();
+    }
+
+    private void sync(long sequence) throws IOException {
+        if (syncedSequence >= sequence) {
+            return;
+        }
+        syncLock.lock();
+        try {
+            if (syncedSequence >= sequence) {
+                return;
+            }
+            long target;
+            FileChannel channel;
+            writeLock.lock();
+            try {
+                target = writtenSequence;
+                channel = current.channel;
+            } finally {
+                writeLock.unlock();
+            }
+            try {
+                channel.force(false);
+            } catch (ClosedChannelException e) {
+                // The segment was rolled meanwhile, and rolling forces it before closing
+            }
+            syncedSequence = target;
+        } finally {
+            syncLock.unlock();
+        }
+    }
+
+    private void roll() throws IOException {
+        Segment previous = current;
+        long id = nextSegmentId++;
+        Path path = segmentPath(id);
+        current = new Segment(id, path, FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE));
+        segments.put(id, current);
+        if (previous != null) {
+            if (fsync) {
+                previous.channel.force(false);
+            }
+            previous.channel.close();
+            previous.sealed = true;
+            if (previous.pending.isEmpty()) {
+                previous.delete();
+            }
+        }
+    }
+
+    private long readSegment(Segment segment, Consumer<Entry> consumer) throws IOException {
+        long count = 0;
+        try (FileChannel channel = FileChannel.open(segment.path, StandardOpenOption.READ)) {
+            channel.position(segment.end);
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            while (true) {
+                long offset = channel.position();
+                header.clear();
+                if (!readFully(channel, header)) {
+                    return count;
+                }
+                header.flip();
+                int length = header.getInt();
+                long enqueuedAtMillis = header.getLong();
+                int checksum = header.getInt();
+                if (length < 0 || length > channel.size() - channel.position()) {
+                    // Torn write at the tail of the last segment
+                    return count;
+                }
+                ByteBuffer payload = ByteBuffer.allocate(length);
+                readFully(channel, payload);
+                CRC32 crc = new CRC32();
+                crc.update(payload.array());
+                if ((int) crc.getValue() != checksum) {
+                    return count;
+                }
+                segment.pending.add(offset);
+                segment.end = channel.position();
+                consumer.accept(new Entry(segment, offset, enqueuedAtMillis, payload.array()));
+                count++;
+            }
+        }
+    }
+
+    private static long readWatermark(Path ackedPath) throws IOException {
+        if (!Files.exists(ackedPath)) {
+            return 0;
+        }
+        byte[] bytes = Files.readAllBytes(ackedPath);
+        return bytes.length == Long.BYTES ? ByteBuffer.wrap(bytes).getLong() : 0;
+    }
+
+    private static boolean readFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private Path segmentPath(long id) {
+        return directory.resolve(String.format("%020d%s", id, SEGMENT_SUFFIX));
+    }
+
+    private static long idOf(Path path, String suffix) {
+        String name = path.getFileName().toString();
+        return Long.parseLong(name.substring(0, name.length() - suffix.length()));
+    }
+
+    public static final class Entry {
+        private final Segment segment;
+        private final long offset;
+        private final long enqueuedAtMillis;
+        private final byte[] payload;
+
+        private Entry(Segment segment, long offset, long enqueuedAtMillis, byte[] payload) {
+            this.segment = segment;
+            this.offset = offset;
+            this.enqueuedAtMillis = enqueuedAtMillis;
+            this.payload = payload;
+        }
+
+        public long enqueuedAtMillis() {
+            return enqueuedAtMillis;
+        }
+
+        public byte[] payload() {
+            return payload;
+        }
+    }
+
+    private final class Segment {
+        private final long id;
+        private final Path path;
+        private final Path ackedPath;
+        private final FileChannel channel;
+        // Offsets of the records not yet acknowledged
+        private final NavigableSet<Long> pending = new ConcurrentSkipListSet<>();
+        // Bytes written (or, for a recovered segment, read) so far
+        private volatile long end;
+        private volatile long checkpointed;
+        private volatile boolean sealed;
+        private volatile boolean deleted;
+
+        private Segment(long id, Path path, FileChannel channel) {
+            this.id = id;
+            this.path = path;
+            this.ackedPath = path.resolveSibling(String.format("%020d%s", id, ACKED_SUFFIX));
+            this.channel = channel;
+        }
+
+        private long watermark() {
+            long written = end;
+            Iterator<Long> oldest = pending.iterator();
+            return oldest.hasNext() ? Math.min(oldest.next(), written) : written;
+        }
+
+        private void delete() {
+            deleted = true;
+            segments.remove(id);
+            try {
+                Files.deleteIfExists(path);
+                Files.deleteIfExists(ackedPath);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to delete journal segment " + path, e);
+            }
+        }
+    }
+}
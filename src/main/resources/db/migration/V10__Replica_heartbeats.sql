@@ -0,0 +1,7 @@
+-- Replica lag probe: every application node bumps its own row on the primary and reads it back
+-- from the replica (see ReplicaLagMonitor). Rows of nodes that went away are deleted at startup.
+CREATE TABLE replica_heartbeats (
+    node VARCHAR(64) PRIMARY KEY,
+    seq BIGINT NOT NULL,
+    beat_at TIMESTAMP NOT NULL
+);
@@ -0,0 +1,31 @@
+-- Cold storage for finished payments. The archiver moves SUCCEEDED and FAILED payments older than
+-- the retention, with their webhook events, out of the hot tables in small batches; rows keep their
+-- ids. Payment lookups fall back to payments_archive, nothing else reads these tables.
+CREATE TABLE payments_archive (
+    id BIGINT PRIMARY KEY,
+    payment_id VARCHAR(255) UNIQUE NOT NULL,
+    amount DECIMAL(19, 2) NOT NULL,
+    currency VARCHAR(3) NOT NULL,
+    customer_email VARCHAR(255) NOT NULL,
+    reference VARCHAR(255),
+    status VARCHAR(50) NOT NULL,
+    version BIGINT NOT NULL,
+    created_at TIMESTAMP NOT NULL,
+    updated_at TIMESTAMP NOT NULL,
+    archived_at TIMESTAMP NOT NULL
+);
+
+CREATE TABLE webhook_events_archive (
+    id BIGINT PRIMARY KEY,
+    event_external_id VARCHAR(255),
+    payment_id VARCHAR(255) NOT NULL,
+    event_type VARCHAR(255) NOT NULL,
+    raw_payload TEXT,
+    processed_at TIMESTAMP NOT NULL,
+    archived_at TIMESTAMP NOT NULL
+);
+
+CREATE INDEX idx_webhook_events_archive_payment_id ON webhook_events_archive (payment_id);
+
+-- Expired idempotency keys are deleted oldest first
+CREATE INDEX idx_idempotency_keys_created_at ON idempotency_keys (created_at);
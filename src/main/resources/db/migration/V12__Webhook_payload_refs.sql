@@ -0,0 +1,7 @@
+-- Raw webhook payloads can live in the segmented payload store instead of the row; the row then
+-- keeps where to find it and raw_payload stays NULL. Rows written before, or with the store
+-- disabled, keep raw_payload.
+ALTER TABLE webhook_events ADD COLUMN payload_segment BIGINT NULL;
+ALTER TABLE webhook_events ADD COLUMN payload_offset BIGINT NULL;
+ALTER TABLE webhook_events_archive ADD COLUMN payload_segment BIGINT NULL;
+ALTER TABLE webhook_events_archive ADD COLUMN payload_offset BIGINT NULL;
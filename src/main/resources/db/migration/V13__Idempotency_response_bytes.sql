@@ -0,0 +1,4 @@
+-- Completed responses are kept as the JSON bytes sent to the client, so a retry is answered by
+-- copying them out rather than parsing and re-serializing. response_body is only read for keys
+-- completed before this column existed.
+ALTER TABLE idempotency_keys ADD COLUMN response_json VARBINARY(2048) NULL;
@@ -0,0 +1,9 @@
+-- The relay now leases a batch (claimed_until) and commits the claim before publishing, so no row
+-- locks are held while a sink writes or fsyncs; a lease that lapses, because its relay died, is
+-- claimed again. Batches are claimed in write order, created_at then id: pooled ids are handed
+-- out to each node in blocks, so id order alone says nothing about which event came first.
+ALTER TABLE outbox_events ADD COLUMN claimed_until TIMESTAMP NULL;
+ALTER TABLE outbox_events MODIFY COLUMN created_at TIMESTAMP(6) NOT NULL DEFAULT CURRENT_TIMESTAMP(6);
+
+CREATE INDEX idx_outbox_events_published_at_created_at_id ON outbox_events (published_at, created_at, id);
+DROP INDEX idx_outbox_events_published_at_id ON outbox_events;
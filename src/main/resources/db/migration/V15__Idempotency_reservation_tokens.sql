@@ -0,0 +1,4 @@
+-- Each reservation gets a random token, set again when a stale reservation is taken over. The
+-- request completes or releases its reservation only while the token is still its own, so a
+-- request that outlived its reservation can no longer delete or complete the one that replaced it.
+ALTER TABLE idempotency_keys ADD COLUMN reservation_token VARCHAR(36) NULL;
@@ -0,0 +1,7 @@
+-- Search and export now read payments_archive as well as payments when a range reaches back past
+-- the archive retention. These mirror the V6 indexes, so the archive side seeks to the cursor the
+-- same way.
+CREATE INDEX idx_payments_archive_created_at_id ON payments_archive (created_at, id);
+CREATE INDEX idx_payments_archive_status_created_at_id ON payments_archive (status, created_at, id);
+CREATE INDEX idx_payments_archive_customer_email_created_at_id ON payments_archive (customer_email, created_at, id);
+CREATE INDEX idx_payments_archive_reference_created_at_id ON payments_archive (reference, created_at, id);
@@ -0,0 +1,4 @@
+-- The merchant (API key tenant) that created each payment, so its notifications go to that
+-- merchant's endpoints only. Payments created before this have no tenant.
+ALTER TABLE payments ADD COLUMN tenant_id VARCHAR(255) NULL;
+ALTER TABLE payments_archive ADD COLUMN tenant_id VARCHAR(255) NULL;
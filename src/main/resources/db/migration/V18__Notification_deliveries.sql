@@ -0,0 +1,19 @@
+-- Pending merchant notifications, one row per event and endpoint, so retries survive a restart.
+-- A row is due once next_attempt_at passes; the dispatcher pushes next_attempt_at forward while a
+-- request is out (a lease, so a node that dies mid-request leaves the row to be retried) and again
+-- by the backoff when it fails. Delivered and abandoned rows are deleted.
+CREATE TABLE notification_deliveries (
+    id BIGINT PRIMARY KEY,
+    event_id BIGINT NOT NULL,
+    endpoint VARCHAR(2048) NOT NULL,
+    body VARBINARY(4096) NOT NULL,
+    attempts INT NOT NULL DEFAULT 0,
+    next_attempt_at TIMESTAMP(6) NOT NULL,
+    last_error VARCHAR(255) NULL,
+    created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP
+);
+
+CREATE INDEX idx_notification_deliveries_next_attempt_at ON notification_deliveries (next_attempt_at);
+CREATE INDEX idx_notification_deliveries_event_id ON notification_deliveries (event_id);
+
+INSERT INTO id_generators (sequence_name, next_val) VALUES ('notification_deliveries', 1);
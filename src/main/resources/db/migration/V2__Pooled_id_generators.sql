@@ -0,0 +1,13 @@
+-- Payments and idempotency keys take their ids from a pooled table generator instead of
+-- AUTO_INCREMENT, so Hibernate can batch inserts. Each row holds the next unallocated id
+-- (pooled-lo), seeded above whatever the identity columns have already handed out.
+CREATE TABLE id_generators (
+    sequence_name VARCHAR(255) NOT NULL PRIMARY KEY,
+    next_val BIGINT NOT NULL
+);
+
+INSERT INTO id_generators (sequence_name, next_val)
+SELECT 'payments', COALESCE(MAX(id), 0) + 1 FROM payments;
+
+INSERT INTO id_generators (sequence_name, next_val)
+SELECT 'idempotency_keys', COALESCE(MAX(id), 0) + 1 FROM idempotency_keys;
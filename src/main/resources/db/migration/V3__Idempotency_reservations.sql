@@ -0,0 +1,4 @@
+-- Idempotency keys are reserved (IN_PROGRESS) before the payment is created and completed
+-- with the response afterwards, so the response body is empty while a request is in flight.
+ALTER TABLE idempotency_keys ADD COLUMN status VARCHAR(20) NOT NULL DEFAULT 'COMPLETED';
+ALTER TABLE idempotency_keys MODIFY COLUMN response_body TEXT NULL;
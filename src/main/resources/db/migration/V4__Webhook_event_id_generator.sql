@@ -0,0 +1,4 @@
+-- Webhook events are written in batches by the asynchronous ingestion workers, so they move to
+-- the pooled table generator introduced in V2 as well.
+INSERT INTO id_generators (sequence_name, next_val)
+SELECT 'webhook_events', COALESCE(MAX(id), 0) + 1 FROM webhook_events;
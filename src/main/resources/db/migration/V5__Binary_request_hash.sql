@@ -0,0 +1,5 @@
+-- Request hashes are now a canonical binary SHA-256 of the request fields. Keys written before
+-- this only have the hex hash of the request's JSON in request_hash; they are still honoured and
+-- get request_digest filled in the next time they are replayed.
+ALTER TABLE idempotency_keys ADD COLUMN request_digest BINARY(32) NULL;
+ALTER TABLE idempotency_keys MODIFY COLUMN request_hash VARCHAR(255) NULL;
@@ -0,0 +1,7 @@
+-- Payment search filters on one of these columns and pages by (created_at, id) descending. Each
+-- index matches a filter plus the page order, so MySQL seeks straight to the cursor and reads
+-- one page of index entries instead of sorting or skipping rows.
+CREATE INDEX idx_payments_created_at_id ON payments (created_at, id);
+CREATE INDEX idx_payments_status_created_at_id ON payments (status, created_at, id);
+CREATE INDEX idx_payments_customer_email_created_at_id ON payments (customer_email, created_at, id);
+CREATE INDEX idx_payments_reference_created_at_id ON payments (reference, created_at, id);
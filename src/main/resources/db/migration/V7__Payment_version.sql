@@ -0,0 +1,3 @@
+-- Optimistic lock for payments. Status changes are conditional UPDATEs that also bump the version,
+-- so an entity loaded before a webhook changed the payment can no longer be saved over it.
+ALTER TABLE payments ADD COLUMN version BIGINT NOT NULL DEFAULT 0;
@@ -0,0 +1,16 @@
+-- Payment events written in the same transaction as the change they describe and relayed to
+-- subscribers afterwards. The relay claims unpublished rows in id order and the cleanup deletes
+-- published ones, both through the (published_at, id) index.
+CREATE TABLE outbox_events (
+    id BIGINT PRIMARY KEY,
+    event_type VARCHAR(64) NOT NULL,
+    payment_id VARCHAR(255) NOT NULL,
+    status VARCHAR(50) NOT NULL,
+    previous_status VARCHAR(50),
+    created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    published_at TIMESTAMP NULL
+);
+
+CREATE INDEX idx_outbox_events_published_at_id ON outbox_events (published_at, id);
+
+INSERT INTO id_generators (sequence_name, next_val) VALUES ('outbox_events', 1);
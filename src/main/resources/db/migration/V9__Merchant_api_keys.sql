@@ -0,0 +1,10 @@
+-- API keys issued to merchants, stored only as SHA-256 digests. The application loads the active
+-- rows into memory and reloads them periodically, so keys can be added or revoked without a restart:
+--   INSERT INTO api_keys (key_digest, tenant_id) VALUES (UNHEX(SHA2('<key>', 256)), 'merchant-42');
+CREATE TABLE api_keys (
+    id BIGINT AUTO_INCREMENT PRIMARY KEY,
+    key_digest BINARY(32) NOT NULL UNIQUE,
+    tenant_id VARCHAR(255) NOT NULL,
+    active BOOLEAN NOT NULL DEFAULT TRUE,
+    created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP
+);
@@ -0,0 +1,101 @@
+package com.richard.paylite;
+
+import com.richard.paylite.dto.CreatePaymentRequest;
+import com.richard.paylite.dto.FullPaymentResponse;
+import com.richard.paylite.dto.PaymentResponse;
+import com.richard.paylite.model.PaymentStatus;
+import com.richard.paylite.util.SignatureUtil;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.http.*;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.math.BigDecimal;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {
+        "paylite.webhooks.async.enabled=true",
+        "paylite.webhooks.async.journal-dir=target/webhook-journal-it",
+        "paylite.webhooks.async.dead-letter-dir=target/webhook-dead-letters-it",
+        "paylite.webhooks.async.fsync=false",
+        "paylite.webhooks.async.retry-backoff=50ms"
+})
+@ActiveProfiles("test")
+public class AsyncWebhookIngestionIntegrationTest {
+
+    @Autowired
+    private TestRestTemplate restTemplate;
+
+    @Autowired
+    private SignatureUtil signatureUtil;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Test
+    void testWebhookIsAcknowledgedAndAppliedAsynchronously() throws Exception {
+        // === 1. Create a payment ===
+        HttpHeaders createHeaders = new HttpHeaders();
+        createHeaders.setContentType(MediaType.APPLICATION_JSON);
+        createHeaders.set("X-API-Key", "test-api-key");
+        createHeaders.set("Idempotency-Key", UUID.randomUUID().toString());
+        CreatePaymentRequest createRequest = new CreatePaymentRequest(
+                new BigDecimal("42.00"), "USD", "async@test.com", "ref-async-1");
+        ResponseEntity<PaymentResponse> createResponse = restTemplate.postForEntity(
+                "/api/v1/payments", new HttpEntity<>(createRequest, createHeaders), PaymentResponse.class);
+        String paymentId = createResponse.getBody().paymentId();
+
+        // === 2. An invalid signature is still rejected synchronously ===
+        String webhookPayload = "{\"paymentId\":\"" + paymentId + "\",\"event\":\"payment.failed\"}";
+        HttpHeaders badHeaders = new HttpHeaders();
+        badHeaders.setContentType(MediaType.APPLICATION_JSON);
+        badHeaders.set("X-PSP-Signature", "bad-signature");
+        ResponseEntity<String> badResponse = restTemplate.postForEntity(
+                "/api/v1/webhooks/psp", new HttpEntity<>(webhookPayload, badHeaders), String.class);
+        assertEquals(HttpStatus.UNAUTHORIZED, badResponse.getStatusCode());
+
+        // === 3. A valid webhook, delivered twice, is acknowledged and applied once ===
+        HttpHeaders webhookHeaders = new HttpHeaders();
+        webhookHeaders.setContentType(MediaType.APPLICATION_JSON);
+        webhookHeaders.set("X-PSP-Signature", signatureUtil.calculateHmacSha256(webhookPayload));
+        HttpEntity<String> webhookEntity = new HttpEntity<>(webhookPayload, webhookHeaders);
+        assertEquals(HttpStatus.OK, restTemplate.postForEntity("/api/v1/webhooks/psp", webhookEntity, Void.class).getStatusCode());
+        assertEquals(HttpStatus.OK, restTemplate.postForEntity("/api/v1/webhooks/psp", webhookEntity, Void.class).getStatusCode());
+
+        // === 4. The payment eventually reaches FAILED ===
+        HttpHeaders getHeaders = new HttpHeaders();
+        getHeaders.set("X-API-Key", "test-api-key");
+        PaymentStatus status = null;
+        for (int i = 0; i < 50 && status != PaymentStatus.FAILED; i++) {
+            Thread.sleep(100);
+            status = restTemplate.exchange("/api/v1/payments/" + paymentId, HttpMethod.GET,
+                    new HttpEntity<>(getHeaders), FullPaymentResponse.class).getBody().status();
+        }
+        assertEquals(PaymentStatus.FAILED, status);
+    }
+
+    @Test
+    void testWebhookForUnknownPaymentIsDeadLetteredInsteadOfDropped() throws Exception {
+        // The dead-letter directory survives between runs, so only the increase is checked
+        double before = meterRegistry.get("paylite.webhooks.dead-letters").gauge().value();
+
+        String webhookPayload = "{\"paymentId\":\"pl_unknown_" + UUID.randomUUID() + "\",\"event\":\"payment.succeeded\"}";
+        HttpHeaders webhookHeaders = new HttpHeaders();
+        webhookHeaders.setContentType(MediaType.APPLICATION_JSON);
+        webhookHeaders.set("X-PSP-Signature", signatureUtil.calculateHmacSha256(webhookPayload));
+        assertEquals(HttpStatus.OK, restTemplate.postForEntity("/api/v1/webhooks/psp",
+                new HttpEntity<>(webhookPayload, webhookHeaders), Void.class).getStatusCode());
+
+        double after = before;
+        for (int i = 0; i < 50 && after == before; i++) {
+            Thread.sleep(100);
+            after = meterRegistry.get("paylite.webhooks.dead-letters").gauge().value();
+        }
+        assertEquals(before + 1, after);
+    }
+}
@@ -0,0 +1,126 @@
+package com.richard.paylite;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.richard.paylite.dto.PaymentEvent;
+import com.richard.paylite.model.NotificationDelivery;
+import com.richard.paylite.model.OutboxEvent;
+import com.richard.paylite.model.PaymentStatus;
+import com.richard.paylite.notification.MerchantNotificationService;
+import com.richard.paylite.notification.NotificationDeliveryEngine;
+import com.richard.paylite.repository.NotificationDeliveryRepository;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// A database of its own, so dispatchers of other cached test contexts do not claim these deliveries
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:paylite-notifications;DB_CLOSE_DELAY=-1;DB_CLOSE_ON_EXIT=FALSE;MODE=MySQL",
+        "paylite.notifications.enabled=true",
+        "paylite.notifications.initial-backoff=50ms",
+        "paylite.notifications.max-backoff=100ms",
+        "paylite.notifications.poll-interval=50ms"
+})
+@ActiveProfiles("test")
+public class MerchantNotificationIntegrationTest {
+
+    private static final Map<String, List<String>> attemptsByPayment = new ConcurrentHashMap<>();
+    private static final HttpServer merchant = startMerchant();
+
+    @Autowired
+    private MerchantNotificationService notificationService;
+
+    @Autowired
+    private NotificationDeliveryRepository deliveryRepository;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @DynamicPropertySource
+    static void endpoints(DynamicPropertyRegistry registry) {
+        registry.add("paylite.notifications.endpoints.default",
+                () -> "http://127.0.0.1:" + merchant.getAddress().getPort() + "/hooks");
+    }
+
+    @AfterAll
+    static void stopMerchant() {
+        merchant.stop(0);
+    }
+
+    @Test
+    void failedDeliveryIsRetriedFromItsRowAndDuplicateEventsAreDeliveredOnce() throws Exception {
+        PaymentEvent event = event(9001L, "pl_flaky");
+
+        // The relay delivers at least once, so the same event may arrive twice
+        notificationService.onPaymentEvent(event);
+        notificationService.onPaymentEvent(event);
+
+        await(() -> attemptsByPayment.getOrDefault("pl_flaky", List.of()).size() >= 2
+                && deliveryRepository.findAll().stream().noneMatch(delivery -> delivery.getEventId() == 9001L));
+        assertEquals(List.of("1", "2"), attemptsByPayment.get("pl_flaky"));
+    }
+
+    @Test
+    void deliveryLeftByAnEarlierProcessIsSent() throws Exception {
+        LocalDateTime now = LocalDateTime.now();
+        deliveryRepository.save(NotificationDelivery.builder()
+                .eventId(9002L)
+                .endpoint("http://127.0.0.1:" + merchant.getAddress().getPort() + "/hooks")
+                .body(objectMapper.writeValueAsBytes(event(9002L, "pl_restarted")))
+                .attempts(2)
+                .lastError("HTTP 503")
+                .nextAttemptAt(now)
+                .createdAt(now)
+                .build());
+
+        await(() -> deliveryRepository.findAll().stream().noneMatch(delivery -> delivery.getEventId() == 9002L));
+        assertEquals(List.of("3"), attemptsByPayment.get("pl_restarted"));
+    }
+
+    private static PaymentEvent event(long eventId, String paymentId) {
+        return new PaymentEvent(eventId, OutboxEvent.PAYMENT_STATUS_CHANGED, paymentId,
+                PaymentStatus.SUCCEEDED, PaymentStatus.PENDING, LocalDateTime.now());
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        for (int i = 0; i < 100 && !condition.getAsBoolean(); i++) {
+            Thread.sleep(50);
+        }
+        assertTrue(condition.getAsBoolean());
+    }
+
+    // Answers 503 to the first attempt for pl_flaky and 200 to everything else
+    private static HttpServer startMerchant() {
+        try {
+            HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+            server.createContext("/hooks", exchange -> {
+                String body = new String(exchange.getRequestBody().readAllBytes());
+                String attempt = exchange.getRequestHeaders().getFirst(NotificationDeliveryEngine.ATTEMPT_HEADER);
+                String paymentId = body.replaceAll(".*\"paymentId\":\"([^\"]+)\".*", "$1");
+                attemptsByPayment.computeIfAbsent(paymentId, id -> new CopyOnWriteArrayList<>()).add(attempt);
+                exchange.sendResponseHeaders(paymentId.equals("pl_flaky") && attempt.equals("1") ? 503 : 200, -1);
+                exchange.close();
+            });
+            server.start();
+            return server;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package com.richard.paylite;
+
+import com.richard.paylite.dto.CreatePaymentRequest;
+import com.richard.paylite.dto.PaymentEvent;
+import com.richard.paylite.dto.PaymentResponse;
+import com.richard.paylite.model.OutboxEvent;
+import com.richard.paylite.model.PaymentStatus;
+import com.richard.paylite.repository.OutboxEventRepository;
+import com.richard.paylite.util.SignatureUtil;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.event.EventListener;
+import org.springframework.http.*;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// A database of its own, so relays of other cached test contexts do not claim these events
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {
+        "spring.datasource.url=jdbc:h2:mem:paylite-outbox;DB_CLOSE_DELAY=-1;DB_CLOSE_ON_EXIT=FALSE;MODE=MySQL",
+        "paylite.outbox.relay.poll-interval=100ms"
+})
+@ActiveProfiles("test")
+public class OutboxRelayIntegrationTest {
+
+    @Autowired
+    private TestRestTemplate restTemplate;
+
+    @Autowired
+    private SignatureUtil signatureUtil;
+
+    @Autowired
+    private OutboxEventRepository outboxEventRepository;
+
+    @Autowired
+    private List<PaymentEvent> receivedEvents;
+
+    @TestConfiguration
+    static class Listener {
+
+        private final List<PaymentEvent> events = new CopyOnWriteArrayList<>();
+
+        @Bean
+        List<PaymentEvent> receivedEvents() {
+            return events;
+        }
+
+        @EventListener
+        void onPaymentEvent(PaymentEvent event) {
+            events.add(event);
+        }
+    }
+
+    @Test
+    void testCreationAndStatusChangeArePushedToListeners() throws Exception {
+        // === 1. Create a payment ===
+        HttpHeaders createHeaders = new HttpHeaders();
+        createHeaders.setContentType(MediaType.APPLICATION_JSON);
+        createHeaders.set("X-API-Key", "test-api-key");
+        createHeaders.set("Idempotency-Key", UUID.randomUUID().toString());
+        CreatePaymentRequest createRequest = new CreatePaymentRequest(
+                new BigDecimal("12.50"), "USD", "outbox@test.com", "ref-outbox-1");
+        String paymentId = restTemplate.postForEntity("/api/v1/payments",
+                new HttpEntity<>(createRequest, createHeaders), PaymentResponse.class).getBody().paymentId();
+
+        // === 2. Move it to SUCCEEDED ===
+        String webhookPayload = "{\"paymentId\":\"" + paymentId + "\",\"event\":\"payment.succeeded\"}";
+        HttpHeaders webhookHeaders = new HttpHeaders();
+        webhookHeaders.setContentType(MediaType.APPLICATION_JSON);
+        webhookHeaders.set("X-PSP-Signature", signatureUtil.calculateHmacSha256(webhookPayload));
+        assertEquals(HttpStatus.OK, restTemplate.postForEntity("/api/v1/webhooks/psp",
+                new HttpEntity<>(webhookPayload, webhookHeaders), Void.class).getStatusCode());
+
+        // === 3. Both events reach the listener, in order, and are marked published ===
+        for (int i = 0; i < 50 && receivedEvents.size() < 2; i++) {
+            Thread.sleep(100);
+        }
+        assertEquals(2, receivedEvents.size());
+        PaymentEvent created = receivedEvents.get(0);
+        PaymentEvent succeeded = receivedEvents.get(1);
+        assertEquals(OutboxEvent.PAYMENT_CREATED, created.type());
+        assertEquals(paymentId, created.paymentId());
+        assertEquals(PaymentStatus.PENDING, created.status());
+        assertEquals(OutboxEvent.PAYMENT_STATUS_CHANGED, succeeded.type());
+        assertEquals(PaymentStatus.PENDING, succeeded.previousStatus());
+        assertEquals(PaymentStatus.SUCCEEDED, succeeded.status());
+        assertNotEquals(created.eventId(), succeeded.eventId());
+        assertFalse(succeeded.occurredAt().isBefore(created.occurredAt()));
+
+        for (int i = 0; i < 50 && outboxEventRepository.findAll().stream().anyMatch(e -> e.getPublishedAt() == null); i++) {
+            Thread.sleep(100);
+        }
+        assertTrue(outboxEventRepository.findAll().stream().allMatch(e -> e.getPublishedAt() != null));
+    }
+}
@@ -0,0 +1,159 @@
+package com.richard.paylite;
+
+import com.richard.paylite.archive.PaymentArchiver;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.richard.paylite.dto.CreatePaymentRequest;
+import com.richard.paylite.dto.PaymentExportRequest;
+import com.richard.paylite.dto.PaymentResponse;
+import com.richard.paylite.dto.PaymentSearchFilter;
+import com.richard.paylite.dto.PaymentSummary;
+import com.richard.paylite.dto.StoredWebhookPayload;
+import com.richard.paylite.model.PaymentStatus;
+import com.richard.paylite.security.ApiKeyRegistry;
+import com.richard.paylite.service.PaymentExportService;
+import com.richard.paylite.service.PaymentService;
+import com.richard.paylite.service.WebhookService;
+import com.richard.paylite.util.SignatureUtil;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Batches of two so a pass needs several; the archiver thread only runs its startup pass and on resume
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:paylite-archive;DB_CLOSE_DELAY=-1;DB_CLOSE_ON_EXIT=FALSE;MODE=MySQL",
+        "paylite.archive.retention=30d",
+        "paylite.archive.idempotency-key-retention=1d",
+        "paylite.archive.batch-size=2",
+        "paylite.archive.batch-pause=1ms",
+        "paylite.archive.interval=1h"
+})
+@ActiveProfiles("test")
+public class PaymentArchiverIntegrationTest {
+
+    @Autowired
+    private PaymentArchiver archiver;
+
+    @Autowired
+    private PaymentService paymentService;
+
+    @Autowired
+    private WebhookService webhookService;
+
+    @Autowired
+    private PaymentExportService paymentExportService;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    private final SignatureUtil psp = new SignatureUtil("test-secret");
+
+    @Test
+    void runPass_shouldMoveOldFinishedPayments_andKeepThemReadable() throws Exception {
+        String succeeded = createPayment();
+        String failed = createPayment();
+        String thirdSucceeded = createPayment();
+        String pending = createPayment();
+        webhook(succeeded, "payment.succeeded");
+        webhook(failed, "payment.failed");
+        webhook(thirdSucceeded, "payment.succeeded");
+        age(succeeded, failed, thirdSucceeded, pending);
+
+        archiver.runPass();
+
+        assertEquals(0, count("SELECT COUNT(*) FROM payments WHERE payment_id IN (?, ?, ?)", succeeded, failed, thirdSucceeded));
+        assertEquals(1, count("SELECT COUNT(*) FROM payments WHERE payment_id = ?", pending));
+        assertEquals(3, count("SELECT COUNT(*) FROM payments_archive WHERE payment_id IN (?, ?, ?)", succeeded, failed, thirdSucceeded));
+        assertEquals(0, count("SELECT COUNT(*) FROM webhook_events WHERE payment_id IN (?, ?, ?)", succeeded, failed, thirdSucceeded));
+        assertEquals(3, count("SELECT COUNT(*) FROM webhook_events_archive WHERE payment_id IN (?, ?, ?)", succeeded, failed, thirdSucceeded));
+        assertEquals(0, count("SELECT COUNT(*) FROM idempotency_keys WHERE created_at < ?", Timestamp.valueOf(LocalDateTime.now().minusDays(1))));
+
+        assertEquals(PaymentStatus.SUCCEEDED, paymentService.getPayment(succeeded).status());
+        assertEquals(PaymentStatus.FAILED, paymentService.getPayment(failed).status());
+        // Search and export reach back into the archive, in one order across both tables
+        List<String> found = paymentService.searchPayments(
+                        new PaymentSearchFilter("order-archive", null, null, null, null), null, 50)
+                .payments().stream().map(PaymentSummary::paymentId).toList();
+        assertTrue(found.containsAll(List.of(succeeded, failed, thirdSucceeded, pending)));
+        ByteArrayOutputStream exported = new ByteArrayOutputStream();
+        LocalDateTime from = LocalDateTime.now().minusDays(41);
+        long rows = paymentExportService.export(new PaymentExportRequest(from, LocalDateTime.now(), null,
+                PaymentExportRequest.Format.CSV, false), request -> exported);
+        List<String> lines = exported.toString(StandardCharsets.UTF_8).lines().skip(1).toList();
+        assertEquals(rows, lines.size());
+        assertTrue(lines.stream().map(line -> line.substring(0, line.indexOf(','))).toList()
+                .containsAll(List.of(succeeded, failed, thirdSucceeded, pending)));
+        // Payloads are in the payload store, and the archived rows still point at them
+        assertEquals(0, count("SELECT COUNT(*) FROM webhook_events_archive WHERE raw_payload IS NOT NULL AND payment_id = ?", succeeded));
+        List<StoredWebhookPayload> payloads = webhookService.storedPayloads(succeeded);
+        assertEquals(1, payloads.size());
+        assertEquals("payment.succeeded", payloads.get(0).eventType());
+        assertEquals("{\"paymentId\":\"" + succeeded + "\",\"event\":\"payment.succeeded\"}", payloads.get(0).payload());
+        // A late retry from the PSP is acknowledged rather than answered with 404
+        assertDoesNotThrow(() -> webhook(failed, "payment.failed"));
+        assertEquals(0, count("SELECT COUNT(*) FROM webhook_events WHERE payment_id = ?", failed));
+        assertTrue(archiver.status().archivedPayments() >= 3);
+    }
+
+    @Test
+    void pause_shouldStopArchiving_untilResumed() throws Exception {
+        String paymentId = createPayment();
+        webhook(paymentId, "payment.succeeded");
+        age(paymentId);
+
+        archiver.pause();
+        try {
+            PaymentArchiver.Pass pass = archiver.runPass();
+            assertEquals(0, pass.payments());
+            assertFalse(pass.complete());
+            assertTrue(archiver.status().paused());
+            assertEquals(1, count("SELECT COUNT(*) FROM payments WHERE payment_id = ?", paymentId));
+        } finally {
+            archiver.resume();
+        }
+
+        // Resuming starts a pass on the archiver thread
+        for (int i = 0; i < 100 && count("SELECT COUNT(*) FROM payments_archive WHERE payment_id = ?", paymentId) == 0; i++) {
+            Thread.sleep(20);
+        }
+        assertEquals(1, count("SELECT COUNT(*) FROM payments_archive WHERE payment_id = ?", paymentId));
+    }
+
+    private String createPayment() throws IOException {
+        byte[] response = paymentService.createPayment(ApiKeyRegistry.DEFAULT_TENANT, UUID.randomUUID().toString(),
+                new CreatePaymentRequest(new BigDecimal("10.00"), "USD", "archive@example.com", "order-archive")).body();
+        return objectMapper.readValue(response, PaymentResponse.class).paymentId();
+    }
+
+    private void webhook(String paymentId, String event) {
+        byte[] payload = ("{\"paymentId\":\"" + paymentId + "\",\"event\":\"" + event + "\"}").getBytes(StandardCharsets.UTF_8);
+        webhookService.processWebhook(psp.calculateHmacSha256(payload), payload);
+    }
+
+    private void age(String... paymentIds) {
+        Timestamp longAgo = Timestamp.valueOf(LocalDateTime.now().minusDays(40));
+        for (String paymentId : paymentIds) {
+            jdbcTemplate.update("UPDATE payments SET created_at = ?, updated_at = ? WHERE payment_id = ?", longAgo, longAgo, paymentId);
+        }
+        jdbcTemplate.update("UPDATE idempotency_keys SET created_at = ?", longAgo);
+    }
+
+    private int count(String sql, Object... args) {
+        return jdbcTemplate.queryForObject(sql, Integer.class, args);
+    }
+}
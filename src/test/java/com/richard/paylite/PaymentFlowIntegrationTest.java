@@ -1,7 +1,13 @@
 package com.richard.paylite;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.richard.paylite.dto.BatchCreatePaymentRequest;
+import com.richard.paylite.dto.BatchPaymentItem;
+import com.richard.paylite.dto.BatchPaymentResponse;
+import com.richard.paylite.dto.BatchPaymentResult;
 import com.richard.paylite.dto.CreatePaymentRequest;
 import com.richard.paylite.dto.FullPaymentResponse;
+import com.richard.paylite.dto.PaymentPage;
 import com.richard.paylite.dto.PaymentResponse;
 import com.richard.paylite.model.PaymentStatus;
 import com.richard.paylite.util.SignatureUtil;
@@ -12,8 +18,20 @@ import org.springframework.boot.test.web.client.TestRestTemplate;
 import org.springframework.http.*;
 import org.springframework.test.context.ActiveProfiles;
 
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.InputStreamReader;
 import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPInputStream;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -48,12 +66,15 @@ public class PaymentFlowIntegrationTest {
         assertEquals(PaymentStatus.PENDING.name(), createResponse.getBody().status());
         String paymentId = createResponse.getBody().paymentId();
         assertNotNull(paymentId);
+        assertFalse(createResponse.getHeaders().containsKey("Idempotent-Replayed"));
 
         // === 2. Resend the same create request (idempotency check) ===
         ResponseEntity<PaymentResponse> idempotentResponse = restTemplate.postForEntity("/api/v1/payments", createEntity, PaymentResponse.class);
         assertEquals(HttpStatus.OK, idempotentResponse.getStatusCode());
         assertNotNull(idempotentResponse.getBody());
         assertEquals(paymentId, idempotentResponse.getBody().paymentId()); // Should be the same paymentId
+        assertEquals("true", idempotentResponse.getHeaders().getFirst("Idempotent-Replayed"));
+        assertEquals(MediaType.APPLICATION_JSON, idempotentResponse.getHeaders().getContentType());
 
         // === 3. Send a webhook to succeed the payment ===
         String webhookPayload = "{\"paymentId\":\"" + paymentId + "\",\"event\":\"payment.succeeded\"}";
@@ -88,4 +109,177 @@ public class PaymentFlowIntegrationTest {
                 "/api/v1/payments/" + paymentId, HttpMethod.GET, getEntity, FullPaymentResponse.class);
         assertEquals(PaymentStatus.SUCCEEDED, finalGetResponse.getBody().status());
     }
+
+    @Test
+    void testBatchPaymentCreation() {
+        // === 1. Create a batch larger than one JDBC batch ===
+        String runId = UUID.randomUUID().toString();
+        List<BatchPaymentItem> items = new ArrayList<>();
+        for (int i = 0; i < 120; i++) {
+            items.add(new BatchPaymentItem(runId + "-" + i, new CreatePaymentRequest(
+                    new BigDecimal("10.00"), "USD", "batch@test.com", "ref-batch-" + i)));
+        }
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        headers.set("X-API-Key", "test-api-key");
+        HttpEntity<BatchCreatePaymentRequest> entity = new HttpEntity<>(new BatchCreatePaymentRequest(items), headers);
+
+        ResponseEntity<BatchPaymentResponse> response = restTemplate.postForEntity("/api/v1/payments/batch", entity, BatchPaymentResponse.class);
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertNotNull(response.getBody());
+        assertEquals(120, response.getBody().results().size());
+        assertTrue(response.getBody().results().stream().allMatch(r -> r.outcome() == BatchPaymentResult.Outcome.CREATED));
+
+        // === 2. Replay the same batch; every item should return its original payment ===
+        ResponseEntity<BatchPaymentResponse> replay = restTemplate.postForEntity("/api/v1/payments/batch", entity, BatchPaymentResponse.class);
+        assertEquals(HttpStatus.OK, replay.getStatusCode());
+        for (int i = 0; i < 120; i++) {
+            BatchPaymentResult original = response.getBody().results().get(i);
+            BatchPaymentResult replayed = replay.getBody().results().get(i);
+            assertEquals(BatchPaymentResult.Outcome.REPLAYED, replayed.outcome());
+            assertEquals(original.payment().paymentId(), replayed.payment().paymentId());
+        }
+
+        // === 3. Batch payments are readable through the single-payment endpoint ===
+        HttpHeaders getHeaders = new HttpHeaders();
+        getHeaders.set("X-API-Key", "test-api-key");
+        ResponseEntity<FullPaymentResponse> getResponse = restTemplate.exchange(
+                "/api/v1/payments/" + response.getBody().results().get(119).payment().paymentId(),
+                HttpMethod.GET, new HttpEntity<>(getHeaders), FullPaymentResponse.class);
+        assertEquals(HttpStatus.OK, getResponse.getStatusCode());
+        assertEquals("ref-batch-119", getResponse.getBody().reference());
+    }
+
+    @Test
+    void testPaymentSearchPagesThroughResultsWithCursor() {
+        // === 1. Create payments for one customer, spread over two references ===
+        String email = "search-" + UUID.randomUUID() + "@test.com";
+        List<BatchPaymentItem> items = new ArrayList<>();
+        for (int i = 0; i < 7; i++) {
+            items.add(new BatchPaymentItem(UUID.randomUUID().toString(), new CreatePaymentRequest(
+                    new BigDecimal("20.00"), "USD", email, i % 2 == 0 ? "ref-search-even" : "ref-search-odd")));
+        }
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        headers.set("X-API-Key", "test-api-key");
+        ResponseEntity<BatchPaymentResponse> created = restTemplate.postForEntity("/api/v1/payments/batch",
+                new HttpEntity<>(new BatchCreatePaymentRequest(items), headers), BatchPaymentResponse.class);
+        assertEquals(HttpStatus.OK, created.getStatusCode());
+
+        // === 2. Page through them three at a time; every payment appears exactly once ===
+        HttpEntity<Void> getEntity = new HttpEntity<>(headers);
+        List<String> seen = new ArrayList<>();
+        String cursor = null;
+        int pages = 0;
+        do {
+            String url = "/api/v1/payments?customerEmail=" + email + "&limit=3" + (cursor == null ? "" : "&cursor=" + cursor);
+            ResponseEntity<PaymentPage> page = restTemplate.exchange(url, HttpMethod.GET, getEntity, PaymentPage.class);
+            assertEquals(HttpStatus.OK, page.getStatusCode());
+            page.getBody().payments().forEach(p -> seen.add(p.paymentId()));
+            cursor = page.getBody().nextCursor();
+            pages++;
+        } while (cursor != null);
+
+        assertEquals(3, pages);
+        assertEquals(7, seen.size());
+        assertEquals(7, seen.stream().distinct().count());
+
+        // === 3. Filters combine ===
+        ResponseEntity<PaymentPage> filtered = restTemplate.exchange(
+                "/api/v1/payments?customerEmail=" + email + "&reference=ref-search-odd&status=PENDING",
+                HttpMethod.GET, getEntity, PaymentPage.class);
+        assertEquals(3, filtered.getBody().payments().size());
+        assertNull(filtered.getBody().nextCursor());
+
+        // === 4. A malformed cursor is a client error ===
+        ResponseEntity<String> badCursor = restTemplate.exchange(
+                "/api/v1/payments?cursor=not-a-cursor", HttpMethod.GET, getEntity, String.class);
+        assertEquals(HttpStatus.BAD_REQUEST, badCursor.getStatusCode());
+    }
+
+    @Test
+    void testPaymentExportStreamsCsvAndNdjson() throws Exception {
+        // === 1. Create payments whose references need CSV quoting ===
+        LocalDateTime from = LocalDateTime.now().minusMinutes(1);
+        String runId = UUID.randomUUID().toString();
+        List<BatchPaymentItem> items = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            items.add(new BatchPaymentItem(runId + "-" + i, new CreatePaymentRequest(
+                    new BigDecimal("30.50"), "USD", "export@test.com", runId + ", \"" + i + "\"")));
+        }
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        headers.set("X-API-Key", "test-api-key");
+        restTemplate.postForEntity("/api/v1/payments/batch",
+                new HttpEntity<>(new BatchCreatePaymentRequest(items), headers), BatchPaymentResponse.class);
+        String range = "from=" + from + "&to=" + LocalDateTime.now().plusMinutes(1);
+        HttpEntity<Void> getEntity = new HttpEntity<>(headers);
+
+        // === 2. Gzipped CSV ===
+        ResponseEntity<byte[]> csv = restTemplate.exchange("/api/v1/payments/export?format=csv&gzip=true&status=PENDING&" + range,
+                HttpMethod.GET, getEntity, byte[].class);
+        assertEquals(HttpStatus.OK, csv.getStatusCode());
+        assertTrue(csv.getHeaders().getContentDisposition().getFilename().endsWith(".csv.gz"));
+        List<String> lines;
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new GZIPInputStream(new ByteArrayInputStream(csv.getBody())), StandardCharsets.UTF_8))) {
+            lines = reader.lines().toList();
+        }
+        assertEquals("paymentId,amount,currency,customerEmail,reference,status,createdAt,updatedAt", lines.get(0));
+        assertTrue(lines.stream().anyMatch(line -> line.contains(",30.50,USD,export@test.com,\"" + runId + ", \"\"1\"\"\",PENDING,")));
+
+        // === 3. NDJSON, one object per line ===
+        ResponseEntity<String> ndjson = restTemplate.exchange("/api/v1/payments/export?" + range,
+                HttpMethod.GET, getEntity, String.class);
+        assertEquals(HttpStatus.OK, ndjson.getStatusCode());
+        ObjectMapper mapper = new ObjectMapper();
+        long exported = ndjson.getBody().lines()
+                .map(line -> {
+                    try {
+                        return mapper.readTree(line);
+                    } catch (Exception e) {
+                        throw new AssertionError(line, e);
+                    }
+                })
+                .filter(node -> node.get("reference").asText().startsWith(runId))
+                .count();
+        assertEquals(3, exported);
+
+        // === 4. A range is required ===
+        ResponseEntity<String> missing = restTemplate.exchange("/api/v1/payments/export", HttpMethod.GET, getEntity, String.class);
+        assertEquals(HttpStatus.BAD_REQUEST, missing.getStatusCode());
+    }
+
+    @Test
+    void testConcurrentDuplicatesCreateOnePayment() throws Exception {
+        String idempotencyKey = UUID.randomUUID().toString();
+        CreatePaymentRequest createRequest = new CreatePaymentRequest(
+                new BigDecimal("50.00"), "USD", "concurrent@test.com", "ref-concurrent");
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        headers.set("X-API-Key", "test-api-key");
+        headers.set("Idempotency-Key", idempotencyKey);
+        HttpEntity<CreatePaymentRequest> entity = new HttpEntity<>(createRequest, headers);
+
+        // Fire the same request from several threads at once; every caller must see one payment
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Callable<ResponseEntity<PaymentResponse>>> calls = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                calls.add(() -> restTemplate.postForEntity("/api/v1/payments", entity, PaymentResponse.class));
+            }
+            List<String> paymentIds = new ArrayList<>();
+            for (Future<ResponseEntity<PaymentResponse>> future : executor.invokeAll(calls)) {
+                ResponseEntity<PaymentResponse> response = future.get();
+                assertEquals(HttpStatus.OK, response.getStatusCode());
+                paymentIds.add(response.getBody().paymentId());
+            }
+            assertEquals(1, paymentIds.stream().distinct().count());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
 }
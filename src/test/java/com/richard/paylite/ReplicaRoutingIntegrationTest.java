@@ -0,0 +1,63 @@
+package com.richard.paylite;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.richard.paylite.dto.CreatePaymentRequest;
+import com.richard.paylite.dto.PaymentResponse;
+import com.richard.paylite.security.ApiKeyRegistry;
+import com.richard.paylite.service.PaymentService;
+import com.richard.paylite.util.ReplicaRoutingDataSource;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+
+import javax.sql.DataSource;
+import java.math.BigDecimal;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// The "replica" is a second pool on the same in-memory database, so it is never behind
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:paylite-replica;DB_CLOSE_DELAY=-1;DB_CLOSE_ON_EXIT=FALSE;MODE=MySQL",
+        "paylite.datasource.replica.enabled=true",
+        "paylite.datasource.replica.url=jdbc:h2:mem:paylite-replica;DB_CLOSE_DELAY=-1;DB_CLOSE_ON_EXIT=FALSE;MODE=MySQL",
+        "paylite.datasource.replica.lag-check-interval=50ms"
+})
+@ActiveProfiles("test")
+public class ReplicaRoutingIntegrationTest {
+
+    @Autowired
+    private DataSource dataSource;
+
+    @Autowired
+    private PaymentService paymentService;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Test
+    void getPayment_shouldReadFromTheReplica_withSeparatePoolMetrics() throws Exception {
+        assertInstanceOf(ReplicaRoutingDataSource.class, dataSource);
+        PaymentResponse created = objectMapper.readValue(paymentService.createPayment(ApiKeyRegistry.DEFAULT_TENANT, UUID.randomUUID().toString(),
+                new CreatePaymentRequest(new BigDecimal("12.50"), "USD", "replica@example.com", "order-replica")).body(), PaymentResponse.class);
+        waitForLagCheck();
+
+        assertEquals(created.paymentId(), paymentService.getPayment(created.paymentId()).paymentId());
+
+        assertEquals(1, meterRegistry.counter("paylite.datasource.reads", "pool", "replica", "reason", "replica").count());
+        assertNotNull(meterRegistry.find("hikaricp.connections.active").tag("pool", "primary").gauge());
+        assertNotNull(meterRegistry.find("hikaricp.connections.active").tag("pool", "replica").gauge());
+        assertNotNull(meterRegistry.find("paylite.datasource.admission.active").tag("pool", "replica").gauge());
+    }
+
+    private void waitForLagCheck() throws InterruptedException {
+        for (int i = 0; i < 100 && !(meterRegistry.get("paylite.datasource.replica.lag").gauge().value() == 0.0); i++) {
+            Thread.sleep(20);
+        }
+    }
+}
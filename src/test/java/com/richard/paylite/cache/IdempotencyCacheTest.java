@@ -0,0 +1,60 @@
+package com.richard.paylite.cache;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.util.unit.DataSize;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IdempotencyCacheTest {
+
+    private final AtomicLong nanos = new AtomicLong();
+
+    @Test
+    void get_shouldCountHitsAndMisses() {
+        IdempotencyCache cache = new IdempotencyCache(DataSize.ofMegabytes(1), Duration.ofHours(1), nanos::get);
+        cache.put("key-1", hash("hash-1"), response("pl_1"));
+
+        assertArrayEquals(response("pl_1"), cache.get("key-1").response());
+        assertTrue(cache.get("key-1").matches(hash("hash-1")));
+        assertNull(cache.get("key-2"));
+
+        assertEquals(2, cache.stats().hitCount());
+        assertEquals(1, cache.stats().missCount());
+    }
+
+    @Test
+    void get_shouldExpireEntriesAfterTtl() {
+        IdempotencyCache cache = new IdempotencyCache(DataSize.ofMegabytes(1), Duration.ofMinutes(5), nanos::get);
+        cache.put("key-1", hash("hash-1"), response("pl_1"));
+
+        nanos.addAndGet(TimeUnit.MINUTES.toNanos(6));
+
+        assertNull(cache.get("key-1"));
+    }
+
+    @Test
+    void put_shouldEvictOnceMemoryBudgetIsExceeded() {
+        // Each entry weighs a few hundred bytes, so a 4KB budget holds only a handful
+        IdempotencyCache cache = new IdempotencyCache(DataSize.ofKilobytes(4), Duration.ofHours(1), nanos::get);
+        for (int i = 0; i < 100; i++) {
+            cache.put("key-" + i, hash("hash-" + i), response("pl_" + i));
+        }
+        cache.cleanUp();
+
+        assertTrue(cache.stats().evictionCount() > 80);
+    }
+
+    private static byte[] response(String paymentId) {
+        return ("{\"paymentId\":\"" + paymentId + "\",\"status\":\"PENDING\"}").getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] hash(String value) {
+        return Arrays.copyOf(value.getBytes(StandardCharsets.UTF_8), 32);
+    }
+}
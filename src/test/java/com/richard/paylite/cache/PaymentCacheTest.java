@@ -0,0 +1,156 @@
+package com.richard.paylite.cache;
+
+import com.richard.paylite.dto.FullPaymentResponse;
+import com.richard.paylite.model.PaymentStatus;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PaymentCacheTest {
+
+    @Test
+    void get_shouldDropLoadThatOverlappedAnInvalidation() {
+        PaymentCache cache = new PaymentCache(100, Duration.ofMinutes(1), Duration.ofMinutes(1));
+        AtomicInteger loads = new AtomicInteger();
+
+        // A webhook commits and invalidates while the first (stale) load is still in flight
+        FullPaymentResponse first = cache.get("pl_1", id -> {
+            loads.incrementAndGet();
+            cache.invalidate(id);
+            return payment(id, PaymentStatus.PENDING);
+        });
+        FullPaymentResponse second = cache.get("pl_1", id -> {
+            loads.incrementAndGet();
+            return payment(id, PaymentStatus.SUCCEEDED);
+        });
+        FullPaymentResponse third = cache.get("pl_1", id -> {
+            throw new AssertionError("should be cached");
+        });
+
+        assertEquals(PaymentStatus.PENDING, first.status());
+        assertEquals(PaymentStatus.SUCCEEDED, second.status());
+        assertEquals(PaymentStatus.SUCCEEDED, third.status());
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    void get_shouldKeepPendingPaymentsOnlyForThePendingTtl() {
+        AtomicLong nanos = new AtomicLong();
+        PaymentCache cache = new PaymentCache(100, Duration.ofMinutes(10), Duration.ofSeconds(2), Duration.ZERO, nanos::get);
+        AtomicInteger loads = new AtomicInteger();
+        Function<String, FullPaymentResponse> pending = id -> {
+            loads.incrementAndGet();
+            return payment(id, PaymentStatus.PENDING);
+        };
+        Function<String, FullPaymentResponse> succeeded = id -> {
+            loads.incrementAndGet();
+            return payment(id, PaymentStatus.SUCCEEDED);
+        };
+
+        cache.get("pl_1", pending);
+        cache.get("pl_2", succeeded);
+        nanos.addAndGet(Duration.ofSeconds(1).toNanos());
+        cache.get("pl_1", pending);
+        cache.get("pl_2", succeeded);
+        assertEquals(2, loads.get());
+
+        // Another node moved pl_1 on without invalidating this node's entry
+        nanos.addAndGet(Duration.ofSeconds(1).toNanos());
+        assertEquals(PaymentStatus.SUCCEEDED, cache.get("pl_1", succeeded).status());
+        cache.get("pl_2", succeeded);
+        assertEquals(3, loads.get());
+    }
+
+    @Test
+    void recentlyChanged_shouldHoldForTheReadYourWritesWindow() {
+        AtomicLong nanos = new AtomicLong();
+        PaymentCache cache = new PaymentCache(100, Duration.ofMinutes(1), Duration.ofMinutes(1), Duration.ofSeconds(5), nanos::get);
+
+        cache.invalidate("pl_1");
+        assertTrue(cache.recentlyChanged("pl_1"));
+        assertFalse(cache.recentlyChanged("pl_2"));
+
+        nanos.addAndGet(Duration.ofSeconds(5).toNanos());
+        assertFalse(cache.recentlyChanged("pl_1"));
+        // Without a replica nothing is tracked
+        PaymentCache primaryOnly = new PaymentCache(100, Duration.ofMinutes(1), Duration.ofMinutes(1));
+        primaryOnly.invalidate("pl_1");
+        assertFalse(primaryOnly.recentlyChanged("pl_1"));
+    }
+
+    @Test
+    void get_shouldNotPinVirtualThreads_whileLoading() throws Exception {
+        PaymentCache cache = new PaymentCache(100, Duration.ofMinutes(1), Duration.ofMinutes(1));
+
+        List<RecordedEvent> pinned = recordPinnedEvents(() -> {
+            try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+                for (int i = 0; i < 50; i++) {
+                    String paymentId = "pl_" + (i % 5);
+                    executor.submit(() -> cache.get(paymentId, id -> {
+                        sleep(50);
+                        return payment(id, PaymentStatus.PENDING);
+                    }));
+                }
+            }
+        });
+
+        assertTrue(pinned.isEmpty(), "virtual threads pinned: " + pinned);
+    }
+
+    @Test
+    void pinningCheck_shouldDetectBlockingInsideSynchronized() throws Exception {
+        Object lock = new Object();
+
+        List<RecordedEvent> pinned = recordPinnedEvents(() -> {
+            try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+                executor.submit(() -> {
+                    synchronized (lock) {
+                        sleep(50);
+                    }
+                });
+            }
+        });
+
+        assertFalse(pinned.isEmpty());
+    }
+
+    private static List<RecordedEvent> recordPinnedEvents(Runnable workload) throws Exception {
+        Path file = Files.createTempFile("pinning", ".jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable("jdk.VirtualThreadPinned").withThreshold(Duration.ofMillis(20));
+            recording.start();
+            workload.run();
+            recording.stop();
+            recording.dump(file);
+            return RecordingFile.readAllEvents(file);
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static FullPaymentResponse payment(String paymentId, PaymentStatus status) {
+        return new FullPaymentResponse(paymentId, new BigDecimal("10.00"), "USD", "ref", status);
+    }
+}
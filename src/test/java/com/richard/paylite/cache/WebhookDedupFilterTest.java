@@ -0,0 +1,45 @@
+package com.richard.paylite.cache;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.util.unit.DataSize;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WebhookDedupFilterTest {
+
+    @Test
+    void check_shouldAnswerUnknown_untilFilterIsReady() {
+        WebhookDedupFilter filter = new WebhookDedupFilter(true, DataSize.ofKilobytes(64), 10_000, 100);
+
+        assertEquals(WebhookDedupFilter.Verdict.UNKNOWN, filter.check("pl_1", "payment.succeeded"));
+    }
+
+    @Test
+    void check_shouldSeparateNewAndRecordedEvents() {
+        WebhookDedupFilter filter = new WebhookDedupFilter(true, DataSize.ofKilobytes(64), 10_000, 100);
+        filter.markReady();
+        filter.record("pl_1", "payment.succeeded");
+
+        assertEquals(WebhookDedupFilter.Verdict.DUPLICATE, filter.check("pl_1", "payment.succeeded"));
+        assertEquals(WebhookDedupFilter.Verdict.NEW, filter.check("pl_1", "payment.failed"));
+        assertEquals(WebhookDedupFilter.Verdict.NEW, filter.check("pl_2", "payment.succeeded"));
+    }
+
+    @Test
+    void bloomFilter_shouldKeepFalsePositivesLow_atExpectedLoad() {
+        BloomFilter bloomFilter = BloomFilter.withMemoryBudget(DataSize.ofKilobytes(128).toBytes(), 100_000);
+        for (int i = 0; i < 100_000; i++) {
+            bloomFilter.put(BloomFilter.hash("pl_" + i, "payment.succeeded"));
+        }
+
+        int falsePositives = 0;
+        for (int i = 0; i < 100_000; i++) {
+            assertTrue(bloomFilter.mightContain(BloomFilter.hash("pl_" + i, "payment.succeeded")));
+            if (bloomFilter.mightContain(BloomFilter.hash("pl_" + i, "payment.failed"))) {
+                falsePositives++;
+            }
+        }
+        // ~10.5 bits per key gives roughly a 1% false positive rate
+        assertTrue(falsePositives < 2_000, "false positives: " + falsePositives);
+    }
+}
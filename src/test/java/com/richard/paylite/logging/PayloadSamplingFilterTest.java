@@ -0,0 +1,40 @@
+package com.richard.paylite.logging;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.core.spi.FilterReply;
+import org.junit.jupiter.api.Test;
+import org.slf4j.MarkerFactory;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PayloadSamplingFilterTest {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    @Test
+    void sample_shouldAllowMaxPerSecondAndResetInTheNextSecond() {
+        PayloadSamplingFilter filter = new PayloadSamplingFilter();
+        filter.setMaxPerSecond(2);
+
+        assertTrue(filter.sample(5 * SECOND));
+        assertTrue(filter.sample(5 * SECOND + 1));
+        assertFalse(filter.sample(5 * SECOND + 2));
+        assertEquals(1, filter.getDropped());
+
+        assertTrue(filter.sample(6 * SECOND));
+    }
+
+    @Test
+    void decide_shouldOnlySampleEventsWithThePayloadMarker() {
+        PayloadSamplingFilter filter = new PayloadSamplingFilter();
+        filter.setMaxPerSecond(0);
+
+        assertEquals(FilterReply.NEUTRAL, filter.decide(null, null, Level.INFO, "message", null, null));
+        assertEquals(FilterReply.NEUTRAL, filter.decide(MarkerFactory.getMarker("OTHER"), null, Level.INFO, "message", null, null));
+        // isInfoEnabled(PAYLOAD) checks pass no format and are not sampled
+        assertEquals(FilterReply.NEUTRAL, filter.decide(PayloadSamplingFilter.PAYLOAD, null, Level.INFO, null, null, null));
+        assertEquals(FilterReply.DENY, filter.decide(PayloadSamplingFilter.PAYLOAD, null, Level.INFO, "payload: {}", null, null));
+    }
+}
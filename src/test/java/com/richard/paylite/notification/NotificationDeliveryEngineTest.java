@@ -0,0 +1,121 @@
+package com.richard.paylite.notification;
+
+import com.richard.paylite.util.SignatureUtil;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class NotificationDeliveryEngineTest {
+
+    private static final String SECRET = "merchant-secret";
+
+    private HttpServer stub;
+    private HttpClient client;
+    private SimpleMeterRegistry registry;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        stub = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        stub.setExecutor(Executors.newFixedThreadPool(8));
+        stub.start();
+        client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+        registry = new SimpleMeterRegistry();
+    }
+
+    @AfterEach
+    void tearDown() {
+        client.shutdownNow();
+        stub.stop(0);
+    }
+
+    @Test
+    void deliver_shouldSignTheBodyAndReportTheOutcome() throws Exception {
+        List<String> attempts = new CopyOnWriteArrayList<>();
+        List<Boolean> validSignatures = new CopyOnWriteArrayList<>();
+        SignatureUtil verifier = new SignatureUtil(SECRET);
+        stub.createContext("/hooks", exchange -> {
+            byte[] body = exchange.getRequestBody().readAllBytes();
+            attempts.add(exchange.getRequestHeaders().getFirst(NotificationDeliveryEngine.ATTEMPT_HEADER));
+            validSignatures.add(verifier.isValidSignature(
+                    exchange.getRequestHeaders().getFirst(NotificationDeliveryEngine.SIGNATURE_HEADER), body));
+            respond(exchange, 200);
+        });
+        stub.createContext("/down", exchange -> respond(exchange, 503));
+        NotificationDeliveryEngine engine = engine(4);
+        byte[] body = "{\"paymentId\":\"pl_1\",\"status\":\"SUCCEEDED\"}".getBytes(StandardCharsets.UTF_8);
+        CompletableFuture<String> delivered = new CompletableFuture<>();
+        CompletableFuture<String> rejected = new CompletableFuture<>();
+
+        engine.deliver(endpoint("/hooks"), body, 3, delivered::complete);
+        engine.deliver(endpoint("/down"), body, 1, rejected::complete);
+
+        assertNull(delivered.get(5, TimeUnit.SECONDS));
+        assertEquals("HTTP 503", rejected.get(5, TimeUnit.SECONDS));
+        assertEquals(List.of("3"), attempts);
+        assertEquals(List.of(true), validSignatures);
+        assertEquals(0, engine.pending());
+    }
+
+    @Test
+    void deliver_shouldLimitRequestsInFlightPerEndpoint() throws Exception {
+        AtomicInteger active = new AtomicInteger();
+        AtomicInteger maxActive = new AtomicInteger();
+        stub.createContext("/slow", exchange -> {
+            maxActive.accumulateAndGet(active.incrementAndGet(), Math::max);
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            active.decrementAndGet();
+            respond(exchange, 204);
+        });
+        NotificationDeliveryEngine engine = engine(2);
+        CountDownLatch delivered = new CountDownLatch(20);
+
+        for (int i = 0; i < 20; i++) {
+            engine.deliver(endpoint("/slow"), ("{\"n\":" + i + "}").getBytes(StandardCharsets.UTF_8), 1, failure -> {
+                if (failure == null) {
+                    delivered.countDown();
+                }
+            });
+        }
+
+        assertTrue(delivered.await(5, TimeUnit.SECONDS));
+        assertEquals(2, maxActive.get());
+        assertEquals(0, registry.get("paylite.notifications.in-flight").gauge().value());
+    }
+
+    private NotificationDeliveryEngine engine(int maxConcurrentPerEndpoint) {
+        return new NotificationDeliveryEngine(client, new SignatureUtil(SECRET),
+                new NotificationDeliveryEngine.Settings(maxConcurrentPerEndpoint, Duration.ofSeconds(5)), registry);
+    }
+
+    private URI endpoint(String path) {
+        return URI.create("http://127.0.0.1:" + stub.getAddress().getPort() + path);
+    }
+
+    private static void respond(HttpExchange exchange, int status) throws IOException {
+        exchange.sendResponseHeaders(status, -1);
+        exchange.close();
+    }
+}
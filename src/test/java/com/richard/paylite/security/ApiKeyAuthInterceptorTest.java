@@ -0,0 +1,97 @@
+package com.richard.paylite.security;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.slf4j.MDC;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Duration;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ApiKeyAuthInterceptorTest {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final ApiKeyRegistry apiKeyRegistry = new ApiKeyRegistry();
+    private final ApiKeyRateLimiter rateLimiter = new ApiKeyRateLimiter();
+    private final ApiKeyAuthInterceptor interceptor = new ApiKeyAuthInterceptor();
+
+    @BeforeEach
+    void setUp() {
+        ReflectionTestUtils.setField(rateLimiter, "meterRegistry", registry);
+        ReflectionTestUtils.setField(rateLimiter, "enabled", true);
+        ReflectionTestUtils.setField(rateLimiter, "readsPerSecond", 1.0);
+        ReflectionTestUtils.setField(rateLimiter, "readBurst", 2);
+        ReflectionTestUtils.setField(rateLimiter, "writesPerSecond", 1.0);
+        ReflectionTestUtils.setField(rateLimiter, "writeBurst", 1);
+        ReflectionTestUtils.setField(apiKeyRegistry, "apiKeys", List.of("key-a", "key-b"));
+        ReflectionTestUtils.setField(apiKeyRegistry, "reloadInterval", Duration.ZERO);
+        apiKeyRegistry.start();
+        ReflectionTestUtils.setField(interceptor, "apiKeyRegistry", apiKeyRegistry);
+        ReflectionTestUtils.setField(interceptor, "rateLimiter", rateLimiter);
+    }
+
+    @AfterEach
+    void tearDown() {
+        MDC.clear();
+    }
+
+    @Test
+    void preHandle_shouldThrottleWithRetryAfter_whenKeyExceedsItsBucket() throws Exception {
+        assertEquals(200, handle("GET", "key-a").getStatus());
+        MockHttpServletResponse second = handle("GET", "key-a");
+        assertEquals("2", second.getHeader(ApiKeyAuthInterceptor.RATE_LIMIT_LIMIT));
+        assertEquals("0", second.getHeader(ApiKeyAuthInterceptor.RATE_LIMIT_REMAINING));
+
+        MockHttpServletResponse throttled = handle("GET", "key-a");
+
+        assertEquals(429, throttled.getStatus());
+        assertEquals("1", throttled.getHeader("Retry-After"));
+        assertEquals("2", throttled.getHeader(ApiKeyAuthInterceptor.RATE_LIMIT_RESET));
+        assertEquals(1, registry.counter("paylite.ratelimit.requests", "key", apiKeyRegistry.lookup("key-a").id(),
+                "tenant", ApiKeyRegistry.DEFAULT_TENANT, "kind", "read", "outcome", "throttled").count());
+    }
+
+    @Test
+    void preHandle_shouldKeepReadsWritesAndKeysApart() throws Exception {
+        assertEquals(200, handle("POST", "key-a").getStatus());
+        assertEquals(429, handle("POST", "key-a").getStatus());
+
+        // Reads of the same key and writes of another key have their own buckets
+        assertEquals(200, handle("GET", "key-a").getStatus());
+        assertEquals(200, handle("POST", "key-b").getStatus());
+    }
+
+    @Test
+    void preHandle_shouldNotCountRequestsWithInvalidKeys() throws Exception {
+        assertEquals(401, handle("POST", "unknown").getStatus());
+        assertNull(registry.find("paylite.ratelimit.requests").counter());
+    }
+
+    @Test
+    void preHandle_shouldExposeTheKeysTenantUntilTheRequestCompletes() throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/api/v1/payments/pay_1");
+        request.addHeader("X-API-Key", "key-b");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        assertTrue(interceptor.preHandle(request, response, null));
+        assertEquals(ApiKeyRegistry.DEFAULT_TENANT, request.getAttribute(ApiKeyAuthInterceptor.TENANT_ATTRIBUTE));
+        assertEquals(ApiKeyRegistry.DEFAULT_TENANT, MDC.get("tenantId"));
+
+        interceptor.afterCompletion(request, response, null, null);
+        assertNull(MDC.get("tenantId"));
+    }
+
+    private MockHttpServletResponse handle(String method, String apiKey) throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest(method, "/api/v1/payments");
+        request.addHeader("X-API-Key", apiKey);
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        interceptor.preHandle(request, response, null);
+        return response;
+    }
+}
@@ -0,0 +1,101 @@
+package com.richard.paylite.security;
+
+import com.richard.paylite.model.MerchantApiKey;
+import com.richard.paylite.repository.MerchantApiKeyRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.util.HexFormat;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class ApiKeyRegistryTest {
+
+    @Mock
+    private MerchantApiKeyRepository merchantApiKeyRepository;
+
+    @InjectMocks
+    private ApiKeyRegistry apiKeyRegistry;
+
+    @TempDir
+    Path dir;
+
+    private Path keysFile;
+
+    @BeforeEach
+    void setUp() {
+        keysFile = dir.resolve("api-keys");
+        ReflectionTestUtils.setField(apiKeyRegistry, "apiKeys", List.of("plain-key"));
+        ReflectionTestUtils.setField(apiKeyRegistry, "apiKeysFile", keysFile.toString());
+        ReflectionTestUtils.setField(apiKeyRegistry, "reloadInterval", Duration.ZERO);
+    }
+
+    @Test
+    void lookup_shouldResolveTenantsFromEverySource() throws Exception {
+        Files.writeString(keysFile, """
+                # tenant key
+                merchant-a  key-of-a
+                merchant-b  sha256:%s
+                """.formatted(HexFormat.of().formatHex(sha256("key-of-b"))));
+        ReflectionTestUtils.setField(apiKeyRegistry, "tableEnabled", true);
+        when(merchantApiKeyRepository.findByActiveTrue()).thenReturn(List.of(MerchantApiKey.builder()
+                .keyDigest(sha256("key-of-c")).tenantId("merchant-c").active(true).build()));
+
+        apiKeyRegistry.start();
+
+        assertEquals(ApiKeyRegistry.DEFAULT_TENANT, apiKeyRegistry.lookup("plain-key").tenantId());
+        assertEquals("merchant-a", apiKeyRegistry.lookup("key-of-a").tenantId());
+        assertEquals("merchant-b", apiKeyRegistry.lookup("key-of-b").tenantId());
+        assertEquals("merchant-c", apiKeyRegistry.lookup("key-of-c").tenantId());
+        assertNull(apiKeyRegistry.lookup("key-of-d"));
+        assertNull(apiKeyRegistry.lookup("KEY-OF-A"));
+        assertNull(apiKeyRegistry.lookup(""));
+        assertNull(apiKeyRegistry.lookup("kéy-of-a"));
+    }
+
+    @Test
+    void reload_shouldPickUpAddedAndRevokedKeys() throws Exception {
+        Files.writeString(keysFile, "merchant-a old-key\n");
+        apiKeyRegistry.start();
+
+        Files.writeString(keysFile, "merchant-a new-key\n");
+        apiKeyRegistry.reload();
+
+        assertNull(apiKeyRegistry.lookup("old-key"));
+        assertEquals("merchant-a", apiKeyRegistry.lookup("new-key").tenantId());
+    }
+
+    @Test
+    void reload_shouldKeepThePreviousKeys_whenTheFileIsInvalid() throws Exception {
+        Files.writeString(keysFile, "merchant-a key-of-a\n");
+        apiKeyRegistry.start();
+
+        Files.writeString(keysFile, "merchant-a key-of-a trailing-field\n");
+        apiKeyRegistry.reload();
+
+        assertEquals("merchant-a", apiKeyRegistry.lookup("key-of-a").tenantId());
+    }
+
+    @Test
+    void start_shouldFail_whenTheFileIsMissing() {
+        assertThrows(IllegalStateException.class, () -> apiKeyRegistry.start());
+    }
+
+    private static byte[] sha256(String key) throws Exception {
+        return MessageDigest.getInstance("SHA-256").digest(key.getBytes(StandardCharsets.UTF_8));
+    }
+}
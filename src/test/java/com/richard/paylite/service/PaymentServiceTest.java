@@ -1,42 +1,102 @@
 package com.richard.paylite.service;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.richard.paylite.cache.IdempotencyCache;
+import com.richard.paylite.cache.PaymentCache;
+import com.richard.paylite.dto.BatchPaymentItem;
+import com.richard.paylite.dto.BatchPaymentResponse;
+import com.richard.paylite.dto.BatchPaymentResult;
 import com.richard.paylite.dto.CreatePaymentRequest;
 import com.richard.paylite.dto.FullPaymentResponse;
+import com.richard.paylite.dto.IdempotentResponse;
+import com.richard.paylite.dto.PaymentCursor;
+import com.richard.paylite.dto.PaymentPage;
 import com.richard.paylite.dto.PaymentResponse;
+import com.richard.paylite.dto.PaymentSearchFilter;
+import com.richard.paylite.dto.PaymentSummary;
+import com.richard.paylite.exception.BadRequestException;
 import com.richard.paylite.exception.ConflictException;
 import com.richard.paylite.exception.ResourceNotFoundException;
+import com.richard.paylite.metrics.PaymentMetrics;
+import com.richard.paylite.model.ArchivedPayment;
 import com.richard.paylite.model.IdempotencyKey;
+import com.richard.paylite.model.IdempotencyKeyStatus;
 import com.richard.paylite.model.Payment;
 import com.richard.paylite.model.PaymentStatus;
+import com.richard.paylite.outbox.PaymentEventOutbox;
+import com.richard.paylite.repository.ArchivedPaymentRepository;
 import com.richard.paylite.repository.IdempotencyKeyRepository;
 import com.richard.paylite.repository.PaymentRepository;
+import com.richard.paylite.util.PaymentIdGenerator;
+import com.richard.paylite.util.RequestHasher;
+import com.richard.paylite.util.TimeOrderedPaymentIdGenerator;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.persistence.EntityManager;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import java.math.BigDecimal;
 import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
 import java.util.Optional;
+import java.util.function.Consumer;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.contains;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.*;
 
 @ExtendWith(MockitoExtension.class)
 class PaymentServiceTest {
 
+    private static final String TENANT = "merchant-1";
+
     @Mock
     private PaymentRepository paymentRepository;
 
+    @Mock
+    private ArchivedPaymentRepository archivedPaymentRepository;
+
     @Mock
     private IdempotencyKeyRepository idempotencyKeyRepository;
 
+    @Mock
+    private EntityManager entityManager;
+
+    @Mock
+    private IdempotencyCache idempotencyCache;
+
+    @Spy
+    private PaymentCache paymentCache = new PaymentCache(100, Duration.ofMinutes(1), Duration.ofMinutes(1));
+
+    @Spy
+    private PaymentMetrics paymentMetrics = new PaymentMetrics(new SimpleMeterRegistry());
+
+    @Spy
+    private PaymentIdGenerator paymentIdGenerator = new TimeOrderedPaymentIdGenerator(1);
+
+    @Mock
+    private PaymentEventOutbox paymentEventOutbox;
+
+    @Mock
+    private TransactionTemplate transactionTemplate;
+
     @Spy // Use @Spy to use a real ObjectMapper that can be tracked by Mockito
     private ObjectMapper objectMapper = new ObjectMapper();
 
@@ -53,32 +113,144 @@ class PaymentServiceTest {
                 "test@example.com",
                 "ref-123"
         );
+        ReflectionTestUtils.setField(paymentService, "reservationTimeout", Duration.ofSeconds(30));
+    }
+
+    private void runTransactionsInline() {
+        when(transactionTemplate.execute(any())).thenAnswer(i -> i.<TransactionCallback<?>>getArgument(0).doInTransaction(null));
     }
 
     @Test
     void createPayment_shouldCreateNewPayment_whenKeyIsNew() throws Exception {
         // Given
         String idempotencyKey = "new-key";
+        runTransactionsInline();
         when(idempotencyKeyRepository.findByIdempotencyKey(idempotencyKey)).thenReturn(Optional.empty());
         when(paymentRepository.save(any(Payment.class))).thenAnswer(i -> i.getArguments()[0]);
+        when(idempotencyKeyRepository.complete(eq(idempotencyKey), anyString(), any(byte[].class))).thenReturn(1);
 
         // When
-        PaymentResponse response = paymentService.createPayment(idempotencyKey, createPaymentRequest);
+        IdempotentResponse result = paymentService.createPayment(TENANT, idempotencyKey, createPaymentRequest);
 
         // Then
-        assertNotNull(response);
+        assertFalse(result.replayed());
+        PaymentResponse response = objectMapper.readValue(result.body(), PaymentResponse.class);
         assertEquals(PaymentStatus.PENDING.name(), response.status());
         assertNotNull(response.paymentId());
-        verify(paymentRepository, times(1)).save(any(Payment.class));
-        verify(idempotencyKeyRepository, times(1)).save(any(IdempotencyKey.class));
+        ArgumentCaptor<Payment> payment = ArgumentCaptor.forClass(Payment.class);
+        verify(paymentRepository, times(1)).save(payment.capture());
+        assertEquals(TENANT, payment.getValue().getTenantId());
+        verify(paymentEventOutbox, times(1)).paymentCreated(any(Payment.class));
+        ArgumentCaptor<IdempotencyKey> reservation = ArgumentCaptor.forClass(IdempotencyKey.class);
+        verify(idempotencyKeyRepository, times(1)).save(reservation.capture());
+        assertEquals(IdempotencyKeyStatus.IN_PROGRESS, reservation.getValue().getStatus());
+        assertNotNull(reservation.getValue().getReservationToken());
+        verify(idempotencyKeyRepository, times(1)).complete(idempotencyKey, reservation.getValue().getReservationToken(), result.body());
+    }
+
+    @Test
+    void createPayment_shouldThrowConflictException_whenKeyIsInProgressElsewhere() {
+        // Given
+        String idempotencyKey = "busy-key";
+        runTransactionsInline();
+        IdempotencyKey reservation = IdempotencyKey.builder()
+                .idempotencyKey(idempotencyKey)
+                .requestDigest(new byte[32])
+                .status(IdempotencyKeyStatus.IN_PROGRESS)
+                .createdAt(LocalDateTime.now())
+                .build();
+        when(idempotencyKeyRepository.findByIdempotencyKey(idempotencyKey)).thenReturn(Optional.of(reservation));
+        when(idempotencyKeyRepository.takeOverStaleReservation(eq(idempotencyKey), any(byte[].class), anyString(), any(), any())).thenReturn(0);
+
+        // When & Then
+        assertThrows(ConflictException.class, () -> paymentService.createPayment(TENANT, idempotencyKey, createPaymentRequest));
+        verify(paymentRepository, never()).save(any());
+    }
+
+    @Test
+    void createPayment_shouldReleaseReservation_whenCreationFails() {
+        // Given
+        String idempotencyKey = "failing-key";
+        runTransactionsInline();
+        doAnswer(i -> {
+            i.<Consumer<TransactionStatus>>getArgument(0).accept(null);
+            return null;
+        }).when(transactionTemplate).executeWithoutResult(any());
+        when(idempotencyKeyRepository.findByIdempotencyKey(idempotencyKey)).thenReturn(Optional.empty());
+        when(paymentRepository.save(any(Payment.class))).thenThrow(new IllegalStateException("db down"));
+
+        // When & Then
+        assertThrows(IllegalStateException.class, () -> paymentService.createPayment(TENANT, idempotencyKey, createPaymentRequest));
+        ArgumentCaptor<IdempotencyKey> reservation = ArgumentCaptor.forClass(IdempotencyKey.class);
+        verify(idempotencyKeyRepository).save(reservation.capture());
+        verify(idempotencyKeyRepository).releaseReservation(idempotencyKey, reservation.getValue().getReservationToken());
+        verify(idempotencyKeyRepository, never()).complete(any(), any(), any());
+    }
+
+    @Test
+    void createPayment_shouldReleaseOnlyItsOwnToken_whenCreationFailsAfterTakeover() {
+        // Given
+        String idempotencyKey = "taken-over-key";
+        runTransactionsInline();
+        doAnswer(i -> {
+            i.<Consumer<TransactionStatus>>getArgument(0).accept(null);
+            return null;
+        }).when(transactionTemplate).executeWithoutResult(any());
+        IdempotencyKey stale = IdempotencyKey.builder()
+                .idempotencyKey(idempotencyKey)
+                .requestDigest(new byte[32])
+                .status(IdempotencyKeyStatus.IN_PROGRESS)
+                .reservationToken("crashed-owner")
+                .createdAt(LocalDateTime.now().minusMinutes(5))
+                .build();
+        when(idempotencyKeyRepository.findByIdempotencyKey(idempotencyKey)).thenReturn(Optional.of(stale));
+        when(idempotencyKeyRepository.takeOverStaleReservation(eq(idempotencyKey), any(byte[].class), anyString(), any(), any())).thenReturn(1);
+        when(paymentRepository.save(any(Payment.class))).thenThrow(new IllegalStateException("db down"));
+
+        // When & Then
+        assertThrows(IllegalStateException.class, () -> paymentService.createPayment(TENANT, idempotencyKey, createPaymentRequest));
+        ArgumentCaptor<String> token = ArgumentCaptor.forClass(String.class);
+        verify(idempotencyKeyRepository).takeOverStaleReservation(eq(idempotencyKey), any(byte[].class), token.capture(), any(), any());
+        assertNotEquals("crashed-owner", token.getValue());
+        verify(idempotencyKeyRepository).releaseReservation(idempotencyKey, token.getValue());
     }
 
     @Test
     void createPayment_shouldReturnSavedResponse_whenKeyIsSameAndRequestIsSame() throws Exception {
         // Given
         String idempotencyKey = "existing-key";
+        // Same amount written differently, so the stored hash only matches if amounts compare by value
+        CreatePaymentRequest original = new CreatePaymentRequest(new BigDecimal("100"), "USD", "test@example.com", "ref-123");
+        PaymentResponse savedResponse = new PaymentResponse("pl_123", "PENDING");
+
+        IdempotencyKey key = IdempotencyKey.builder()
+                .idempotencyKey(idempotencyKey)
+                .requestDigest(RequestHasher.hash(original))
+                .responseJson(objectMapper.writeValueAsBytes(savedResponse))
+                .status(IdempotencyKeyStatus.COMPLETED)
+                .build();
+
+        runTransactionsInline();
+        when(idempotencyKeyRepository.findByIdempotencyKey(idempotencyKey)).thenReturn(Optional.of(key));
+
+        // When
+        IdempotentResponse response = paymentService.createPayment(TENANT, idempotencyKey, createPaymentRequest);
+
+        // Then
+        assertTrue(response.replayed());
+        assertSame(key.getResponseJson(), response.body());
+        verify(paymentRepository, never()).save(any());
+        verify(idempotencyKeyRepository, never()).save(any());
+        verify(idempotencyCache).put(idempotencyKey, key.getRequestDigest(), key.getResponseJson());
+        verify(objectMapper, never()).readValue(any(byte[].class), eq(PaymentResponse.class));
+    }
 
-        // Calculate hash dynamically to ensure it's correct
+    @Test
+    void createPayment_shouldHonourAndUpgradeLegacyHexHash_whenRequestIsSame() throws Exception {
+        // Given
+        String idempotencyKey = "legacy-key";
+
+        // Keys stored before request_digest hold the hex SHA-256 of the request JSON
         String requestJson = objectMapper.writeValueAsString(createPaymentRequest);
         MessageDigest digest = MessageDigest.getInstance("SHA-256");
         byte[] hashBytes = digest.digest(requestJson.getBytes(StandardCharsets.UTF_8));
@@ -88,27 +260,55 @@ class PaymentServiceTest {
             if (hex.length() == 1) hexString.append('0');
             hexString.append(hex);
         }
-        String requestHash = hexString.toString();
-
-        PaymentResponse savedResponse = new PaymentResponse("pl_123", "PENDING");
-        String responseJson = objectMapper.writeValueAsString(savedResponse);
 
         IdempotencyKey key = IdempotencyKey.builder()
-                .idempotencyKey(idempotencyKey) // Corrected field name
-                .requestHash(requestHash)
-                .responseBody(responseJson)
+                .idempotencyKey(idempotencyKey)
+                .requestHash(hexString.toString())
+                .responseBody(objectMapper.writeValueAsString(new PaymentResponse("pl_123", "PENDING")))
+                .status(IdempotencyKeyStatus.COMPLETED)
                 .build();
 
+        runTransactionsInline();
         when(idempotencyKeyRepository.findByIdempotencyKey(idempotencyKey)).thenReturn(Optional.of(key));
 
         // When
-        PaymentResponse response = paymentService.createPayment(idempotencyKey, createPaymentRequest);
+        IdempotentResponse response = paymentService.createPayment(TENANT, idempotencyKey, createPaymentRequest);
 
         // Then
-        assertNotNull(response);
-        assertEquals("pl_123", response.paymentId());
+        assertEquals("{\"paymentId\":\"pl_123\",\"status\":\"PENDING\"}", new String(response.body(), StandardCharsets.UTF_8));
+        assertArrayEquals(RequestHasher.hash(createPaymentRequest), key.getRequestDigest());
         verify(paymentRepository, never()).save(any());
-        verify(idempotencyKeyRepository, never()).save(any());
+    }
+
+    @Test
+    void createPayment_shouldAnswerFromCache_withoutTouchingRepository() throws Exception {
+        // Given
+        String idempotencyKey = "cached-key";
+        byte[] cachedResponse = objectMapper.writeValueAsBytes(new PaymentResponse("pl_cached", "PENDING"));
+        when(idempotencyCache.get(idempotencyKey)).thenAnswer(i -> new IdempotencyCache.Entry(
+                RequestHasher.hash(createPaymentRequest),
+                cachedResponse));
+
+        // When
+        IdempotentResponse response = paymentService.createPayment(TENANT, idempotencyKey, createPaymentRequest);
+
+        // Then
+        assertTrue(response.replayed());
+        assertSame(cachedResponse, response.body());
+        verifyNoInteractions(idempotencyKeyRepository, paymentRepository);
+        verify(objectMapper, never()).readValue(any(byte[].class), eq(PaymentResponse.class));
+    }
+
+    @Test
+    void createPayment_shouldThrowConflictException_whenCachedHashDiffers() {
+        // Given
+        String idempotencyKey = "cached-key";
+        when(idempotencyCache.get(idempotencyKey))
+                .thenReturn(new IdempotencyCache.Entry(new byte[32], new byte[0]));
+
+        // When & Then
+        assertThrows(ConflictException.class, () -> paymentService.createPayment(TENANT, idempotencyKey, createPaymentRequest));
+        verifyNoInteractions(idempotencyKeyRepository, paymentRepository);
     }
 
     @Test
@@ -121,15 +321,89 @@ class PaymentServiceTest {
                 .responseBody("{}")
                 .build();
 
+        runTransactionsInline();
         when(idempotencyKeyRepository.findByIdempotencyKey(idempotencyKey)).thenReturn(Optional.of(key));
 
         // When & Then
         assertThrows(ConflictException.class, () -> {
-            paymentService.createPayment(idempotencyKey, createPaymentRequest);
+            paymentService.createPayment(TENANT, idempotencyKey, createPaymentRequest);
         });
         verify(paymentRepository, never()).save(any());
     }
 
+    @Test
+    void createPayments_shouldCreateReplayAndRejectConflictsInOneBatch() throws Exception {
+        // Given
+        ReflectionTestUtils.setField(paymentService, "batchSize", 2);
+        CreatePaymentRequest otherRequest = new CreatePaymentRequest(
+                new BigDecimal("5.00"), "USD", "other@example.com", "ref-456");
+        IdempotencyKey conflicting = IdempotencyKey.builder()
+                .idempotencyKey("existing-key")
+                .requestHash("different-hash")
+                .responseBody("{}")
+                .build();
+        when(idempotencyKeyRepository.findByIdempotencyKeyIn(anyList())).thenReturn(List.of(conflicting));
+
+        List<BatchPaymentItem> items = List.of(
+                new BatchPaymentItem("key-1", createPaymentRequest),
+                new BatchPaymentItem("key-2", otherRequest),
+                new BatchPaymentItem("key-3", otherRequest),
+                new BatchPaymentItem("key-1", createPaymentRequest),
+                new BatchPaymentItem("existing-key", createPaymentRequest));
+
+        // When
+        BatchPaymentResponse response = paymentService.createPayments(TENANT, items);
+
+        // Then
+        List<BatchPaymentResult> results = response.results();
+        assertEquals(5, results.size());
+        assertEquals(BatchPaymentResult.Outcome.CREATED, results.get(0).outcome());
+        assertEquals(BatchPaymentResult.Outcome.CREATED, results.get(1).outcome());
+        assertEquals(BatchPaymentResult.Outcome.CREATED, results.get(2).outcome());
+        assertEquals(BatchPaymentResult.Outcome.REPLAYED, results.get(3).outcome());
+        assertEquals(results.get(0).payment().paymentId(), results.get(3).payment().paymentId());
+        assertEquals(BatchPaymentResult.Outcome.CONFLICT, results.get(4).outcome());
+        assertNull(results.get(4).payment());
+
+        // Three new payments flushed in chunks of two
+        verify(idempotencyKeyRepository, times(1)).findByIdempotencyKeyIn(anyList());
+        verify(paymentRepository, times(2)).saveAll(anyList());
+        verify(paymentEventOutbox, times(2)).paymentsCreated(anyList());
+        verify(idempotencyKeyRepository, times(2)).saveAll(anyList());
+        verify(entityManager, times(2)).flush();
+    }
+
+    @Test
+    void searchPayments_shouldReturnCursorOfLastRow_whenMoreRowsExist() {
+        // Given
+        PaymentSearchFilter filter = new PaymentSearchFilter(null, "test@example.com", null, null, null);
+        LocalDateTime createdAt = LocalDateTime.of(2025, 1, 1, 12, 0);
+        List<PaymentSummary> rows = List.of(summary(3L, createdAt), summary(2L, createdAt), summary(1L, createdAt));
+        when(paymentRepository.search(filter, null, 3)).thenReturn(rows);
+
+        // When
+        PaymentPage page = paymentService.searchPayments(filter, null, 2);
+
+        // Then
+        assertEquals(2, page.payments().size());
+        assertEquals(new PaymentCursor(createdAt, 2L), PaymentCursor.decode(page.nextCursor()));
+
+        // And the cursor is passed back on the next request
+        when(paymentRepository.search(filter, new PaymentCursor(createdAt, 2L), 3)).thenReturn(List.of(rows.get(2)));
+        PaymentPage last = paymentService.searchPayments(filter, page.nextCursor(), 2);
+        assertEquals(1, last.payments().size());
+        assertNull(last.nextCursor());
+    }
+
+    @Test
+    void searchPayments_shouldRejectLimitOutOfRange() {
+        PaymentSearchFilter filter = new PaymentSearchFilter(null, null, null, null, null);
+
+        assertThrows(BadRequestException.class, () -> paymentService.searchPayments(filter, null, 0));
+        assertThrows(BadRequestException.class, () -> paymentService.searchPayments(filter, null, PaymentService.MAX_SEARCH_LIMIT + 1));
+        verifyNoInteractions(paymentRepository);
+    }
+
     @Test
     void getPayment_shouldReturnPayment_whenFound() {
         // Given
@@ -151,6 +425,27 @@ class PaymentServiceTest {
         assertEquals(PaymentStatus.SUCCEEDED, response.status());
     }
 
+    @Test
+    void getPayment_shouldFallBackToTheArchive_whenNotInTheHotTable() {
+        // Given
+        String paymentId = "pl_archived";
+        ArchivedPayment archived = new ArchivedPayment();
+        archived.setPaymentId(paymentId);
+        archived.setAmount(new BigDecimal("42.00"));
+        archived.setCurrency("EUR");
+        archived.setStatus(PaymentStatus.FAILED);
+        when(paymentRepository.findByPaymentId(paymentId)).thenReturn(Optional.empty());
+        when(archivedPaymentRepository.findByPaymentId(paymentId)).thenReturn(Optional.of(archived));
+
+        // When
+        FullPaymentResponse response = paymentService.getPayment(paymentId);
+
+        // Then
+        assertEquals(paymentId, response.paymentId());
+        assertEquals(new BigDecimal("42.00"), response.amount());
+        assertEquals(PaymentStatus.FAILED, response.status());
+    }
+
     @Test
     void getPayment_shouldThrowNotFoundException_whenNotFound() {
         // Given
@@ -162,4 +457,33 @@ class PaymentServiceTest {
             paymentService.getPayment(paymentId);
         });
     }
+
+    @Test
+    void getPayment_shouldServeRepeatedReadsFromCache_untilInvalidated() {
+        // Given
+        String paymentId = "pl_123";
+        Payment payment = Payment.builder()
+                .paymentId(paymentId)
+                .amount(new BigDecimal("100.00"))
+                .currency("USD")
+                .status(PaymentStatus.PENDING)
+                .build();
+        when(paymentRepository.findByPaymentId(paymentId)).thenReturn(Optional.of(payment));
+
+        // When
+        paymentService.getPayment(paymentId);
+        paymentService.getPayment(paymentId);
+        payment.setStatus(PaymentStatus.SUCCEEDED);
+        paymentCache.invalidate(paymentId);
+        FullPaymentResponse afterUpdate = paymentService.getPayment(paymentId);
+
+        // Then
+        assertEquals(PaymentStatus.SUCCEEDED, afterUpdate.status());
+        verify(paymentRepository, times(2)).findByPaymentId(paymentId);
+        assertEquals(1, paymentCache.stats().hitCount());
+    }
+
+    private static PaymentSummary summary(long id, LocalDateTime createdAt) {
+        return new PaymentSummary(id, "pl_" + id, new BigDecimal("10.00"), "USD", "test@example.com", "ref", PaymentStatus.PENDING, createdAt);
+    }
 }
@@ -1,23 +1,46 @@
 package com.richard.paylite.service;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.richard.paylite.cache.PaymentCache;
+import com.richard.paylite.cache.WebhookDedupFilter;
 import com.richard.paylite.dto.WebhookRequest;
 import com.richard.paylite.exception.ResourceNotFoundException;
 import com.richard.paylite.exception.UnauthorizedException;
-import com.richard.paylite.model.Payment;
+import com.richard.paylite.metrics.PaymentMetrics;
 import com.richard.paylite.model.PaymentStatus;
+import com.richard.paylite.model.WebhookEvent;
+import com.richard.paylite.outbox.PaymentEventOutbox;
+import com.richard.paylite.repository.ArchivedPaymentRepository;
 import com.richard.paylite.repository.PaymentRepository;
+import com.richard.paylite.repository.PaymentStatusView;
+import com.richard.paylite.repository.WebhookEventKey;
 import com.richard.paylite.repository.WebhookEventRepository;
+import com.richard.paylite.util.SegmentedPayloadStore;
 import com.richard.paylite.util.SignatureUtil;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InOrder;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.dao.ConcurrencyFailureException;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
 
-import java.util.Optional;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.argThat;
 import static org.mockito.Mockito.*;
 
 @ExtendWith(MockitoExtension.class)
@@ -32,16 +55,40 @@ class WebhookServiceTest {
     @Mock
     private WebhookEventRepository webhookEventRepository;
 
+    @Mock
+    private ArchivedPaymentRepository archivedPaymentRepository;
+
     @Mock
     private ObjectMapper objectMapper;
 
+    @Mock
+    private WebhookDedupFilter dedupFilter;
+
+    @Mock
+    private PaymentCache paymentCache;
+
+    @Spy
+    private PaymentMetrics paymentMetrics = new PaymentMetrics(new SimpleMeterRegistry());
+
+    @Mock
+    private PaymentEventOutbox paymentEventOutbox;
+
+    @Mock
+    private TransactionTemplate transactionTemplate;
+
     @InjectMocks
     private WebhookService webhookService;
 
+    @BeforeEach
+    void setUp() {
+        lenient().when(dedupFilter.check(anyString(), anyString())).thenReturn(WebhookDedupFilter.Verdict.UNKNOWN);
+        lenient().when(transactionTemplate.execute(any())).thenAnswer(i -> i.<TransactionCallback<?>>getArgument(0).doInTransaction(null));
+    }
+
     @Test
     void processWebhook_shouldThrowUnauthorizedException_whenSignatureIsInvalid() {
         // Given
-        String payload = "payload";
+        byte[] payload = "payload".getBytes(StandardCharsets.UTF_8);
         String signature = "invalid-signature";
         when(signatureUtil.isValidSignature(signature, payload)).thenReturn(false);
 
@@ -49,12 +96,14 @@ class WebhookServiceTest {
         assertThrows(UnauthorizedException.class, () -> {
             webhookService.processWebhook(signature, payload);
         });
+        verify(paymentMetrics).recordWebhook(eq(PaymentMetrics.WebhookOutcome.BAD_SIGNATURE), anyLong());
+        verifyNoInteractions(transactionTemplate);
     }
 
     @Test
     void processWebhook_shouldDoNothing_whenEventIsAlreadyProcessed() throws Exception {
         // Given
-        String payload = "{\"paymentId\":\"pl_123\",\"event\":\"payment.succeeded\"}";
+        byte[] payload = "{\"paymentId\":\"pl_123\",\"event\":\"payment.succeeded\"}".getBytes(StandardCharsets.UTF_8);
         String signature = "valid-signature";
         WebhookRequest webhookRequest = new WebhookRequest("pl_123", "payment.succeeded");
 
@@ -70,43 +119,235 @@ class WebhookServiceTest {
         verify(webhookEventRepository, never()).save(any());
     }
 
+    @Test
+    void processWebhook_shouldSkipDatabase_whenFilterReportsDuplicate() throws Exception {
+        // Given
+        byte[] payload = "{\"paymentId\":\"pl_123\",\"event\":\"payment.succeeded\"}".getBytes(StandardCharsets.UTF_8);
+        String signature = "valid-signature";
+        WebhookRequest webhookRequest = new WebhookRequest("pl_123", "payment.succeeded");
+
+        when(signatureUtil.isValidSignature(signature, payload)).thenReturn(true);
+        when(objectMapper.readValue(payload, WebhookRequest.class)).thenReturn(webhookRequest);
+        when(dedupFilter.check("pl_123", "payment.succeeded")).thenReturn(WebhookDedupFilter.Verdict.DUPLICATE);
+
+        // When
+        webhookService.processWebhook(signature, payload);
+
+        // Then
+        verifyNoInteractions(webhookEventRepository, paymentRepository, transactionTemplate);
+        verify(paymentMetrics).recordWebhook(eq(PaymentMetrics.WebhookOutcome.DUPLICATE), anyLong());
+    }
+
+    @Test
+    void processWebhook_shouldSkipExistenceQuery_whenFilterReportsNewEvent() throws Exception {
+        // Given
+        byte[] payload = "{\"paymentId\":\"pl_123\",\"event\":\"payment.failed\"}".getBytes(StandardCharsets.UTF_8);
+        String signature = "valid-signature";
+        WebhookRequest webhookRequest = new WebhookRequest("pl_123", "payment.failed");
+
+        when(signatureUtil.isValidSignature(signature, payload)).thenReturn(true);
+        when(objectMapper.readValue(payload, WebhookRequest.class)).thenReturn(webhookRequest);
+        when(dedupFilter.check("pl_123", "payment.failed")).thenReturn(WebhookDedupFilter.Verdict.NEW);
+        when(paymentRepository.transition(eq("pl_123"), eq(PaymentStatus.PENDING), eq(PaymentStatus.FAILED), any())).thenReturn(1);
+
+        // When
+        webhookService.processWebhook(signature, payload);
+
+        // Then
+        verify(webhookEventRepository, never()).existsByPaymentIdAndEventType(anyString(), anyString());
+        verify(webhookEventRepository, times(1)).save(any());
+        verify(dedupFilter, times(1)).recordAfterCommit("pl_123", "payment.failed");
+    }
+
     @Test
     void processWebhook_shouldUpdatePaymentToSucceeded() throws Exception {
         // Given
-        String payload = "{\"paymentId\":\"pl_123\",\"event\":\"payment.succeeded\"}";
+        byte[] payload = "{\"paymentId\":\"pl_123\",\"event\":\"payment.succeeded\"}".getBytes(StandardCharsets.UTF_8);
         String signature = "valid-signature";
         WebhookRequest webhookRequest = new WebhookRequest("pl_123", "payment.succeeded");
-        Payment payment = Payment.builder().paymentId("pl_123").status(PaymentStatus.PENDING).build();
 
         when(signatureUtil.isValidSignature(signature, payload)).thenReturn(true);
         when(objectMapper.readValue(payload, WebhookRequest.class)).thenReturn(webhookRequest);
         when(webhookEventRepository.existsByPaymentIdAndEventType("pl_123", "payment.succeeded")).thenReturn(false);
-        when(paymentRepository.findByPaymentId("pl_123")).thenReturn(Optional.of(payment));
+        when(paymentRepository.transition(eq("pl_123"), eq(PaymentStatus.PENDING), eq(PaymentStatus.SUCCEEDED), any())).thenReturn(1);
+
+        // When
+        webhookService.processWebhook(signature, payload);
+
+        // Then
+        verify(paymentRepository, never()).findByPaymentId(anyString());
+        verify(paymentRepository, never()).save(any());
+        verify(webhookEventRepository, times(1)).save(any());
+        verify(paymentCache, times(1)).invalidateAfterCommit("pl_123");
+        verify(paymentEventOutbox, times(1)).statusChanged("pl_123", PaymentStatus.PENDING, PaymentStatus.SUCCEEDED);
+        verify(paymentMetrics).recordTransition(PaymentStatus.PENDING, PaymentStatus.SUCCEEDED, 1);
+        verify(paymentMetrics).recordWebhook(eq(PaymentMetrics.WebhookOutcome.APPLIED), anyLong());
+    }
+
+    @Test
+    void processWebhook_shouldOnlyRecordEvent_whenPaymentAlreadyLeftPending() throws Exception {
+        // Given
+        byte[] payload = "{\"paymentId\":\"pl_123\",\"event\":\"payment.failed\"}".getBytes(StandardCharsets.UTF_8);
+        String signature = "valid-signature";
+        WebhookRequest webhookRequest = new WebhookRequest("pl_123", "payment.failed");
+
+        when(signatureUtil.isValidSignature(signature, payload)).thenReturn(true);
+        when(objectMapper.readValue(payload, WebhookRequest.class)).thenReturn(webhookRequest);
+        // A concurrent payment.succeeded won the conditional update
+        when(paymentRepository.transition(eq("pl_123"), eq(PaymentStatus.PENDING), eq(PaymentStatus.FAILED), any())).thenReturn(0);
+        when(paymentRepository.existsByPaymentId("pl_123")).thenReturn(true);
 
         // When
         webhookService.processWebhook(signature, payload);
 
         // Then
-        assertEquals(PaymentStatus.SUCCEEDED, payment.getStatus());
-        verify(paymentRepository, times(1)).save(payment);
         verify(webhookEventRepository, times(1)).save(any());
+        verify(paymentCache, never()).invalidateAfterCommit(anyString());
+        verifyNoInteractions(paymentEventOutbox);
+        verify(paymentMetrics, never()).recordTransition(any(), any(), anyInt());
+        verify(paymentMetrics).recordWebhook(eq(PaymentMetrics.WebhookOutcome.APPLIED), anyLong());
+    }
+
+    @Test
+    void processWebhook_shouldTreatConcurrentDuplicateAsProcessed_whenCommitViolatesUniqueConstraint() throws Exception {
+        // Given
+        byte[] payload = "{\"paymentId\":\"pl_123\",\"event\":\"payment.succeeded\"}".getBytes(StandardCharsets.UTF_8);
+        String signature = "valid-signature";
+        WebhookRequest webhookRequest = new WebhookRequest("pl_123", "payment.succeeded");
+
+        when(signatureUtil.isValidSignature(signature, payload)).thenReturn(true);
+        when(objectMapper.readValue(payload, WebhookRequest.class)).thenReturn(webhookRequest);
+        doThrow(new DataIntegrityViolationException("uk_webhook_events")).when(transactionTemplate).execute(any());
+
+        // When
+        webhookService.processWebhook(signature, payload);
+
+        // Then
+        verify(paymentMetrics).recordWebhook(eq(PaymentMetrics.WebhookOutcome.DUPLICATE), anyLong());
     }
 
     @Test
     void processWebhook_shouldThrowNotFoundException_whenPaymentIsNotFound() throws Exception {
         // Given
-        String payload = "{\"paymentId\":\"pl_123\",\"event\":\"payment.succeeded\"}";
+        byte[] payload = "{\"paymentId\":\"pl_123\",\"event\":\"payment.succeeded\"}".getBytes(StandardCharsets.UTF_8);
         String signature = "valid-signature";
         WebhookRequest webhookRequest = new WebhookRequest("pl_123", "payment.succeeded");
 
         when(signatureUtil.isValidSignature(signature, payload)).thenReturn(true);
         when(objectMapper.readValue(payload, WebhookRequest.class)).thenReturn(webhookRequest);
         when(webhookEventRepository.existsByPaymentIdAndEventType("pl_123", "payment.succeeded")).thenReturn(false);
-        when(paymentRepository.findByPaymentId("pl_123")).thenReturn(Optional.empty());
+        when(paymentRepository.transition(eq("pl_123"), any(), any(), any())).thenReturn(0);
+        when(paymentRepository.existsByPaymentId("pl_123")).thenReturn(false);
 
         // When & Then
         assertThrows(ResourceNotFoundException.class, () -> {
             webhookService.processWebhook(signature, payload);
         });
     }
+
+    @Test
+    void processWebhook_shouldAcknowledgeWithoutRecording_whenPaymentIsArchived() throws Exception {
+        // Given
+        byte[] payload = "{\"paymentId\":\"pl_123\",\"event\":\"payment.succeeded\"}".getBytes(StandardCharsets.UTF_8);
+        String signature = "valid-signature";
+        WebhookRequest webhookRequest = new WebhookRequest("pl_123", "payment.succeeded");
+
+        when(signatureUtil.isValidSignature(signature, payload)).thenReturn(true);
+        when(objectMapper.readValue(payload, WebhookRequest.class)).thenReturn(webhookRequest);
+        when(webhookEventRepository.existsByPaymentIdAndEventType("pl_123", "payment.succeeded")).thenReturn(false);
+        when(paymentRepository.transition(eq("pl_123"), any(), any(), any())).thenReturn(0);
+        when(paymentRepository.existsByPaymentId("pl_123")).thenReturn(false);
+        when(archivedPaymentRepository.existsByPaymentId("pl_123")).thenReturn(true);
+
+        // When
+        webhookService.processWebhook(signature, payload);
+
+        // Then
+        verify(webhookEventRepository, never()).save(any());
+    }
+
+    @Test
+    void processBatch_shouldApplyNewEventsAndSkipDuplicates() {
+        // Given
+        PaymentStatusView pending = statusView("pl_1", PaymentStatus.PENDING);
+        PaymentStatusView alreadyDone = statusView("pl_2", PaymentStatus.SUCCEEDED);
+        WebhookEventKey processed = mock(WebhookEventKey.class);
+        when(processed.getPaymentId()).thenReturn("pl_2");
+        when(processed.getEventType()).thenReturn("payment.succeeded");
+        when(webhookEventRepository.findByPaymentIdIn(anyCollection())).thenReturn(List.of(processed));
+        when(paymentRepository.findStatusesByPaymentIdIn(anyCollection())).thenReturn(List.of(pending, alreadyDone));
+        when(paymentRepository.transitionAll(eq(List.of("pl_1")), eq(PaymentStatus.PENDING), eq(PaymentStatus.SUCCEEDED), any())).thenReturn(1);
+
+        List<WebhookService.VerifiedWebhook> webhooks = List.of(
+                verified("pl_1", "payment.succeeded"),
+                verified("pl_1", "payment.succeeded"),
+                verified("pl_1", "payment.failed"),
+                verified("pl_2", "payment.succeeded"),
+                verified("pl_missing", "payment.succeeded"));
+
+        // When
+        WebhookService.BatchOutcome outcome = webhookService.processBatch(webhooks);
+
+        // Then
+        assertEquals(new WebhookService.BatchOutcome(2, 2, 0, List.of(webhooks.get(4))), outcome);
+        // payment.failed came after payment.succeeded for pl_1, so only one transition is written
+        verify(paymentRepository, times(1)).transitionAll(anyCollection(), any(), any(), any());
+        verify(paymentCache, times(1)).invalidateAfterCommit("pl_1");
+        verify(paymentEventOutbox, times(1)).statusesChanged(List.of("pl_1"), PaymentStatus.PENDING, PaymentStatus.SUCCEEDED);
+        verify(paymentMetrics).recordTransition(PaymentStatus.PENDING, PaymentStatus.SUCCEEDED, 1);
+        verify(webhookEventRepository, times(1)).saveAll(argThat((List<WebhookEvent> events) -> events.size() == 2));
+        verify(signatureUtil, never()).isValidSignature(anyString(), any(byte[].class));
+    }
+
+    @Test
+    void processBatch_shouldStoreTheRawBytes_andSyncThemBeforeTakingRowLocks() throws Exception {
+        // Given
+        SegmentedPayloadStore payloadStore = mock(SegmentedPayloadStore.class);
+        ReflectionTestUtils.setField(webhookService, "payloadStore", payloadStore);
+        when(payloadStore.append(any())).thenReturn(new SegmentedPayloadStore.Ref(1, 0));
+        PaymentStatusView pending = statusView("pl_1", PaymentStatus.PENDING);
+        when(paymentRepository.findStatusesByPaymentIdIn(anyCollection())).thenReturn(List.of(pending));
+        when(paymentRepository.transitionAll(anyCollection(), any(), any(), any())).thenReturn(1);
+        // Not valid UTF-8, so a round trip through String would change it
+        byte[] rawPayload = {'{', '}', (byte) 0xC3};
+        WebhookService.VerifiedWebhook webhook = new WebhookService.VerifiedWebhook(new WebhookRequest("pl_1", "payment.succeeded"), rawPayload);
+
+        // When
+        webhookService.processBatch(List.of(webhook));
+
+        // Then
+        InOrder inOrder = inOrder(payloadStore, paymentRepository);
+        inOrder.verify(payloadStore).append(rawPayload);
+        inOrder.verify(payloadStore).sync();
+        inOrder.verify(paymentRepository).transitionAll(anyCollection(), any(), any(), any());
+    }
+
+    @Test
+    void processBatch_shouldFail_whenSomePaymentsChangedConcurrently() {
+        // Given
+        PaymentStatusView first = statusView("pl_1", PaymentStatus.PENDING);
+        PaymentStatusView second = statusView("pl_2", PaymentStatus.PENDING);
+        when(webhookEventRepository.findByPaymentIdIn(anyCollection())).thenReturn(List.of());
+        when(paymentRepository.findStatusesByPaymentIdIn(anyCollection())).thenReturn(List.of(first, second));
+        // Another node moved one of them between the status read and the update
+        when(paymentRepository.transitionAll(anyCollection(), any(), any(), any())).thenReturn(1);
+
+        // When & Then
+        assertThrows(ConcurrencyFailureException.class, () -> webhookService.processBatch(List.of(
+                verified("pl_1", "payment.succeeded"),
+                verified("pl_2", "payment.succeeded"))));
+        verifyNoInteractions(paymentEventOutbox);
+    }
+
+    private static PaymentStatusView statusView(String paymentId, PaymentStatus status) {
+        PaymentStatusView view = mock(PaymentStatusView.class);
+        when(view.getPaymentId()).thenReturn(paymentId);
+        when(view.getStatus()).thenReturn(status);
+        return view;
+    }
+
+    private static WebhookService.VerifiedWebhook verified(String paymentId, String event) {
+        return new WebhookService.VerifiedWebhook(new WebhookRequest(paymentId, event),
+                ("{\"paymentId\":\"" + paymentId + "\",\"event\":\"" + event + "\"}").getBytes(StandardCharsets.UTF_8));
+    }
 }
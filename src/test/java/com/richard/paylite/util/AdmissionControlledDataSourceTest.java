@@ -0,0 +1,125 @@
+package com.richard.paylite.util;
+
+import org.junit.jupiter.api.Test;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class AdmissionControlledDataSourceTest {
+
+    @Test
+    void getConnection_shouldRefuseCallersBeyondTheLimit_untilAConnectionIsClosed() throws Exception {
+        DataSource pool = mock(DataSource.class);
+        Connection physical = mock(Connection.class);
+        when(pool.getConnection()).thenReturn(physical);
+        AdmissionControlledDataSource gate = new AdmissionControlledDataSource(pool, 1, 1, 1, Duration.ofMillis(50));
+
+        Connection first = gate.getConnection();
+        assertEquals(1, gate.activeConnections());
+        assertInstanceOf(SQLTransientConnectionException.class, connectFromAnotherThread(gate));
+
+        // Closing twice must not hand out an extra permit
+        first.close();
+        first.close();
+        verify(physical, times(2)).close();
+        assertEquals(0, gate.activeConnections());
+
+        Connection second = gate.getConnection();
+        assertInstanceOf(SQLTransientConnectionException.class, connectFromAnotherThread(gate));
+        second.close();
+    }
+
+    @Test
+    void getConnection_shouldNotQueueANestedConnection_fromAThreadThatHoldsOne() throws Exception {
+        DataSource pool = mock(DataSource.class);
+        when(pool.getConnection()).thenAnswer(invocation -> mock(Connection.class));
+        AdmissionControlledDataSource gate = new AdmissionControlledDataSource(pool, 1, 1, 1, Duration.ofMillis(50));
+
+        Connection outer = gate.getConnection();
+        // Like a table id generator fetching a block of ids in its own transaction
+        Connection nested = gate.getConnection();
+        assertEquals(1, gate.activeConnections());
+        nested.close();
+        nested.close();
+
+        // Other threads still queue for the one permit
+        assertInstanceOf(SQLTransientConnectionException.class, connectFromAnotherThread(gate));
+
+        outer.close();
+        assertEquals(0, gate.activeConnections());
+    }
+
+    @Test
+    void getConnection_shouldRefuseNestedConnections_beyondThePerThreadCap() throws Exception {
+        DataSource pool = mock(DataSource.class);
+        when(pool.getConnection()).thenAnswer(invocation -> mock(Connection.class));
+        AdmissionControlledDataSource gate = new AdmissionControlledDataSource(pool, 1, 4, 1, Duration.ofMillis(50));
+
+        Connection outer = gate.getConnection();
+        Connection nested = gate.getConnection();
+        // Like a REQUIRES_NEW transaction that itself needs an id block
+        assertThrows(SQLTransientConnectionException.class, gate::getConnection);
+        assertEquals(1, gate.nestedConnections());
+
+        nested.close();
+        gate.getConnection().close();
+        outer.close();
+        assertEquals(0, gate.nestedConnections());
+    }
+
+    @Test
+    void getConnection_shouldBoundNestedConnections_acrossThreads() throws Exception {
+        DataSource pool = mock(DataSource.class);
+        when(pool.getConnection()).thenAnswer(invocation -> mock(Connection.class));
+        AdmissionControlledDataSource gate = new AdmissionControlledDataSource(pool, 2, 1, 1, Duration.ofMillis(50));
+
+        Connection outer = gate.getConnection();
+        Connection nested = gate.getConnection();
+        // Another thread with a connection of its own finds the one spare connection taken
+        CompletableFuture<Throwable> other = CompletableFuture.supplyAsync(() -> {
+            try (Connection otherOuter = gate.getConnection()) {
+                return assertThrows(SQLTransientConnectionException.class, gate::getConnection);
+            } catch (SQLException e) {
+                throw new CompletionException(e);
+            }
+        });
+        assertInstanceOf(SQLTransientConnectionException.class, other.get());
+
+        nested.close();
+        outer.close();
+        assertEquals(0, gate.activeConnections());
+        assertEquals(0, gate.nestedConnections());
+    }
+
+    @Test
+    void getConnection_shouldReturnThePermit_whenThePoolFails() throws Exception {
+        DataSource pool = mock(DataSource.class);
+        when(pool.getConnection()).thenThrow(new SQLException("pool exhausted"));
+        AdmissionControlledDataSource gate = new AdmissionControlledDataSource(pool, 1, 1, 1, Duration.ofMillis(50));
+
+        assertThrows(SQLException.class, gate::getConnection);
+
+        assertEquals(0, gate.activeConnections());
+    }
+
+    // The calling thread would be let through while it holds a connection, so refusals are checked from another one
+    private static Throwable connectFromAnotherThread(AdmissionControlledDataSource gate) {
+        CompletableFuture<Connection> attempt = CompletableFuture.supplyAsync(() -> {
+            try {
+                return gate.getConnection();
+            } catch (SQLException e) {
+                throw new CompletionException(e);
+            }
+        });
+        return assertThrows(ExecutionException.class, attempt::get).getCause();
+    }
+}
@@ -0,0 +1,42 @@
+package com.richard.paylite.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BoundedPoolTest {
+
+    @Test
+    void acquire_shouldReuseReleasedInstances() {
+        AtomicInteger created = new AtomicInteger();
+        BoundedPool<Object> pool = new BoundedPool<>(() -> {
+            created.incrementAndGet();
+            return new Object();
+        }, 2);
+
+        Object first = pool.acquire();
+        pool.release(first);
+
+        assertSame(first, pool.acquire());
+        assertEquals(1, created.get());
+    }
+
+    @Test
+    void release_shouldDropInstancesBeyondMaxIdle() {
+        BoundedPool<Object> pool = new BoundedPool<>(Object::new, 2);
+        Object a = pool.acquire();
+        Object b = pool.acquire();
+        Object c = pool.acquire();
+
+        pool.release(a);
+        pool.release(b);
+        pool.release(c);
+
+        assertEquals(2, pool.idle());
+        assertSame(a, pool.acquire());
+        assertSame(b, pool.acquire());
+        assertNotSame(c, pool.acquire());
+    }
+}
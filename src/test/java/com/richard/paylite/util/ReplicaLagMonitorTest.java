@@ -0,0 +1,61 @@
+package com.richard.paylite.util;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import javax.sql.DataSource;
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ReplicaLagMonitorTest {
+
+    @Test
+    void beat_shouldReportNoLag_whenTheReplicaSeesTheLatestHeartbeat() {
+        DataSource primary = database("lag-in-sync");
+        // A replica that is the primary is never behind
+        ReplicaLagMonitor monitor = new ReplicaLagMonitor(primary, primary, Duration.ofSeconds(1), Duration.ZERO);
+
+        assertFalse(monitor.isReplicaUsable());
+        monitor.beat();
+        monitor.beat();
+
+        assertTrue(monitor.isReplicaUsable());
+        assertEquals(0.0, monitor.lagSeconds());
+        monitor.close();
+        assertEquals(0, new JdbcTemplate(primary).queryForObject("SELECT COUNT(*) FROM replica_heartbeats", Integer.class));
+    }
+
+    @Test
+    void beat_shouldMeasureLagFromTheFirstHeartbeatTheReplicaHasNotSeen() {
+        ReplicaLagMonitor monitor = new ReplicaLagMonitor(database("lag-primary"), database("lag-stale-replica"),
+                Duration.ofSeconds(1), Duration.ofMinutes(1));
+
+        monitor.beat();
+
+        // The replica has the table but never receives the row: behind, yet within max-lag
+        assertTrue(monitor.lagSeconds() > 0);
+        assertTrue(monitor.isReplicaUsable());
+    }
+
+    @Test
+    void beat_shouldMarkTheReplicaUnusable_whenItCannotBeRead() {
+        JdbcDataSource replica = new JdbcDataSource();
+        replica.setURL("jdbc:h2:mem:lag-empty-replica;DB_CLOSE_DELAY=-1");
+        ReplicaLagMonitor monitor = new ReplicaLagMonitor(database("lag-primary-2"), replica, Duration.ofSeconds(1), Duration.ofMinutes(1));
+
+        monitor.beat();
+
+        assertFalse(monitor.isReplicaUsable());
+        assertTrue(Double.isNaN(monitor.lagSeconds()));
+    }
+
+    static DataSource database(String name) {
+        JdbcDataSource dataSource = new JdbcDataSource();
+        dataSource.setURL("jdbc:h2:mem:" + name + ";DB_CLOSE_DELAY=-1;MODE=MySQL");
+        new JdbcTemplate(dataSource).execute("CREATE TABLE IF NOT EXISTS replica_heartbeats "
+                + "(node VARCHAR(64) PRIMARY KEY, seq BIGINT NOT NULL, beat_at TIMESTAMP NOT NULL)");
+        return dataSource;
+    }
+}
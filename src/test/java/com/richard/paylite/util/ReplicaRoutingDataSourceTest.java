@@ -0,0 +1,96 @@
+package com.richard.paylite.util;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ReplicaRoutingDataSourceTest {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final AtomicReference<String> client = new AtomicReference<>();
+    private DataSource primary;
+    private DataSource replica;
+
+    @BeforeEach
+    void setUp() {
+        primary = database("routing-primary");
+        replica = database("routing-replica");
+    }
+
+    @Test
+    void readOnlyTransactions_shouldUseTheReplica_andEverythingElseThePrimary() {
+        ReplicaRoutingDataSource routing = routing(inSyncMonitor(), Duration.ofMinutes(1));
+
+        assertEquals("routing-replica", whoAnswers(routing, true));
+        assertEquals("routing-primary", whoAnswers(routing, false));
+        // No transaction at all
+        assertEquals("routing-primary", new JdbcTemplate(routing).queryForObject("SELECT name FROM whoami", String.class));
+        assertEquals(1, registry.counter("paylite.datasource.reads", "pool", "replica", "reason", "replica").count());
+    }
+
+    @Test
+    void readOnlyTransactions_shouldUseThePrimary_whileTheReplicaIsUnusable() {
+        ReplicaLagMonitor neverMeasured = new ReplicaLagMonitor(primary, replica, Duration.ofSeconds(1), Duration.ofSeconds(1));
+        ReplicaRoutingDataSource routing = routing(neverMeasured, Duration.ofMinutes(1));
+
+        assertEquals("routing-primary", whoAnswers(routing, true));
+        assertEquals(1, registry.counter("paylite.datasource.reads", "pool", "primary", "reason", "replica-lag").count());
+    }
+
+    @Test
+    void readOnlyTransactions_shouldUseThePrimary_afterTheSameClientWrote() {
+        ReplicaRoutingDataSource routing = routing(inSyncMonitor(), Duration.ofMinutes(1));
+
+        client.set("merchant-a");
+        whoAnswers(routing, false);
+        assertEquals("routing-primary", whoAnswers(routing, true));
+
+        client.set("merchant-b");
+        assertEquals("routing-replica", whoAnswers(routing, true));
+        assertEquals(1, registry.counter("paylite.datasource.reads", "pool", "primary", "reason", "read-your-writes").count());
+    }
+
+    @Test
+    void readOnlyTransactions_shouldReturnToTheReplica_whenTheWindowHasPassed() {
+        ReplicaRoutingDataSource routing = routing(inSyncMonitor(), Duration.ZERO);
+
+        client.set("merchant-a");
+        whoAnswers(routing, false);
+
+        assertEquals("routing-replica", whoAnswers(routing, true));
+    }
+
+    private String whoAnswers(DataSource routing, boolean readOnly) {
+        TransactionTemplate transaction = new TransactionTemplate(new DataSourceTransactionManager(routing));
+        transaction.setReadOnly(readOnly);
+        return transaction.execute(status -> new JdbcTemplate(routing).queryForObject("SELECT name FROM whoami", String.class));
+    }
+
+    private ReplicaRoutingDataSource routing(ReplicaLagMonitor monitor, Duration readYourWritesWindow) {
+        return new ReplicaRoutingDataSource(primary, replica, monitor, readYourWritesWindow, client::get, registry);
+    }
+
+    private ReplicaLagMonitor inSyncMonitor() {
+        ReplicaLagMonitor monitor = new ReplicaLagMonitor(primary, primary, Duration.ofSeconds(1), Duration.ofSeconds(1));
+        monitor.beat();
+        return monitor;
+    }
+
+    private static DataSource database(String name) {
+        DataSource dataSource = ReplicaLagMonitorTest.database(name);
+        JdbcTemplate jdbc = new JdbcTemplate(dataSource);
+        jdbc.execute("CREATE TABLE IF NOT EXISTS whoami (name VARCHAR(64))");
+        jdbc.update("DELETE FROM whoami");
+        jdbc.update("INSERT INTO whoami (name) VALUES (?)", name);
+        return dataSource;
+    }
+}
@@ -0,0 +1,82 @@
+package com.richard.paylite.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RequestCoalescerTest {
+
+    private final RequestCoalescer<String> coalescer = new RequestCoalescer<>();
+
+    @Test
+    void execute_shouldShareLeaderResultWithConcurrentCallers() throws Exception {
+        CountDownLatch leaderStarted = new CountDownLatch(1);
+        CountDownLatch releaseLeader = new CountDownLatch(1);
+        AtomicInteger executions = new AtomicInteger();
+
+        CompletableFuture<String> leader = CompletableFuture.supplyAsync(() -> execute("key", () -> {
+            executions.incrementAndGet();
+            leaderStarted.countDown();
+            await(releaseLeader);
+            return "result";
+        }));
+        assertTrue(leaderStarted.await(5, TimeUnit.SECONDS));
+
+        CompletableFuture<String> follower = new CompletableFuture<>();
+        Thread followerThread = new Thread(() -> follower.complete(execute("key", () -> {
+            executions.incrementAndGet();
+            return "other";
+        })));
+        followerThread.start();
+
+        // Only release the leader once the follower is parked waiting on it
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (followerThread.getState() != Thread.State.TIMED_WAITING && System.nanoTime() < deadline) {
+            Thread.onSpinWait();
+        }
+        releaseLeader.countDown();
+
+        assertEquals("result", leader.get(5, TimeUnit.SECONDS));
+        assertEquals("result", follower.get(5, TimeUnit.SECONDS));
+        assertEquals(1, executions.get());
+        assertEquals(0, coalescer.inFlightCount());
+    }
+
+    @Test
+    void execute_shouldRunAgainOnceLeaderHasFinished() throws Exception {
+        assertEquals("first", coalescer.execute("key", Duration.ofSeconds(1), () -> "first"));
+        assertEquals("second", coalescer.execute("key", Duration.ofSeconds(1), () -> "second"));
+    }
+
+    @Test
+    void execute_shouldPropagateLeaderFailureAndRelease() {
+        assertThrows(IllegalStateException.class, () -> coalescer.execute("key", Duration.ofSeconds(1), () -> {
+            throw new IllegalStateException("boom");
+        }));
+        assertEquals(0, coalescer.inFlightCount());
+    }
+
+    private String execute(String key, Supplier<String> work) {
+        try {
+            return coalescer.execute(key, Duration.ofSeconds(5), work);
+        } catch (TimeoutException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
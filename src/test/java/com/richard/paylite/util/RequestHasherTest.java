@@ -0,0 +1,55 @@
+package com.richard.paylite.util;
+
+import com.richard.paylite.dto.CreatePaymentRequest;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RequestHasherTest {
+
+    @Test
+    void hash_shouldCompareAmountsByValue() {
+        byte[] hash = RequestHasher.hash(request("1999", "ref-1"));
+
+        assertEquals(RequestHasher.HASH_BYTES, hash.length);
+        assertArrayEquals(hash, RequestHasher.hash(request("1999.00", "ref-1")));
+        assertArrayEquals(hash, RequestHasher.hash(request("1.999E+3", "ref-1")));
+        assertFalse(Arrays.equals(hash, RequestHasher.hash(request("1999.01", "ref-1"))));
+    }
+
+    @Test
+    void hash_shouldDistinguishEveryField() {
+        byte[] hash = RequestHasher.hash(request("10", "ref-1"));
+
+        assertFalse(Arrays.equals(hash, RequestHasher.hash(request("10", "ref-2"))));
+        assertFalse(Arrays.equals(hash, RequestHasher.hash(
+                new CreatePaymentRequest(new BigDecimal("10"), "NGN", "user@example.com", "ref-1"))));
+        assertFalse(Arrays.equals(hash, RequestHasher.hash(
+                new CreatePaymentRequest(new BigDecimal("10"), "USD", "other@example.com", "ref-1"))));
+        // Length prefixes keep field boundaries apart
+        assertFalse(Arrays.equals(
+                RequestHasher.hash(new CreatePaymentRequest(new BigDecimal("10"), "USD", "a", "b")),
+                RequestHasher.hash(new CreatePaymentRequest(new BigDecimal("10"), "USDa", "", "b"))));
+    }
+
+    @Test
+    void hash_shouldDistinguishMissingReferenceFromEmpty() {
+        assertFalse(Arrays.equals(RequestHasher.hash(request("10", null)), RequestHasher.hash(request("10", ""))));
+    }
+
+    @Test
+    void hash_shouldHandleFieldsLongerThanTheBuffer() {
+        String reference = "r".repeat(1000);
+
+        assertArrayEquals(RequestHasher.hash(request("10", reference)), RequestHasher.hash(request("10.0", reference)));
+        assertFalse(Arrays.equals(RequestHasher.hash(request("10", reference)),
+                RequestHasher.hash(request("10", reference + "s"))));
+    }
+
+    private static CreatePaymentRequest request(String amount, String reference) {
+        return new CreatePaymentRequest(new BigDecimal(amount), "USD", "user@example.com", reference);
+    }
+}
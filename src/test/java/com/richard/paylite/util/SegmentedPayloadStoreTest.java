@@ -0,0 +1,117 @@
+package com.richard.paylite.util;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SegmentedPayloadStoreTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void read_shouldReturnPayloads_fromTheActiveAndSealedSegments() throws IOException {
+        SegmentedPayloadStore.Ref first;
+        SegmentedPayloadStore.Ref second;
+        try (SegmentedPayloadStore store = new SegmentedPayloadStore(directory, 1024 * 1024, Duration.ofDays(1), true)) {
+            first = store.append(bytes(webhook("pl_1", "payment.succeeded")));
+            second = store.append(bytes(webhook("pl_2", "payment.failed")));
+            store.sync();
+            assertEquals(webhook("pl_2", "payment.failed"), text(store.read(second).orElseThrow()));
+        }
+
+        try (SegmentedPayloadStore store = new SegmentedPayloadStore(directory, 1024 * 1024, Duration.ofDays(1), true)) {
+            SegmentedPayloadStore.Ref third = store.append(bytes(webhook("pl_3", "payment.succeeded")));
+            assertNotEquals(first.segment(), third.segment());
+            assertEquals(webhook("pl_1", "payment.succeeded"), text(store.read(first).orElseThrow()));
+            assertEquals(webhook("pl_2", "payment.failed"), text(store.read(second).orElseThrow()));
+            assertEquals(webhook("pl_3", "payment.succeeded"), text(store.read(third).orElseThrow()));
+        }
+    }
+
+    @Test
+    void append_shouldCompressSimilarPayloads_againstTheSegmentDictionary() throws IOException {
+        try (SegmentedPayloadStore store = new SegmentedPayloadStore(directory, 1024 * 1024, Duration.ofDays(1), false)) {
+            SegmentedPayloadStore.Ref first = store.append(bytes(webhook("pl_0", "payment.succeeded")));
+            long before = segmentBytes();
+            for (int i = 1; i <= 100; i++) {
+                store.append(bytes(webhook("pl_" + i, "payment.succeeded")));
+            }
+            long perRecord = (segmentBytes() - before) / 100;
+            assertTrue(perRecord < webhook("pl_0", "payment.succeeded").length() / 2, "bytes per record: " + perRecord);
+            assertEquals(webhook("pl_0", "payment.succeeded"), text(store.read(first).orElseThrow()));
+        }
+    }
+
+    @Test
+    void retire_shouldDeleteSealedSegments_andLeaveTheirPayloadsUnreadable() throws IOException {
+        try (SegmentedPayloadStore store = new SegmentedPayloadStore(directory, 64, Duration.ofDays(1), false)) {
+            SegmentedPayloadStore.Ref old = store.append(bytes("a".repeat(80)));
+            SegmentedPayloadStore.Ref recent = store.append(bytes("b".repeat(80)));
+            assertEquals(2, store.segmentCount());
+
+            // Only the sealed segment goes; the one being written stays
+            assertEquals(1, store.retire(Instant.now().plusSeconds(60)));
+            assertTrue(store.read(old).isEmpty());
+            assertEquals("b".repeat(80), text(store.read(recent).orElseThrow()));
+            assertEquals(1, segmentFiles());
+        }
+    }
+
+    @Test
+    void scan_shouldReturnPayloadsInOrder_andStopAtATornRecord() throws IOException {
+        try (SegmentedPayloadStore store = new SegmentedPayloadStore(directory, 100, Duration.ofDays(1), false)) {
+            store.append(bytes("x".repeat(120)));
+            store.append(bytes("first"));
+            store.append(bytes("second"));
+        }
+        Path last;
+        try (Stream<Path> files = Files.list(directory)) {
+            last = files.sorted().reduce((a, b) -> b).orElseThrow();
+        }
+        Files.write(last, new byte[]{0, 0, 0, 42, 1, 2}, StandardOpenOption.APPEND);
+
+        try (SegmentedPayloadStore store = new SegmentedPayloadStore(directory, 100, Duration.ofDays(1), false)) {
+            List<String> replayed = new ArrayList<>();
+            store.scan(Instant.EPOCH, entry -> replayed.add(text(entry.payload())));
+            assertEquals(List.of("x".repeat(120), "first", "second"), replayed);
+        }
+    }
+
+    private long segmentBytes() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.mapToLong(path -> path.toFile().length()).sum();
+        }
+    }
+
+    private long segmentFiles() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.count();
+        }
+    }
+
+    private static String webhook(String paymentId, String event) {
+        return "{\"eventId\":\"evt_" + paymentId + "\",\"paymentId\":\"" + paymentId + "\",\"event\":\"" + event
+                + "\",\"amount\":\"100.00\",\"currency\":\"EUR\",\"createdAt\":\"2025-01-01T00:00:00Z\"}";
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String text(byte[] value) {
+        return new String(value, StandardCharsets.UTF_8);
+    }
+}
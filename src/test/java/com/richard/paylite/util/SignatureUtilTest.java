@@ -4,6 +4,9 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.test.util.ReflectionTestUtils;
 
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
 import static org.junit.jupiter.api.Assertions.*;
 
 class SignatureUtilTest {
@@ -37,4 +40,34 @@ class SignatureUtilTest {
         String invalidSignature = "invalid-signature";
         assertFalse(signatureUtil.isValidSignature(invalidSignature, payload));
     }
+
+    @Test
+    void testIsValidSignature_whenMalformedOrWrongLength() {
+        byte[] payload = "test-payload".getBytes(StandardCharsets.UTF_8);
+        assertFalse(signatureUtil.isValidSignature(null, payload));
+        assertFalse(signatureUtil.isValidSignature("5b12467d", payload));
+        assertFalse(signatureUtil.isValidSignature("zz12467d7c448555779e70d76204105c67d27d1c991f3080c19732f9ac1988ef", payload));
+    }
+
+    @Test
+    void testIsValidSignature_acceptsUppercaseHexOnRawBytes() {
+        byte[] payload = "test-payload".getBytes(StandardCharsets.UTF_8);
+        assertTrue(signatureUtil.isValidSignature("5B12467D7C448555779E70D76204105C67D27D1C991F3080C19732F9AC1988EF", payload));
+    }
+
+    @Test
+    void testIsValidSignature_acceptsPreviousSecretsDuringRotation() {
+        SignatureUtil oldSigner = new SignatureUtil();
+        ReflectionTestUtils.setField(oldSigner, "secret", "old-secret");
+        String oldSignature = oldSigner.calculateHmacSha256("test-payload");
+
+        SignatureUtil rotated = new SignatureUtil();
+        ReflectionTestUtils.setField(rotated, "secret", "test-secret");
+        ReflectionTestUtils.setField(rotated, "previousSecrets", List.of("old-secret"));
+
+        assertTrue(rotated.isValidSignature(oldSignature, "test-payload"));
+        // New signatures are always produced with the current secret
+        assertEquals("5b12467d7c448555779e70d76204105c67d27d1c991f3080c19732f9ac1988ef", rotated.calculateHmacSha256("test-payload"));
+        assertFalse(signatureUtil.isValidSignature(oldSignature, "test-payload"));
+    }
 }
@@ -0,0 +1,75 @@
+package com.richard.paylite.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TimeOrderedPaymentIdGeneratorTest {
+
+    @Test
+    void encode_shouldSortByTimestampThenNodeThenSequence() {
+        TimeOrderedPaymentIdGenerator node1 = new TimeOrderedPaymentIdGenerator(1);
+        TimeOrderedPaymentIdGenerator node2 = new TimeOrderedPaymentIdGenerator(2);
+
+        List<String> ids = List.of(
+                node2.encode(1_000, Long.MAX_VALUE),
+                node1.encode(1_001, 0),
+                node1.encode(1_001, -1),
+                node2.encode(1_001, 0),
+                node1.encode((1L << 48) - 1, 0));
+
+        assertEquals(ids.stream().sorted().toList(), ids);
+        ids.forEach(id -> assertTrue(id.matches("pl_[0-7][0-9a-hjkmnp-tv-z]{25}"), id));
+    }
+
+    @Test
+    void nextId_shouldBeUniqueAcrossThreadsAndNodes() throws Exception {
+        Set<String> ids = ConcurrentHashMap.newKeySet();
+        List<TimeOrderedPaymentIdGenerator> nodes = List.of(new TimeOrderedPaymentIdGenerator(1), new TimeOrderedPaymentIdGenerator(2));
+        try (ExecutorService executor = Executors.newFixedThreadPool(4)) {
+            for (int thread = 0; thread < 4; thread++) {
+                TimeOrderedPaymentIdGenerator generator = nodes.get(thread % 2);
+                executor.submit(() -> {
+                    for (int i = 0; i < 50_000; i++) {
+                        ids.add(generator.nextId());
+                    }
+                });
+            }
+        }
+
+        assertEquals(200_000, ids.size());
+    }
+
+    @Test
+    void nextId_shouldIncreaseWithinANode() {
+        TimeOrderedPaymentIdGenerator generator = new TimeOrderedPaymentIdGenerator(7);
+        List<String> ids = new ArrayList<>();
+        for (int i = 0; i < 1_000; i++) {
+            ids.add(generator.nextId());
+        }
+
+        // Only a counter wrap (once per 2^64 ids) could break this within one millisecond
+        long outOfOrder = 0;
+        for (int i = 1; i < ids.size(); i++) {
+            if (ids.get(i).compareTo(ids.get(i - 1)) <= 0) {
+                outOfOrder++;
+            }
+        }
+        assertTrue(outOfOrder <= 1);
+        assertEquals(ids.size(), new HashSet<>(ids).size());
+    }
+
+    @Test
+    void constructor_shouldRejectNodeIdOutOfRange() {
+        assertThrows(IllegalArgumentException.class, () -> new TimeOrderedPaymentIdGenerator(-1));
+        assertThrows(IllegalArgumentException.class, () -> new TimeOrderedPaymentIdGenerator(TimeOrderedPaymentIdGenerator.MAX_NODE_ID + 1));
+    }
+}
@@ -0,0 +1,55 @@
+package com.richard.paylite.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TokenBucketTest {
+
+    private static final long MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+
+    @Test
+    void tryAcquire_shouldAllowBurstThenRefillAtRate() {
+        TokenBucket bucket = new TokenBucket(10, 3);
+        long now = System.nanoTime();
+
+        assertEquals(2, bucket.tryAcquire(now).remaining());
+        assertEquals(1, bucket.tryAcquire(now).remaining());
+        assertEquals(0, bucket.tryAcquire(now).remaining());
+
+        TokenBucket.Decision refused = bucket.tryAcquire(now);
+        assertFalse(refused.allowed());
+        assertEquals(100 * MILLI, refused.retryAfterNanos());
+        assertEquals(300 * MILLI, refused.resetNanos());
+
+        // One token is back after 100 ms
+        assertTrue(bucket.tryAcquire(now + 100 * MILLI).allowed());
+        assertFalse(bucket.tryAcquire(now + 100 * MILLI).allowed());
+        // Idle time does not build up more than the burst
+        assertEquals(2, bucket.tryAcquire(now + 10_000 * MILLI).remaining());
+    }
+
+    @Test
+    void tryAcquire_shouldNeverHandOutMoreThanTheBurstConcurrently() throws Exception {
+        TokenBucket bucket = new TokenBucket(0.001, 1000);
+        AtomicInteger allowed = new AtomicInteger();
+        try (ExecutorService executor = Executors.newFixedThreadPool(8)) {
+            for (int thread = 0; thread < 8; thread++) {
+                executor.submit(() -> {
+                    for (int i = 0; i < 1000; i++) {
+                        if (bucket.tryAcquire().allowed()) {
+                            allowed.incrementAndGet();
+                        }
+                    }
+                });
+            }
+        }
+
+        assertEquals(1000, allowed.get());
+    }
+}
@@ -0,0 +1,150 @@
+package com.richard.paylite.util;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WebhookJournalTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void recover_shouldReturnEntriesPastTheAckWatermarkInOrder() throws IOException {
+        try (WebhookJournal journal = new WebhookJournal(directory, 1024, true)) {
+            recover(journal);
+            WebhookJournal.Entry first = journal.append(bytes("first"), 1L);
+            WebhookJournal.Entry second = journal.append(bytes("second"), 2L);
+            journal.append(bytes("third"), 3L);
+            journal.append(bytes("fourth"), 4L);
+            journal.acknowledge(first);
+            journal.acknowledge(second);
+            journal.checkpoint();
+        }
+
+        try (WebhookJournal journal = new WebhookJournal(directory, 1024, true)) {
+            List<WebhookJournal.Entry> recovered = recover(journal);
+            assertEquals(List.of("third", "fourth"), recovered.stream().map(e -> text(e.payload())).toList());
+            assertEquals(4L, recovered.get(1).enqueuedAtMillis());
+        }
+    }
+
+    @Test
+    void recover_shouldReplayAcknowledgedEntries_aboveAnOlderPendingOne() throws IOException {
+        try (WebhookJournal journal = new WebhookJournal(directory, 1024, false)) {
+            recover(journal);
+            journal.append(bytes("first"), 1L);
+            WebhookJournal.Entry second = journal.append(bytes("second"), 2L);
+            journal.acknowledge(second);
+        }
+
+        // The watermark stops at the oldest pending entry; consumers deduplicate, so delivery is at-least-once
+        try (WebhookJournal journal = new WebhookJournal(directory, 1024, false)) {
+            assertEquals(List.of("first", "second"), recover(journal).stream().map(e -> text(e.payload())).toList());
+        }
+    }
+
+    @Test
+    void replay_shouldLetNewEntriesBeAppendedWhileOldOnesAreReplayed() throws IOException {
+        try (WebhookJournal journal = new WebhookJournal(directory, 1024, false)) {
+            recover(journal);
+            journal.append(bytes("old"), 1L);
+        }
+
+        try (WebhookJournal journal = new WebhookJournal(directory, 1024, false)) {
+            journal.open();
+            WebhookJournal.Entry fresh = journal.append(bytes("new"), 2L);
+            List<WebhookJournal.Entry> replayed = new ArrayList<>();
+            assertEquals(1, journal.replay(replayed::add));
+            assertEquals(List.of("old"), replayed.stream().map(e -> text(e.payload())).toList());
+            journal.acknowledge(replayed.get(0));
+            journal.acknowledge(fresh);
+            journal.checkpoint();
+        }
+
+        try (WebhookJournal journal = new WebhookJournal(directory, 1024, false)) {
+            assertTrue(recover(journal).isEmpty());
+        }
+    }
+
+    @Test
+    void recover_shouldDeleteSegmentsThatWereFullyAcknowledged() throws IOException {
+        try (WebhookJournal journal = new WebhookJournal(directory, 1024, false)) {
+            recover(journal);
+            journal.acknowledge(journal.append(bytes("done"), 1L));
+        }
+
+        try (WebhookJournal journal = new WebhookJournal(directory, 1024, false)) {
+            assertTrue(recover(journal).isEmpty());
+            assertEquals(0, segmentCount());
+        }
+    }
+
+    @Test
+    void acknowledge_shouldDeleteSealedSegmentsOnceFullyProcessed() throws IOException {
+        try (WebhookJournal journal = new WebhookJournal(directory, 64, false)) {
+            recover(journal);
+            WebhookJournal.Entry first = journal.append(bytes("a".repeat(80)), 1L);
+            WebhookJournal.Entry second = journal.append(bytes("b".repeat(80)), 2L);
+            assertEquals(2, segmentCount());
+
+            journal.acknowledge(first);
+            assertEquals(1, segmentCount());
+
+            journal.acknowledge(second);
+        }
+
+        // The segment still being written stays, but its watermark says there is nothing to replay
+        try (WebhookJournal journal = new WebhookJournal(directory, 64, false)) {
+            assertTrue(recover(journal).isEmpty());
+            assertEquals(0, segmentCount());
+        }
+    }
+
+    @Test
+    void recover_shouldStopAtTornRecord() throws IOException {
+        try (WebhookJournal journal = new WebhookJournal(directory, 1024, false)) {
+            recover(journal);
+            journal.append(bytes("complete"), 1L);
+        }
+        Path segment;
+        try (Stream<Path> files = Files.list(directory)) {
+            segment = files.findFirst().orElseThrow();
+        }
+        Files.write(segment, new byte[]{0, 0, 0, 42, 1, 2}, StandardOpenOption.APPEND);
+
+        try (WebhookJournal journal = new WebhookJournal(directory, 1024, false)) {
+            assertEquals(List.of("complete"), recover(journal).stream().map(e -> text(e.payload())).toList());
+        }
+    }
+
+    private static List<WebhookJournal.Entry> recover(WebhookJournal journal) throws IOException {
+        List<WebhookJournal.Entry> entries = new ArrayList<>();
+        journal.recover(entries::add);
+        return entries;
+    }
+
+    private long segmentCount() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.count();
+        }
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String text(byte[] value) {
+        return new String(value, StandardCharsets.UTF_8);
+    }
+}